@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.data;
+
+import com.google.gson.Gson;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares serialising a page of each response DTO with a Gson created per request, which uses
+ * reflection, against the shared {@link Json#GSON}, which uses hand-written TypeAdapters.
+ *
+ * <p>Run with {@code mvn -Pjmh test-compile exec:exec}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+  /** The number of items in each page, which is the default page size of the list endpoints. */
+  @Param({"50"})
+  public int pageSize;
+
+  private List<Match> matches;
+  private List<IsolateRequest> requests;
+  private List<VolunteerTimeSlot> timeSlots;
+
+  @Setup
+  public void setUp() {
+    matches = new ArrayList<>();
+    requests = new ArrayList<>();
+    timeSlots = new ArrayList<>();
+
+    final Instant start = Instant.parse("2020-08-01T10:00:00Z");
+    final String[] subjects = {"Groceries", "Prescription"};
+    final String[] details = {"Milk, bread and eggs", "Collect from the pharmacy on the high street"};
+    for (int i = 0; i < pageSize; i++) {
+      matches.add(
+          new Match("2020-08-01", start.toString(), start.plusSeconds(3600).toString(), "Ada",
+              "Lovelace", subjects, details));
+      requests.add(
+          new IsolateRequest("2020-08-01", "10:00", "11:00", subjects, details));
+      timeSlots.add(
+          new VolunteerTimeSlot(start, start.plusSeconds(3600), new Volunteer("volunteer" + i)));
+    }
+  }
+
+  @Benchmark
+  public String reflectiveMatches() {
+    return new Gson().toJson(matches);
+  }
+
+  @Benchmark
+  public String adaptedMatches() {
+    return Json.GSON.toJson(matches);
+  }
+
+  @Benchmark
+  public String reflectiveRequests() {
+    return new Gson().toJson(requests);
+  }
+
+  @Benchmark
+  public String adaptedRequests() {
+    return Json.GSON.toJson(requests);
+  }
+
+  @Benchmark
+  public String reflectiveTimeSlots() {
+    return new Gson().toJson(timeSlots);
+  }
+
+  @Benchmark
+  public String adaptedTimeSlots() {
+    return Json.GSON.toJson(timeSlots);
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A recurring weekly window in which a Volunteer is available, such as every Monday from 09:00 to
+ * 12:00 in the Volunteer's timezone, between two dates. Rules are stored instead of a
+ * VolunteerTimeSlot for every occurrence, and are only expanded into VolunteerTimeSlots for the date
+ * being matched.
+ */
+public class AvailabilityRule {
+  /** The Datastore entity name for AvailabilityRules. */
+  public static final String AVAILABILITY_RULE_TABLE_NAME = "AvailabilityRule";
+
+  private final Volunteer volunteer;
+  private final DayOfWeek dayOfWeek;
+  private final LocalTime startTime;
+  private final LocalTime endTime;
+  private final ZoneId timezone;
+  private final LocalDate validFrom;
+  private final LocalDate validUntil;
+
+  /**
+   * Construct an AvailabilityRule. If the end time is not after the start time, each window ends on
+   * the day after the one it starts on.
+   *
+   * @param volunteer The Volunteer who is available.
+   * @param dayOfWeek The day of the week on which each window starts.
+   * @param startTime The local time at which each window starts.
+   * @param endTime The local time at which each window ends.
+   * @param timezone The timezone in which the times are given.
+   * @param validFrom The first date on which the rule applies.
+   * @param validUntil The last date on which the rule applies, or null if it applies indefinitely.
+   */
+  public AvailabilityRule(
+          Volunteer volunteer,
+          DayOfWeek dayOfWeek,
+          LocalTime startTime,
+          LocalTime endTime,
+          ZoneId timezone,
+          LocalDate validFrom,
+          LocalDate validUntil) {
+    if (volunteer == null
+            || dayOfWeek == null
+            || startTime == null
+            || endTime == null
+            || timezone == null
+            || validFrom == null) {
+      throw new IllegalArgumentException("only validUntil may be null");
+    }
+    if (validUntil != null && validUntil.isBefore(validFrom)) {
+      throw new IllegalArgumentException("validUntil must not be before validFrom");
+    }
+    this.volunteer = volunteer;
+    this.dayOfWeek = dayOfWeek;
+    this.startTime = startTime;
+    this.endTime = endTime;
+    this.timezone = timezone;
+    this.validFrom = validFrom;
+    this.validUntil = validUntil;
+  }
+
+  /**
+   * Read an AvailabilityRule from an entity created by {@link #toEntity()}.
+   *
+   * @param entity The entity to read.
+   */
+  public AvailabilityRule(Entity entity) {
+    this(
+            new Volunteer((String) entity.getProperty("userId")),
+            DayOfWeek.valueOf((String) entity.getProperty("dayOfWeek")),
+            LocalTime.parse((String) entity.getProperty("startTime")),
+            LocalTime.parse((String) entity.getProperty("endTime")),
+            ZoneId.of((String) entity.getProperty("timezone")),
+            LocalDate.parse((String) entity.getProperty("validFrom")),
+            entity.getProperty("validUntil") == null
+                    ? null
+                    : LocalDate.parse((String) entity.getProperty("validUntil")));
+  }
+
+  public Volunteer getVolunteer() {
+    return volunteer;
+  }
+
+  public DayOfWeek getDayOfWeek() {
+    return dayOfWeek;
+  }
+
+  public LocalTime getStartTime() {
+    return startTime;
+  }
+
+  public LocalTime getEndTime() {
+    return endTime;
+  }
+
+  public ZoneId getTimezone() {
+    return timezone;
+  }
+
+  public LocalDate getValidFrom() {
+    return validFrom;
+  }
+
+  public LocalDate getValidUntil() {
+    return validUntil;
+  }
+
+  /**
+   * The key of a rule is derived from all of its fields, and its parent is the UserInfo entity of
+   * its Volunteer, so submitting the same rule twice stores it once.
+   *
+   * @return the key of the entity representing this rule.
+   */
+  public Key getKey() {
+    return KeyFactory.createKey(
+            volunteer.getUserInfoKey(),
+            AVAILABILITY_RULE_TABLE_NAME,
+            String.join(
+                    "/",
+                    dayOfWeek.name(),
+                    startTime.toString(),
+                    endTime.toString(),
+                    timezone.getId(),
+                    validFrom.toString(),
+                    Objects.toString(validUntil, "")));
+  }
+
+  /**
+   * Only the day of the week is indexed, as it is the only property the rules are queried by. See
+   * {@link IndexPolicy#AVAILABILITY_RULE}.
+   *
+   * @return an entity representing this rule, which has not been put into the datastore.
+   */
+  public Entity toEntity() {
+    final Entity entity = new Entity(getKey());
+    final IndexPolicy policy = IndexPolicy.AVAILABILITY_RULE;
+    policy.setProperty(entity, "userId", volunteer.getUserId());
+    policy.setProperty(entity, "dayOfWeek", dayOfWeek.name());
+    policy.setProperty(entity, "startTime", startTime.toString());
+    policy.setProperty(entity, "endTime", endTime.toString());
+    policy.setProperty(entity, "timezone", timezone.getId());
+    policy.setProperty(entity, "validFrom", validFrom.toString());
+    policy.setProperty(entity, "validUntil", validUntil == null ? null : validUntil.toString());
+    return entity;
+  }
+
+  /**
+   * @param date The date to check.
+   * @return whether this rule has a window starting on the provided date.
+   */
+  public boolean appliesTo(LocalDate date) {
+    return date.getDayOfWeek() == dayOfWeek
+            && !date.isBefore(validFrom)
+            && (validUntil == null || !date.isAfter(validUntil));
+  }
+
+  /**
+   * Expand this rule into the window it has on the provided date, in its timezone.
+   *
+   * @param date The date to expand this rule for, which this rule must apply to.
+   * @return the VolunteerTimeSlot for this rule's window on the provided date.
+   */
+  public VolunteerTimeSlot expand(LocalDate date) {
+    if (!appliesTo(date)) throw new IllegalArgumentException("rule does not apply to " + date);
+
+    final Instant start = ZonedDateTime.of(date, startTime, timezone).toInstant();
+    final LocalDate endDate = endTime.isAfter(startTime) ? date : date.plusDays(1);
+    final Instant end = ZonedDateTime.of(endDate, endTime, timezone).toInstant();
+    return new VolunteerTimeSlot(start, end, volunteer);
+  }
+
+  /** @return whether each window of this rule ends on the day after the one it starts on. */
+  public boolean isOvernight() {
+    return !endTime.isAfter(startTime);
+  }
+
+  /**
+   * Expand the part of this rule's overnight window, which started on the day before the provided
+   * date, that falls on the provided date: from midnight in this rule's timezone until the window
+   * ends.
+   *
+   * @param date The date to expand this rule for, whose previous day this rule must apply to.
+   * @return the VolunteerTimeSlot for the part of the window on the provided date, or null if the
+   *     window ends at midnight.
+   */
+  public VolunteerTimeSlot expandOvernight(LocalDate date) {
+    if (!isOvernight() || !appliesTo(date.minusDays(1))) {
+      throw new IllegalArgumentException("rule has no overnight window ending on " + date);
+    }
+    if (endTime.equals(LocalTime.MIDNIGHT)) return null;
+
+    final Instant start = date.atStartOfDay(timezone).toInstant();
+    final Instant end = ZonedDateTime.of(date, endTime, timezone).toInstant();
+    return new VolunteerTimeSlot(start, end, volunteer);
+  }
+
+  /**
+   * Fetch the rules of all Volunteers which apply to the provided date, and expand each into its
+   * window on that date. The overnight windows of the rules for the day before continue into the
+   * provided date, so the parts of those windows on the date are included as well. Only the rules
+   * for the date's day of the week and the day before are read.
+   *
+   * @param date The date to expand the rules for.
+   * @param datastore The DatastoreService to read the rules from.
+   * @return the windows of every rule which applies to the provided date.
+   */
+  public static List<VolunteerTimeSlot> expandAll(LocalDate date, DatastoreService datastore) {
+    final Query query =
+            new Query(AVAILABILITY_RULE_TABLE_NAME)
+                    .setFilter(
+                            new FilterPredicate(
+                                    "dayOfWeek",
+                                    FilterOperator.IN,
+                                    Arrays.asList(
+                                            date.getDayOfWeek().name(),
+                                            date.getDayOfWeek().minus(1).name())));
+
+    final List<VolunteerTimeSlot> timeSlots = new ArrayList<>();
+    for (Entity entity : datastore.prepare(query).asIterable()) {
+      final AvailabilityRule rule = new AvailabilityRule(entity);
+      if (rule.appliesTo(date)) {
+        timeSlots.add(rule.expand(date));
+      } else if (rule.isOvernight() && rule.appliesTo(date.minusDays(1))) {
+        final VolunteerTimeSlot overnight = rule.expandOvernight(date);
+        if (overnight != null) timeSlots.add(overnight);
+      }
+    }
+    return timeSlots;
+  }
+
+  /**
+   * Fetch all of the rules of a Volunteer.
+   *
+   * @param userId The id of the Volunteer.
+   * @param datastore The DatastoreService to read the rules from.
+   * @return the Volunteer's rules.
+   */
+  public static List<AvailabilityRule> getRulesByUserId(String userId, DatastoreService datastore) {
+    final Query query =
+            new Query(AVAILABILITY_RULE_TABLE_NAME)
+                    .setAncestor(new Volunteer(userId).getUserInfoKey());
+
+    final List<AvailabilityRule> rules = new ArrayList<>();
+    for (Entity entity : datastore.prepare(query).asIterable()) {
+      rules.add(new AvailabilityRule(entity));
+    }
+    return rules;
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.data;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultIterator;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves the tickets which were stored as root entities into the entity groups of their Isolates'
+ * UserInfo entities, and re-keys IsolateTimeSlots and VolunteerTimeSlots into the current
+ * {@link SlotPartitioning}, one batch at a time.
+ *
+ * <p>Each batch puts the re-keyed entities before deleting the old ones, and the new keys are
+ * derived from the old ones, so a batch which fails part way through can simply be run again.
+ */
+public class EntityGroupMigration {
+  /** The kinds of entity to be migrated, in the order they are migrated. */
+  public enum Step {
+    ISOLATE_TIME_SLOTS,
+    VOLUNTEER_TIME_SLOTS;
+
+    /** @return the step after this one, or null if this is the last step. */
+    public Step next() {
+      final Step[] steps = values();
+      return ordinal() + 1 < steps.length ? steps[ordinal() + 1] : null;
+    }
+  }
+
+  /** The number of entities read by each batch. */
+  public static final int BATCH_SIZE = 100;
+
+  /** The DatastoreService implementation that this EntityGroupMigration depends on. */
+  private final DatastoreService datastore;
+
+  /**
+   * Construct an EntityGroupMigration which depends on the provided DatastoreService.
+   * @param datastore The DatastoreService implementation to depend on.
+   */
+  public EntityGroupMigration(DatastoreService datastore) {
+    this.datastore = datastore;
+  }
+
+  /**
+   * Migrate the entities among the next batch of entities of a step which are not keyed as the
+   * current layout keys them.
+   *
+   * @param step The step whose entities are to be migrated.
+   * @param cursor The web-safe cursor returned by the previous batch of the step, or null for the
+   *     first batch.
+   * @return the web-safe cursor of the next batch of the step, or null if the step is complete.
+   */
+  public String migrateBatch(Step step, String cursor) {
+    final String kind =
+            step == Step.ISOLATE_TIME_SLOTS
+                    ? IsolateTimeSlot.ISOLATE_TIME_SLOT_TABLE_NAME
+                    : VolunteerTimeSlot.VOLUNTEER_TIMESLOT_TABLE_NAME;
+
+    final FetchOptions fetchOptions = FetchOptions.Builder.withLimit(BATCH_SIZE);
+    if (cursor != null) fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+
+    /* There is no filter for entities with outdated keys, so the kind is scanned and migrated
+     * entities are skipped. */
+    final QueryResultIterator<Entity> entities =
+            datastore.prepare(new Query(kind)).asQueryResultIterator(fetchOptions);
+    final List<Entity> batch = new ArrayList<>();
+    int count = 0;
+    while (entities.hasNext()) {
+      batch.add(entities.next());
+      count++;
+    }
+
+    if (!batch.isEmpty()) {
+      if (step == Step.ISOLATE_TIME_SLOTS) {
+        migrateIsolateTimeSlots(batch);
+      } else {
+        migrateVolunteerTimeSlots(batch);
+      }
+    }
+
+    return Page.getNextCursor(entities, count, BATCH_SIZE);
+  }
+
+  /**
+   * Move root tickets into their Isolates' entity groups, keeping their ids, and re-key
+   * IsolateTimeSlots as {@link IsolateTimeSlot#createKey(Isolate, LocalDate, long)} keys them. The
+   * tickets are read with a single batched get.
+   *
+   * @param timeSlots The IsolateTimeSlot entities, of which those already keyed correctly, with
+   *     tickets in their Isolate's entity group, are skipped.
+   */
+  private void migrateIsolateTimeSlots(List<Entity> timeSlots) {
+    final List<Key> ticketKeys = new ArrayList<>();
+    for (Entity timeSlot : timeSlots) {
+      ticketKeys.add(KeyFactory.stringToKey((String) timeSlot.getProperty("ticketKey")));
+    }
+
+    final List<Entity> outdated = new ArrayList<>();
+    final List<Key> rootTicketKeys = new ArrayList<>();
+    for (int i = 0; i < timeSlots.size(); i++) {
+      final Entity timeSlot = timeSlots.get(i);
+      final Key ticketKey = ticketKeys.get(i);
+      final Isolate isolate = new Isolate((String) timeSlot.getProperty("isolateId"));
+      final LocalDate date = LocalDate.parse((String) timeSlot.getProperty("date"));
+      if (ticketKey.getParent() != null
+              && timeSlot.getKey().equals(IsolateTimeSlot.createKey(isolate, date, ticketKey.getId()))) {
+        continue;
+      }
+      outdated.add(timeSlot);
+      if (ticketKey.getParent() == null) rootTicketKeys.add(ticketKey);
+    }
+    if (outdated.isEmpty()) return;
+
+    final Map<Key, Entity> tickets = datastore.get(rootTicketKeys);
+
+    final List<Entity> migrated = new ArrayList<>();
+    final List<Key> obsolete = new ArrayList<>();
+    for (Entity timeSlot : outdated) {
+      final Key ticketKey = KeyFactory.stringToKey((String) timeSlot.getProperty("ticketKey"));
+      final Isolate isolate = new Isolate((String) timeSlot.getProperty("isolateId"));
+      final LocalDate date = LocalDate.parse((String) timeSlot.getProperty("date"));
+      final Key newTicketKey =
+              ticketKey.getParent() == null
+                      ? KeyFactory.createKey(
+                              isolate.getUserInfoKey(), ticketKey.getKind(), ticketKey.getId())
+                      : ticketKey;
+
+      final Entity ticket = tickets.get(ticketKey);
+      if (ticket != null) {
+        final Entity newTicket = new Entity(newTicketKey);
+        newTicket.setPropertiesFrom(ticket);
+        migrated.add(newTicket);
+        obsolete.add(ticketKey);
+      }
+
+      final Entity newTimeSlot =
+              new Entity(IsolateTimeSlot.createKey(isolate, date, newTicketKey.getId()));
+      newTimeSlot.setPropertiesFrom(timeSlot);
+      newTimeSlot.setProperty("ticketKey", KeyFactory.keyToString(newTicketKey));
+      migrated.add(newTimeSlot);
+      obsolete.add(timeSlot.getKey());
+    }
+
+    datastore.put(migrated);
+    datastore.delete(obsolete);
+  }
+
+  /**
+   * Re-key VolunteerTimeSlots as {@link VolunteerTimeSlot#getKey()} keys them. Duplicate slots are
+   * stored once.
+   *
+   * @param timeSlots The VolunteerTimeSlot entities, of which those already keyed correctly are
+   *     skipped.
+   */
+  private void migrateVolunteerTimeSlots(List<Entity> timeSlots) {
+    final List<Entity> migrated = new ArrayList<>();
+    final List<Key> obsolete = new ArrayList<>();
+    for (Entity timeSlot : timeSlots) {
+      final Entity newTimeSlot = new VolunteerTimeSlot(timeSlot).toEntity();
+      if (newTimeSlot.getKey().equals(timeSlot.getKey())) continue;
+      migrated.add(newTimeSlot);
+      obsolete.add(timeSlot.getKey());
+    }
+    if (migrated.isEmpty()) return;
+
+    datastore.put(migrated);
+    datastore.delete(obsolete);
+  }
+}
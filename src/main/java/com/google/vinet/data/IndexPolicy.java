@@ -0,0 +1,101 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.data;
+
+import com.google.appengine.api.datastore.Entity;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Which properties of a kind are indexed. Every indexed property costs index writes on each put,
+ * so only the properties which are filtered or sorted on by some query are indexed, and all others
+ * are written unindexed.
+ *
+ * <p>A property which starts being queried must be added to its kind's policy, and existing
+ * entities rewritten, before the query can find them.
+ */
+public final class IndexPolicy {
+  /** UserInfo entities are looked up by their user id. */
+  public static final IndexPolicy USER_INFO =
+          new IndexPolicy(RegisteredUser.USER_TABLE_NAME, "userId");
+  /** Tickets are otherwise read by key, but may be filtered on their subjects. */
+  public static final IndexPolicy TICKET =
+          new IndexPolicy(Isolate.TICKET_TABLE_NAME, Ticket.SUBJECTS_PROPERTY);
+  /** IsolateTimeSlots are queried by their Isolate, and by and sorted on their date. */
+  public static final IndexPolicy ISOLATE_TIME_SLOT =
+          new IndexPolicy(IsolateTimeSlot.ISOLATE_TIME_SLOT_TABLE_NAME, "isolateId", "date");
+  /** VolunteerTimeSlots are queried by their Volunteer, and by their date. */
+  public static final IndexPolicy VOLUNTEER_TIME_SLOT =
+          new IndexPolicy(VolunteerTimeSlot.VOLUNTEER_TIMESLOT_TABLE_NAME, "userId", "date");
+  /** Matches are queried by either of their users, and by their date. */
+  public static final IndexPolicy MATCH =
+          new IndexPolicy(MatchingRunner.MATCHING_TABLE_NAME, "isolateId", "volunteerId", "date");
+  /** AvailabilityRules are read by their Volunteer's entity group, and queried by weekday. */
+  public static final IndexPolicy AVAILABILITY_RULE =
+          new IndexPolicy(AvailabilityRule.AVAILABILITY_RULE_TABLE_NAME, "dayOfWeek");
+  /** MatchingRuns are listed, and expired, by the time they started. */
+  public static final IndexPolicy MATCHING_RUN =
+          new IndexPolicy(MatchingRun.MATCHING_RUN_TABLE_NAME, "started");
+
+  private final String kind;
+  private final Set<String> indexedProperties;
+
+  /**
+   * @param kind The kind the policy applies to.
+   * @param indexedProperties The names of the properties of the kind which are indexed.
+   */
+  private IndexPolicy(String kind, String... indexedProperties) {
+    this.kind = kind;
+    this.indexedProperties = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(indexedProperties)));
+  }
+
+  /** @return the kind this policy applies to. */
+  public String getKind() {
+    return kind;
+  }
+
+  /**
+   * @param property The name of a property of this policy's kind.
+   * @return whether the property is indexed.
+   */
+  public boolean isIndexed(String property) {
+    return indexedProperties.contains(property);
+  }
+
+  /**
+   * Set a property of an entity, indexed only if this policy indexes it.
+   *
+   * @param entity An entity of this policy's kind.
+   * @param property The name of the property.
+   * @param value The value of the property.
+   * @throws IllegalArgumentException If the entity is not of this policy's kind.
+   */
+  public void setProperty(Entity entity, String property, Object value) {
+    if (!kind.equals(entity.getKind())) {
+      throw new IllegalArgumentException(
+              "index policy of " + kind + " cannot be applied to " + entity.getKind());
+    }
+    if (isIndexed(property)) {
+      entity.setIndexedProperty(property, value);
+    } else {
+      entity.setUnindexedProperty(property, value);
+    }
+  }
+}
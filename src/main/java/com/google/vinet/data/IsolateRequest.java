@@ -0,0 +1,53 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.data;
+
+/**
+ * To represent an Isolate's request, with the subjects and details of its ticket, for displaying to
+ * the Isolate.
+ */
+public class IsolateRequest {
+  private final String date, start, end;
+  private final String[] subjects, details;
+
+  public IsolateRequest(String date, String start, String end, String[] subjects, String[] details) {
+    this.date = date;
+    this.start = start;
+    this.end = end;
+    this.subjects = subjects;
+    this.details = details;
+  }
+
+  public String getDate() {
+    return date;
+  }
+
+  public String getStart() {
+    return start;
+  }
+
+  public String getEnd() {
+    return end;
+  }
+
+  public String[] getSubjects() {
+    return subjects;
+  }
+
+  public String[] getDetails() {
+    return details;
+  }
+}
@@ -161,13 +161,14 @@ public class IsolateTimeSlot extends TimeSlot implements Datastoreable {
 
   /**
    * Create a PreparedQuery for Datastore that will return the IsolateTimeSlots associated with the provided userId.
+   * In the default {@link SlotPartitioning}, the IsolateTimeSlots are read from the Isolate's entity group, so the
+   * results are strongly consistent.
    * @param userId The ID of the Isolate who's TimeSlots will be returned by the PreparedQuery.
    * @return A PreparedQuery which, when executed, will return the IsolateTimeSlots linked to the provided Isolate's userID.
    */
   private static PreparedQuery queryTimeSlots(String userId) {
     Query query =
-        new Query(ISOLATE_TIME_SLOT_TABLE_NAME)
-            .setFilter(new Query.FilterPredicate("userId", Query.FilterOperator.EQUAL, userId));
+        SlotPartitioning.current().queryByUser(ISOLATE_TIME_SLOT_TABLE_NAME, "isolateId", new Isolate(userId));
 
     return datastore.prepare(query);
   }
@@ -175,14 +176,45 @@ public class IsolateTimeSlot extends TimeSlot implements Datastoreable {
   /** Put this IsolateTimeSlot into Datastore. */
   @Override
   public void toDatastore() {
-    /* TODO: Check that all instance variables are non-null before posting to Datastore. */
-    final Entity entity = new Entity(ISOLATE_TIME_SLOT_TABLE_NAME);
-    entity.setProperty("ticketKey", KeyFactory.keyToString(ticket));
-    entity.setProperty("isolateId", this.getIsolate().getUserId());
-    entity.setProperty("date", date.toString());
-    entity.setProperty("startTime", start.toString());
-    entity.setProperty("endTime", end.toString());
+    datastore.put(toEntity());
+  }
+
+  /**
+   * The key of an IsolateTimeSlot is identified by the id of its ticket, as each ticket belongs to
+   * exactly one IsolateTimeSlot, and is laid out by the current {@link SlotPartitioning}. In the
+   * default layout, the Isolate's TimeSlots and tickets are all in one entity group.
+   * @return The key of the entity representing this IsolateTimeSlot.
+   */
+  public Key getKey() {
+    return createKey(getIsolate(), date, ticket.getId());
+  }
+
+  /**
+   * Create the key of an IsolateTimeSlot in the current {@link SlotPartitioning}.
+   * @param isolate The Isolate whose TimeSlot it is.
+   * @param date The date on which the TimeSlot is scheduled.
+   * @param ticketId The id of the ticket of the TimeSlot.
+   * @return The key of the IsolateTimeSlot.
+   */
+  public static Key createKey(Isolate isolate, LocalDate date, long ticketId) {
+    return SlotPartitioning.current().createKey(ISOLATE_TIME_SLOT_TABLE_NAME, isolate, date, ticketId);
+  }
 
-    datastore.put(entity);
+  /**
+   * Create the Datastore entity for this IsolateTimeSlot, without putting it into Datastore, so
+   * that it can be put together with other entities. Only the properties the slots are queried by
+   * are indexed. See {@link IndexPolicy#ISOLATE_TIME_SLOT}.
+   * @return The entity representing this IsolateTimeSlot.
+   */
+  public Entity toEntity() {
+    /* TODO: Check that all instance variables are non-null before posting to Datastore. */
+    final Entity entity = new Entity(getKey());
+    final IndexPolicy policy = IndexPolicy.ISOLATE_TIME_SLOT;
+    policy.setProperty(entity, "ticketKey", KeyFactory.keyToString(ticket));
+    policy.setProperty(entity, "isolateId", this.getIsolate().getUserId());
+    policy.setProperty(entity, "date", date.toString());
+    policy.setProperty(entity, "startTime", start.toString());
+    policy.setProperty(entity, "endTime", end.toString());
+    return entity;
   }
 }
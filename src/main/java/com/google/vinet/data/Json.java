@@ -0,0 +1,287 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.data;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Gson shared by all servlets. Gson instances are thread-safe, so there is no need to create
+ * one per request.
+ *
+ * <p>Every response DTO is written by a hand-written TypeAdapter, rather than by reflection. The
+ * adapters write the same JSON as reflection would, except that a VolunteerTimeSlot is written
+ * without the state of the matching algorithm, which is not part of a Volunteer's availability.
+ */
+public final class Json {
+  /** The shared Gson. */
+  public static final Gson GSON =
+      new GsonBuilder()
+          .registerTypeAdapter(String[].class, new StringArrayAdapter().nullSafe())
+          .registerTypeAdapter(Instant.class, new InstantAdapter().nullSafe())
+          .registerTypeAdapter(Match.class, new MatchAdapter().nullSafe())
+          .registerTypeAdapter(IsolateRequest.class, new IsolateRequestAdapter().nullSafe())
+          .registerTypeAdapter(VolunteerTimeSlot.class, new VolunteerTimeSlotAdapter().nullSafe())
+          .create();
+
+  private Json() {}
+
+  /**
+   * Parse the subjects or details of a ticket, which are stored as a JSON array.
+   *
+   * @param json The stored JSON array, which may be null.
+   * @return The parsed values, or an empty array if the JSON was null.
+   */
+  public static String[] parseStringArray(String json) {
+    if (json == null) return new String[] {};
+    return GSON.fromJson(json, String[].class);
+  }
+
+  /** Write a String array as a JSON array, including any null members. */
+  private static void writeStringArray(JsonWriter out, String[] values) throws IOException {
+    out.beginArray();
+    for (String value : values) {
+      out.value(value);
+    }
+    out.endArray();
+  }
+
+  /** Read a JSON array of strings, which may include nulls. */
+  private static String[] readStringArray(JsonReader in) throws IOException {
+    final List<String> values = new ArrayList<>();
+    in.beginArray();
+    while (in.hasNext()) {
+      values.add(readNullableString(in));
+    }
+    in.endArray();
+    return values.toArray(new String[0]);
+  }
+
+  private static String readNullableString(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    return in.nextString();
+  }
+
+  /** Write a String property, omitting it if it is null, as reflection does. */
+  private static void writeProperty(JsonWriter out, String name, String value)
+      throws IOException {
+    if (value == null) return;
+    out.name(name).value(value);
+  }
+
+  /** Write a String array property, omitting it if it is null, as reflection does. */
+  private static void writeProperty(JsonWriter out, String name, String[] values)
+      throws IOException {
+    if (values == null) return;
+    out.name(name);
+    writeStringArray(out, values);
+  }
+
+  /** Write an Instant property in the form reflection writes it, as its seconds and nanos. */
+  private static void writeProperty(JsonWriter out, String name, Instant instant)
+      throws IOException {
+    if (instant == null) return;
+    out.name(name);
+    writeInstant(out, instant);
+  }
+
+  private static void writeInstant(JsonWriter out, Instant instant) throws IOException {
+    out.beginObject();
+    out.name("seconds").value(instant.getEpochSecond());
+    out.name("nanos").value(instant.getNano());
+    out.endObject();
+  }
+
+  private static Instant readInstant(JsonReader in) throws IOException {
+    long seconds = 0;
+    int nanos = 0;
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case "seconds":
+          seconds = in.nextLong();
+          break;
+        case "nanos":
+          nanos = in.nextInt();
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+    return Instant.ofEpochSecond(seconds, nanos);
+  }
+
+  private static class StringArrayAdapter extends TypeAdapter<String[]> {
+    @Override
+    public void write(JsonWriter out, String[] values) throws IOException {
+      writeStringArray(out, values);
+    }
+
+    @Override
+    public String[] read(JsonReader in) throws IOException {
+      return readStringArray(in);
+    }
+  }
+
+  private static class InstantAdapter extends TypeAdapter<Instant> {
+    @Override
+    public void write(JsonWriter out, Instant instant) throws IOException {
+      writeInstant(out, instant);
+    }
+
+    @Override
+    public Instant read(JsonReader in) throws IOException {
+      return readInstant(in);
+    }
+  }
+
+  private static class MatchAdapter extends TypeAdapter<Match> {
+    @Override
+    public void write(JsonWriter out, Match match) throws IOException {
+      out.beginObject();
+      writeProperty(out, "date", match.getDate());
+      writeProperty(out, "start", match.getStart());
+      writeProperty(out, "end", match.getEnd());
+      writeProperty(out, "firstName", match.getFirstName());
+      writeProperty(out, "lastName", match.getLastName());
+      writeProperty(out, "subjects", match.getSubjects());
+      writeProperty(out, "details", match.getDetails());
+      out.endObject();
+    }
+
+    @Override
+    public Match read(JsonReader in) throws IOException {
+      String date = null, start = null, end = null, firstName = null, lastName = null;
+      String[] subjects = null, details = null;
+      in.beginObject();
+      while (in.hasNext()) {
+        switch (in.nextName()) {
+          case "date":
+            date = readNullableString(in);
+            break;
+          case "start":
+            start = readNullableString(in);
+            break;
+          case "end":
+            end = readNullableString(in);
+            break;
+          case "firstName":
+            firstName = readNullableString(in);
+            break;
+          case "lastName":
+            lastName = readNullableString(in);
+            break;
+          case "subjects":
+            subjects = readStringArray(in);
+            break;
+          case "details":
+            details = readStringArray(in);
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return new Match(date, start, end, firstName, lastName, subjects, details);
+    }
+  }
+
+  private static class IsolateRequestAdapter extends TypeAdapter<IsolateRequest> {
+    @Override
+    public void write(JsonWriter out, IsolateRequest request) throws IOException {
+      out.beginObject();
+      writeProperty(out, "date", request.getDate());
+      writeProperty(out, "start", request.getStart());
+      writeProperty(out, "end", request.getEnd());
+      writeProperty(out, "subjects", request.getSubjects());
+      writeProperty(out, "details", request.getDetails());
+      out.endObject();
+    }
+
+    @Override
+    public IsolateRequest read(JsonReader in) throws IOException {
+      String date = null, start = null, end = null;
+      String[] subjects = null, details = null;
+      in.beginObject();
+      while (in.hasNext()) {
+        switch (in.nextName()) {
+          case "date":
+            date = readNullableString(in);
+            break;
+          case "start":
+            start = readNullableString(in);
+            break;
+          case "end":
+            end = readNullableString(in);
+            break;
+          case "subjects":
+            subjects = readStringArray(in);
+            break;
+          case "details":
+            details = readStringArray(in);
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return new IsolateRequest(date, start, end, subjects, details);
+    }
+  }
+
+  private static class VolunteerTimeSlotAdapter extends TypeAdapter<VolunteerTimeSlot> {
+    @Override
+    public void write(JsonWriter out, VolunteerTimeSlot timeSlot) throws IOException {
+      out.beginObject();
+      writeProperty(out, "start", timeSlot.getStart());
+      writeProperty(out, "end", timeSlot.getEnd());
+      out.endObject();
+    }
+
+    @Override
+    public VolunteerTimeSlot read(JsonReader in) throws IOException {
+      Instant start = null, end = null;
+      in.beginObject();
+      while (in.hasNext()) {
+        switch (in.nextName()) {
+          case "start":
+            start = readInstant(in);
+            break;
+          case "end":
+            end = readInstant(in);
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return new VolunteerTimeSlot(start, end, null);
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.data;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+import java.time.Duration;
+
+/**
+ * Memcache-backed cache of the JSON listings served to each user, shared between instances.
+ *
+ * <p>Each listing has a version, which is part of the key of every cached entry of that listing.
+ * Changes which affect a single user's listing remove that user's entry with
+ * {@link #invalidate(Listing, String)}. Changes which affect many users, such as a run of the
+ * matching, move the listing to a new version with {@link #invalidateAll(Listing)}, which leaves
+ * every entry of the previous version unreachable until it expires.
+ *
+ * <p>A listing built from Datastore before a user's listing was invalidated may only be cached after
+ * the invalidation. To keep such a stale listing from being served until it expires, entries are
+ * only added if absent, and {@link #invalidate(Listing, String)} blocks adds of the user's entry for
+ * {@link #INVALIDATION_HOLD}.
+ *
+ * <p>Listings are built with queries which are eventually consistent, so for
+ * {@link #SETTLE_TIME} after {@link #invalidateAll(Listing)}, a listing built may not yet include the
+ * changes that caused it. Listings are not cached during that time, as they would otherwise be
+ * served until they expire.
+ *
+ * <p>Memcache is an optimisation, so its failures are logged and otherwise ignored. A failed read
+ * is treated as a miss.
+ */
+public class ListingCache {
+  /** The listings that can be cached. */
+  public enum Listing {
+    /** The matches of a user, served by the match fetcher. */
+    MATCHES,
+    /** The requests of an isolate, served by the isolate request servlet. */
+    REQUESTS
+  }
+
+  /** How long an entry is cached, as a bound on how long a missed invalidation can go unnoticed. */
+  public static final Duration TTL = Duration.ofHours(1);
+  /** How long after a user's listing is invalidated before it is cached again. */
+  public static final Duration INVALIDATION_HOLD = Duration.ofSeconds(10);
+  /** How long after a listing is invalidated for all users before it is cached again. */
+  public static final Duration SETTLE_TIME = Duration.ofSeconds(30);
+  /** The memcache namespace of the default cache. */
+  private static final String NAMESPACE = "Listing";
+
+  /** The cache shared by all servlets of this instance. */
+  private static final ListingCache DEFAULT =
+      new ListingCache(MemcacheServiceFactory.getMemcacheService(NAMESPACE));
+
+  /** The MemcacheService implementation that this ListingCache depends on. */
+  private final MemcacheService memcache;
+
+  /**
+   * @param memcache The MemcacheService implementation to depend on.
+   */
+  public ListingCache(MemcacheService memcache) {
+    this.memcache = memcache;
+  }
+
+  /** @return the cache shared by all servlets of this instance. */
+  public static ListingCache getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * @param listing The listing to get.
+   * @param userId The id of the user whose listing should be returned.
+   * @return The cached JSON listing, or null if it is not cached.
+   */
+  public String get(Listing listing, String userId) {
+    try {
+      return (String) memcache.get(createKey(listing, userId));
+    } catch (RuntimeException exception) {
+      return null;
+    }
+  }
+
+  /**
+   * @param listing The listing to cache.
+   * @param userId The id of the user whose listing is provided.
+   * @param json The JSON listing to cache.
+   */
+  public void put(Listing listing, String userId, String json) {
+    try {
+      if (memcache.contains(getSettlingKey(listing))) return;
+      memcache.put(
+          createKey(listing, userId),
+          json,
+          Expiration.byDeltaSeconds((int) TTL.getSeconds()),
+          SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    } catch (RuntimeException exception) {
+      System.err.println("Failed to cache listing: " + exception);
+    }
+  }
+
+  /**
+   * Remove a user's cached listing, so that it is next built from Datastore, and keep listings built
+   * before this call from being cached for {@link #INVALIDATION_HOLD}.
+   * @param listing The listing to remove.
+   * @param userId The id of the user whose listing should be removed.
+   */
+  public void invalidate(Listing listing, String userId) {
+    try {
+      memcache.delete(createKey(listing, userId), INVALIDATION_HOLD.toMillis());
+    } catch (RuntimeException exception) {
+      System.err.println("Failed to invalidate listing: " + exception);
+    }
+  }
+
+  /**
+   * Move a listing to a new version, so that every user's listing is next built from Datastore.
+   * @param listing The listing to invalidate.
+   */
+  public void invalidateAll(Listing listing) {
+    try {
+      /* The listing settles before its version moves, so no entry of the new version is cached
+       * before it has settled. */
+      memcache.put(
+          getSettlingKey(listing),
+          System.currentTimeMillis(),
+          Expiration.byDeltaMillis((int) SETTLE_TIME.toMillis()));
+      memcache.increment(getVersionKey(listing), 1, System.currentTimeMillis());
+    } catch (RuntimeException exception) {
+      System.err.println("Failed to invalidate listings: " + exception);
+    }
+  }
+
+  private String createKey(Listing listing, String userId) {
+    return listing + "/" + getVersion(listing) + "/" + userId;
+  }
+
+  /**
+   * Get the current version of a listing. If the version has been evicted from memcache, a new one
+   * is started from the current time, so that entries of the evicted version are not reused.
+   */
+  private Object getVersion(Listing listing) {
+    final String versionKey = getVersionKey(listing);
+    Object version = memcache.get(versionKey);
+    if (version == null) {
+      memcache.put(versionKey, System.currentTimeMillis(), null, SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+      version = memcache.get(versionKey);
+    }
+    return version;
+  }
+
+  private static String getVersionKey(Listing listing) {
+    return listing + "/version";
+  }
+
+  /** @return the key which is present while a listing is settling after being invalidated. */
+  private static String getSettlingKey(Listing listing) {
+    return listing + "/settling";
+  }
+}
@@ -16,20 +16,15 @@
 
 package com.google.vinet.data;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.gson.Gson;
+import com.google.appengine.api.datastore.Text;
+
+import java.util.List;
 
 /**
  * To represent a match for displaying to the user
  */
 public class Match {
-  private static final DatastoreService datastoreService =
-          DatastoreServiceFactory.getDatastoreService();
-
   private final String date, start, end, firstName, lastName;
   private final String[] subjects, details;
 
@@ -50,40 +45,57 @@ public class Match {
     this.details = details;
   }
 
+  /**
+   * Construct a Match from a match entity, as seen by one of its users.
+   *
+   * <p>Match entities written by the {@link MatchingRunner} contain the names of both users and the
+   * contents of the ticket, so are read without any further Datastore access. Match entities which
+   * were stored before matches contained this information must be completed by a
+   * {@link MatchEnricher}.
+   *
+   * @param matchingEntity The match entity.
+   * @param isVolunteer Whether the user viewing the match is its volunteer, in which case the names
+   *     of the isolate are used, rather than the names of the volunteer.
+   */
   public Match(Entity matchingEntity, boolean isVolunteer) {
     date = (String) matchingEntity.getProperty("date");
     start = (String) matchingEntity.getProperty("start");
     end = (String) matchingEntity.getProperty("end");
 
-    String isolateId = (String) matchingEntity.getProperty("isolateId");
-    String volunteerId = (String) matchingEntity.getProperty("volunteerId");
-    String ticketKey = (String) matchingEntity.getProperty("ticketKey");
-
-    // Get opposing-user's name
-    String userId = isVolunteer ? isolateId : volunteerId;
-
-    Entity user =
-            datastoreService
-                    .prepare(
-                            new Query("UserInfo")
-                                    .setFilter(
-                                            new Query.FilterPredicate("userId", Query.FilterOperator.EQUAL, userId)))
-                    .asSingleEntity();
+    if (!isDenormalised(matchingEntity)) {
+      throw new IllegalArgumentException(
+              "match entity must be denormalised, use a MatchEnricher to complete it");
+    }
 
-    firstName = (String) user.getProperty("firstname");
-    lastName = (String) user.getProperty("lastname");
-
-    // Get ticket
-    PreparedQuery query =
-            datastoreService.prepare(
-                    new Query("Ticket")
-                            .setFilter(
-                                    new Query.FilterPredicate("isolateId", Query.FilterOperator.EQUAL, isolateId)));
+    final String otherUser = isVolunteer ? "isolate" : "volunteer";
+    firstName = (String) matchingEntity.getProperty(otherUser + "FirstName");
+    lastName = (String) matchingEntity.getProperty(otherUser + "LastName");
+    subjects = fromTextList(matchingEntity.getProperty("subjects"));
+    details = fromTextList(matchingEntity.getProperty("details"));
+  }
 
-    Entity ticket = query.asSingleEntity();
+  /**
+   * @param matchingEntity A match entity.
+   * @return true, if the match entity contains the names of its users and the contents of its
+   *     ticket.
+   */
+  public static boolean isDenormalised(Entity matchingEntity) {
+    return matchingEntity.hasProperty("isolateFirstName");
+  }
 
-    subjects = new Gson().fromJson((String) ticket.getProperty("subjects"), String[].class);
-    details = new Gson().fromJson((String) ticket.getProperty("details"), String[].class);
+  /**
+   * Convert a list of Text, as stored in a match entity, to an array of strings. Datastore does not
+   * store empty lists, so a null value is converted to an empty array.
+   */
+  @SuppressWarnings("unchecked")
+  private static String[] fromTextList(Object value) {
+    if (value == null) return new String[] {};
+    final List<Text> texts = (List<Text>) value;
+    final String[] strings = new String[texts.size()];
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = texts.get(i).getValue();
+    }
+    return strings;
   }
 
   public String getDate() {
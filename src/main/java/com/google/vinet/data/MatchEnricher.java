@@ -0,0 +1,155 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Converts match entities into Matches for display. Match entities which do not contain the names
+ * of their users and the contents of their ticket are completed from the UserInfo and Ticket
+ * entities they reference, which are fetched with a single batched get per call to
+ * {@link #enrich(Iterable, boolean)}.
+ *
+ * <p>The decoded names and tickets are kept for the lifetime of the MatchEnricher, so it should be
+ * created once per request, and discarded at the end of it.
+ */
+public class MatchEnricher {
+  /** The largest number of match entities that should be enriched together. */
+  public static final int BATCH_SIZE = 50;
+
+  /** The DatastoreService implementation that this MatchEnricher depends on. */
+  private final DatastoreService datastore;
+  /** The first and last names of the users resolved so far, keyed by their UserInfo key. */
+  private final Map<Key, String[]> names = new HashMap<>();
+  /** The subjects and details of the tickets resolved so far, keyed by their ticket key. */
+  private final Map<Key, String[][]> tickets = new HashMap<>();
+
+  /**
+   * @param datastore The DatastoreService implementation to depend on.
+   */
+  public MatchEnricher(DatastoreService datastore) {
+    this.datastore = datastore;
+  }
+
+  /**
+   * Convert match entities into Matches, as seen by one of their users.
+   *
+   * @param matchEntities The match entities.
+   * @param isVolunteer Whether the user viewing the matches is their volunteer, in which case the
+   *     names of the isolates are used, rather than the names of the volunteers.
+   * @return The Matches, in the order of the provided entities.
+   */
+  public List<Match> enrich(Iterable<Entity> matchEntities, boolean isVolunteer) {
+    final Set<Key> missingKeys = new HashSet<>();
+    for (Entity matchEntity : matchEntities) {
+      if (Match.isDenormalised(matchEntity)) continue;
+
+      final Key userKey = getOtherUserKey(matchEntity, isVolunteer);
+      if (!names.containsKey(userKey)) missingKeys.add(userKey);
+
+      final Key ticketKey = getTicketKey(matchEntity);
+      if (ticketKey != null && !tickets.containsKey(ticketKey)) missingKeys.add(ticketKey);
+    }
+
+    if (!missingKeys.isEmpty()) {
+      final Map<Key, Entity> entities = datastore.get(missingKeys);
+      for (Key key : missingKeys) {
+        final Entity entity = entities.get(key);
+        if (key.getKind().equals(RegisteredUser.USER_TABLE_NAME)) {
+          names.put(key, decodeNames(entity));
+        } else {
+          tickets.put(key, decodeTicket(entity));
+        }
+      }
+    }
+
+    final List<Match> matches = new ArrayList<>();
+    for (Entity matchEntity : matchEntities) {
+      if (Match.isDenormalised(matchEntity)) {
+        matches.add(new Match(matchEntity, isVolunteer));
+        continue;
+      }
+
+      final String[] name = names.get(getOtherUserKey(matchEntity, isVolunteer));
+      final Key ticketKey = getTicketKey(matchEntity);
+      final String[][] ticket = ticketKey == null ? decodeTicket(null) : tickets.get(ticketKey);
+      matches.add(
+          new Match(
+              (String) matchEntity.getProperty("date"),
+              (String) matchEntity.getProperty("start"),
+              (String) matchEntity.getProperty("end"),
+              name[0],
+              name[1],
+              ticket[0],
+              ticket[1]));
+    }
+    return matches;
+  }
+
+  /**
+   * @return the key of the UserInfo entity of the user on the other side of the match from the
+   *     viewing user.
+   */
+  private static Key getOtherUserKey(Entity matchEntity, boolean isVolunteer) {
+    final String userId =
+        (String) matchEntity.getProperty(isVolunteer ? "isolateId" : "volunteerId");
+    return KeyFactory.createKey(RegisteredUser.USER_TABLE_NAME, userId);
+  }
+
+  /**
+   * @return the key of the ticket of the match, or null if the match does not reference a ticket.
+   */
+  private static Key getTicketKey(Entity matchEntity) {
+    /* Older matches stored the ticket under a different property name. */
+    Object ticket = matchEntity.getProperty("ticket");
+    if (ticket == null) ticket = matchEntity.getProperty("ticketKey");
+    if (ticket == null) return null;
+    return ticket instanceof Key ? (Key) ticket : KeyFactory.stringToKey((String) ticket);
+  }
+
+  /**
+   * @param user A UserInfo entity, or null if the user no longer exists.
+   * @return the first and last name of the user, which are blank if the user does not exist.
+   */
+  private static String[] decodeNames(Entity user) {
+    if (user == null) return new String[] {"", ""};
+    return new String[] {
+      (String) user.getProperty("firstname"), (String) user.getProperty("lastname")
+    };
+  }
+
+  /**
+   * @param ticket A Ticket entity, or null if the ticket no longer exists.
+   * @return the subjects and details of the ticket, which are empty if the ticket does not exist.
+   */
+  private static String[][] decodeTicket(Entity ticket) {
+    if (ticket == null) return new String[][] {{}, {}};
+    return new String[][] {
+      Ticket.getSubjects(ticket), Ticket.getDetails(ticket)
+    };
+  }
+}
@@ -16,6 +16,8 @@
 
 package com.google.vinet.data;
 
+import com.google.vinet.metrics.Profiling;
+
 import java.time.Instant;
 import java.time.LocalDate;
 import java.util.LinkedList;
@@ -43,15 +45,102 @@ public class MatchingAlgorithm {
    */
   public static Set<IsolateTimeSlot> matchTimeSlots(
           Set<IsolateTimeSlot> isolateTimeSlots, Set<VolunteerTimeSlot> volunteerTimeSlots) {
+    buildGraph(isolateTimeSlots, volunteerTimeSlots);
+    return findMatching(isolateTimeSlots);
+  }
+
+  /**
+   * Build the bipartite graph on which the matching is found, by adding an edge between every pair
+   * of time slots that can be matched. This is the first step of {@link #matchTimeSlots(Set, Set)}.
+   *
+   * @param isolateTimeSlots   The set of all requested time slots for help
+   * @param volunteerTimeSlots The set of all time slots in which volunteers are available to help
+   */
+  public static void buildGraph(
+          Set<IsolateTimeSlot> isolateTimeSlots, Set<VolunteerTimeSlot> volunteerTimeSlots) {
+    buildGraph(isolateTimeSlots, volunteerTimeSlots, null);
+  }
+
+  /**
+   * Build the bipartite graph on which the matching is found, recording the size of the graph and
+   * how long it took to build in the provided MatchingRun.
+   *
+   * @param isolateTimeSlots   The set of all requested time slots for help
+   * @param volunteerTimeSlots The set of all time slots in which volunteers are available to help
+   * @param run                The record of the run to record the graph in, or null
+   */
+  public static void buildGraph(
+          Set<IsolateTimeSlot> isolateTimeSlots,
+          Set<VolunteerTimeSlot> volunteerTimeSlots,
+          MatchingRun run) {
+    final long start = System.nanoTime();
     validateTimeSlotsInput(isolateTimeSlots, volunteerTimeSlots);
-    addEdges(isolateTimeSlots, volunteerTimeSlots);
+    final long edges;
+    try (Profiling.Span span = Profiling.begin(Profiling.Kind.MATCHING, "build")) {
+      edges = addEdges(isolateTimeSlots, volunteerTimeSlots);
+      span.setCount(edges);
+    }
+    if (run != null) {
+      run.recordGraph(
+              isolateTimeSlots.size(), volunteerTimeSlots.size(), edges, System.nanoTime() - start);
+    }
     isolateTimeSlots.add(NIL_NODE);
+  }
 
-    while (breadthFirstSearch(isolateTimeSlots)) {
-      for (IsolateTimeSlot isolateTimeSlot : isolateTimeSlots) {
-        if (!isolateTimeSlot.isPaired()) {
-          depthFirstSearch(isolateTimeSlot);
+  /**
+   * Find a maximum matching on a graph built by {@link #buildGraph(Set, Set)}. This is the second
+   * step of {@link #matchTimeSlots(Set, Set)}.
+   *
+   * @param isolateTimeSlots The set of isolate time slots that the graph was built with
+   * @return A set of matched time slots, where a volunteer was matched to a requested time slot
+   */
+  public static Set<IsolateTimeSlot> findMatching(Set<IsolateTimeSlot> isolateTimeSlots) {
+    return findMatching(isolateTimeSlots, null);
+  }
+
+  /**
+   * Find a maximum matching on a graph built by {@link #buildGraph(Set, Set)}, recording each phase
+   * of the search in the provided MatchingRun.
+   *
+   * <p>Each phase starts with a breadth-first search, which layers the graph by distance from the
+   * unmatched isolate time slots, and finds the length of the shortest augmenting paths. If the
+   * unmatched end is k layers away, those paths have 2k - 1 edges. Depth-first searches then augment
+   * the matching along disjoint paths of that length. Each search and augmentation is marked as a
+   * {@link Profiling} span.
+   *
+   * @param isolateTimeSlots The set of isolate time slots that the graph was built with
+   * @param run              The record of the run to record the phases in, or null
+   * @return A set of matched time slots, where a volunteer was matched to a requested time slot
+   */
+  public static Set<IsolateTimeSlot> findMatching(
+          Set<IsolateTimeSlot> isolateTimeSlots, MatchingRun run) {
+    while (true) {
+      final long searchStart = System.nanoTime();
+      final boolean found;
+      try (Profiling.Span span = Profiling.begin(Profiling.Kind.MATCHING, "search")) {
+        found = breadthFirstSearch(isolateTimeSlots);
+        /* The count of a search is the length of the augmenting paths it found, if any. */
+        span.setCount(found ? 2 * (long) NIL_NODE.getDistance() - 1 : 0);
+      }
+      final long searchNanos = System.nanoTime() - searchStart;
+      if (!found) {
+        if (run != null) run.recordFinalSearch(searchNanos);
+        break;
+      }
+
+      final long pathEdges = 2 * (long) NIL_NODE.getDistance() - 1;
+      final long augmentStart = System.nanoTime();
+      long paths = 0;
+      try (Profiling.Span span = Profiling.begin(Profiling.Kind.MATCHING, "augment")) {
+        for (IsolateTimeSlot isolateTimeSlot : isolateTimeSlots) {
+          if (!isolateTimeSlot.isPaired()) {
+            if (depthFirstSearch(isolateTimeSlot) && isolateTimeSlot != NIL_NODE) paths++;
+          }
         }
+        span.setCount(paths);
+      }
+      if (run != null) {
+        run.recordPhase(pathEdges, paths, searchNanos, System.nanoTime() - augmentStart);
       }
     }
 
@@ -75,9 +164,12 @@ public class MatchingAlgorithm {
    *
    * <p>This is an N*M operation, where N is the number of isolate time slots and M the number of
    * volunteer time slots.
+   *
+   * @return the number of edges added.
    */
-  private static void addEdges(
+  private static long addEdges(
           Set<IsolateTimeSlot> isolateTimeSlots, Set<VolunteerTimeSlot> volunteerTimeSlots) {
+    long edges = 0;
     for (VolunteerTimeSlot volunteerTimeSlot : volunteerTimeSlots) {
       for (IsolateTimeSlot isolateTimeSlot : isolateTimeSlots) {
         // TODO check if within geographic range
@@ -88,9 +180,11 @@ public class MatchingAlgorithm {
         if (volunteerTimeSlot.contains(isolateTimeSlot)) {
           isolateTimeSlot.addNeighbour(volunteerTimeSlot);
           volunteerTimeSlot.addNeighbour(isolateTimeSlot);
+          edges++;
         }
       }
     }
+    return edges;
   }
 
   /**
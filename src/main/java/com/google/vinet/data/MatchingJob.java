@@ -0,0 +1,629 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.EmbeddedEntity;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * The record of a run of the matching for a single date. The job is stored in Datastore as the run
+ * progresses through its phases, so that a run which fails part way through can be resumed by a
+ * later run instead of starting over.
+ *
+ * <p>Once the matching has been found, the writes needed to store it are themselves stored as
+ * numbered chunks, which are children of the job entity. The job records how many of these chunks
+ * have been applied, so a resumed run only applies the chunks that were not yet written.
+ *
+ * <p>A job is run by at most one worker at a time. A worker {@link #claim(Duration, DatastoreService)
+ * claims} the job before running it, and holds it for as long as it keeps saving the job within the
+ * lease, until it {@link #release(DatastoreService) releases} it, fails or finishes. Each time the
+ * job enters a phase, the worker checks that it still holds the job, and saving it renews the lease.
+ *
+ * <p>A job that fails, or whose worker is abandoned, {@link #MAX_ATTEMPTS} times is moved into its
+ * FAILED phase, and is not run again.
+ */
+public class MatchingJob {
+  /** The Datastore Entity name for a MatchingJob. */
+  public static final String MATCHING_JOB_TABLE_NAME = "MatchingJob";
+  /** The Datastore Entity name for a chunk of the writes of a MatchingJob. */
+  public static final String MATCHING_JOB_CHUNK_TABLE_NAME = "MatchingJobChunk";
+  /** The maximum number of puts and deletes stored in, and applied as, a single chunk. */
+  public static final int CHUNK_SIZE = 50;
+  /** The number of failed attempts to run a job after which it is no longer retried. */
+  public static final int MAX_ATTEMPTS = 5;
+
+  /** The phases of a matching run, in the order they are run. */
+  public enum Phase {
+    /** The job has been submitted, and is waiting to be run. */
+    QUEUED,
+    /** The TimeSlots to be matched are being fetched from Datastore. */
+    FETCH,
+    /** The graph of TimeSlots that could be matched with each other is being built. */
+    BUILD,
+    /** The matching is being found. */
+    MATCH,
+    /** The matching is being written to Datastore, one chunk at a time. */
+    PERSIST,
+    /** The matching has been stored. */
+    DONE,
+    /** The job failed {@link #MAX_ATTEMPTS} times, and will not be run again. */
+    FAILED
+  }
+
+  /** The Datastore key of this job. There is a single job for each date. */
+  private final Key key;
+  /** The date whose matching this job produces. */
+  private final LocalDate date;
+  /** The phase this job is currently in. */
+  private Phase phase;
+  /** The number of chunks of writes that this job will apply in its PERSIST phase. */
+  private long chunkCount;
+  /** The number of chunks of writes that have already been applied. */
+  private long completedChunks;
+  /** The time at which this job was started. */
+  private Instant started;
+  /** The time at which this job was last saved. */
+  private Instant updated;
+  /** The time at which this job finished, or null if it has not finished. */
+  private Instant finished;
+  /** The number of IsolateTimeSlots that were matched. */
+  private long isolateTimeSlotCount;
+  /** The number of VolunteerTimeSlots that were matched. */
+  private long volunteerTimeSlotCount;
+  /** The number of matches that were found. */
+  private long matchCount;
+  /** The number of match entities this job puts. */
+  private long putCount;
+  /** The number of match entities this job deletes. */
+  private long deleteCount;
+  /** The message of the last error this job failed with, or null if it has not failed. */
+  private String error;
+  /** The id of the claim of the worker running this job, or null if no worker has claimed it. */
+  private String worker;
+  /** The number of attempts to run this job which have failed or been abandoned. */
+  private long failedAttempts;
+
+  private MatchingJob(LocalDate date) {
+    this.key = createKey(date);
+    this.date = date;
+    this.phase = Phase.QUEUED;
+    this.started = Instant.now();
+  }
+
+  /** Construct a MatchingJob from the entity in which it is stored. */
+  MatchingJob(Entity entity) {
+    this.key = entity.getKey();
+    this.date = LocalDate.parse((String) entity.getProperty("date"));
+    this.phase = Phase.valueOf((String) entity.getProperty("phase"));
+    this.chunkCount = (Long) entity.getProperty("chunkCount");
+    this.completedChunks = (Long) entity.getProperty("completedChunks");
+    this.started = Instant.parse((String) entity.getProperty("started"));
+    this.updated = Instant.parse((String) entity.getProperty("updated"));
+    final String finished = (String) entity.getProperty("finished");
+    this.finished = finished == null ? null : Instant.parse(finished);
+    this.isolateTimeSlotCount = getLong(entity, "isolateTimeSlotCount");
+    this.volunteerTimeSlotCount = getLong(entity, "volunteerTimeSlotCount");
+    this.matchCount = getLong(entity, "matchCount");
+    this.putCount = getLong(entity, "putCount");
+    this.deleteCount = getLong(entity, "deleteCount");
+    this.error = (String) entity.getProperty("error");
+    this.worker = (String) entity.getProperty("worker");
+    this.failedAttempts = getLong(entity, "failedAttempts");
+  }
+
+  /**
+   * @param date The date whose matching job should be keyed.
+   * @return the Datastore key of the matching job for the provided date.
+   */
+  public static Key createKey(LocalDate date) {
+    return KeyFactory.createKey(MATCHING_JOB_TABLE_NAME, date.toString());
+  }
+
+  /**
+   * Load the matching job for the provided date.
+   *
+   * @param date      The date whose matching job should be loaded.
+   * @param datastore The Datastore from which the job should be loaded.
+   * @return The stored job for the provided date, or null if no job has been stored for that date.
+   */
+  public static MatchingJob load(LocalDate date, DatastoreService datastore) {
+    try {
+      return new MatchingJob(datastore.get(createKey(date)));
+    } catch (EntityNotFoundException exception) {
+      return null;
+    }
+  }
+
+  /**
+   * Start a new matching job for the provided date, replacing any job previously stored for it.
+   * The new job is saved before it is returned.
+   *
+   * @param date      The date whose matching the new job will produce.
+   * @param datastore The Datastore in which the job should be stored.
+   * @return The new job, in its QUEUED phase.
+   */
+  public static MatchingJob start(LocalDate date, DatastoreService datastore) {
+    final MatchingJob job = new MatchingJob(date);
+    job.deleteChunks(datastore);
+    job.save(datastore);
+    return job;
+  }
+
+  /**
+   * Load the matching job with the provided id.
+   *
+   * @param jobId     The id of the job, as returned by {@link #getId()}.
+   * @param datastore The Datastore from which the job should be loaded.
+   * @return The stored job with the provided id, or null if there is no such job.
+   * @throws IllegalArgumentException If the id is not the id of a matching job.
+   */
+  public static MatchingJob load(String jobId, DatastoreService datastore) {
+    final Key jobKey = KeyFactory.stringToKey(jobId);
+    if (!MATCHING_JOB_TABLE_NAME.equals(jobKey.getKind())) {
+      throw new IllegalArgumentException("id is not the id of a matching job");
+    }
+
+    try {
+      return new MatchingJob(datastore.get(jobKey));
+    } catch (EntityNotFoundException exception) {
+      return null;
+    }
+  }
+
+  /**
+   * Continue the matching job for the provided date if it was left unfinished, otherwise start a new
+   * one.
+   *
+   * @param date      The date whose matching job should be resumed or started.
+   * @param datastore The Datastore in which the job is stored.
+   * @return The unfinished job for the provided date, or a new job if there was none or it failed.
+   */
+  public static MatchingJob resumeOrStart(LocalDate date, DatastoreService datastore) {
+    final MatchingJob job = load(date, datastore);
+    if (job == null || job.isDone() || job.isFailed()) return start(date, datastore);
+    return job;
+  }
+
+  /**
+   * Move this job into the provided phase, and save it, renewing the lease of the worker holding it.
+   * If a worker has claimed this job, the stored job is checked and saved in a single transaction, so
+   * a worker whose lease has expired and whose job has been claimed by another worker stops.
+   *
+   * @param phase     The phase this job has entered.
+   * @param datastore The Datastore in which this job is stored.
+   * @throws IllegalStateException If this job has been claimed by another worker.
+   */
+  public void enterPhase(Phase phase, DatastoreService datastore) {
+    Objects.requireNonNull(phase);
+    this.phase = phase;
+    this.error = null;
+    if (phase == Phase.DONE) this.finished = Instant.now();
+    if (worker == null) {
+      save(datastore);
+      return;
+    }
+
+    final Transaction transaction = datastore.beginTransaction();
+    try {
+      final String storedWorker;
+      try {
+        storedWorker = (String) datastore.get(transaction, key).getProperty("worker");
+      } catch (EntityNotFoundException exception) {
+        throw new IllegalStateException("matching job no longer exists", exception);
+      }
+      if (!worker.equals(storedWorker)) {
+        throw new IllegalStateException("matching job is held by another worker");
+      }
+
+      this.updated = Instant.now();
+      datastore.put(transaction, toEntity());
+      transaction.commit();
+    } catch (ConcurrentModificationException exception) {
+      throw new IllegalStateException("matching job is held by another worker", exception);
+    } finally {
+      if (transaction.isActive()) transaction.rollback();
+    }
+  }
+
+  /**
+   * Record that this job failed with the provided exception, and save it. The job stays in the phase
+   * it failed in, so that it can be resumed, unless this was its last attempt, in which case it is
+   * moved into its FAILED phase.
+   *
+   * @param exception The exception this job failed with.
+   * @param datastore The Datastore in which this job is stored.
+   */
+  public void fail(Exception exception, DatastoreService datastore) {
+    this.error = exception.toString();
+    this.worker = null;
+    recordFailedAttempt();
+    save(datastore);
+  }
+
+  /** Count a failed attempt, and give up on this job once it has failed too many times. */
+  private void recordFailedAttempt() {
+    this.failedAttempts++;
+    if (failedAttempts >= MAX_ATTEMPTS) {
+      this.phase = Phase.FAILED;
+      this.finished = Instant.now();
+    }
+  }
+
+  /**
+   * Whether this job is being run or is waiting to be run, as opposed to having finished, failed or
+   * been abandoned. A job is considered to be running if it has not finished or failed, and was saved
+   * more recently than the provided lease. A QUEUED job is running, as a task to run it has been
+   * submitted.
+   *
+   * @param lease The longest time a run may go without saving this job.
+   * @return true, if this job is being run or is waiting to be run.
+   */
+  public boolean isRunning(Duration lease) {
+    return phase != Phase.DONE
+        && phase != Phase.FAILED
+        && error == null
+        && updated.plus(lease).isAfter(Instant.now());
+  }
+
+  /**
+   * Whether a worker holds this job, having claimed it and saved it within the provided lease.
+   *
+   * @param lease The longest time a run may go without saving this job.
+   * @return true, if a worker holds this job.
+   */
+  public boolean isClaimed(Duration lease) {
+    return worker != null && isRunning(lease);
+  }
+
+  /**
+   * Claim this job for the calling worker, unless it has finished or is held by another worker. The
+   * stored job is checked and claimed in a single transaction, so of two workers claiming the same
+   * job, only one succeeds.
+   *
+   * <p>A job whose previous worker let its lease expire without releasing it or recording a failure
+   * was abandoned by that worker, so claiming it counts a failed attempt. A job that has failed too
+   * many times is moved into its FAILED phase instead of being claimed.
+   *
+   * @param lease     The longest time a run may go without saving this job.
+   * @param datastore The Datastore in which this job is stored.
+   * @return true, if the job was claimed by the calling worker.
+   */
+  public boolean claim(Duration lease, DatastoreService datastore) {
+    final Transaction transaction = datastore.beginTransaction();
+    try {
+      final MatchingJob stored;
+      try {
+        stored = new MatchingJob(datastore.get(transaction, key));
+      } catch (EntityNotFoundException exception) {
+        return false;
+      }
+      if (stored.isDone() || stored.isFailed() || stored.isClaimed(lease)) return false;
+
+      if (stored.worker != null) {
+        stored.error = "matching job was abandoned by its worker";
+        stored.recordFailedAttempt();
+        if (stored.isFailed()) {
+          stored.worker = null;
+          stored.updated = Instant.now();
+          datastore.put(transaction, stored.toEntity());
+          transaction.commit();
+
+          this.phase = stored.phase;
+          this.finished = stored.finished;
+          this.error = stored.error;
+          this.failedAttempts = stored.failedAttempts;
+          return false;
+        }
+      }
+
+      stored.worker = UUID.randomUUID().toString();
+      stored.error = null;
+      stored.updated = Instant.now();
+      datastore.put(transaction, stored.toEntity());
+      transaction.commit();
+
+      this.worker = stored.worker;
+      this.error = null;
+      this.updated = stored.updated;
+      this.failedAttempts = stored.failedAttempts;
+      return true;
+    } catch (ConcurrentModificationException exception) {
+      /* Another worker changed the job since it was read, so that worker holds it. */
+      return false;
+    } finally {
+      if (transaction.isActive()) transaction.rollback();
+    }
+  }
+
+  /**
+   * Release this job, so that the worker which continues it can claim it. The job remains running.
+   *
+   * @param datastore The Datastore in which this job is stored.
+   */
+  public void release(DatastoreService datastore) {
+    this.worker = null;
+    save(datastore);
+  }
+
+  /**
+   * Record the number of TimeSlots which are being matched by this job.
+   *
+   * @param isolateTimeSlotCount   The number of IsolateTimeSlots being matched.
+   * @param volunteerTimeSlotCount The number of VolunteerTimeSlots being matched.
+   */
+  public void setTimeSlotCounts(long isolateTimeSlotCount, long volunteerTimeSlotCount) {
+    this.isolateTimeSlotCount = isolateTimeSlotCount;
+    this.volunteerTimeSlotCount = volunteerTimeSlotCount;
+  }
+
+  /**
+   * Record the number of matches which were found by this job.
+   *
+   * @param matchCount The number of matches found.
+   */
+  public void setMatchCount(long matchCount) {
+    this.matchCount = matchCount;
+  }
+
+  /**
+   * Store the writes that will be made by this job's PERSIST phase, split into chunks, and move this
+   * job into its PERSIST phase. After this call, a resumed job no longer needs to find the matching.
+   *
+   * @param puts      The entities to be put.
+   * @param deletes   The keys of the entities to be deleted.
+   * @param datastore The Datastore in which this job is stored.
+   */
+  public void plan(Collection<Entity> puts, Collection<Key> deletes, DatastoreService datastore) {
+    final List<Entity> chunks = new ArrayList<>();
+    final List<Object> writes = concat(puts, deletes);
+
+    for (int start = 0; start < writes.size(); start += CHUNK_SIZE) {
+      final List<EmbeddedEntity> chunkPuts = new ArrayList<>();
+      final List<Key> chunkDeletes = new ArrayList<>();
+
+      for (Object write : writes.subList(start, Math.min(start + CHUNK_SIZE, writes.size()))) {
+        if (write instanceof Entity) {
+          final Entity entity = (Entity) write;
+          final EmbeddedEntity embeddedEntity = new EmbeddedEntity();
+          embeddedEntity.setKey(entity.getKey());
+          embeddedEntity.setPropertiesFrom(entity);
+          chunkPuts.add(embeddedEntity);
+        } else {
+          chunkDeletes.add((Key) write);
+        }
+      }
+
+      final Entity chunk = new Entity(createChunkKey(chunks.size()));
+      chunk.setUnindexedProperty("puts", chunkPuts);
+      chunk.setUnindexedProperty("deletes", chunkDeletes);
+      chunks.add(chunk);
+    }
+
+    if (!chunks.isEmpty()) datastore.put(chunks);
+
+    this.chunkCount = chunks.size();
+    this.completedChunks = 0;
+    this.putCount = puts.size();
+    this.deleteCount = deletes.size();
+    enterPhase(Phase.PERSIST, datastore);
+  }
+
+  /**
+   * Apply the chunks of writes of this job which have not yet been applied. The job is saved after
+   * each chunk, so if this call fails or stops part of the way through, calling it again will only
+   * apply the remaining chunks. Applying a chunk more than once has no further effect.
+   *
+   * @param datastore The Datastore in which this job is stored, and to which the writes are made.
+   * @param deadline  No chunk will be started after this time. May be null, for no deadline.
+   * @return true, if all chunks were applied and this job is done. false, if the deadline passed
+   *     before all chunks were applied.
+   */
+  public boolean applyRemainingChunks(DatastoreService datastore, Instant deadline) {
+    if (phase != Phase.PERSIST) {
+      throw new IllegalStateException("job must be in its PERSIST phase to apply its writes");
+    }
+
+    while (completedChunks < chunkCount) {
+      if (deadline != null && Instant.now().isAfter(deadline)) return false;
+
+      final Entity chunk;
+      try {
+        chunk = datastore.get(createChunkKey(completedChunks));
+      } catch (EntityNotFoundException exception) {
+        throw new IllegalStateException("matching job chunk is missing", exception);
+      }
+
+      final List<Entity> puts = new ArrayList<>();
+      for (EmbeddedEntity embeddedEntity : getList(chunk, "puts", EmbeddedEntity.class)) {
+        final Entity entity = new Entity(embeddedEntity.getKey());
+        entity.setPropertiesFrom(embeddedEntity);
+        puts.add(entity);
+      }
+      final List<Key> deletes = getList(chunk, "deletes", Key.class);
+
+      if (!puts.isEmpty()) datastore.put(puts);
+      if (!deletes.isEmpty()) datastore.delete(deletes);
+
+      completedChunks++;
+      save(datastore);
+    }
+
+    deleteChunks(datastore);
+    enterPhase(Phase.DONE, datastore);
+    return true;
+  }
+
+  /** Put this job into Datastore. */
+  public void save(DatastoreService datastore) {
+    this.updated = Instant.now();
+    datastore.put(toEntity());
+  }
+
+  /** @return the entity in which this job is stored. */
+  private Entity toEntity() {
+    final Entity entity = new Entity(key);
+    entity.setProperty("date", date.toString());
+    entity.setProperty("phase", phase.name());
+    entity.setProperty("chunkCount", chunkCount);
+    entity.setProperty("completedChunks", completedChunks);
+    entity.setProperty("started", started.toString());
+    entity.setProperty("updated", updated.toString());
+    entity.setProperty("finished", finished == null ? null : finished.toString());
+    entity.setProperty("isolateTimeSlotCount", isolateTimeSlotCount);
+    entity.setProperty("volunteerTimeSlotCount", volunteerTimeSlotCount);
+    entity.setProperty("matchCount", matchCount);
+    entity.setProperty("putCount", putCount);
+    entity.setProperty("deleteCount", deleteCount);
+    entity.setProperty("error", error);
+    entity.setProperty("worker", worker);
+    entity.setProperty("failedAttempts", failedAttempts);
+    return entity;
+  }
+
+  /** Delete all of the chunks of writes stored for this job. */
+  void deleteChunks(DatastoreService datastore) {
+    final Query query =
+            new Query(MATCHING_JOB_CHUNK_TABLE_NAME).setAncestor(key).setKeysOnly();
+    final List<Key> chunkKeys = new ArrayList<>();
+    for (Entity chunk : datastore.prepare(query).asIterable()) {
+      chunkKeys.add(chunk.getKey());
+    }
+    if (!chunkKeys.isEmpty()) datastore.delete(chunkKeys);
+  }
+
+  /**
+   * @param index The zero-based index of a chunk of this job.
+   * @return the Datastore key of the chunk of this job at the provided index.
+   */
+  private Key createChunkKey(long index) {
+    /* Datastore ids must be positive, so chunk ids are offset by one from their index. */
+    return KeyFactory.createKey(key, MATCHING_JOB_CHUNK_TABLE_NAME, index + 1);
+  }
+
+  /**
+   * Get a list property of an entity. Datastore does not store empty lists, so a missing property is
+   * returned as an empty list.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> List<T> getList(Entity entity, String propertyName, Class<T> type) {
+    final List<T> list = (List<T>) entity.getProperty(propertyName);
+    return list == null ? Collections.emptyList() : list;
+  }
+
+  /** Get a long property of an entity, which is 0 if the property is not set. */
+  private static long getLong(Entity entity, String propertyName) {
+    final Long value = (Long) entity.getProperty(propertyName);
+    return value == null ? 0 : value;
+  }
+
+  private static List<Object> concat(Collection<?> first, Collection<?> second) {
+    final List<Object> list = new ArrayList<>(first.size() + second.size());
+    list.addAll(first);
+    list.addAll(second);
+    return list;
+  }
+
+  /** @return the id of this job, which can be passed to {@link #load(String, DatastoreService)}. */
+  public String getId() {
+    return KeyFactory.keyToString(key);
+  }
+
+  public LocalDate getDate() {
+    return date;
+  }
+
+  public Phase getPhase() {
+    return phase;
+  }
+
+  public boolean isDone() {
+    return phase == Phase.DONE;
+  }
+
+  public boolean isFailed() {
+    return phase == Phase.FAILED;
+  }
+
+  public long getChunkCount() {
+    return chunkCount;
+  }
+
+  public long getCompletedChunks() {
+    return completedChunks;
+  }
+
+  public Instant getStarted() {
+    return started;
+  }
+
+  public Instant getUpdated() {
+    return updated;
+  }
+
+  public Instant getFinished() {
+    return finished;
+  }
+
+  public long getIsolateTimeSlotCount() {
+    return isolateTimeSlotCount;
+  }
+
+  public long getVolunteerTimeSlotCount() {
+    return volunteerTimeSlotCount;
+  }
+
+  public long getMatchCount() {
+    return matchCount;
+  }
+
+  public long getPutCount() {
+    return putCount;
+  }
+
+  public long getDeleteCount() {
+    return deleteCount;
+  }
+
+  public String getError() {
+    return error;
+  }
+
+  public String getWorker() {
+    return worker;
+  }
+
+  public long getFailedAttempts() {
+    return failedAttempts;
+  }
+}
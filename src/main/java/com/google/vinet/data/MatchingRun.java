@@ -0,0 +1,331 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The history record of a single call of {@link MatchingRunner#run(boolean)}: how long each of its
+ * steps took, the size of the graph it matched, how the Hopcroft-Karp search progressed, and how
+ * much of the heap it used. Unlike a {@link MatchingJob}, of which there is one per date, a record
+ * is kept for every run, so that runs can be compared as the data grows, until the
+ * {@link RetentionJob} purges it.
+ *
+ * <p>A run which resumes a job in its PERSIST phase only records its persist step. The peak heap is
+ * the largest heap usage sampled between the steps and phases of the run, so it may miss a brief
+ * peak within one.
+ */
+public class MatchingRun {
+  /** The Datastore Entity name for a MatchingRun. */
+  public static final String MATCHING_RUN_TABLE_NAME = "MatchingRun";
+
+  /** The date whose matching was run. */
+  private final LocalDate date;
+  /** The time at which the run started. */
+  private final Instant started;
+  /** The time at which the run stopped, or null if it has not stopped. */
+  private Instant finished;
+  /** Whether the run resumed a job which had already found its matching. */
+  private boolean resumed;
+  /** Whether the run stored all of its matching before its deadline. */
+  private boolean completed;
+  private long fetchNanos;
+  private long buildNanos;
+  private long searchNanos;
+  private long augmentNanos;
+  private long persistNanos;
+  private long isolateNodes;
+  private long volunteerNodes;
+  private long edges;
+  private long phases;
+  private long augmentingPaths;
+  private long augmentingPathEdges;
+  private long shortestAugmentingPath;
+  private long longestAugmentingPath;
+  private long matchCount;
+  private long peakHeapBytes;
+
+  /**
+   * Start the record of a run.
+   * @param date The date whose matching is run.
+   */
+  public MatchingRun(LocalDate date) {
+    this.date = date;
+    this.started = Instant.now();
+    sampleHeap();
+  }
+
+  private MatchingRun(Entity entity) {
+    this.date = LocalDate.parse((String) entity.getProperty("date"));
+    this.started = Instant.parse((String) entity.getProperty("started"));
+    final String finished = (String) entity.getProperty("finished");
+    this.finished = finished == null ? null : Instant.parse(finished);
+    this.resumed = Boolean.TRUE.equals(entity.getProperty("resumed"));
+    this.completed = Boolean.TRUE.equals(entity.getProperty("completed"));
+    this.fetchNanos = getLong(entity, "fetchNanos");
+    this.buildNanos = getLong(entity, "buildNanos");
+    this.searchNanos = getLong(entity, "searchNanos");
+    this.augmentNanos = getLong(entity, "augmentNanos");
+    this.persistNanos = getLong(entity, "persistNanos");
+    this.isolateNodes = getLong(entity, "isolateNodes");
+    this.volunteerNodes = getLong(entity, "volunteerNodes");
+    this.edges = getLong(entity, "edges");
+    this.phases = getLong(entity, "phases");
+    this.augmentingPaths = getLong(entity, "augmentingPaths");
+    this.augmentingPathEdges = getLong(entity, "augmentingPathEdges");
+    this.shortestAugmentingPath = getLong(entity, "shortestAugmentingPath");
+    this.longestAugmentingPath = getLong(entity, "longestAugmentingPath");
+    this.matchCount = getLong(entity, "matchCount");
+    this.peakHeapBytes = getLong(entity, "peakHeapBytes");
+  }
+
+  /**
+   * Read the most recent runs.
+   *
+   * @param limit The largest number of runs to read.
+   * @param datastore The Datastore in which the runs are stored.
+   * @return the most recently started runs, most recent first.
+   */
+  public static List<MatchingRun> getRecent(int limit, DatastoreService datastore) {
+    final Query query =
+            new Query(MATCHING_RUN_TABLE_NAME).addSort("started", Query.SortDirection.DESCENDING);
+    final List<MatchingRun> runs = new ArrayList<>();
+    for (Entity entity : datastore.prepare(query).asIterable(FetchOptions.Builder.withLimit(limit))) {
+      runs.add(new MatchingRun(entity));
+    }
+    return runs;
+  }
+
+  private static long getLong(Entity entity, String propertyName) {
+    final Object value = entity.getProperty(propertyName);
+    return value == null ? 0 : (Long) value;
+  }
+
+  /** Sample the heap usage, keeping it if it is the largest sampled so far. */
+  public void sampleHeap() {
+    final Runtime runtime = Runtime.getRuntime();
+    peakHeapBytes = Math.max(peakHeapBytes, runtime.totalMemory() - runtime.freeMemory());
+  }
+
+  /** Record that the run resumed a job which had already found its matching. */
+  void recordResumed() {
+    this.resumed = true;
+  }
+
+  /** @param nanos How long fetching the TimeSlots took, in nanoseconds. */
+  void recordFetch(long nanos) {
+    this.fetchNanos += nanos;
+    sampleHeap();
+  }
+
+  /**
+   * Record the building of the graph.
+   *
+   * @param isolateNodes The number of IsolateTimeSlots in the graph.
+   * @param volunteerNodes The number of VolunteerTimeSlots in the graph.
+   * @param edges The number of edges between them.
+   * @param nanos How long building the graph took, in nanoseconds.
+   */
+  void recordGraph(long isolateNodes, long volunteerNodes, long edges, long nanos) {
+    this.isolateNodes = isolateNodes;
+    this.volunteerNodes = volunteerNodes;
+    this.edges = edges;
+    this.buildNanos += nanos;
+    sampleHeap();
+  }
+
+  /**
+   * Record a breadth-first search which found no augmenting path, ending the search.
+   * @param searchNanos How long the search took, in nanoseconds.
+   */
+  void recordFinalSearch(long searchNanos) {
+    this.searchNanos += searchNanos;
+  }
+
+  /**
+   * Record a phase of the Hopcroft-Karp search. Every augmenting path found in a phase has the
+   * same, shortest, length.
+   *
+   * @param pathEdges The number of edges of the augmenting paths found in the phase.
+   * @param paths The number of augmenting paths found in the phase.
+   * @param searchNanos How long the breadth-first search of the phase took, in nanoseconds.
+   * @param augmentNanos How long the depth-first searches of the phase took, in nanoseconds.
+   */
+  void recordPhase(long pathEdges, long paths, long searchNanos, long augmentNanos) {
+    this.phases++;
+    this.searchNanos += searchNanos;
+    this.augmentNanos += augmentNanos;
+    if (paths > 0) {
+      this.shortestAugmentingPath =
+              augmentingPaths == 0 ? pathEdges : Math.min(shortestAugmentingPath, pathEdges);
+      this.longestAugmentingPath = Math.max(longestAugmentingPath, pathEdges);
+      this.augmentingPaths += paths;
+      this.augmentingPathEdges += pathEdges * paths;
+    }
+    sampleHeap();
+  }
+
+  /** @param matchCount The number of matches the run found. */
+  void recordMatches(long matchCount) {
+    this.matchCount = matchCount;
+  }
+
+  /** @param nanos How long planning and writing the matching took, in nanoseconds. */
+  void recordPersist(long nanos) {
+    this.persistNanos += nanos;
+    sampleHeap();
+  }
+
+  /**
+   * Record that the run stopped.
+   * @param completed Whether the run stored all of its matching.
+   */
+  void finish(boolean completed) {
+    this.completed = completed;
+    this.finished = Instant.now();
+    sampleHeap();
+  }
+
+  /**
+   * Store this run as a new history entity. Only the start time is indexed, as runs are only listed
+   * by it.
+   *
+   * @param datastore The Datastore in which to store the run.
+   */
+  public void save(DatastoreService datastore) {
+    final Entity entity = new Entity(MATCHING_RUN_TABLE_NAME);
+    final IndexPolicy policy = IndexPolicy.MATCHING_RUN;
+    policy.setProperty(entity, "date", date.toString());
+    policy.setProperty(entity, "started", started.toString());
+    policy.setProperty(entity, "finished", finished == null ? null : finished.toString());
+    policy.setProperty(entity, "resumed", resumed);
+    policy.setProperty(entity, "completed", completed);
+    policy.setProperty(entity, "fetchNanos", fetchNanos);
+    policy.setProperty(entity, "buildNanos", buildNanos);
+    policy.setProperty(entity, "searchNanos", searchNanos);
+    policy.setProperty(entity, "augmentNanos", augmentNanos);
+    policy.setProperty(entity, "persistNanos", persistNanos);
+    policy.setProperty(entity, "isolateNodes", isolateNodes);
+    policy.setProperty(entity, "volunteerNodes", volunteerNodes);
+    policy.setProperty(entity, "edges", edges);
+    policy.setProperty(entity, "phases", phases);
+    policy.setProperty(entity, "augmentingPaths", augmentingPaths);
+    policy.setProperty(entity, "augmentingPathEdges", augmentingPathEdges);
+    policy.setProperty(entity, "shortestAugmentingPath", shortestAugmentingPath);
+    policy.setProperty(entity, "longestAugmentingPath", longestAugmentingPath);
+    policy.setProperty(entity, "matchCount", matchCount);
+    policy.setProperty(entity, "peakHeapBytes", peakHeapBytes);
+    datastore.put(entity);
+  }
+
+  public LocalDate getDate() {
+    return date;
+  }
+
+  public Instant getStarted() {
+    return started;
+  }
+
+  public Instant getFinished() {
+    return finished;
+  }
+
+  public boolean isResumed() {
+    return resumed;
+  }
+
+  public boolean isCompleted() {
+    return completed;
+  }
+
+  public Duration getFetchDuration() {
+    return Duration.ofNanos(fetchNanos);
+  }
+
+  public Duration getBuildDuration() {
+    return Duration.ofNanos(buildNanos);
+  }
+
+  /** @return the time spent in the breadth-first searches of the matching. */
+  public Duration getSearchDuration() {
+    return Duration.ofNanos(searchNanos);
+  }
+
+  /** @return the time spent in the depth-first searches which augment the matching. */
+  public Duration getAugmentDuration() {
+    return Duration.ofNanos(augmentNanos);
+  }
+
+  public Duration getPersistDuration() {
+    return Duration.ofNanos(persistNanos);
+  }
+
+  public long getIsolateNodes() {
+    return isolateNodes;
+  }
+
+  public long getVolunteerNodes() {
+    return volunteerNodes;
+  }
+
+  public long getEdges() {
+    return edges;
+  }
+
+  public long getPhases() {
+    return phases;
+  }
+
+  public long getAugmentingPaths() {
+    return augmentingPaths;
+  }
+
+  public long getShortestAugmentingPath() {
+    return shortestAugmentingPath;
+  }
+
+  public long getLongestAugmentingPath() {
+    return longestAugmentingPath;
+  }
+
+  /** @return the mean number of edges of the augmenting paths, or 0 if none were found. */
+  public double getMeanAugmentingPath() {
+    return augmentingPaths == 0 ? 0 : (double) augmentingPathEdges / augmentingPaths;
+  }
+
+  public long getMatchCount() {
+    return matchCount;
+  }
+
+  /** @return the fraction of IsolateTimeSlots which were matched, or 0 if there were none. */
+  public double getMatchRate() {
+    return isolateNodes == 0 ? 0 : (double) matchCount / isolateNodes;
+  }
+
+  public long getPeakHeapBytes() {
+    return peakHeapBytes;
+  }
+}
@@ -17,19 +17,21 @@
 package com.google.vinet.data;
 
 import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.Filter;
 import com.google.appengine.api.datastore.Query.FilterOperator;
 import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Text;
+import com.google.vinet.metrics.InstrumentedDatastoreService;
+import com.google.vinet.metrics.Profiling;
 
 import java.time.Instant;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -51,6 +53,18 @@ public class MatchingRunner {
    * The TimeSlots for Volunteer availability that should be matched.
    */
   private Set<VolunteerTimeSlot> volunteerTimeSlots;
+  /**
+   * The date for which matches should be created, or null to create matches for tomorrow.
+   */
+  private LocalDate date;
+  /**
+   * The time after which this MatchingRunner should stop writing results, or null for no deadline.
+   */
+  private Instant deadline;
+  /**
+   * The cache of listings, whose cached matches are invalidated once results have been written.
+   */
+  private ListingCache listingCache = ListingCache.getDefault();
 
   public static final String MATCHING_TABLE_NAME = "Matching";
 
@@ -82,39 +96,243 @@ public class MatchingRunner {
 
   /**
    * Run the matching algorithm and store the results in DataStore. Any necessary data that is not
-   * already set will be pulled from DataStore, with an assumption that matches should be created
-   * that will be scheduled for tomorrow.
+   * already set will be pulled from DataStore. Unless a date has been set, matches are created that
+   * will be scheduled for tomorrow.
+   *
+   * <p>The run is recorded as a {@link MatchingJob}. If a previous run for tomorrow failed after its
+   * matching was found, this run continues writing that matching from the last chunk that was
+   * written, rather than starting over. A previous run that failed before its matching was found is
+   * started over from its FETCH phase, as the phases before PERSIST make no writes.
+   *
+   * <p>If a deadline has been set, the run stops writing results once the deadline has passed, and
+   * leaves the job to be resumed by a later run. As the phases before PERSIST cannot be resumed part
+   * way through, a run which reaches one of them after the deadline has passed fails instead.
+   *
+   * <p>The fetches, the planning of the writes and the writes are marked as {@link Profiling} spans.
    *
    * @param deletePreviousMatches If set to true, all matches scheduled before today will be
    *     deleted; today's matches will not be deleted. If set to false, no deletions will be made.
+   * @return true, if the matching was stored. false, if the deadline passed before it was stored.
+   * @throws IllegalStateException If the deadline passed before the matching was found, or the job
+   *     was claimed by another worker.
    */
-  public void run(boolean deletePreviousMatches) {
+  public boolean run(boolean deletePreviousMatches) {
     final LocalDate today = LocalDate.now();
-    final LocalDate tomorrow = today.plusDays(1);
+    final LocalDate tomorrow = date == null ? getMatchingDate() : date;
 
-    if (datastore == null) datastore = DatastoreServiceFactory.getDatastoreService();
-    if (isolateTimeSlots == null) isolateTimeSlots = this.fetchIsolateTimeSlots(tomorrow);
-    if (volunteerTimeSlots == null) volunteerTimeSlots = this.fetchVolunteerTimeSlots(tomorrow);
+    if (datastore == null) datastore = InstrumentedDatastoreService.create();
 
     if (deletePreviousMatches) {
       /* Delete all matches scheduled for dates before, but not including, today. */
       deletePreviousMatches(today, datastore);
     }
 
-    final Set<IsolateTimeSlot> matches =
-            MatchingAlgorithm.matchTimeSlots(isolateTimeSlots, volunteerTimeSlots);
+    final MatchingJob job = MatchingJob.resumeOrStart(tomorrow, datastore);
+    final MatchingRun run = new MatchingRun(tomorrow);
+
+    long persistStart = System.nanoTime();
+    if (job.getPhase() != MatchingJob.Phase.PERSIST) {
+      checkDeadline(MatchingJob.Phase.FETCH);
+      job.enterPhase(MatchingJob.Phase.FETCH, datastore);
+      final long fetchStart = System.nanoTime();
+      try (Profiling.Span span = Profiling.begin(Profiling.Kind.MATCHING, "fetch-isolates")) {
+        if (isolateTimeSlots == null) isolateTimeSlots = this.fetchIsolateTimeSlots(tomorrow);
+        span.setCount(isolateTimeSlots.size());
+      }
+      try (Profiling.Span span = Profiling.begin(Profiling.Kind.MATCHING, "fetch-volunteers")) {
+        if (volunteerTimeSlots == null) volunteerTimeSlots = this.fetchVolunteerTimeSlots(tomorrow);
+        span.setCount(volunteerTimeSlots.size());
+      }
+      run.recordFetch(System.nanoTime() - fetchStart);
+      job.setTimeSlotCounts(isolateTimeSlots.size(), volunteerTimeSlots.size());
+
+      checkDeadline(MatchingJob.Phase.BUILD);
+      job.enterPhase(MatchingJob.Phase.BUILD, datastore);
+      MatchingAlgorithm.buildGraph(isolateTimeSlots, volunteerTimeSlots, run);
+
+      checkDeadline(MatchingJob.Phase.MATCH);
+      job.enterPhase(MatchingJob.Phase.MATCH, datastore);
+      final Set<IsolateTimeSlot> matches = MatchingAlgorithm.findMatching(isolateTimeSlots, run);
+      job.setMatchCount(matches.size());
+      run.recordMatches(matches.size());
+
+      checkDeadline(MatchingJob.Phase.PERSIST);
+      persistStart = System.nanoTime();
+      try (Profiling.Span span = Profiling.begin(Profiling.Kind.MATCHING, "plan")) {
+        planMatches(job, matches, datastore);
+        span.setCount(matches.size());
+      }
+    } else {
+      run.recordResumed();
+    }
+
+    final boolean finished;
+    try (Profiling.Span span = Profiling.begin(Profiling.Kind.MATCHING, "write")) {
+      final long completedChunks = job.getCompletedChunks();
+      finished = job.applyRemainingChunks(datastore, deadline);
+      span.setCount(job.getCompletedChunks() - completedChunks);
+    }
+    run.recordPersist(System.nanoTime() - persistStart);
+    /* Any users' matches may have changed, so none of the cached match listings can be served. */
+    listingCache.invalidateAll(ListingCache.Listing.MATCHES);
+
+    run.finish(finished);
+    saveRun(run);
+    return finished;
+  }
+
+  /**
+   * Check that the deadline has not passed before entering the provided phase.
+   *
+   * @param phase The phase about to be entered.
+   * @throws IllegalStateException If the deadline has passed.
+   */
+  private void checkDeadline(MatchingJob.Phase phase) {
+    if (deadline != null && Instant.now().isAfter(deadline)) {
+      throw new IllegalStateException("deadline passed before the " + phase + " phase");
+    }
+  }
+
+  /**
+   * Store the history record of a run. The matching has already been stored, so a failure to store
+   * the record is logged rather than failing the run.
+   *
+   * @param run The record of the run.
+   */
+  private void saveRun(MatchingRun run) {
+    try {
+      run.save(datastore);
+    } catch (RuntimeException exception) {
+      System.err.println("Failed to store matching run history: " + exception);
+    }
+  }
+
+  /** @return the date for which matches are created when a MatchingRunner is run. */
+  public static LocalDate getMatchingDate() {
+    return LocalDate.now().plusDays(1);
+  }
+
+  /**
+   * Plan the writes needed to store the provided matches as the matching for the job's date, and
+   * store them in the job. Matches are keyed by the IsolateTimeSlot they fulfil, so only the matches
+   * which were added, changed or removed since the matching for this date was last stored are
+   * written to Datastore. Running the matching more than once for the same date will therefore
+   * never store duplicate matches.
+   *
+   * <p>Each match is stored with the names of both users and the contents of the ticket, so that a
+   * user's matches can be displayed without any further reads. The users and tickets of all matches
+   * are fetched with a single batched get.
+   *
+   * @param job       The job whose date's matching is to be replaced.
+   * @param matches   The IsolateTimeSlots that were matched, each paired with a VolunteerTimeSlot.
+   * @param datastore The Datastore in which the matching should be stored.
+   */
+  protected static void planMatches(
+          MatchingJob job, Set<IsolateTimeSlot> matches, DatastoreService datastore) {
+    final Map<Key, Entity> storedMatches = new HashMap<>();
+    final Query query =
+            new Query(MATCHING_TABLE_NAME)
+                    .setFilter(
+                            new FilterPredicate(
+                                    "date", FilterOperator.EQUAL, job.getDate().toString()));
+    for (Entity entity : datastore.prepare(query).asIterable()) {
+      storedMatches.put(entity.getKey(), entity);
+    }
+
+    final Set<Key> referencedKeys = new HashSet<>();
+    for (IsolateTimeSlot matching : matches) {
+      referencedKeys.add(matching.getIsolate().getUserInfoKey());
+      referencedKeys.add(matching.getPairedSlot().registeredUser.getUserInfoKey());
+      referencedKeys.add(matching.ticket);
+    }
+    final Map<Key, Entity> referencedEntities = datastore.get(referencedKeys);
 
+    final List<Entity> changedMatches = new ArrayList<>();
     for (IsolateTimeSlot matching : matches) {
-      Entity matchingEntity = new Entity(MATCHING_TABLE_NAME);
-      matchingEntity.setProperty("isolateId", matching.getIsolate().getUserId());
-      matchingEntity.setProperty(
-              "volunteerId", matching.getPairedSlot().registeredUser.getUserId());
-      matchingEntity.setProperty("date", matching.date.toString());
-      matchingEntity.setProperty("start", matching.start.toString());
-      matchingEntity.setProperty("end", matching.end.toString());
-      matchingEntity.setProperty("ticket", KeyFactory.keyToString(matching.ticket));
-      datastore.put(matchingEntity);
+      final Entity matchingEntity = createMatchEntity(matching, referencedEntities);
+      final Entity storedMatch = storedMatches.remove(matchingEntity.getKey());
+      if (storedMatch == null
+              || !storedMatch.getProperties().equals(matchingEntity.getProperties())) {
+        changedMatches.add(matchingEntity);
+      }
     }
+
+    /* Any match still in storedMatches is no longer part of this date's matching. */
+    job.plan(changedMatches, storedMatches.keySet(), datastore);
+  }
+
+  /**
+   * Create the Datastore entity for a match.
+   *
+   * <p>As well as identifying the users and ticket of the match, the entity contains the names of
+   * both users, and the subjects and details of the ticket, taken from the provided entities. Any
+   * user or ticket which is missing from the provided entities is left blank.
+   *
+   * @param matching An IsolateTimeSlot which has been paired with a VolunteerTimeSlot.
+   * @param referencedEntities The UserInfo entities of the users, and the ticket entity, of the
+   *     match, keyed by their Datastore keys.
+   * @return The entity representing the match, keyed by {@link #createMatchKey(IsolateTimeSlot)}.
+   */
+  protected static Entity createMatchEntity(
+          IsolateTimeSlot matching, Map<Key, Entity> referencedEntities) {
+    final RegisteredUser isolate = matching.getIsolate();
+    final RegisteredUser volunteer = matching.getPairedSlot().registeredUser;
+    final Entity isolateInfo = referencedEntities.get(isolate.getUserInfoKey());
+    final Entity volunteerInfo = referencedEntities.get(volunteer.getUserInfoKey());
+    final Entity ticket = referencedEntities.get(matching.ticket);
+
+    final Entity matchingEntity = new Entity(createMatchKey(matching));
+    final IndexPolicy policy = IndexPolicy.MATCH;
+    policy.setProperty(matchingEntity, "isolateId", matching.getIsolate().getUserId());
+    policy.setProperty(
+            matchingEntity, "volunteerId", matching.getPairedSlot().registeredUser.getUserId());
+    policy.setProperty(matchingEntity, "date", matching.date.toString());
+    policy.setProperty(matchingEntity, "start", matching.start.toString());
+    policy.setProperty(matchingEntity, "end", matching.end.toString());
+    policy.setProperty(matchingEntity, "ticket", KeyFactory.keyToString(matching.ticket));
+
+    policy.setProperty(
+            matchingEntity, "isolateFirstName", getProperty(isolateInfo, "firstname"));
+    policy.setProperty(matchingEntity, "isolateLastName", getProperty(isolateInfo, "lastname"));
+    policy.setProperty(
+            matchingEntity, "volunteerFirstName", getProperty(volunteerInfo, "firstname"));
+    policy.setProperty(
+            matchingEntity, "volunteerLastName", getProperty(volunteerInfo, "lastname"));
+    policy.setProperty(matchingEntity, "subjects", toTextList(Ticket.getSubjects(ticket)));
+    policy.setProperty(matchingEntity, "details", toTextList(Ticket.getDetails(ticket)));
+    return matchingEntity;
+  }
+
+  /** @return the value of the property of the entity, or null if the entity is null. */
+  private static Object getProperty(Entity entity, String propertyName) {
+    return entity == null ? null : entity.getProperty(propertyName);
+  }
+
+  /**
+   * Convert strings into Text, which, unlike String, has no length limit in Datastore. An empty
+   * list is returned as null, as Datastore does not store empty lists.
+   */
+  private static List<Text> toTextList(String[] values) {
+    if (values.length == 0) return null;
+    final List<Text> texts = new ArrayList<>();
+    for (String value : values) {
+      texts.add(new Text(value));
+    }
+    return texts;
+  }
+
+  /**
+   * Create the key of the match for the provided IsolateTimeSlot. The key is derived from the date
+   * of the TimeSlot and its ticket, which uniquely identifies the TimeSlot, so the same TimeSlot
+   * always maps to the same match entity.
+   *
+   * @param isolateTimeSlot The IsolateTimeSlot whose match key should be created.
+   * @return The key of the match entity for the provided IsolateTimeSlot.
+   */
+  public static Key createMatchKey(IsolateTimeSlot isolateTimeSlot) {
+    final String name =
+            isolateTimeSlot.date.toString() + "/" + KeyFactory.keyToString(isolateTimeSlot.ticket);
+    return KeyFactory.createKey(MATCHING_TABLE_NAME, name);
   }
 
   /**
@@ -186,11 +404,9 @@ public class MatchingRunner {
    */
   protected static PreparedQuery getTimeSlotsQuery(
       UserType userType, LocalDate date, DatastoreService datastore) {
-    final Query query = new Query(timeSlotEntityNames.get(userType));
-
-    final Filter dateFilter = new FilterPredicate("date", FilterOperator.EQUAL, date.toString());
-
-    query.setFilter(dateFilter);
+    /* In the DAY layout, this reads a single range of keys rather than scanning the date index. */
+    final Query query =
+        SlotPartitioning.current().queryByDate(timeSlotEntityNames.get(userType), date);
 
     return datastore.prepare(query);
   }
@@ -228,7 +444,9 @@ public class MatchingRunner {
 
   /**
    * Fetch all VolunteerTimeSlots scheduled for the provided date using the provided DataStore
-   * implementation.
+   * implementation. The windows of the Volunteers' recurring {@link AvailabilityRule}s on that date
+   * are included, and each Volunteer's windows are coalesced, so that a window entered both ways is
+   * matched once.
    *
    * @param date      The date to filter the VolunteerTimeSlots by.
    * @param datastore The DataStore implementation to be queried.
@@ -241,14 +459,25 @@ public class MatchingRunner {
 
     final FetchOptions fetchOptions = FetchOptions.Builder.withDefaults();
 
-    final Set<VolunteerTimeSlot> timeSlots = new HashSet<>();
+    final Map<Volunteer, List<VolunteerTimeSlot>> timeSlotsByVolunteer = new HashMap<>();
 
     for (Entity entity : preparedQuery.asIterable(fetchOptions)) {
       final Volunteer volunteer = new Volunteer((String) entity.getProperty("userId"));
       final Instant start = Instant.parse((String) entity.getProperty("start"));
       final Instant end = Instant.parse((String) entity.getProperty("end"));
       final VolunteerTimeSlot volunteerTimeSlot = new VolunteerTimeSlot(start, end, volunteer);
-      timeSlots.add(volunteerTimeSlot);
+      timeSlotsByVolunteer.computeIfAbsent(volunteer, v -> new ArrayList<>()).add(volunteerTimeSlot);
+    }
+
+    for (VolunteerTimeSlot volunteerTimeSlot : AvailabilityRule.expandAll(date, datastore)) {
+      timeSlotsByVolunteer
+              .computeIfAbsent(volunteerTimeSlot.getVolunteer(), v -> new ArrayList<>())
+              .add(volunteerTimeSlot);
+    }
+
+    final Set<VolunteerTimeSlot> timeSlots = new HashSet<>();
+    for (List<VolunteerTimeSlot> volunteerTimeSlots : timeSlotsByVolunteer.values()) {
+      timeSlots.addAll(VolunteerTimeSlot.coalesce(volunteerTimeSlots));
     }
 
     return timeSlots;
@@ -275,4 +504,50 @@ public class MatchingRunner {
     Objects.requireNonNull(volunteerTimeSlots);
     this.volunteerTimeSlots = volunteerTimeSlots;
   }
+
+  /**
+   * Set the date for which this MatchingRunner should create matches.
+   *
+   * @param date The date on which the created matches will be scheduled.
+   * @throws NullPointerException If date is null.
+   */
+  public void setDate(LocalDate date) {
+    Objects.requireNonNull(date);
+    this.date = date;
+  }
+
+  /**
+   * Set the time after which this MatchingRunner should stop writing results. Each phase before the
+   * writes is only started before the deadline, but is always finished once started, so the deadline
+   * should leave enough time for the phase in progress to finish.
+   *
+   * @param deadline The deadline for writing results.
+   * @throws NullPointerException If deadline is null.
+   */
+  public void setDeadline(Instant deadline) {
+    Objects.requireNonNull(deadline);
+    this.deadline = deadline;
+  }
+
+  /**
+   * Set the DatastoreService this MatchingRunner reads time slots from and writes matches to.
+   *
+   * @param datastore The DatastoreService implementation to depend on.
+   * @throws NullPointerException If datastore is null.
+   */
+  public void setDatastore(DatastoreService datastore) {
+    Objects.requireNonNull(datastore);
+    this.datastore = datastore;
+  }
+
+  /**
+   * Set the cache of listings whose matches this MatchingRunner should invalidate.
+   *
+   * @param listingCache The ListingCache to invalidate.
+   * @throws NullPointerException If listingCache is null.
+   */
+  public void setListingCache(ListingCache listingCache) {
+    Objects.requireNonNull(listingCache);
+    this.listingCache = listingCache;
+  }
 }
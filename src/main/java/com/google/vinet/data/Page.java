@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.data;
+
+import com.google.appengine.api.datastore.QueryResultIterator;
+
+import java.util.List;
+
+/**
+ * A page of a listing, with the cursor from which the next page can be fetched.
+ *
+ * @param <T> The type of the items in the listing.
+ */
+public class Page<T> {
+  private final List<T> items;
+  /** The web-safe cursor of the next page, or null if this is the last page. */
+  private final String cursor;
+
+  /**
+   * @param items The items of this page.
+   * @param cursor The web-safe cursor of the next page, or null if this is the last page.
+   */
+  public Page(List<T> items, String cursor) {
+    this.items = items;
+    this.cursor = cursor;
+  }
+
+  /**
+   * Get the cursor of the page following the results of a query which have been iterated through.
+   * A query which returned fewer results than its limit has no more results, so has no next page.
+   *
+   * @param results The iterator of the results of a query, fetched with a limit.
+   * @param count The number of results that were iterated through.
+   * @param limit The limit the results were fetched with.
+   * @return The web-safe cursor of the next page, or null if there are no more results.
+   */
+  public static String getNextCursor(QueryResultIterator<?> results, int count, int limit) {
+    if (count < limit) return null;
+    return results.getCursor().toWebSafeString();
+  }
+
+  public List<T> getItems() {
+    return items;
+  }
+
+  public String getCursor() {
+    return cursor;
+  }
+}
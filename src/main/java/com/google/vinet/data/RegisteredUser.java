@@ -16,7 +16,13 @@
 
 package com.google.vinet.data;
 
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+
 public class RegisteredUser {
+  /** The Datastore Entity name for a User's information, which is keyed by their userId. */
+  public static final String USER_TABLE_NAME = "UserInfo";
+
   private final String userId;
 
   public RegisteredUser(String userId) {
@@ -27,6 +33,11 @@ public class RegisteredUser {
     return userId;
   }
 
+  /** @return the Datastore key of this User's information. */
+  public Key getUserInfoKey() {
+    return KeyFactory.createKey(USER_TABLE_NAME, userId);
+  }
+
   @Override
   public int hashCode() {
     return userId.hashCode();
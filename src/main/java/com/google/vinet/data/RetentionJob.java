@@ -0,0 +1,435 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.data;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.EmbeddedEntity;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PropertyContainer;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.datastore.Text;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Archives and purges the time slots, tickets, matches and matching run history which have expired
+ * under a {@link RetentionPolicy}, one batch at a time, and purges the finished matching jobs.
+ *
+ * <p>Each batch groups its expired records by their date, and compacts each group into an
+ * {@code Archive} entity holding the records as gzip-compressed JSON lines. Tickets are archived in
+ * the line of their IsolateTimeSlot, as they have no date of their own. The archives are put before
+ * the records are deleted, and are keyed by the step, the date and the cursor the batch started
+ * from. A batch which fails part way through is run again from the same cursor, so its archives are
+ * read back and merged with the records the retry finds, rather than being duplicated or
+ * overwritten.
+ *
+ * <p>Matching jobs are not archived, as the outcome of each run is kept in its {@link MatchingRun}.
+ * A job is only purged once it is done or has failed, with the chunks of writes a failed job left.
+ */
+public class RetentionJob {
+  /** The kinds of record which are expired, in the order they are processed. */
+  public enum Step {
+    ISOLATE_TIME_SLOTS,
+    VOLUNTEER_TIME_SLOTS,
+    MATCHES,
+    MATCHING_RUNS,
+    MATCHING_JOBS;
+
+    /** @return the step after this one, or null if this is the last step. */
+    public Step next() {
+      final Step[] steps = values();
+      return ordinal() + 1 < steps.length ? steps[ordinal() + 1] : null;
+    }
+
+    /** @return the Datastore kind of the records of this step. */
+    public String getKind() {
+      switch (this) {
+        case ISOLATE_TIME_SLOTS:
+          return IsolateTimeSlot.ISOLATE_TIME_SLOT_TABLE_NAME;
+        case VOLUNTEER_TIME_SLOTS:
+          return VolunteerTimeSlot.VOLUNTEER_TIMESLOT_TABLE_NAME;
+        case MATCHES:
+          return MatchingRunner.MATCHING_TABLE_NAME;
+        case MATCHING_RUNS:
+          return MatchingRun.MATCHING_RUN_TABLE_NAME;
+        default:
+          return MatchingJob.MATCHING_JOB_TABLE_NAME;
+      }
+    }
+
+    /**
+     * @return the property from which the records of this step expire. MatchingRuns are only
+     *     indexed by the time they started, which is an ISO-8601 instant, and so sorts before the
+     *     cutoff date exactly when it falls on an earlier day.
+     */
+    public String getExpiryProperty() {
+      return this == MATCHING_RUNS ? "started" : "date";
+    }
+  }
+
+  /** The Datastore entity name for archives. */
+  public static final String ARCHIVE_TABLE_NAME = "Archive";
+  /**
+   * The number of records read by each batch. An IsolateTimeSlot is purged with its ticket, so
+   * this keeps the keys purged by a batch within a single batched delete.
+   */
+  public static final int BATCH_SIZE = 250;
+  /** The largest number of keys deleted by a single batched delete. */
+  private static final int DELETE_BATCH_SIZE = 500;
+  /** The largest compressed archive stored in one entity, leaving room below the entity size limit. */
+  private static final int MAX_ARCHIVE_BYTES = 900 * 1024;
+
+  /** The DatastoreService implementation that this RetentionJob depends on. */
+  private final DatastoreService datastore;
+  /** The policy deciding which records have expired. */
+  private final RetentionPolicy policy;
+
+  /**
+   * Construct a RetentionJob which depends on the provided dependencies.
+   * @param datastore The DatastoreService implementation to depend on.
+   * @param policy The policy deciding which records have expired.
+   */
+  public RetentionJob(DatastoreService datastore, RetentionPolicy policy) {
+    this.datastore = datastore;
+    this.policy = policy;
+  }
+
+  /**
+   * Archive and purge the expired records among the next batch of records of a step.
+   *
+   * @param step The step whose records are to be expired.
+   * @param cursor The web-safe cursor returned by the previous batch of the step, or null for the
+   *     first batch.
+   * @param today The current date, from which the expiry of records is decided.
+   * @return the web-safe cursor of the next batch of the step, or null if the step is complete.
+   */
+  public String runBatch(Step step, String cursor, LocalDate today) {
+    final LocalDate cutoff = policy.getCutoff(step, today);
+
+    final Query query =
+            step == Step.ISOLATE_TIME_SLOTS || step == Step.VOLUNTEER_TIME_SLOTS
+                    ? SlotPartitioning.current().queryBefore(step.getKind(), cutoff)
+                    : new Query(step.getKind())
+                            .setFilter(
+                                    new FilterPredicate(
+                                            step.getExpiryProperty(),
+                                            FilterOperator.LESS_THAN,
+                                            cutoff.toString()));
+
+    final FetchOptions fetchOptions = FetchOptions.Builder.withLimit(BATCH_SIZE);
+    if (cursor != null) fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+
+    final QueryResultIterator<Entity> entities =
+            datastore.prepare(query).asQueryResultIterator(fetchOptions);
+    final List<Entity> expired = new ArrayList<>();
+    int count = 0;
+    while (entities.hasNext()) {
+      final Entity entity = entities.next();
+      count++;
+      /* A range of keys may contain records which are not keyed by their date, so each record's own
+       * date decides whether it has expired. */
+      final Object date = entity.getProperty(step.getExpiryProperty());
+      if (date instanceof String && ((String) date).compareTo(cutoff.toString()) < 0) {
+        expired.add(entity);
+      }
+    }
+
+    if (step == Step.MATCHING_JOBS) {
+      purgeFinishedJobs(expired);
+    } else if (!expired.isEmpty()) {
+      archiveAndPurge(step, getBatchName(cursor), expired);
+    }
+
+    return Page.getNextCursor(entities, count, BATCH_SIZE);
+  }
+
+  /**
+   * @param cursor The web-safe cursor the batch started from, or null for the first batch.
+   * @return a name for the batch, which is the same each time the batch is run.
+   */
+  static String getBatchName(String cursor) {
+    if (cursor == null) return "start";
+    return UUID.nameUUIDFromBytes(cursor.getBytes(StandardCharsets.UTF_8)).toString();
+  }
+
+  /**
+   * Archive the provided records, grouped by date, then delete them and, for IsolateTimeSlots, their
+   * tickets. The tickets are read with a single batched get.
+   *
+   * @param step The step of the records.
+   * @param batch The name of the batch, from {@link #getBatchName(String)}.
+   * @param expired The expired records.
+   */
+  private void archiveAndPurge(Step step, String batch, List<Entity> expired) {
+    Map<Key, Entity> tickets = Collections.emptyMap();
+    if (step == Step.ISOLATE_TIME_SLOTS) {
+      final List<Key> ticketKeys = new ArrayList<>();
+      for (Entity timeSlot : expired) {
+        ticketKeys.add(KeyFactory.stringToKey((String) timeSlot.getProperty("ticketKey")));
+      }
+      tickets = datastore.get(ticketKeys);
+    }
+
+    final Map<String, List<String>> linesByDate = new TreeMap<>();
+    final List<Key> purged = new ArrayList<>();
+    for (Entity entity : expired) {
+      final String date = (String) entity.getProperty("date");
+      final JsonObject line = toJson(entity);
+      if (step == Step.ISOLATE_TIME_SLOTS) {
+        final Key ticketKey = KeyFactory.stringToKey((String) entity.getProperty("ticketKey"));
+        final Entity ticket = tickets.get(ticketKey);
+        line.add("ticket", ticket == null ? JsonNull.INSTANCE : toJson(ticket));
+        if (ticket != null) purged.add(ticketKey);
+      }
+      linesByDate.computeIfAbsent(date, d -> new ArrayList<>()).add(line.toString());
+      purged.add(entity.getKey());
+    }
+
+    final List<Entity> archives = new ArrayList<>();
+    final Set<Key> replaced = new HashSet<>();
+    for (Map.Entry<String, List<String>> day : linesByDate.entrySet()) {
+      final String name = step.name() + "/" + day.getKey() + "/" + batch;
+      final List<String> lines = mergeWithArchived(name, day.getValue(), replaced);
+      addArchives(archives, step, day.getKey(), name, lines);
+    }
+
+    datastore.put(archives);
+    for (Entity archive : archives) {
+      replaced.remove(archive.getKey());
+    }
+    if (!replaced.isEmpty()) datastore.delete(replaced);
+    for (int i = 0; i < purged.size(); i += DELETE_BATCH_SIZE) {
+      datastore.delete(purged.subList(i, Math.min(purged.size(), i + DELETE_BATCH_SIZE)));
+    }
+  }
+
+  /**
+   * Delete the provided matching jobs which are done or have failed. A job deletes its chunks of
+   * writes when it is done, so only the chunks of failed jobs are looked for.
+   *
+   * @param expired The expired matching jobs.
+   */
+  private void purgeFinishedJobs(List<Entity> expired) {
+    final List<Key> purged = new ArrayList<>();
+    for (Entity entity : expired) {
+      final MatchingJob matchingJob = new MatchingJob(entity);
+      if (matchingJob.isFailed()) matchingJob.deleteChunks(datastore);
+      if (matchingJob.isDone() || matchingJob.isFailed()) purged.add(entity.getKey());
+    }
+    if (!purged.isEmpty()) datastore.delete(purged);
+  }
+
+  /**
+   * Merge the lines of a group with those archived under its name by an earlier run of the batch,
+   * which may have deleted some of its records before failing. A record archived by both runs is
+   * kept once, with its line from this run.
+   *
+   * @param name The key name of the archive of the group.
+   * @param lines The JSON lines of the records found by this run.
+   * @param replaced The set to add the keys of the earlier archives to.
+   * @return the merged lines.
+   */
+  private List<String> mergeWithArchived(String name, List<String> lines, Set<Key> replaced) {
+    /* Archives split by addArchives are named by appending "/0" and "/1", which sort between the
+     * name itself and the name followed by "0". */
+    final Query query =
+            new Query(ARCHIVE_TABLE_NAME)
+                    .setFilter(
+                            CompositeFilterOperator.and(
+                                    new FilterPredicate(
+                                            Entity.KEY_RESERVED_PROPERTY,
+                                            FilterOperator.GREATER_THAN_OR_EQUAL,
+                                            KeyFactory.createKey(ARCHIVE_TABLE_NAME, name)),
+                                    new FilterPredicate(
+                                            Entity.KEY_RESERVED_PROPERTY,
+                                            FilterOperator.LESS_THAN,
+                                            KeyFactory.createKey(ARCHIVE_TABLE_NAME, name + "0"))));
+
+    final Map<String, String> linesByKey = new LinkedHashMap<>();
+    for (Entity archive : datastore.prepare(query).asIterable()) {
+      replaced.add(archive.getKey());
+      for (String line : decompress(((Blob) archive.getProperty("data")).getBytes())) {
+        linesByKey.put(getRecordKey(line), line);
+      }
+    }
+    if (linesByKey.isEmpty()) return lines;
+
+    for (String line : lines) {
+      linesByKey.put(getRecordKey(line), line);
+    }
+    return new ArrayList<>(linesByKey.values());
+  }
+
+  /**
+   * @param line A JSON line created by {@link #toJson(Entity)}.
+   * @return the key of the record of the line.
+   */
+  private static String getRecordKey(String line) {
+    return JsonParser.parseString(line).getAsJsonObject().get("key").getAsString();
+  }
+
+  /**
+   * Compress the provided lines into archive entities, splitting them across several entities if
+   * they are too large to compress into one.
+   *
+   * @param archives The list to add the archive entities to.
+   * @param step The step of the archived records.
+   * @param date The date of the archived records.
+   * @param name The key name of the archive.
+   * @param lines The JSON lines to archive.
+   */
+  private static void addArchives(
+          List<Entity> archives, Step step, String date, String name, List<String> lines) {
+    final byte[] compressed = compress(lines);
+    if (compressed.length > MAX_ARCHIVE_BYTES && lines.size() > 1) {
+      final int middle = lines.size() / 2;
+      addArchives(archives, step, date, name + "/0", lines.subList(0, middle));
+      addArchives(archives, step, date, name + "/1", lines.subList(middle, lines.size()));
+      return;
+    }
+
+    final Entity archive = new Entity(ARCHIVE_TABLE_NAME, name);
+    archive.setProperty("step", step.name());
+    archive.setProperty("date", date);
+    archive.setUnindexedProperty("count", (long) lines.size());
+    archive.setUnindexedProperty("created", Date.from(Instant.now()));
+    archive.setUnindexedProperty("data", new Blob(compressed));
+    archives.add(archive);
+  }
+
+  /**
+   * @param lines The lines to compress.
+   * @return the lines, each followed by a newline, encoded as UTF-8 and gzip-compressed.
+   */
+  static byte[] compress(List<String> lines) {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (Writer writer =
+                 new OutputStreamWriter(new GZIPOutputStream(bytes), StandardCharsets.UTF_8)) {
+      for (String line : lines) {
+        writer.write(line);
+        writer.write('\n');
+      }
+    } catch (IOException exception) {
+      throw new UncheckedIOException(exception);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * @param data The data created by {@link #compress(List)}.
+   * @return the lines of the data.
+   */
+  static List<String> decompress(byte[] data) {
+    try (BufferedReader reader =
+                 new BufferedReader(
+                         new InputStreamReader(
+                                 new GZIPInputStream(new ByteArrayInputStream(data)),
+                                 StandardCharsets.UTF_8))) {
+      final List<String> lines = new ArrayList<>();
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        lines.add(line);
+      }
+      return lines;
+    } catch (IOException exception) {
+      throw new UncheckedIOException(exception);
+    }
+  }
+
+  /**
+   * @param entity The entity to convert.
+   * @return the key and properties of the entity as JSON.
+   */
+  static JsonObject toJson(Entity entity) {
+    final JsonObject json = new JsonObject();
+    json.addProperty("key", KeyFactory.keyToString(entity.getKey()));
+    json.add("properties", propertiesToJson(entity));
+    return json;
+  }
+
+  /**
+   * @param container The entity or embedded entity whose properties are to be converted.
+   * @return the properties as a JSON object.
+   */
+  private static JsonObject propertiesToJson(PropertyContainer container) {
+    final JsonObject properties = new JsonObject();
+    for (Map.Entry<String, Object> property : new TreeMap<>(container.getProperties()).entrySet()) {
+      properties.add(property.getKey(), valueToJson(property.getValue()));
+    }
+    return properties;
+  }
+
+  /**
+   * @param value The value of a property.
+   * @return the value as JSON.
+   */
+  private static JsonElement valueToJson(Object value) {
+    if (value == null) return JsonNull.INSTANCE;
+    if (value instanceof String) return new JsonPrimitive((String) value);
+    if (value instanceof Number) return new JsonPrimitive((Number) value);
+    if (value instanceof Boolean) return new JsonPrimitive((Boolean) value);
+    if (value instanceof Text) return new JsonPrimitive(((Text) value).getValue());
+    if (value instanceof Key) return new JsonPrimitive(KeyFactory.keyToString((Key) value));
+    if (value instanceof Date) return new JsonPrimitive(((Date) value).toInstant().toString());
+    if (value instanceof EmbeddedEntity) return propertiesToJson((EmbeddedEntity) value);
+    if (value instanceof Collection) {
+      final JsonArray array = new JsonArray();
+      for (Object element : (Collection<?>) value) {
+        array.add(valueToJson(element));
+      }
+      return array;
+    }
+    return new JsonPrimitive(value.toString());
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.data;
+
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * How long the records of each {@link RetentionJob.Step} are kept after their date before they are
+ * archived and purged. A record dated D expires once D is more than the retention period before
+ * today, so a retention period of zero days expires every record dated before today.
+ *
+ * <p>Each period is read from the {@code RETENTION_DAYS_<STEP>} environment variable, such as
+ * {@code RETENTION_DAYS_MATCHES}, and falls back to the default period of its step.
+ */
+public class RetentionPolicy {
+  /** The prefix of the environment variables from which the retention periods are read. */
+  public static final String ENVIRONMENT_VARIABLE_PREFIX = "RETENTION_DAYS_";
+  /** The number of days time slots and their tickets are kept, if it is not configured. */
+  public static final int DEFAULT_TIME_SLOT_RETENTION_DAYS = 30;
+  /**
+   * The number of days matches are kept, if it is not configured. Matches are only needed until
+   * they have taken place.
+   */
+  public static final int DEFAULT_MATCH_RETENTION_DAYS = 0;
+  /**
+   * The number of days the history of matching runs is kept, if it is not configured. Runs are
+   * kept long enough to compare them as the data grows.
+   */
+  public static final int DEFAULT_MATCHING_RUN_RETENTION_DAYS = 90;
+  /**
+   * The number of days finished matching jobs are kept, if it is not configured. A job is only
+   * needed while it runs and its status is being watched.
+   */
+  public static final int DEFAULT_MATCHING_JOB_RETENTION_DAYS = 7;
+
+  private final Map<RetentionJob.Step, Integer> retentionDays;
+
+  /**
+   * Construct a RetentionPolicy with the provided retention periods.
+   * @param retentionDays The number of days the records of each step are kept, which must include
+   *     every step.
+   */
+  public RetentionPolicy(Map<RetentionJob.Step, Integer> retentionDays) {
+    for (RetentionJob.Step step : RetentionJob.Step.values()) {
+      final Integer days = retentionDays.get(step);
+      if (days == null || days < 0) {
+        throw new IllegalArgumentException("retention of " + step + " must be at least 0 days");
+      }
+    }
+    this.retentionDays = new EnumMap<>(retentionDays);
+  }
+
+  /** @return the RetentionPolicy configured by the environment of this deployment. */
+  public static RetentionPolicy fromEnvironment() {
+    return fromVariables(System::getenv);
+  }
+
+  /**
+   * @param variables A lookup of configuration variables, which returns null for those not set.
+   * @return the RetentionPolicy configured by the provided variables.
+   */
+  static RetentionPolicy fromVariables(Function<String, String> variables) {
+    final Map<RetentionJob.Step, Integer> retentionDays = new EnumMap<>(RetentionJob.Step.class);
+    for (RetentionJob.Step step : RetentionJob.Step.values()) {
+      final String value = variables.apply(ENVIRONMENT_VARIABLE_PREFIX + step.name());
+      retentionDays.put(
+              step,
+              value == null || value.isEmpty()
+                      ? getDefaultRetentionDays(step)
+                      : Integer.parseInt(value.trim()));
+    }
+    return new RetentionPolicy(retentionDays);
+  }
+
+  /**
+   * @param step A step.
+   * @return the number of days the records of the step are kept, if it is not configured.
+   */
+  private static int getDefaultRetentionDays(RetentionJob.Step step) {
+    switch (step) {
+      case MATCHES:
+        return DEFAULT_MATCH_RETENTION_DAYS;
+      case MATCHING_RUNS:
+        return DEFAULT_MATCHING_RUN_RETENTION_DAYS;
+      case MATCHING_JOBS:
+        return DEFAULT_MATCHING_JOB_RETENTION_DAYS;
+      default:
+        return DEFAULT_TIME_SLOT_RETENTION_DAYS;
+    }
+  }
+
+  /**
+   * @param step The step whose records are being expired.
+   * @return the number of days the records of the step are kept after their date.
+   */
+  public int getRetentionDays(RetentionJob.Step step) {
+    return retentionDays.get(step);
+  }
+
+  /**
+   * @param step The step whose records are being expired.
+   * @param today The current date.
+   * @return the date before which the records of the step have expired, exclusive.
+   */
+  public LocalDate getCutoff(RetentionJob.Step step, LocalDate today) {
+    return today.minusDays(getRetentionDays(step));
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How the keys of time slots are laid out, which decides whether reading the slots of one user or
+ * the slots of one day is the cheaper query. The layout is chosen with the
+ * {@code SLOT_PARTITIONING} environment variable, and is {@link #USER} if it is not set.
+ *
+ * <p>Switching layout leaves existing slots in the old one until they are moved by the
+ * {@link EntityGroupMigration}.
+ */
+public enum SlotPartitioning {
+  /**
+   * Slots are kept in the entity group of their user's UserInfo entity. A user's slots are read with
+   * a strongly consistent ancestor query and can be changed in a transaction, and a day's slots are
+   * read through the index on their {@code date} property.
+   */
+  USER,
+  /**
+   * Slots are root entities whose key names start with their date, so a day's slots form one
+   * contiguous range of keys. A day's slots are read, or purged, with a scan of that range, and a
+   * user's slots are read through the index on their user id property, which is eventually
+   * consistent.
+   */
+  DAY;
+
+  /** The environment variable from which the layout is read. */
+  public static final String ENVIRONMENT_VARIABLE = "SLOT_PARTITIONING";
+  /** The separator between the parts of the key name of a slot in the DAY layout. */
+  private static final String SEPARATOR = "/";
+  /** The largest number of keys deleted by a single batched delete. */
+  private static final int DELETE_BATCH_SIZE = 500;
+
+  /** @return the layout configured for this deployment. */
+  public static SlotPartitioning current() {
+    final String value = System.getenv(ENVIRONMENT_VARIABLE);
+    return value == null || value.isEmpty() ? USER : valueOf(value);
+  }
+
+  /**
+   * Create the key of a slot.
+   *
+   * @param kind The kind of the slot.
+   * @param user The user whose slot it is.
+   * @param date The date of the slot.
+   * @param name The name which identifies the slot among the user's slots.
+   * @return the key of the slot in this layout.
+   */
+  public Key createKey(String kind, RegisteredUser user, LocalDate date, String name) {
+    if (this == USER) return KeyFactory.createKey(user.getUserInfoKey(), kind, name);
+    return KeyFactory.createKey(
+            kind, date.toString() + SEPARATOR + user.getUserId() + SEPARATOR + name);
+  }
+
+  /**
+   * Create the key of a slot which is identified among its user's slots by a number.
+   *
+   * @param kind The kind of the slot.
+   * @param user The user whose slot it is.
+   * @param date The date of the slot.
+   * @param id The number which identifies the slot among the user's slots.
+   * @return the key of the slot in this layout.
+   */
+  public Key createKey(String kind, RegisteredUser user, LocalDate date, long id) {
+    if (this == USER) return KeyFactory.createKey(user.getUserInfoKey(), kind, id);
+    return createKey(kind, user, date, Long.toString(id));
+  }
+
+  /**
+   * Create a query for all slots of a kind which belong to a user.
+   *
+   * @param kind The kind of the slots.
+   * @param userIdProperty The property in which the slots store the id of their user.
+   * @param user The user whose slots are to be queried.
+   * @return the query for the user's slots in this layout.
+   */
+  public Query queryByUser(String kind, String userIdProperty, RegisteredUser user) {
+    if (this == USER) return new Query(kind).setAncestor(user.getUserInfoKey());
+    return new Query(kind)
+            .setFilter(new FilterPredicate(userIdProperty, FilterOperator.EQUAL, user.getUserId()));
+  }
+
+  /**
+   * Create a query for all slots of a kind which are scheduled on a date.
+   *
+   * @param kind The kind of the slots.
+   * @param date The date of the slots.
+   * @return the query for the date's slots in this layout.
+   */
+  public Query queryByDate(String kind, LocalDate date) {
+    if (this == USER) {
+      return new Query(kind)
+              .setFilter(new FilterPredicate("date", FilterOperator.EQUAL, date.toString()));
+    }
+    /* Every key name of the date starts with the date and the separator, and the character after
+     * the separator is the first which cannot follow that prefix. */
+    final String prefix = date.toString() + SEPARATOR;
+    final String end = date.toString() + (char) (SEPARATOR.charAt(0) + 1);
+    return new Query(kind)
+            .setFilter(
+                    CompositeFilterOperator.and(
+                            new FilterPredicate(
+                                    Entity.KEY_RESERVED_PROPERTY,
+                                    FilterOperator.GREATER_THAN_OR_EQUAL,
+                                    KeyFactory.createKey(kind, prefix)),
+                            new FilterPredicate(
+                                    Entity.KEY_RESERVED_PROPERTY,
+                                    FilterOperator.LESS_THAN,
+                                    KeyFactory.createKey(kind, end))));
+  }
+
+  /**
+   * Create a query for all slots of a kind which are scheduled before a date. In the DAY layout,
+   * this is the range of keys before the first key of the date, which also contains any slots whose
+   * keys are not in the DAY layout, so the dates of the results should be checked.
+   *
+   * @param kind The kind of the slots.
+   * @param date The date before which the slots are scheduled, exclusive.
+   * @return the query for the slots scheduled before the date in this layout.
+   */
+  public Query queryBefore(String kind, LocalDate date) {
+    if (this == USER) {
+      return new Query(kind)
+              .setFilter(new FilterPredicate("date", FilterOperator.LESS_THAN, date.toString()));
+    }
+    return new Query(kind)
+            .setFilter(
+                    new FilterPredicate(
+                            Entity.KEY_RESERVED_PROPERTY,
+                            FilterOperator.LESS_THAN,
+                            KeyFactory.createKey(kind, date.toString())));
+  }
+
+  /**
+   * Delete all slots of a kind which are scheduled on a date, with a keys-only scan and batched
+   * deletes. In the DAY layout the scan reads a single range of keys.
+   *
+   * @param kind The kind of the slots.
+   * @param date The date whose slots are to be deleted.
+   * @param datastore The DatastoreService to delete the slots from.
+   * @return the number of slots deleted.
+   */
+  public int deleteByDate(String kind, LocalDate date, DatastoreService datastore) {
+    final Query query = queryByDate(kind, date).setKeysOnly();
+
+    final List<Key> batch = new ArrayList<>(DELETE_BATCH_SIZE);
+    int count = 0;
+    for (Entity entity :
+            datastore.prepare(query).asIterable(FetchOptions.Builder.withChunkSize(DELETE_BATCH_SIZE))) {
+      batch.add(entity.getKey());
+      count++;
+      if (batch.size() >= DELETE_BATCH_SIZE) {
+        datastore.delete(batch);
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) datastore.delete(batch);
+    return count;
+  }
+}
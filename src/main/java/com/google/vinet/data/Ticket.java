@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.data;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Text;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes the subjects and details of Ticket entities.
+ *
+ * <p>Subjects are stored as an indexed list of strings, so that tickets can be filtered on their
+ * subject. Details may be long, so are stored as an unindexed list of Text; see
+ * {@link IndexPolicy#TICKET}. Tickets stored before this format held both as JSON-encoded strings,
+ * which are still read.
+ */
+public final class Ticket {
+  /** The name of the property holding the subjects of a ticket. */
+  public static final String SUBJECTS_PROPERTY = "subjects";
+  /** The name of the property holding the details of a ticket. */
+  public static final String DETAILS_PROPERTY = "details";
+  /**
+   * The maximum length of a subject. Indexed strings are limited to 1500 bytes, which this length
+   * cannot exceed when encoded as UTF-8.
+   */
+  public static final int MAX_SUBJECT_LENGTH = 500;
+
+  private Ticket() {}
+
+  /**
+   * Set the subjects and details of a ticket. The i-th subject is described by the i-th detail.
+   *
+   * @param ticket The Ticket entity.
+   * @param subjects The subjects of the ticket, each of which must be at most
+   *     {@link #MAX_SUBJECT_LENGTH} characters long.
+   * @param details The details of the ticket.
+   * @throws IllegalArgumentException If a subject is too long.
+   */
+  public static void setContents(Entity ticket, List<String> subjects, List<String> details) {
+    for (String subject : subjects) {
+      if (subject.length() > MAX_SUBJECT_LENGTH) {
+        throw new IllegalArgumentException(
+            "subjects must be at most " + MAX_SUBJECT_LENGTH + " characters long");
+      }
+    }
+
+    final List<Text> detailTexts = new ArrayList<>(details.size());
+    for (String detail : details) {
+      detailTexts.add(new Text(detail));
+    }
+
+    IndexPolicy.TICKET.setProperty(ticket, SUBJECTS_PROPERTY, new ArrayList<>(subjects));
+    IndexPolicy.TICKET.setProperty(ticket, DETAILS_PROPERTY, detailTexts);
+  }
+
+  /**
+   * @param ticket A Ticket entity, or null.
+   * @return The subjects of the ticket, or an empty array if there is no ticket.
+   */
+  public static String[] getSubjects(Entity ticket) {
+    return ticket == null ? new String[] {} : read(ticket.getProperty(SUBJECTS_PROPERTY));
+  }
+
+  /**
+   * @param ticket A Ticket entity, or null.
+   * @return The details of the ticket, or an empty array if there is no ticket.
+   */
+  public static String[] getDetails(Entity ticket) {
+    return ticket == null ? new String[] {} : read(ticket.getProperty(DETAILS_PROPERTY));
+  }
+
+  /**
+   * Read a list property of a ticket, in either format. Datastore does not store empty lists, so a
+   * null value is read as an empty array.
+   */
+  private static String[] read(Object value) {
+    if (value == null) return new String[] {};
+
+    /* Tickets stored before subjects and details were stored as lists hold them as JSON. */
+    if (value instanceof String) return Json.parseStringArray((String) value);
+
+    final List<?> values = (List<?>) value;
+    final String[] strings = new String[values.size()];
+    for (int i = 0; i < strings.length; i++) {
+      final Object member = values.get(i);
+      strings[i] = member instanceof Text ? ((Text) member).getValue() : (String) member;
+    }
+    return strings;
+  }
+}
@@ -17,19 +17,32 @@
 package com.google.vinet.data;
 
 import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.vinet.metrics.InstrumentedDatastoreService;
 
 import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
 public class VolunteerTimeSlot extends TimeSlot implements Datastoreable {
   private static DatastoreService datastoreService;
   public static final String VOLUNTEER_TIMESLOT_TABLE_NAME = "volunteer_timeslots";
+  /** How many times a replacement of a Volunteer's TimeSlots is attempted before giving up. */
+  private static final int REPLACE_ATTEMPTS = 3;
 
   public VolunteerTimeSlot(Instant start, Instant end, Volunteer volunteer) {
     super(start, end, volunteer);
@@ -46,17 +59,48 @@ public class VolunteerTimeSlot extends TimeSlot implements Datastoreable {
     return (Volunteer) registeredUser;
   }
 
+  /**
+   * The key of this TimeSlot is derived from its start and end, and is laid out by the current
+   * {@link SlotPartitioning}. A Volunteer therefore has at most one entity for each distinct slot,
+   * and in the default layout all of a Volunteer's slots are in one entity group.
+   *
+   * @return the key of the entity representing this TimeSlot.
+   */
+  public Key getKey() {
+    return SlotPartitioning.current()
+            .createKey(
+                    VOLUNTEER_TIMESLOT_TABLE_NAME,
+                    registeredUser,
+                    getDate(),
+                    getStart().toString() + "/" + getEnd().toString());
+  }
+
+  /** @return the date on which this TimeSlot starts, in UTC. */
+  public LocalDate getDate() {
+    return LocalDate.parse(getStart().toString().split("T")[0]);
+  }
+
+  /**
+   * Only the properties the slots are queried by are indexed. See
+   * {@link IndexPolicy#VOLUNTEER_TIME_SLOT}.
+   *
+   * @return an entity representing this TimeSlot, which has not been put into the datastore.
+   */
+  public Entity toEntity() {
+    final Entity entity = new Entity(getKey());
+    final IndexPolicy policy = IndexPolicy.VOLUNTEER_TIME_SLOT;
+    policy.setProperty(entity, "userId", registeredUser.getUserId());
+    policy.setProperty(entity, "date", getDate().toString());
+    policy.setProperty(entity, "start", getStart().toString());
+    policy.setProperty(entity, "end", getEnd().toString());
+    return entity;
+  }
+
   @Override
   public void toDatastore() {
-    if (datastoreService == null) datastoreService = DatastoreServiceFactory.getDatastoreService();
-
-    final Entity entity = new Entity(VOLUNTEER_TIMESLOT_TABLE_NAME);
-    entity.setProperty("userId", registeredUser.getUserId());
-    entity.setProperty("date", getStart().toString().split("T")[0]);
-    entity.setProperty("start", getStart().toString());
-    entity.setProperty("end", getEnd().toString());
+    if (datastoreService == null) datastoreService = InstrumentedDatastoreService.create();
 
-    datastoreService.put(entity);
+    datastoreService.put(toEntity());
   }
 
   public static List<VolunteerTimeSlot> getTimeslotsByUserId(String userId) {
@@ -65,18 +109,168 @@ public class VolunteerTimeSlot extends TimeSlot implements Datastoreable {
             .collect(Collectors.toList());
   }
 
+  /**
+   * Iterate through a page of the TimeSlot entities of a Volunteer, which can be read with
+   * {@link #VolunteerTimeSlot(Entity)} as they are fetched.
+   *
+   * @param userId The id of the Volunteer.
+   * @param fetchOptions The limit, and optionally the start cursor, of the page.
+   * @return An iterator through the page of the Volunteer's TimeSlot entities.
+   */
+  public static QueryResultIterator<Entity> iterateTimeslotsByUserId(
+          String userId, FetchOptions fetchOptions) {
+    return queryTimeSlots(userId).asQueryResultIterator(fetchOptions);
+  }
+
   private static PreparedQuery queryTimeSlots(String userId) {
     Query query =
-            new Query(VOLUNTEER_TIMESLOT_TABLE_NAME)
-                    .setFilter(new Query.FilterPredicate("userId", Query.FilterOperator.EQUAL, userId));
+            SlotPartitioning.current()
+                    .queryByUser(VOLUNTEER_TIMESLOT_TABLE_NAME, "userId", new Volunteer(userId));
 
-    if (datastoreService == null) datastoreService = DatastoreServiceFactory.getDatastoreService();
+    if (datastoreService == null) datastoreService = InstrumentedDatastoreService.create();
 
     return datastoreService.prepare(query);
   }
 
+  /**
+   * Merge TimeSlots which overlap or touch into single TimeSlots, so that the result is a sorted
+   * set of the windows covered by the provided TimeSlots. Empty TimeSlots are dropped.
+   *
+   * <p>Only TimeSlots which start on the same {@link #getDate() date} are merged, as TimeSlots are
+   * matched by their date. A TimeSlot which ends at midnight is therefore kept apart from one which
+   * starts at that midnight, and availability on the next date stays available to its matching.
+   *
+   * @param timeSlots The TimeSlots of a single Volunteer, in any order.
+   * @return the merged TimeSlots, sorted by their start.
+   */
+  public static List<VolunteerTimeSlot> coalesce(Collection<VolunteerTimeSlot> timeSlots) {
+    final List<VolunteerTimeSlot> sorted = new ArrayList<>(timeSlots);
+    sorted.sort(Comparator.<TimeSlot>naturalOrder().thenComparing(TimeSlot.TimeSlotEndComparator));
+
+    final List<VolunteerTimeSlot> coalesced = new ArrayList<>();
+    VolunteerTimeSlot current = null;
+    for (VolunteerTimeSlot next : sorted) {
+      if (!next.getStart().isBefore(next.getEnd())) continue;
+
+      if (current == null) {
+        current = next;
+      } else if (next.getStart().isAfter(current.getEnd())
+              || !next.getDate().equals(current.getDate())) {
+        coalesced.add(current);
+        current = next;
+      } else if (next.getEnd().isAfter(current.getEnd())) {
+        current = new VolunteerTimeSlot(current.getStart(), next.getEnd(), current.getVolunteer());
+      }
+    }
+    if (current != null) coalesced.add(current);
+
+    return coalesced;
+  }
+
+  /**
+   * Replace all of the TimeSlots of a Volunteer with the provided TimeSlots, once overlapping and
+   * touching TimeSlots have been merged with {@link #coalesce(Collection)}. Only the difference is
+   * written: the stored slots which were not provided are deleted with one batched delete, and the
+   * provided slots which were not stored are put with one batched put.
+   *
+   * <p>In the default {@link SlotPartitioning}, both are applied in a transaction on the Volunteer's
+   * entity group, so concurrent replacements for the same Volunteer cannot interleave; a
+   * replacement which conflicts with another is retried. In the DAY layout the slots are in many
+   * entity groups, so the difference is applied without a transaction.
+   *
+   * <p>Only the TimeSlots in the current layout are replaced. TimeSlots stored in an earlier layout
+   * are moved into the current one by {@link EntityGroupMigration}.
+   *
+   * @param userId The id of the Volunteer.
+   * @param timeSlots The TimeSlots the Volunteer should have, which must all belong to the Volunteer.
+   * @throws ConcurrentModificationException If every attempt conflicted with another replacement.
+   */
+  public static void replaceTimeSlotsByUserId(String userId, Collection<VolunteerTimeSlot> timeSlots) {
+    if (datastoreService == null) datastoreService = InstrumentedDatastoreService.create();
+    replaceTimeSlotsByUserId(userId, timeSlots, datastoreService);
+  }
+
+  /**
+   * Replace all of the TimeSlots of a Volunteer with the provided TimeSlots, as
+   * {@link #replaceTimeSlotsByUserId(String, Collection)} does, using the provided datastore.
+   *
+   * @param userId The id of the Volunteer.
+   * @param timeSlots The TimeSlots the Volunteer should have, which must all belong to the Volunteer.
+   * @param datastore The DatastoreService to replace the TimeSlots in.
+   */
+  public static void replaceTimeSlotsByUserId(
+          String userId, Collection<VolunteerTimeSlot> timeSlots, DatastoreService datastore) {
+    /* Ownership is checked before coalescing, which would otherwise absorb another Volunteer's slot
+     * into an overlapping slot of this Volunteer. */
+    for (VolunteerTimeSlot timeSlot : timeSlots) {
+      if (!userId.equals(timeSlot.getVolunteer().getUserId())) {
+        throw new IllegalArgumentException("time slots must all belong to the volunteer");
+      }
+    }
+
+    final Map<Key, Entity> submitted = new LinkedHashMap<>();
+    for (VolunteerTimeSlot timeSlot : coalesce(timeSlots)) {
+      final Entity entity = timeSlot.toEntity();
+      submitted.put(entity.getKey(), entity);
+    }
+
+    final SlotPartitioning partitioning = SlotPartitioning.current();
+    final Query query =
+            partitioning
+                    .queryByUser(VOLUNTEER_TIMESLOT_TABLE_NAME, "userId", new Volunteer(userId))
+                    .setKeysOnly();
+
+    if (partitioning == SlotPartitioning.DAY) {
+      applyDifference(submitted, datastore.prepare(query).asIterable(), null, datastore);
+      return;
+    }
+
+    for (int attempt = 1; ; attempt++) {
+      final Transaction transaction = datastore.beginTransaction();
+      try {
+        applyDifference(
+                submitted, datastore.prepare(transaction, query).asIterable(), transaction, datastore);
+        transaction.commit();
+        break;
+      } catch (ConcurrentModificationException exception) {
+        if (attempt >= REPLACE_ATTEMPTS) throw exception;
+      } finally {
+        if (transaction.isActive()) transaction.rollback();
+      }
+    }
+  }
+
+  /**
+   * Delete the stored TimeSlots which were not submitted, and put the submitted TimeSlots which were
+   * not stored, with at most one batched delete and one batched put.
+   *
+   * @param submitted The entities of the submitted TimeSlots, by key.
+   * @param stored The stored TimeSlot entities, which need only have their keys.
+   * @param transaction The transaction to apply the difference in, or null to apply it without one.
+   * @param datastore The DatastoreService to apply the difference to.
+   */
+  private static void applyDifference(
+          Map<Key, Entity> submitted,
+          Iterable<Entity> stored,
+          Transaction transaction,
+          DatastoreService datastore) {
+    final List<Key> removed = new ArrayList<>();
+    final Map<Key, Entity> added = new LinkedHashMap<>(submitted);
+    for (Entity entity : stored) {
+      if (added.remove(entity.getKey()) == null) removed.add(entity.getKey());
+    }
+
+    if (transaction == null) {
+      if (!removed.isEmpty()) datastore.delete(removed);
+      if (!added.isEmpty()) datastore.put(added.values());
+    } else {
+      if (!removed.isEmpty()) datastore.delete(transaction, removed);
+      if (!added.isEmpty()) datastore.put(transaction, added.values());
+    }
+  }
+
   public static void deleteAllTimeSlotsByUserId(String userId) {
-    if (datastoreService == null) datastoreService = DatastoreServiceFactory.getDatastoreService();
+    if (datastoreService == null) datastoreService = InstrumentedDatastoreService.create();
     datastoreService.delete(
             StreamSupport.stream(queryTimeSlots(userId).asIterable().spliterator(), true)
                     .map(Entity::getKey)
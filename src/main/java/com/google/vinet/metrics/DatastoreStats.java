@@ -0,0 +1,178 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts of the Datastore calls made through an {@link InstrumentedDatastoreService}, with the
+ * number of entities and bytes each kind of call read or wrote, and a histogram of its latencies.
+ *
+ * <p>Every call is recorded in the {@link #global()} stats of this instance, and in the stats of the
+ * request being served by the calling thread, if the {@link DatastoreStatsFilter} has started some.
+ */
+public class DatastoreStats {
+  /** The kinds of Datastore call which are recorded. */
+  public enum Operation {
+    GET,
+    PUT,
+    DELETE,
+    QUERY,
+    ALLOCATE_IDS,
+    BEGIN_TRANSACTION
+  }
+
+  /** The name of the request attribute holding the stats of the request. */
+  public static final String ATTRIBUTE = DatastoreStats.class.getName();
+
+  private static final DatastoreStats GLOBAL = new DatastoreStats();
+  private static final ThreadLocal<DatastoreStats> CURRENT_REQUEST = new ThreadLocal<>();
+
+  private final Map<Operation, AtomicLong> calls = new EnumMap<>(Operation.class);
+  private final Map<Operation, AtomicLong> entities = new EnumMap<>(Operation.class);
+  private final Map<Operation, AtomicLong> bytes = new EnumMap<>(Operation.class);
+  private final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+
+  /** Construct an empty DatastoreStats. */
+  public DatastoreStats() {
+    for (Operation operation : Operation.values()) {
+      calls.put(operation, new AtomicLong());
+      entities.put(operation, new AtomicLong());
+      bytes.put(operation, new AtomicLong());
+      latencies.put(operation, new Histogram());
+    }
+  }
+
+  /** @return the stats of every call made by this instance since it started. */
+  public static DatastoreStats global() {
+    return GLOBAL;
+  }
+
+  /** @return the stats of the request being served by this thread, or null if there are none. */
+  public static DatastoreStats currentRequest() {
+    return CURRENT_REQUEST.get();
+  }
+
+  /**
+   * Start recording the calls made by this thread in new stats, until {@link #endRequest()}.
+   * @return the stats of the request.
+   */
+  public static DatastoreStats startRequest() {
+    final DatastoreStats stats = new DatastoreStats();
+    CURRENT_REQUEST.set(stats);
+    return stats;
+  }
+
+  /** Stop recording the calls made by this thread in the stats of its request. */
+  public static void endRequest() {
+    CURRENT_REQUEST.remove();
+  }
+
+  /**
+   * Record a call in the global stats, and in the stats of the current request, if there are any.
+   *
+   * @param operation The kind of call.
+   * @param nanos How long the call took, in nanoseconds.
+   * @param entityCount The number of entities or keys the call read or wrote.
+   * @param byteCount The encoded size of the entities the call read or wrote.
+   */
+  public static void recordCall(Operation operation, long nanos, long entityCount, long byteCount) {
+    GLOBAL.record(operation, nanos, entityCount, byteCount);
+    final DatastoreStats request = CURRENT_REQUEST.get();
+    if (request != null) request.record(operation, nanos, entityCount, byteCount);
+  }
+
+  /**
+   * Record a call in these stats.
+   *
+   * @param operation The kind of call.
+   * @param nanos How long the call took, in nanoseconds.
+   * @param entityCount The number of entities or keys the call read or wrote.
+   * @param byteCount The encoded size of the entities the call read or wrote.
+   */
+  public void record(Operation operation, long nanos, long entityCount, long byteCount) {
+    calls.get(operation).incrementAndGet();
+    entities.get(operation).addAndGet(entityCount);
+    bytes.get(operation).addAndGet(byteCount);
+    latencies.get(operation).record(nanos);
+  }
+
+  /** @return the number of calls of the operation. */
+  public long getCalls(Operation operation) {
+    return calls.get(operation).get();
+  }
+
+  /** @return the number of entities or keys read or written by calls of the operation. */
+  public long getEntities(Operation operation) {
+    return entities.get(operation).get();
+  }
+
+  /** @return the encoded size of the entities read or written by calls of the operation. */
+  public long getBytes(Operation operation) {
+    return bytes.get(operation).get();
+  }
+
+  /** @return the histogram of the latencies of calls of the operation. */
+  public Histogram getLatency(Operation operation) {
+    return latencies.get(operation);
+  }
+
+  /** @return the number of calls of every operation. */
+  public long getTotalCalls() {
+    long total = 0;
+    for (Operation operation : Operation.values()) {
+      total += getCalls(operation);
+    }
+    return total;
+  }
+
+  /** @return the total time spent in calls of every operation, in nanoseconds. */
+  public long getTotalNanos() {
+    long total = 0;
+    for (Operation operation : Operation.values()) {
+      total += getLatency(operation).getSumNanos();
+    }
+    return total;
+  }
+
+  /**
+   * @return a one-line summary of the calls of each operation which was called, such as
+   *     {@code get=2 calls/3 entities/1204 bytes/5 ms}.
+   */
+  public String summary() {
+    final StringBuilder summary = new StringBuilder();
+    for (Operation operation : Operation.values()) {
+      if (getCalls(operation) == 0) continue;
+      if (summary.length() > 0) summary.append(' ');
+      summary
+          .append(operation.name().toLowerCase())
+          .append('=')
+          .append(getCalls(operation))
+          .append(" calls/")
+          .append(getEntities(operation))
+          .append(" entities/")
+          .append(getBytes(operation))
+          .append(" bytes/")
+          .append(TimeUnit.NANOSECONDS.toMillis(getLatency(operation).getSumNanos()))
+          .append(" ms");
+    }
+    return summary.toString();
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.metrics;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Filter which records the Datastore calls made while serving each request in their own
+ * {@link DatastoreStats}. The stats are attached to the request as the
+ * {@link DatastoreStats#ATTRIBUTE} attribute while it is served.
+ *
+ * <p>Once the request has been served, a summary of its calls is attached to it as the
+ * {@link #SUMMARY_ATTRIBUTE} attribute, and sent as the {@link #SUMMARY_HEADER} header if the
+ * response has not yet been committed. The summary is only logged if the request made more calls,
+ * or spent longer in them, than a threshold.
+ */
+@WebFilter("/*")
+public class DatastoreStatsFilter implements Filter {
+  /** The name of the request attribute holding the summary of the calls of the request. */
+  public static final String SUMMARY_ATTRIBUTE = DatastoreStatsFilter.class.getName() + ".summary";
+  /** The name of the response header holding the summary of the calls of the request. */
+  public static final String SUMMARY_HEADER = "X-Datastore-Stats";
+  /** How many calls a request may make before it is logged, unless told otherwise. */
+  public static final long DEFAULT_CALL_THRESHOLD = 20;
+  /** How long a request may spend in calls before it is logged, unless told otherwise. */
+  public static final Duration DEFAULT_LATENCY_THRESHOLD = Duration.ofMillis(500);
+
+  /** How many calls a request may make before it is logged. */
+  private final long callThreshold;
+  /** How long a request may spend in calls before it is logged, in nanoseconds. */
+  private final long latencyThresholdNanos;
+
+  /** Construct a DatastoreStatsFilter which logs requests above the default thresholds. */
+  public DatastoreStatsFilter() {
+    this(DEFAULT_CALL_THRESHOLD, DEFAULT_LATENCY_THRESHOLD);
+  }
+
+  /**
+   * Construct a DatastoreStatsFilter which logs requests above the provided thresholds.
+   * @param callThreshold How many calls a request may make before it is logged.
+   * @param latencyThreshold How long a request may spend in calls before it is logged.
+   */
+  public DatastoreStatsFilter(long callThreshold, Duration latencyThreshold) {
+    if (latencyThreshold == null) {
+      throw new IllegalArgumentException("latencyThreshold must not be null");
+    }
+    this.callThreshold = callThreshold;
+    this.latencyThresholdNanos = latencyThreshold.toNanos();
+  }
+
+  @Override
+  public void init(FilterConfig filterConfig) {}
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    final DatastoreStats stats = DatastoreStats.startRequest();
+    request.setAttribute(DatastoreStats.ATTRIBUTE, stats);
+    try {
+      chain.doFilter(request, response);
+    } finally {
+      DatastoreStats.endRequest();
+      if (stats.getTotalCalls() > 0) {
+        final String summary = stats.summary();
+        request.setAttribute(SUMMARY_ATTRIBUTE, summary);
+        if (response instanceof HttpServletResponse && !response.isCommitted()) {
+          ((HttpServletResponse) response).setHeader(SUMMARY_HEADER, summary);
+        }
+        if (stats.getTotalCalls() > callThreshold
+            || stats.getTotalNanos() > latencyThresholdNanos) {
+          final String path =
+              request instanceof HttpServletRequest
+                  ? ((HttpServletRequest) request).getRequestURI()
+                  : "";
+          System.err.printf("Datastore calls for %s: %s\n", path, summary);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void destroy() {}
+}
@@ -0,0 +1,77 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The latencies and response statuses of the requests served by each endpoint of this instance.
+ * Recording is lock-free, so the metrics can be shared by concurrent requests.
+ */
+public class EndpointMetrics {
+  /** The endpoint under which requests to paths which are not endpoints are recorded. */
+  public static final String OTHER_ENDPOINT = "other";
+
+  private static final EndpointMetrics DEFAULT = new EndpointMetrics();
+
+  /** The metrics of a single endpoint. */
+  public static class Endpoint {
+    private final Histogram latency = new Histogram();
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+    /** @return the histogram of the latencies of the endpoint's requests. */
+    public Histogram getLatency() {
+      return latency;
+    }
+
+    /** @return the number of the endpoint's requests answered with each status, by status. */
+    public SortedMap<Integer, Long> getStatusCounts() {
+      final SortedMap<Integer, Long> counts = new TreeMap<>();
+      statuses.forEach((status, count) -> counts.put(status, count.sum()));
+      return counts;
+    }
+  }
+
+  private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+  /** @return the metrics of this instance. */
+  public static EndpointMetrics getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Record a request.
+   *
+   * @param endpoint The endpoint which served the request.
+   * @param nanos How long the request took to serve, in nanoseconds.
+   * @param status The status of the response.
+   */
+  public void record(String endpoint, long nanos, int status) {
+    final Endpoint metrics = endpoints.computeIfAbsent(endpoint, name -> new Endpoint());
+    metrics.latency.record(nanos);
+    metrics.statuses.computeIfAbsent(status, code -> new LongAdder()).increment();
+  }
+
+  /** @return the metrics of each endpoint which has served a request, by endpoint. */
+  public SortedMap<String, Endpoint> getEndpoints() {
+    return new TreeMap<>(endpoints);
+  }
+}
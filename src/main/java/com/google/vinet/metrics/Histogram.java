@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies, counted into buckets with fixed upper bounds. Recording is lock-free,
+ * so a histogram can be shared by concurrent requests.
+ */
+public class Histogram {
+  /** The inclusive upper bounds of the buckets, in milliseconds, before the unbounded one. */
+  public static final long[] BUCKET_BOUNDS_MILLIS = {
+    1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000
+  };
+
+  /** The number of latencies in each bucket, the last of which has no upper bound. */
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+  /** The sum of all recorded latencies, in nanoseconds. */
+  private final AtomicLong sumNanos = new AtomicLong();
+  /** The largest recorded latency, in nanoseconds. */
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /**
+   * Record a latency.
+   * @param nanos The latency, in nanoseconds.
+   */
+  public void record(long nanos) {
+    /* Latencies are compared in nanoseconds, as a latency just over a bound belongs above it. */
+    int bucket = 0;
+    while (bucket < BUCKET_BOUNDS_MILLIS.length
+        && nanos > TimeUnit.MILLISECONDS.toNanos(BUCKET_BOUNDS_MILLIS[bucket])) {
+      bucket++;
+    }
+    counts.incrementAndGet(bucket);
+    sumNanos.addAndGet(nanos);
+    maxNanos.accumulateAndGet(nanos, Math::max);
+  }
+
+  /** @return the number of latencies in each bucket, the last of which has no upper bound. */
+  public long[] getCounts() {
+    final long[] snapshot = new long[counts.length()];
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = counts.get(i);
+    }
+    return snapshot;
+  }
+
+  /** @return the number of latencies recorded. */
+  public long getCount() {
+    long count = 0;
+    for (long bucketCount : getCounts()) {
+      count += bucketCount;
+    }
+    return count;
+  }
+
+  /**
+   * Estimate a percentile of the recorded latencies, as the upper bound of the bucket which holds
+   * it. No percentile is reported as larger than the largest recorded latency, so a percentile in
+   * the unbounded last bucket, or in a bucket wider than the latencies it holds, is reported as the
+   * largest recorded latency.
+   *
+   * @param quantile The percentile, as a fraction between 0 and 1, such as 0.95 for p95.
+   * @return the estimated percentile, in milliseconds, or 0 if no latencies have been recorded.
+   */
+  public long getPercentileMillis(double quantile) {
+    if (quantile < 0 || quantile > 1) {
+      throw new IllegalArgumentException("quantile must be between 0 and 1");
+    }
+    final long[] snapshot = getCounts();
+    long count = 0;
+    for (long bucketCount : snapshot) {
+      count += bucketCount;
+    }
+    if (count == 0) return 0;
+
+    final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+    long cumulative = 0;
+    for (int bucket = 0; bucket < BUCKET_BOUNDS_MILLIS.length; bucket++) {
+      cumulative += snapshot[bucket];
+      if (cumulative >= rank) return Math.min(BUCKET_BOUNDS_MILLIS[bucket], getMaxMillis());
+    }
+    return getMaxMillis();
+  }
+
+  /** @return the largest recorded latency, rounded up to the millisecond, or 0 if there is none. */
+  public long getMaxMillis() {
+    final long nanos = maxNanos.get();
+    final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+    return TimeUnit.MILLISECONDS.toNanos(millis) < nanos ? millis + 1 : millis;
+  }
+
+  /** @return the sum of all recorded latencies, in nanoseconds. */
+  public long getSumNanos() {
+    return sumNanos.get();
+  }
+}
@@ -0,0 +1,572 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.metrics;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreAttributes;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.EntityTranslator;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Index;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyRange;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultIterable;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.vinet.metrics.DatastoreStats.Operation;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A DatastoreService which passes every call on to another DatastoreService, and records how long
+ * each call took and how many entities and bytes it read or wrote in the {@link DatastoreStats}.
+ * Queries which take longer than a threshold are logged with their filters.
+ *
+ * <p>Encoding an entity to measure its size costs about as much as sending it, so only every
+ * {@code byteSampleInterval}-th entity is measured, and counted for the entities that were skipped.
+ * The byte counts are therefore estimates, unless the interval is 1.
+ *
+ * <p>Queries are lazy, so a query is recorded once its results have been read: when a list of
+ * results is returned, which is read in full, or when an iterator of results is exhausted. An
+ * iterator which is abandoned before it is exhausted is not recorded.
+ *
+ * <p>Each call is also marked as a {@link Profiling} span, so that Flight Recorder recordings show
+ * the calls with their operation, entity count and size. The span of a query read through an
+ * iterator lasts until the iterator is exhausted.
+ */
+public class InstrumentedDatastoreService implements DatastoreService {
+  /** How long a query may take before it is logged, unless another threshold is provided. */
+  public static final Duration DEFAULT_SLOW_QUERY_THRESHOLD = Duration.ofMillis(500);
+  /** How many entities are passed for each one whose size is measured, unless told otherwise. */
+  public static final int DEFAULT_BYTE_SAMPLE_INTERVAL = 10;
+
+  /** The DatastoreService that calls are passed on to. */
+  private final DatastoreService delegate;
+  /** How long a query may take before it is logged, in nanoseconds. */
+  private final long slowQueryThresholdNanos;
+  /** How many entities are passed for each one whose size is measured, or 0 to measure none. */
+  private final int byteSampleInterval;
+  /** The number of entities passed, which decides which of them are measured. */
+  private final AtomicLong entitiesPassed = new AtomicLong();
+
+  /**
+   * Construct an InstrumentedDatastoreService which passes calls on to the provided
+   * DatastoreService, and logs queries slower than the default threshold.
+   * @param delegate The DatastoreService to pass calls on to.
+   */
+  public InstrumentedDatastoreService(DatastoreService delegate) {
+    this(delegate, DEFAULT_SLOW_QUERY_THRESHOLD);
+  }
+
+  /**
+   * Construct an InstrumentedDatastoreService which passes calls on to the provided
+   * DatastoreService.
+   * @param delegate The DatastoreService to pass calls on to.
+   * @param slowQueryThreshold How long a query may take before it is logged.
+   */
+  public InstrumentedDatastoreService(DatastoreService delegate, Duration slowQueryThreshold) {
+    this(delegate, slowQueryThreshold, DEFAULT_BYTE_SAMPLE_INTERVAL);
+  }
+
+  /**
+   * Construct an InstrumentedDatastoreService which passes calls on to the provided
+   * DatastoreService.
+   * @param delegate The DatastoreService to pass calls on to.
+   * @param slowQueryThreshold How long a query may take before it is logged.
+   * @param byteSampleInterval How many entities are passed for each one whose size is measured, or
+   *     0 to measure none, in which case no bytes are recorded.
+   */
+  public InstrumentedDatastoreService(
+      DatastoreService delegate, Duration slowQueryThreshold, int byteSampleInterval) {
+    if (delegate == null || slowQueryThreshold == null) {
+      throw new IllegalArgumentException("delegate/slowQueryThreshold must not be null");
+    }
+    if (byteSampleInterval < 0) {
+      throw new IllegalArgumentException("byteSampleInterval must not be negative");
+    }
+    this.delegate = delegate;
+    this.slowQueryThresholdNanos = slowQueryThreshold.toNanos();
+    this.byteSampleInterval = byteSampleInterval;
+  }
+
+  /** @return an InstrumentedDatastoreService passing calls on to the default DatastoreService. */
+  public static DatastoreService create() {
+    return new InstrumentedDatastoreService(DatastoreServiceFactory.getDatastoreService());
+  }
+
+  /**
+   * @param entity An entity.
+   * @return the size of the entity when encoded to be sent to or from Datastore, in bytes.
+   */
+  static long encodedSizeOf(Entity entity) {
+    try {
+      return EntityTranslator.convertToPb(entity).getSerializedSize();
+    } catch (RuntimeException exception) {
+      /* An entity which cannot be encoded will fail the call it is part of, which is recorded. */
+      return 0;
+    }
+  }
+
+  /**
+   * @param entity An entity.
+   * @return the estimated size of the entity when encoded, in bytes: the size of the entity times
+   *     the sample interval if it is sampled, or 0 otherwise.
+   */
+  long sizeOf(Entity entity) {
+    if (entity == null || byteSampleInterval == 0) return 0;
+    if (entitiesPassed.getAndIncrement() % byteSampleInterval != 0) return 0;
+    return byteSampleInterval * encodedSizeOf(entity);
+  }
+
+  /**
+   * @param entities Entities.
+   * @return the estimated total size of the entities when encoded, in bytes.
+   */
+  long sizeOf(Iterable<Entity> entities) {
+    if (byteSampleInterval == 0) return 0;
+    long size = 0;
+    for (Entity entity : entities) {
+      size += sizeOf(entity);
+    }
+    return size;
+  }
+
+  /**
+   * @param iterable An iterable, which is only iterated if it is not a Collection.
+   * @return the number of elements of the iterable.
+   */
+  private static long countOf(Iterable<?> iterable) {
+    if (iterable instanceof Collection) return ((Collection<?>) iterable).size();
+    long count = 0;
+    for (Object ignored : iterable) {
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * @param operation The kind of call.
+   * @return the span marking a call of the operation.
+   */
+  private static Profiling.Span begin(Operation operation) {
+    return Profiling.begin(Profiling.Kind.DATASTORE, operation.name());
+  }
+
+  /**
+   * Time a call which writes or deletes a known number of entities.
+   *
+   * @param operation The kind of call.
+   * @param entityCount The number of entities or keys the call writes or deletes.
+   * @param byteCount The encoded size of the entities the call writes.
+   * @param call The call.
+   * @return the result of the call.
+   */
+  private static <T> T time(
+      Operation operation, long entityCount, long byteCount, Supplier<T> call) {
+    final Profiling.Span span = begin(operation);
+    final long start = System.nanoTime();
+    try {
+      return call.get();
+    } finally {
+      DatastoreStats.recordCall(operation, System.nanoTime() - start, entityCount, byteCount);
+      span.setCount(entityCount).setBytes(byteCount).close();
+    }
+  }
+
+  @Override
+  public Entity get(Key key) throws EntityNotFoundException {
+    return get(null, key);
+  }
+
+  @Override
+  public Entity get(Transaction transaction, Key key) throws EntityNotFoundException {
+    final Profiling.Span span = begin(Operation.GET);
+    final long start = System.nanoTime();
+    Entity entity = null;
+    try {
+      entity = transaction == null ? delegate.get(key) : delegate.get(transaction, key);
+      return entity;
+    } finally {
+      final long size = sizeOf(entity);
+      DatastoreStats.recordCall(
+          Operation.GET, System.nanoTime() - start, entity == null ? 0 : 1, size);
+      span.setCount(entity == null ? 0 : 1).setBytes(size).close();
+    }
+  }
+
+  @Override
+  public Map<Key, Entity> get(Iterable<Key> keys) {
+    return get(null, keys);
+  }
+
+  @Override
+  public Map<Key, Entity> get(Transaction transaction, Iterable<Key> keys) {
+    final Profiling.Span span = begin(Operation.GET);
+    final long start = System.nanoTime();
+    Map<Key, Entity> entities = null;
+    try {
+      entities = transaction == null ? delegate.get(keys) : delegate.get(transaction, keys);
+      return entities;
+    } finally {
+      final long count = entities == null ? 0 : entities.size();
+      final long size = entities == null ? 0 : sizeOf(entities.values());
+      DatastoreStats.recordCall(Operation.GET, System.nanoTime() - start, count, size);
+      span.setCount(count).setBytes(size).close();
+    }
+  }
+
+  @Override
+  public Key put(Entity entity) {
+    return put((Transaction) null, entity);
+  }
+
+  @Override
+  public Key put(Transaction transaction, Entity entity) {
+    return time(
+        Operation.PUT,
+        1,
+        sizeOf(entity),
+        () -> transaction == null ? delegate.put(entity) : delegate.put(transaction, entity));
+  }
+
+  @Override
+  public List<Key> put(Iterable<Entity> entities) {
+    return put(null, entities);
+  }
+
+  @Override
+  public List<Key> put(Transaction transaction, Iterable<Entity> entities) {
+    return time(
+        Operation.PUT,
+        countOf(entities),
+        sizeOf(entities),
+        () -> transaction == null ? delegate.put(entities) : delegate.put(transaction, entities));
+  }
+
+  @Override
+  public void delete(Key... keys) {
+    delete(null, Arrays.asList(keys));
+  }
+
+  @Override
+  public void delete(Transaction transaction, Key... keys) {
+    delete(transaction, Arrays.asList(keys));
+  }
+
+  @Override
+  public void delete(Iterable<Key> keys) {
+    delete(null, keys);
+  }
+
+  @Override
+  public void delete(Transaction transaction, Iterable<Key> keys) {
+    time(
+        Operation.DELETE,
+        countOf(keys),
+        0,
+        () -> {
+          if (transaction == null) {
+            delegate.delete(keys);
+          } else {
+            delegate.delete(transaction, keys);
+          }
+          return null;
+        });
+  }
+
+  @Override
+  public Transaction beginTransaction() {
+    return time(Operation.BEGIN_TRANSACTION, 0, 0, delegate::beginTransaction);
+  }
+
+  @Override
+  public Transaction beginTransaction(TransactionOptions options) {
+    return time(Operation.BEGIN_TRANSACTION, 0, 0, () -> delegate.beginTransaction(options));
+  }
+
+  @Override
+  public KeyRange allocateIds(String kind, long num) {
+    return time(Operation.ALLOCATE_IDS, num, 0, () -> delegate.allocateIds(kind, num));
+  }
+
+  @Override
+  public KeyRange allocateIds(Key parent, String kind, long num) {
+    return time(Operation.ALLOCATE_IDS, num, 0, () -> delegate.allocateIds(parent, kind, num));
+  }
+
+  @Override
+  public KeyRangeState allocateIdRange(KeyRange range) {
+    return time(Operation.ALLOCATE_IDS, range.getSize(), 0, () -> delegate.allocateIdRange(range));
+  }
+
+  @Override
+  public DatastoreAttributes getDatastoreAttributes() {
+    return delegate.getDatastoreAttributes();
+  }
+
+  @Override
+  public Map<Index, Index.IndexState> getIndexes() {
+    return delegate.getIndexes();
+  }
+
+  @Override
+  public PreparedQuery prepare(Query query) {
+    return new InstrumentedPreparedQuery(query, delegate.prepare(query));
+  }
+
+  @Override
+  public PreparedQuery prepare(Transaction transaction, Query query) {
+    return new InstrumentedPreparedQuery(query, delegate.prepare(transaction, query));
+  }
+
+  @Override
+  public Transaction getCurrentTransaction() {
+    return delegate.getCurrentTransaction();
+  }
+
+  @Override
+  public Transaction getCurrentTransaction(Transaction returnedIfNoTxn) {
+    return delegate.getCurrentTransaction(returnedIfNoTxn);
+  }
+
+  @Override
+  public Collection<Transaction> getActiveTransactions() {
+    return delegate.getActiveTransactions();
+  }
+
+  /**
+   * Record a query once its results have been read, and log it if it was slow.
+   *
+   * @param query The query.
+   * @param span The span marking the query, which is closed.
+   * @param nanos How long was spent reading the results, in nanoseconds.
+   * @param entityCount The number of results.
+   * @param byteCount The encoded size of the results.
+   */
+  private void recordQuery(
+      Query query, Profiling.Span span, long nanos, long entityCount, long byteCount) {
+    DatastoreStats.recordCall(Operation.QUERY, nanos, entityCount, byteCount);
+    span.setCount(entityCount).setBytes(byteCount).close();
+    if (nanos > slowQueryThresholdNanos) {
+      System.err.printf(
+          "Slow query took %d ms for %d entities: %s\n",
+          Duration.ofNanos(nanos).toMillis(), entityCount, query);
+    }
+  }
+
+  /** A PreparedQuery which records its query once its results have been read. */
+  private class InstrumentedPreparedQuery implements PreparedQuery {
+    private final Query query;
+    private final PreparedQuery delegate;
+
+    InstrumentedPreparedQuery(Query query, PreparedQuery delegate) {
+      this.query = query;
+      this.delegate = delegate;
+    }
+
+    /**
+     * Time a call which returns a list of results, reading the list in full so that the time spent
+     * fetching the results is included.
+     */
+    private <T extends List<Entity>> T timeList(Supplier<T> call) {
+      final Profiling.Span span = begin(Operation.QUERY);
+      final long start = System.nanoTime();
+      T results = null;
+      int count = 0;
+      try {
+        results = call.get();
+        count = results.size();
+        return results;
+      } finally {
+        final long nanos = System.nanoTime() - start;
+        recordQuery(query, span, nanos, count, count == 0 ? 0 : sizeOf(results));
+      }
+    }
+
+    /**
+     * Time the start of a call which returns an iterator of results. The iterator records the query
+     * once it is exhausted, so the query is only recorded here if the call fails.
+     */
+    private QueryResultIterator<Entity> timeIterator(Supplier<QueryResultIterator<Entity>> call) {
+      final Profiling.Span span = begin(Operation.QUERY);
+      final long start = System.nanoTime();
+      QueryResultIterator<Entity> results = null;
+      try {
+        results = call.get();
+        return new InstrumentedIterator(query, span, results, System.nanoTime() - start);
+      } finally {
+        if (results == null) recordQuery(query, span, System.nanoTime() - start, 0, 0);
+      }
+    }
+
+    @Override
+    public List<Entity> asList(FetchOptions fetchOptions) {
+      return timeList(() -> delegate.asList(fetchOptions));
+    }
+
+    @Override
+    public QueryResultList<Entity> asQueryResultList(FetchOptions fetchOptions) {
+      return timeList(() -> delegate.asQueryResultList(fetchOptions));
+    }
+
+    @Override
+    public Iterable<Entity> asIterable(FetchOptions fetchOptions) {
+      return () -> asIterator(fetchOptions);
+    }
+
+    @Override
+    public Iterable<Entity> asIterable() {
+      return this::asIterator;
+    }
+
+    @Override
+    public QueryResultIterable<Entity> asQueryResultIterable(FetchOptions fetchOptions) {
+      return () -> asQueryResultIterator(fetchOptions);
+    }
+
+    @Override
+    public QueryResultIterable<Entity> asQueryResultIterable() {
+      return this::asQueryResultIterator;
+    }
+
+    @Override
+    public Iterator<Entity> asIterator(FetchOptions fetchOptions) {
+      return asQueryResultIterator(fetchOptions);
+    }
+
+    @Override
+    public Iterator<Entity> asIterator() {
+      return asQueryResultIterator();
+    }
+
+    @Override
+    public QueryResultIterator<Entity> asQueryResultIterator(FetchOptions fetchOptions) {
+      return timeIterator(() -> delegate.asQueryResultIterator(fetchOptions));
+    }
+
+    @Override
+    public QueryResultIterator<Entity> asQueryResultIterator() {
+      return timeIterator(delegate::asQueryResultIterator);
+    }
+
+    @Override
+    public Entity asSingleEntity() throws TooManyResultsException {
+      final Profiling.Span span = begin(Operation.QUERY);
+      final long start = System.nanoTime();
+      Entity entity = null;
+      try {
+        entity = delegate.asSingleEntity();
+        return entity;
+      } finally {
+        recordQuery(
+            query, span, System.nanoTime() - start, entity == null ? 0 : 1, sizeOf(entity));
+      }
+    }
+
+    @Override
+    public int countEntities(FetchOptions fetchOptions) {
+      final Profiling.Span span = begin(Operation.QUERY);
+      final long start = System.nanoTime();
+      int count = 0;
+      try {
+        count = delegate.countEntities(fetchOptions);
+        return count;
+      } finally {
+        recordQuery(query, span, System.nanoTime() - start, count, 0);
+      }
+    }
+
+    @Override
+    @Deprecated
+    public int countEntities() {
+      return countEntities(FetchOptions.Builder.withDefaults());
+    }
+  }
+
+  /**
+   * An iterator of query results which accumulates the time spent fetching results, and records
+   * the query once it is exhausted.
+   */
+  private class InstrumentedIterator implements QueryResultIterator<Entity> {
+    private final Query query;
+    private final Profiling.Span span;
+    private final QueryResultIterator<Entity> delegate;
+    private long nanos;
+    private long entityCount;
+    private long byteCount;
+    private boolean recorded;
+
+    InstrumentedIterator(
+        Query query, Profiling.Span span, QueryResultIterator<Entity> delegate, long nanos) {
+      this.query = query;
+      this.span = span;
+      this.delegate = delegate;
+      this.nanos = nanos;
+    }
+
+    @Override
+    public boolean hasNext() {
+      final long start = System.nanoTime();
+      final boolean hasNext = delegate.hasNext();
+      nanos += System.nanoTime() - start;
+      if (!hasNext && !recorded) {
+        recorded = true;
+        recordQuery(query, span, nanos, entityCount, byteCount);
+      }
+      return hasNext;
+    }
+
+    @Override
+    public Entity next() {
+      final long start = System.nanoTime();
+      final Entity entity = delegate.next();
+      nanos += System.nanoTime() - start;
+      entityCount++;
+      byteCount += sizeOf(entity);
+      return entity;
+    }
+
+    @Override
+    public void remove() {
+      delegate.remove();
+    }
+
+    @Override
+    public List<Index> getIndexList() {
+      return delegate.getIndexList();
+    }
+
+    @Override
+    public Cursor getCursor() {
+      return delegate.getCursor();
+    }
+  }
+}
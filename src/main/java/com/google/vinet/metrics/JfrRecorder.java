@@ -0,0 +1,84 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Records the spans of {@link Profiling} as Flight Recorder events. This is the only class which
+ * refers to the Flight Recorder API, and it is only loaded by {@link Profiling} on runtimes which
+ * provide that API.
+ */
+final class JfrRecorder implements Profiling.Recorder {
+  /** The fields shared by the events of every kind of step. */
+  abstract static class StepEvent extends Event implements Profiling.Span {
+    @Label("Name")
+    String name;
+
+    @Label("Count")
+    long count;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Override
+    public Profiling.Span setCount(long count) {
+      this.count = count;
+      return this;
+    }
+
+    @Override
+    public Profiling.Span setBytes(long bytes) {
+      this.bytes = bytes;
+      return this;
+    }
+
+    @Override
+    public void close() {
+      commit();
+    }
+  }
+
+  @Name("com.google.vinet.Matching")
+  @Label("Matching Step")
+  @Category({"VInet", "Matching"})
+  @Description("A step of a matching run: a fetch, graph build, search phase or write.")
+  static final class MatchingEvent extends StepEvent {}
+
+  @Name("com.google.vinet.Datastore")
+  @Label("Datastore Call")
+  @Category({"VInet", "Datastore"})
+  @Description("A Datastore call made through the InstrumentedDatastoreService.")
+  static final class DatastoreEvent extends StepEvent {}
+
+  @Override
+  public Profiling.Span begin(Profiling.Kind kind, String name) {
+    final StepEvent event =
+        kind == Profiling.Kind.MATCHING ? new MatchingEvent() : new DatastoreEvent();
+    /* Events which no recording has enabled are not worth timing. */
+    if (!event.isEnabled()) return Profiling.NO_OP_SPAN;
+    event.name = name;
+    event.begin();
+    return event;
+  }
+}
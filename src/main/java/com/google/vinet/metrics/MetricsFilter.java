@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.metrics;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRegistration;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Filter which records the latency and response status of every request in the
+ * {@link EndpointMetrics}, under the servlet path of the servlet which served it. Requests to paths
+ * which no servlet is mapped to exactly, such as static files, are recorded together, so that
+ * arbitrary paths cannot grow the metrics.
+ */
+@WebFilter("/*")
+public class MetricsFilter implements Filter {
+  /** The EndpointMetrics that requests are recorded in. */
+  private EndpointMetrics metrics;
+  /** The paths which servlets are mapped to exactly. */
+  private Set<String> endpoints = Collections.emptySet();
+
+  /** Construct a MetricsFilter which records requests in the default EndpointMetrics. */
+  public MetricsFilter() {
+    this.metrics = EndpointMetrics.getDefault();
+  }
+
+  /**
+   * Construct a MetricsFilter which records requests to the provided endpoints.
+   * @param metrics The EndpointMetrics to record requests in.
+   * @param endpoints The paths which servlets are mapped to exactly.
+   */
+  public MetricsFilter(EndpointMetrics metrics, Set<String> endpoints) {
+    this.metrics = metrics;
+    this.endpoints = endpoints;
+  }
+
+  @Override
+  public void init(FilterConfig filterConfig) {
+    final Set<String> mappings = new HashSet<>();
+    for (ServletRegistration registration :
+        filterConfig.getServletContext().getServletRegistrations().values()) {
+      for (String mapping : registration.getMappings()) {
+        /* Wildcard and default mappings serve arbitrary paths, which are not endpoints. */
+        if (mapping.startsWith("/") && mapping.length() > 1 && !mapping.contains("*")) {
+          mappings.add(mapping);
+        }
+      }
+    }
+    this.endpoints = mappings;
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    final String path = ((HttpServletRequest) request).getServletPath();
+    final String endpoint = endpoints.contains(path) ? path : EndpointMetrics.OTHER_ENDPOINT;
+    final long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      chain.doFilter(request, response);
+      failed = false;
+    } finally {
+      /* An exception which escapes the servlet is answered by the container with an error. */
+      final int status =
+          failed
+              ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR
+              : ((HttpServletResponse) response).getStatus();
+      metrics.record(endpoint, System.nanoTime() - start, status);
+    }
+  }
+
+  @Override
+  public void destroy() {}
+}
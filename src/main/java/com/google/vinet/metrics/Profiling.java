@@ -0,0 +1,121 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.metrics;
+
+/**
+ * Marks the steps of the matching and the Datastore calls of this app as JDK Flight Recorder
+ * events, so that a recording taken in production shows them alongside CPU, allocation and GC
+ * samples. Recordings are started and configured from outside the app, for example with
+ * {@code jcmd <pid> JFR.start}, so no special build is needed.
+ *
+ * <p>On a runtime without Flight Recorder, such as a Java 8 runtime older than 8u262, or while no
+ * recording has enabled the events, {@link #begin(Kind, String)} returns a span which does nothing,
+ * so that marking a step costs next to nothing.
+ *
+ * <pre>{@code
+ * try (Profiling.Span span = Profiling.begin(Profiling.Kind.MATCHING, "fetch")) {
+ *   ...
+ *   span.setCount(timeSlots.size());
+ * }
+ * }</pre>
+ */
+public final class Profiling {
+  /** The kinds of step which are recorded, each as its own type of event. */
+  public enum Kind {
+    /** A step of a matching run, recorded as a {@code com.google.vinet.Matching} event. */
+    MATCHING,
+    /** A Datastore call, recorded as a {@code com.google.vinet.Datastore} event. */
+    DATASTORE
+  }
+
+  /** A step being recorded, which is recorded when it is closed. */
+  public interface Span extends AutoCloseable {
+    /**
+     * @param count The number of items the step processed, such as entities or graph edges.
+     * @return this span.
+     */
+    Span setCount(long count);
+
+    /**
+     * @param bytes The number of bytes the step read or wrote.
+     * @return this span.
+     */
+    Span setBytes(long bytes);
+
+    /** End the step, and record it. */
+    @Override
+    void close();
+  }
+
+  /** Begins spans. Implemented by {@link JfrRecorder} where Flight Recorder is available. */
+  interface Recorder {
+    Span begin(Kind kind, String name);
+  }
+
+  /** The span returned when steps are not being recorded. */
+  static final Span NO_OP_SPAN =
+      new Span() {
+        @Override
+        public Span setCount(long count) {
+          return this;
+        }
+
+        @Override
+        public Span setBytes(long bytes) {
+          return this;
+        }
+
+        @Override
+        public void close() {}
+      };
+
+  private static final Recorder RECORDER = loadRecorder();
+
+  private Profiling() {}
+
+  /**
+   * Begin recording a step.
+   *
+   * @param kind The kind of the step.
+   * @param name The name of the step, such as the name of a phase or a Datastore operation.
+   * @return the span of the step, which must be closed once the step ends.
+   */
+  public static Span begin(Kind kind, String name) {
+    return RECORDER.begin(kind, name);
+  }
+
+  /** @return whether steps are recorded as Flight Recorder events on this runtime. */
+  public static boolean isFlightRecorderAvailable() {
+    return RECORDER instanceof JfrRecorder;
+  }
+
+  /**
+   * Load the Flight Recorder implementation, which is only linked once the Flight Recorder API is
+   * known to be present, or fall back to recording nothing.
+   */
+  private static Recorder loadRecorder() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return (Recorder)
+          Class.forName(Profiling.class.getPackage().getName() + ".JfrRecorder")
+              .getDeclaredConstructor()
+              .newInstance();
+    } catch (ReflectiveOperationException | LinkageError | RuntimeException exception) {
+      return (kind, name) -> NO_OP_SPAN;
+    }
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.users.User;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.vinet.data.AvailabilityRule;
+import com.google.vinet.data.Json;
+import com.google.vinet.data.Volunteer;
+import com.google.vinet.metrics.InstrumentedDatastoreService;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+
+/**
+ * A web servlet for adding, listing and removing the recurring weekly availability of volunteers.
+ */
+@WebServlet("/volunteer-availability-rules")
+public class AvailabilityRuleServlet extends HttpServlet {
+  /** The name of the parameter containing the key of a rule to be removed. */
+  public static final String DELETE_PARAMETER = "delete";
+  /** The {@code DatastoreService} implementation that this {@code AvailabilityRuleServlet} depends on. */
+  private final DatastoreService datastore;
+  /** The {@code UserService} implementation that this {@code AvailabilityRuleServlet} depends on. */
+  private final UserService userService;
+  /** The {@code RegistrationServlet} that this {@code AvailabilityRuleServlet} depends on. */
+  private final RegistrationServlet registrationServlet;
+
+  /**
+   * Construct an AvailabilityRuleServlet with all of its dependencies set to their default
+   * implementations.
+   */
+  public AvailabilityRuleServlet() {
+    this.datastore = InstrumentedDatastoreService.create();
+    this.userService = UserServiceFactory.getUserService();
+    this.registrationServlet = new RegistrationServlet();
+  }
+
+  /**
+   * Construct an AvailabilityRuleServlet which depends on the provided dependencies.
+   * @param datastore The DatastoreService implementation to depend on.
+   * @param userService The UserService implementation to depend on.
+   * @param registrationServlet The RegistrationServlet implementation to depend on.
+   */
+  public AvailabilityRuleServlet(
+          DatastoreService datastore, UserService userService, RegistrationServlet registrationServlet) {
+    this.datastore = datastore;
+    this.userService = userService;
+    this.registrationServlet = registrationServlet;
+  }
+
+  /**
+   * Add a rule to the logged-in volunteer's recurring availability, from the {@code dayOfWeek},
+   * {@code startTime}, {@code endTime}, {@code timezoneId}, {@code validFrom} and optional
+   * {@code validUntil} parameters. If the {@code delete} parameter is provided instead, the rule
+   * whose key it contains is removed.
+   */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (response == null) throw new IllegalArgumentException("response must not be null");
+
+    if (request == null) throw new IllegalArgumentException("request must not be null");
+
+    final String userId = getVolunteerId(request, response, "submit availability");
+    if (userId == null) return;
+    final Volunteer volunteer = new Volunteer(userId);
+
+    final String delete = request.getParameter(DELETE_PARAMETER);
+    if (delete != null) {
+      final Key key;
+      try {
+        key = KeyFactory.stringToKey(delete);
+      } catch (IllegalArgumentException exception) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "rule key invalid");
+        return;
+      }
+
+      /* Volunteers may only remove their own rules. */
+      if (!AvailabilityRule.AVAILABILITY_RULE_TABLE_NAME.equals(key.getKind())
+              || !volunteer.getUserInfoKey().equals(key.getParent())) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "rule key invalid");
+        return;
+      }
+
+      datastore.delete(key);
+      response.sendRedirect("volunteer/availability.jsp");
+      return;
+    }
+
+    final String dayOfWeek = request.getParameter("dayOfWeek");
+    final String startTime = request.getParameter("startTime");
+    final String endTime = request.getParameter("endTime");
+    final String timezone = request.getParameter("timezoneId");
+    final String validFrom = request.getParameter("validFrom");
+    final String validUntil = request.getParameter("validUntil");
+
+    if (dayOfWeek == null
+            || startTime == null
+            || endTime == null
+            || timezone == null
+            || validFrom == null) {
+      response.sendError(
+              HttpServletResponse.SC_BAD_REQUEST, "one or more of the parameters were null");
+      return;
+    }
+
+    final AvailabilityRule rule;
+    try {
+      rule =
+              new AvailabilityRule(
+                      volunteer,
+                      DayOfWeek.valueOf(dayOfWeek.trim()),
+                      LocalTime.parse(startTime.trim()),
+                      LocalTime.parse(endTime.trim()),
+                      ZoneId.of(timezone.trim()),
+                      LocalDate.parse(validFrom.trim()),
+                      validUntil == null || validUntil.trim().isEmpty()
+                              ? null
+                              : LocalDate.parse(validUntil.trim()));
+    } catch (DateTimeException | IllegalArgumentException exception) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "error parsing rule");
+      return;
+    }
+
+    datastore.put(rule.toEntity());
+    response.sendRedirect("volunteer/availability.jsp");
+  }
+
+  /**
+   * Respond with the logged-in volunteer's rules, as {@code {"items": [...]}}, where each rule
+   * includes the key with which it can be removed.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (response == null) throw new IllegalArgumentException("response must not be null");
+
+    if (request == null) throw new IllegalArgumentException("request must not be null");
+
+    final String userId = getVolunteerId(request, response, "get availability");
+    if (userId == null) return;
+
+    final JsonArray items = new JsonArray();
+    for (AvailabilityRule rule : AvailabilityRule.getRulesByUserId(userId, datastore)) {
+      final JsonObject item = new JsonObject();
+      item.addProperty("key", KeyFactory.keyToString(rule.getKey()));
+      item.addProperty("dayOfWeek", rule.getDayOfWeek().name());
+      item.addProperty("startTime", rule.getStartTime().toString());
+      item.addProperty("endTime", rule.getEndTime().toString());
+      item.addProperty("timezoneId", rule.getTimezone().getId());
+      item.addProperty("validFrom", rule.getValidFrom().toString());
+      item.addProperty(
+              "validUntil", rule.getValidUntil() == null ? null : rule.getValidUntil().toString());
+      items.add(item);
+    }
+
+    final JsonObject json = new JsonObject();
+    json.add("items", items);
+
+    response.setContentType("application/json;");
+    response.getWriter().println(Json.GSON.toJson(json));
+  }
+
+  /**
+   * Get the id of the logged-in user, if they are registered as a volunteer. Otherwise, send an
+   * error to the response.
+   *
+   * @param request The request being handled.
+   * @param response The response to send any error to.
+   * @param action A description of what the user is trying to do, for error messages.
+   * @return the id of the logged-in volunteer, or null if an error was sent.
+   */
+  private String getVolunteerId(
+          HttpServletRequest request, HttpServletResponse response, String action)
+          throws IOException {
+    if (!userService.isUserLoggedIn()) {
+      response.sendError(
+              HttpServletResponse.SC_UNAUTHORIZED, "user must be logged in to " + action);
+      return null;
+    }
+
+    final UserContext userContext = UserContext.get(request, registrationServlet);
+
+    if (!userContext.isRegistered()) {
+      response.sendError(
+              HttpServletResponse.SC_UNAUTHORIZED, "user must be registered to " + action);
+      return null;
+    }
+
+    if (!userContext.isVolunteer()) {
+      response.sendError(
+              HttpServletResponse.SC_UNAUTHORIZED,
+              "user must be registered as a volunteer to " + action);
+      return null;
+    }
+
+    final User user = userService.getCurrentUser();
+    if (user == null || user.getUserId() == null) {
+      response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "user id is null!");
+      return null;
+    }
+
+    return user.getUserId();
+  }
+}
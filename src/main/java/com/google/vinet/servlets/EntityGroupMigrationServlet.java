@@ -0,0 +1,112 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.vinet.data.EntityGroupMigration;
+import com.google.vinet.metrics.InstrumentedDatastoreService;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Web Servlet for moving root tickets into their Isolates' entity groups, and time slots into the
+ * current {@link com.google.vinet.data.SlotPartitioning}. A request made by an admin submits the
+ * migration to the task queue, which then runs it one batch per task, each task submitting the task
+ * for the next batch. Like every path under /admin, it is restricted to admins by the security
+ * constraint in web.xml.
+ */
+@WebServlet(EntityGroupMigrationServlet.URL)
+public class EntityGroupMigrationServlet extends HttpServlet {
+  /** The URL of this servlet. */
+  public static final String URL = "/admin/migrate-entity-groups";
+  /** The name of the parameter containing the step of the migration to be run. */
+  public static final String STEP_PARAMETER = "step";
+  /** The name of the parameter containing the cursor of the batch to be migrated. */
+  public static final String CURSOR_PARAMETER = "cursor";
+  /** The header set by the task queue on the requests it makes, which users cannot set. */
+  private static final String QUEUE_NAME_HEADER = "X-AppEngine-QueueName";
+
+  /** The DatastoreService implementation that this EntityGroupMigrationServlet depends on. */
+  private DatastoreService datastore;
+  /** The task Queue that the batches of the migration are submitted to. */
+  private Queue queue;
+
+  /**
+   * Construct an EntityGroupMigrationServlet with its dependencies set to their default
+   * implementations.
+   */
+  public EntityGroupMigrationServlet() {
+    this.datastore = InstrumentedDatastoreService.create();
+    this.queue = QueueFactory.getDefaultQueue();
+  }
+
+  /**
+   * Construct an EntityGroupMigrationServlet which depends on the provided dependencies.
+   * @param datastore The DatastoreService implementation to depend on.
+   * @param queue The task Queue to submit the batches of the migration to.
+   */
+  public EntityGroupMigrationServlet(DatastoreService datastore, Queue queue) {
+    this.datastore = datastore;
+    this.queue = queue;
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    /* A request which was not made by the task queue starts the migration from its first batch. */
+    if (request.getHeader(QUEUE_NAME_HEADER) == null) {
+      submit(EntityGroupMigration.Step.values()[0], null);
+      response.setStatus(HttpServletResponse.SC_ACCEPTED);
+      return;
+    }
+
+    final EntityGroupMigration.Step step;
+    try {
+      step = EntityGroupMigration.Step.valueOf(request.getParameter(STEP_PARAMETER));
+    } catch (IllegalArgumentException | NullPointerException exception) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "step parameter invalid");
+      return;
+    }
+
+    /* A failed batch fails the task, so that the task queue retries it. */
+    final String nextCursor =
+        new EntityGroupMigration(datastore).migrateBatch(step, request.getParameter(CURSOR_PARAMETER));
+
+    if (nextCursor != null) {
+      submit(step, nextCursor);
+    } else if (step.next() != null) {
+      submit(step.next(), null);
+    }
+  }
+
+  /**
+   * Submit a batch of the migration to the task queue.
+   * @param step The step of the batch.
+   * @param cursor The cursor of the batch, or null for the first batch of the step.
+   */
+  private void submit(EntityGroupMigration.Step step, String cursor) {
+    final TaskOptions task = TaskOptions.Builder.withUrl(URL).param(STEP_PARAMETER, step.name());
+    if (cursor != null) task.param(CURSOR_PARAMETER, cursor);
+    queue.add(task);
+  }
+}
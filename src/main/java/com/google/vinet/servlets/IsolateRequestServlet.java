@@ -18,8 +18,8 @@ package com.google.vinet.servlets;
 
 import com.google.appengine.api.datastore.*;
 import com.google.appengine.api.users.*;
-import com.google.gson.*;
 import com.google.vinet.data.*;
+import com.google.vinet.metrics.InstrumentedDatastoreService;
 import java.io.*;
 import java.time.*;
 import java.time.format.*;
@@ -29,9 +29,13 @@ import javax.servlet.http.*;
 
 @WebServlet("/fetch-requests")
 public class IsolateRequestServlet  extends HttpServlet {
-  public DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  public DatastoreService datastore = InstrumentedDatastoreService.create();
   public UserService userService = UserServiceFactory.getUserService();
   public RegistrationServlet registrationServlet = new RegistrationServlet();
+  public ListingCache listingCache = ListingCache.getDefault();
+
+  /** The largest number of requests whose tickets are resolved with a single batched get. */
+  private static final int TICKET_BATCH_SIZE = Pagination.DEFAULT_LIMIT;
 
   /**
    * Fetch the current user's tickets from DataStore, and return them as JSON, sorted in descending
@@ -53,7 +57,8 @@ public class IsolateRequestServlet  extends HttpServlet {
       return;
     }
 
-    final boolean registered = registrationServlet.isUserRegistered();
+    final UserContext userContext = UserContext.get(request, registrationServlet);
+    final boolean registered = userContext.isRegistered();
 
     if (!registered) {
       response.sendError(
@@ -63,58 +68,97 @@ public class IsolateRequestServlet  extends HttpServlet {
 
     final String userId = userService.getCurrentUser().getUserId();
 
-    final Query query = new Query(IsolateTimeSlot.ISOLATE_TIME_SLOT_TABLE_NAME);
-    final Query.Filter filter = new Query.FilterPredicate("isolateId", Query.FilterOperator.EQUAL, userId);
-    query.setFilter(filter).addSort("date", Query.SortDirection.DESCENDING);
+    final FetchOptions fetchOptions;
+    try {
+      fetchOptions = Pagination.getFetchOptions(request);
+    } catch (IllegalArgumentException exception) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, exception.getMessage());
+      return;
+    }
+
+    /* An Isolate's requests only change when the Isolate posts a new request, which invalidates the
+     * cached listing, so serve the cached first page if there is one. */
+    final boolean cacheable = Pagination.isDefaultFirstPage(request);
+    if (cacheable) {
+      final String cachedRequests = listingCache.get(ListingCache.Listing.REQUESTS, userId);
+      if (cachedRequests != null) {
+        response.getWriter().println(cachedRequests);
+        return;
+      }
+    }
+
+    /* In the default layout, the Isolate's requests are read from their entity group, so a request is
+     * listed as soon as it has been posted. */
+    final Query query = SlotPartitioning.current()
+        .queryByUser(IsolateTimeSlot.ISOLATE_TIME_SLOT_TABLE_NAME, "isolateId", new Isolate(userId));
+    query.addSort("date", Query.SortDirection.DESCENDING);
 
     final PreparedQuery results = datastore.prepare(query);
 
-    Gson gson = new Gson();
+    final QueryResultIterator<Entity> entities = results.asQueryResultIterator(fetchOptions);
+    final JsonPageWriter<IsolateRequest> pageWriter =
+        new JsonPageWriter<>(response.getWriter(), Json.GSON, IsolateRequest.class, cacheable);
 
-    List<IsolateRequest> isolateRequests = new LinkedList<>();
+    /* Write the Isolate's requests as they are read, in batches whose tickets are resolved with a
+     * single batched get, rather than one get per request. A page of the default size is a single
+     * batch. */
+    final List<Entity> batch = new ArrayList<>(TICKET_BATCH_SIZE);
+    int count = 0;
 
     /* An EntityNotFoundException implies the system has stored an isolate's request, but failed to link
      * that request to the correct Ticket entity in Datastore. The exception must be thrown to allow Google
      * Cloud Console to observe and log it. It should not be caught by the caller. */
     try {
-      for (Entity entity : results.asIterable()) {
-        final String date = (String) entity.getProperty("date");
-        final String start = (String) entity.getProperty("startTime");
-        final String end = (String) entity.getProperty("endTime");
-
-        final Key ticketKey = KeyFactory.stringToKey((String) entity.getProperty("ticketKey"));
-        final Entity ticket = datastore.get(ticketKey);
-
-        final String[] subjects = gson.fromJson((String) ticket.getProperty("subjects"), String[].class);
-        final String[] details = gson.fromJson((String) ticket.getProperty("details"), String[].class);
-
-        final IsolateRequest isolateRequest = new IsolateRequest(date, start, end, subjects, details);
-        isolateRequests.add(isolateRequest);
+      while (entities.hasNext()) {
+        batch.add(entities.next());
+        count++;
+        if (batch.size() >= TICKET_BATCH_SIZE) {
+          writeRequests(batch, pageWriter);
+        }
       }
+      writeRequests(batch, pageWriter);
     } catch (EntityNotFoundException exception) {
-      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      /* The status can only be changed if no part of the response has been sent yet. */
+      if (!response.isCommitted()) {
+        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      }
       throw new RuntimeException(exception);
     }
 
-    try {
-      /* Converting the Isolate's Requests from a LinkedList to an array was found to solve an error
-       * with Gson following circular references, and causing a StackOverflowError to be thrown. */
-      response.getWriter().println(gson.toJson(isolateRequests.toArray(new IsolateRequest[] {})));
-    } catch (Exception exception) {
-      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-    }
+    pageWriter.finish(Page.getNextCursor(entities, count, fetchOptions.getLimit()));
+    if (cacheable) listingCache.put(ListingCache.Listing.REQUESTS, userId, pageWriter.getJson());
   }
 
-  public static class IsolateRequest {
-    private final String date, start, end;
-    private final String[] subjects, details;
+  /**
+   * Resolve the tickets of a batch of IsolateTimeSlot entities with a single batched get, write the
+   * requests they make up, and clear the batch.
+   *
+   * @throws EntityNotFoundException If the ticket of any of the IsolateTimeSlots does not exist.
+   */
+  private void writeRequests(
+      List<Entity> batch, JsonPageWriter<IsolateRequest> pageWriter)
+      throws IOException, EntityNotFoundException {
+    final List<Key> ticketKeys = new ArrayList<>(batch.size());
+    for (Entity entity : batch) {
+      ticketKeys.add(KeyFactory.stringToKey((String) entity.getProperty("ticketKey")));
+    }
+    final Map<Key, Entity> tickets = datastore.get(ticketKeys);
+
+    for (int i = 0; i < batch.size(); i++) {
+      final Entity entity = batch.get(i);
+      final String date = (String) entity.getProperty("date");
+      final String start = (String) entity.getProperty("startTime");
+      final String end = (String) entity.getProperty("endTime");
+
+      final Key ticketKey = ticketKeys.get(i);
+      final Entity ticket = tickets.get(ticketKey);
+      if (ticket == null) {
+        throw new EntityNotFoundException(ticketKey);
+      }
 
-    public IsolateRequest(String date, String start, String end, String[] subjects, String[] details) {
-      this.date = date;
-      this.start = start;
-      this.end = end;
-      this.subjects = subjects;
-      this.details = details;
+      pageWriter.write(
+          new IsolateRequest(date, start, end, Ticket.getSubjects(ticket), Ticket.getDetails(ticket)));
     }
+    batch.clear();
   }
 }
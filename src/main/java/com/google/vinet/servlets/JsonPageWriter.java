@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.servlets;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Type;
+
+/**
+ * Writes a {@link com.google.vinet.data.Page} as JSON, one item at a time, so that a listing is
+ * sent as it is read from Datastore, rather than being collected in memory first. The JSON written
+ * is the same as {@code gson.toJson(page)}.
+ *
+ * <p>JsonPageWriter does not buffer, and does not flush the Writer it writes to, so the response is
+ * sent as the container's response buffer fills.
+ *
+ * <p>The JSON written can optionally be copied, so that it can be cached once complete.
+ *
+ * @param <T> The type of the items of the page.
+ */
+public class JsonPageWriter<T> {
+  private final Gson gson;
+  private final Type itemType;
+  private final JsonWriter jsonWriter;
+  /** The copy of the JSON written so far, or null if it is not being copied. */
+  private final StringBuilder copy;
+
+  /**
+   * Start writing a page, by writing the start of its JSON object and of its items.
+   *
+   * @param out The Writer to write the JSON to.
+   * @param gson The Gson used to write each item.
+   * @param itemType The type of the items of the page.
+   * @param copyJson Whether to keep a copy of the JSON written, for {@link #getJson()}.
+   * @throws IOException If an IOException occurs while writing.
+   */
+  public JsonPageWriter(Writer out, Gson gson, Type itemType, boolean copyJson)
+      throws IOException {
+    this.gson = gson;
+    this.itemType = itemType;
+    this.copy = copyJson ? new StringBuilder() : null;
+    this.jsonWriter = new JsonWriter(copyJson ? new CopyingWriter(out, copy) : out);
+    jsonWriter.beginObject();
+    jsonWriter.name("items");
+    jsonWriter.beginArray();
+  }
+
+  /**
+   * Write an item of the page.
+   * @param item The item to write.
+   * @throws IOException If an IOException occurs while writing.
+   */
+  public void write(T item) throws IOException {
+    gson.toJson(item, itemType, jsonWriter);
+  }
+
+  /**
+   * Finish writing the page, by writing the cursor of the next page and closing its JSON object.
+   * @param cursor The web-safe cursor of the next page, or null if this is the last page.
+   * @throws IOException If an IOException occurs while writing.
+   */
+  public void finish(String cursor) throws IOException {
+    jsonWriter.endArray();
+    if (cursor != null) {
+      jsonWriter.name("cursor");
+      jsonWriter.value(cursor);
+    }
+    jsonWriter.endObject();
+  }
+
+  /** @return the JSON written, or null if it was not copied. */
+  public String getJson() {
+    return copy == null ? null : copy.toString();
+  }
+
+  /** A Writer which copies everything it writes into a StringBuilder. */
+  private static class CopyingWriter extends Writer {
+    private final Writer out;
+    private final StringBuilder copy;
+
+    private CopyingWriter(Writer out, StringBuilder copy) {
+      this.out = out;
+      this.copy = copy;
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) throws IOException {
+      out.write(buffer, offset, length);
+      copy.append(buffer, offset, length);
+    }
+
+    @Override
+    public void write(String string, int offset, int length) throws IOException {
+      out.write(string, offset, length);
+      copy.append(string, offset, offset + length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+}
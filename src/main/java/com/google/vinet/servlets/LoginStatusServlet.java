@@ -17,6 +17,7 @@ package com.google.vinet.servlets;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.appengine.api.users.UserService;
 import com.google.gson.Gson;
+import com.google.vinet.data.Json;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -55,7 +56,7 @@ public class LoginStatusServlet extends HttpServlet {
 
     boolean loggedIn = this.userService.isUserLoggedIn();
 
-    Gson gson = new Gson();
+    Gson gson = Json.GSON;
 
     response.getWriter().println(gson.toJson(loggedIn));
   }
@@ -17,24 +17,29 @@
 package com.google.vinet.servlets;
 
 import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultIterator;
 import com.google.appengine.api.users.User;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.gson.Gson;
+import com.google.vinet.data.Json;
+import com.google.vinet.data.ListingCache;
 import com.google.vinet.data.Match;
+import com.google.vinet.data.MatchEnricher;
 import com.google.vinet.data.MatchingRunner;
+import com.google.vinet.data.Page;
+import com.google.vinet.metrics.InstrumentedDatastoreService;
 
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
 /**
  * Servlet for getting matches for logged-in user
@@ -43,7 +48,8 @@ import java.util.stream.StreamSupport;
 public class MatchFetcherServlet extends HttpServlet {
   private UserService userService = UserServiceFactory.getUserService();
   private RegistrationServlet registrationServlet = new RegistrationServlet();
-  private final DatastoreService datastoreService = DatastoreServiceFactory.getDatastoreService();
+  private final DatastoreService datastoreService = InstrumentedDatastoreService.create();
+  private ListingCache listingCache = ListingCache.getDefault();
 
   public void setUserService(UserService userService) {
     this.userService = userService;
@@ -53,6 +59,10 @@ public class MatchFetcherServlet extends HttpServlet {
     this.registrationServlet = registrationServlet;
   }
 
+  public void setListingCache(ListingCache listingCache) {
+    this.listingCache = listingCache;
+  }
+
   @Override
   protected void doGet(HttpServletRequest request, HttpServletResponse response)
           throws IOException {
@@ -66,7 +76,8 @@ public class MatchFetcherServlet extends HttpServlet {
       return;
     }
 
-    final boolean registered = registrationServlet.isUserRegistered();
+    final UserContext userContext = UserContext.get(request, registrationServlet);
+    final boolean registered = userContext.isRegistered();
 
     if (!registered) {
       response.sendError(
@@ -86,22 +97,71 @@ public class MatchFetcherServlet extends HttpServlet {
       return;
     }
 
-    final boolean isVolunteer = registrationServlet.isUserVolunteer();
+    final FetchOptions fetchOptions;
+    try {
+      fetchOptions = Pagination.getFetchOptions(request);
+    } catch (IllegalArgumentException exception) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, exception.getMessage());
+      return;
+    }
+
+    response.setContentType("application/json;");
+
+    // Matches only change when the matching is run, so serve the cached first page if there is one
+    final boolean cacheable = Pagination.isDefaultFirstPage(request);
+    if (cacheable) {
+      final String cachedMatches = listingCache.get(ListingCache.Listing.MATCHES, userId);
+      if (cachedMatches != null) {
+        response.getWriter().print(cachedMatches);
+        return;
+      }
+    }
+
+    final boolean isVolunteer = userContext.isVolunteer();
     final String idFilterProperty = isVolunteer ? "volunteerId" : "isolateId";
 
-    // Run a query to get all matches for this user
+    // Run a query to get a page of matches for this user
     Query query =
             new Query(MatchingRunner.MATCHING_TABLE_NAME)
                     .setFilter(
                             new Query.FilterPredicate(idFilterProperty, Query.FilterOperator.EQUAL, userId));
 
     PreparedQuery pq = datastoreService.prepare(query);
-    final List<Match> matches =
-            StreamSupport.stream(pq.asIterable().spliterator(), true)
-                    .map(match -> new Match(match, isVolunteer))
-                    .collect(Collectors.toList());
+    final QueryResultIterator<Entity> matchEntities = pq.asQueryResultIterator(fetchOptions);
+    final MatchEnricher matchEnricher = new MatchEnricher(datastoreService);
+    final JsonPageWriter<Match> pageWriter =
+            new JsonPageWriter<>(response.getWriter(), Json.GSON, Match.class, cacheable);
+
+    // Write each match as it is read. Matches stored without their users' names and ticket are
+    // held back, so that a run of them can be completed with one batched get.
+    final List<Entity> batch = new ArrayList<>();
+    int count = 0;
+    while (matchEntities.hasNext()) {
+      final Entity matchEntity = matchEntities.next();
+      count++;
+      batch.add(matchEntity);
+      if (Match.isDenormalised(matchEntity) || batch.size() >= MatchEnricher.BATCH_SIZE) {
+        writeMatches(batch, matchEnricher, isVolunteer, pageWriter);
+      }
+    }
+    writeMatches(batch, matchEnricher, isVolunteer, pageWriter);
 
-    response.setContentType("application/json;");
-    new Gson().toJson(matches, response.getWriter());
+    pageWriter.finish(Page.getNextCursor(matchEntities, count, fetchOptions.getLimit()));
+    if (cacheable) listingCache.put(ListingCache.Listing.MATCHES, userId, pageWriter.getJson());
+  }
+
+  /**
+   * Convert a batch of match entities into Matches, write them, and clear the batch.
+   */
+  private static void writeMatches(
+          List<Entity> batch,
+          MatchEnricher matchEnricher,
+          boolean isVolunteer,
+          JsonPageWriter<Match> pageWriter)
+          throws IOException {
+    for (Match match : matchEnricher.enrich(batch, isVolunteer)) {
+      pageWriter.write(match);
+    }
+    batch.clear();
   }
 }
@@ -0,0 +1,117 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.vinet.data.MatchingRun;
+import com.google.vinet.metrics.InstrumentedDatastoreService;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Web Servlet which lists the history of recent matching runs, with the timing of their steps and
+ * the statistics of the graphs they matched, for the admin dashboard.
+ */
+@WebServlet(MatchingRunsServlet.URL)
+public class MatchingRunsServlet extends HttpServlet {
+  /** The URL of this servlet. */
+  public static final String URL = "/admin/matching-runs";
+  /** The number of runs listed. */
+  public static final int RUN_COUNT = 20;
+
+  /** The DatastoreService implementation that this MatchingRunsServlet depends on. */
+  private DatastoreService datastore;
+
+  /**
+   * Construct a MatchingRunsServlet with its dependencies set to their default implementations.
+   */
+  public MatchingRunsServlet() {
+    this.datastore = InstrumentedDatastoreService.create();
+  }
+
+  /**
+   * Construct a MatchingRunsServlet which depends on the provided DatastoreService.
+   * @param datastore The DatastoreService implementation to depend on.
+   */
+  public MatchingRunsServlet(DatastoreService datastore) {
+    this.datastore = datastore;
+  }
+
+  /** Respond with the most recent runs, most recent first, as JSON. */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (request == null || response == null) {
+      throw new IllegalArgumentException("request/response must not be null");
+    }
+
+    final JsonArray items = new JsonArray();
+    for (MatchingRun run : MatchingRun.getRecent(RUN_COUNT, datastore)) {
+      items.add(toJson(run));
+    }
+
+    final JsonObject json = new JsonObject();
+    json.add("items", items);
+    response.setContentType("application/json;");
+    response.getWriter().println(json.toString());
+  }
+
+  /**
+   * @param run The run to describe.
+   * @return a JSON description of the provided run.
+   */
+  private static JsonObject toJson(MatchingRun run) {
+    final JsonObject timing = new JsonObject();
+    timing.addProperty("fetchMillis", run.getFetchDuration().toMillis());
+    timing.addProperty("buildMillis", run.getBuildDuration().toMillis());
+    timing.addProperty("searchMillis", run.getSearchDuration().toMillis());
+    timing.addProperty("augmentMillis", run.getAugmentDuration().toMillis());
+    timing.addProperty("persistMillis", run.getPersistDuration().toMillis());
+    if (run.getFinished() != null) {
+      timing.addProperty(
+          "elapsedMillis", Duration.between(run.getStarted(), run.getFinished()).toMillis());
+    }
+
+    final JsonObject graph = new JsonObject();
+    graph.addProperty("isolateNodes", run.getIsolateNodes());
+    graph.addProperty("volunteerNodes", run.getVolunteerNodes());
+    graph.addProperty("edges", run.getEdges());
+    graph.addProperty("phases", run.getPhases());
+    graph.addProperty("augmentingPaths", run.getAugmentingPaths());
+    graph.addProperty("shortestAugmentingPath", run.getShortestAugmentingPath());
+    graph.addProperty("longestAugmentingPath", run.getLongestAugmentingPath());
+    graph.addProperty("meanAugmentingPath", run.getMeanAugmentingPath());
+
+    final JsonObject json = new JsonObject();
+    json.addProperty("date", run.getDate().toString());
+    json.addProperty("started", run.getStarted().toString());
+    json.addProperty("resumed", run.isResumed());
+    json.addProperty("completed", run.isCompleted());
+    json.addProperty("matches", run.getMatchCount());
+    json.addProperty("matchRate", run.getMatchRate());
+    json.addProperty("peakHeapBytes", run.getPeakHeapBytes());
+    json.add("timing", timing);
+    json.add("graph", graph);
+    return json;
+  }
+}
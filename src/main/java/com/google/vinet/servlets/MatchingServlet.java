@@ -16,36 +16,89 @@
 
 package com.google.vinet.servlets;
 
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.gson.JsonObject;
+import com.google.vinet.data.MatchingJob;
 import com.google.vinet.data.MatchingRunner;
+import com.google.vinet.metrics.InstrumentedDatastoreService;
 
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.time.LocalDate;
 
+/**
+ * Web Servlet for submitting a run of the matching. The matching is run in the background by the
+ * {@link MatchingWorkerServlet}, and its progress can be polled from the
+ * {@link MatchingStatusServlet} using the job id returned by this servlet.
+ */
 @WebServlet("/admin/run-matching")
 public class MatchingServlet extends HttpServlet {
+  /** The DatastoreService implementation that this MatchingServlet depends on. */
+  private DatastoreService datastore;
+  /** The task Queue that matching runs are submitted to. */
+  private Queue queue;
+
+  /**
+   * Construct a MatchingServlet with its dependencies set to their default implementations.
+   */
+  public MatchingServlet() {
+    this.datastore = InstrumentedDatastoreService.create();
+    this.queue = QueueFactory.getDefaultQueue();
+  }
+
+  /**
+   * Construct a MatchingServlet which depends on the provided dependencies.
+   * @param datastore The DatastoreService implementation to depend on.
+   * @param queue The task Queue to submit matching runs to.
+   */
+  public MatchingServlet(DatastoreService datastore, Queue queue) {
+    this.datastore = datastore;
+    this.queue = queue;
+  }
+
+  /**
+   * Submit a run of the matching for tomorrow, and respond with the id of its job. If the matching
+   * for tomorrow is already being run, the id of that job is returned and no new run is submitted.
+   * A job that was left unfinished is resumed rather than restarted.
+   */
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException{
-    /* Construct a MatchingRunner with no initial parameters. All necessary data will be
-     * pulled from DataStore once runner.run() is called. */
-    MatchingRunner runner = new MatchingRunner();
+    final LocalDate date = MatchingRunner.getMatchingDate();
 
     /*
-     * Try to run the matcher. Report any failures to the caller.
+     * Try to submit the matching. Report any failures to the caller.
      * In a production environment, there would be an integration here with the bug tracking system
      * used by the deployer, to alert the owner that the matching has failed.
      * At present, all errors are visible in the Google Cloud Console, and email alerts can be set
      * up to emulate a paging system.
      */
+    final MatchingJob job;
     try {
-      /* Run the matching algorithm, and delete all matches scheduled before today. Today's matches
-       * will not be deleted. */
-      runner.run(true);
+      MatchingJob existingJob = MatchingJob.load(date, datastore);
+      if (existingJob != null && existingJob.isRunning(MatchingWorkerServlet.LEASE)) {
+        job = existingJob;
+      } else {
+        job = MatchingJob.resumeOrStart(date, datastore);
+        queue.add(
+            TaskOptions.Builder.withUrl(MatchingWorkerServlet.URL)
+                .param(MatchingWorkerServlet.JOB_ID_PARAMETER, job.getId()));
+      }
     } catch (Exception exception) {
       response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
       throw exception;
     }
+
+    final JsonObject json = new JsonObject();
+    json.addProperty("jobId", job.getId());
+
+    response.setStatus(HttpServletResponse.SC_ACCEPTED);
+    response.setContentType("application/json;");
+    response.getWriter().println(json.toString());
   }
 }
@@ -0,0 +1,138 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.gson.JsonObject;
+import com.google.vinet.data.MatchingJob;
+import com.google.vinet.metrics.InstrumentedDatastoreService;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Web Servlet for polling the progress of a matching job submitted to the {@link MatchingServlet}.
+ */
+@WebServlet("/admin/matching-status")
+public class MatchingStatusServlet extends HttpServlet {
+  /** The DatastoreService implementation that this MatchingStatusServlet depends on. */
+  private DatastoreService datastore;
+
+  /**
+   * Construct a MatchingStatusServlet with its dependencies set to their default implementations.
+   */
+  public MatchingStatusServlet() {
+    this.datastore = InstrumentedDatastoreService.create();
+  }
+
+  /**
+   * Construct a MatchingStatusServlet which depends on the provided DatastoreService.
+   * @param datastore The DatastoreService implementation to depend on.
+   */
+  public MatchingStatusServlet(DatastoreService datastore) {
+    this.datastore = datastore;
+  }
+
+  /**
+   * Respond with the phase, progress, counts and timing of the job whose id is provided in the
+   * {@code jobId} parameter, as JSON.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (response == null) {
+      throw new IllegalArgumentException("response must not be null");
+    }
+
+    if (request == null) {
+      throw new IllegalArgumentException("request must not be null");
+    }
+
+    final String jobId = request.getParameter(MatchingWorkerServlet.JOB_ID_PARAMETER);
+    if (jobId == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "jobId parameter missing");
+      return;
+    }
+
+    final MatchingJob job;
+    try {
+      job = MatchingJob.load(jobId, datastore);
+    } catch (IllegalArgumentException exception) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "jobId parameter invalid");
+      return;
+    }
+
+    if (job == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, "job not found");
+      return;
+    }
+
+    response.setContentType("application/json;");
+    response.getWriter().println(toJson(job).toString());
+  }
+
+  /**
+   * @param job The job to describe.
+   * @return a JSON description of the status of the provided job.
+   */
+  private static JsonObject toJson(MatchingJob job) {
+    final JsonObject progress = new JsonObject();
+    progress.addProperty("completedChunks", job.getCompletedChunks());
+    progress.addProperty("chunkCount", job.getChunkCount());
+    /* Progress is only measurable while writing, so it is reported per phase. */
+    final double fraction;
+    if (job.isDone()) {
+      fraction = 1;
+    } else if (job.getPhase() == MatchingJob.Phase.PERSIST && job.getChunkCount() > 0) {
+      fraction = (double) job.getCompletedChunks() / job.getChunkCount();
+    } else {
+      fraction = 0;
+    }
+    progress.addProperty("fraction", fraction);
+
+    final JsonObject counts = new JsonObject();
+    counts.addProperty("isolateTimeSlots", job.getIsolateTimeSlotCount());
+    counts.addProperty("volunteerTimeSlots", job.getVolunteerTimeSlotCount());
+    counts.addProperty("matches", job.getMatchCount());
+    counts.addProperty("puts", job.getPutCount());
+    counts.addProperty("deletes", job.getDeleteCount());
+
+    final Instant end = job.getFinished() == null ? Instant.now() : job.getFinished();
+    final JsonObject timing = new JsonObject();
+    timing.addProperty("started", job.getStarted().toString());
+    timing.addProperty("updated", job.getUpdated().toString());
+    timing.addProperty("finished", job.getFinished() == null ? null : job.getFinished().toString());
+    timing.addProperty("elapsedMillis", Duration.between(job.getStarted(), end).toMillis());
+
+    final JsonObject json = new JsonObject();
+    json.addProperty("jobId", job.getId());
+    json.addProperty("date", job.getDate().toString());
+    json.addProperty("phase", job.getPhase().name());
+    json.addProperty("done", job.isDone());
+    json.addProperty("failed", job.isFailed());
+    json.addProperty("failedAttempts", job.getFailedAttempts());
+    json.addProperty("error", job.getError());
+    json.add("progress", progress);
+    json.add("counts", counts);
+    json.add("timing", timing);
+    return json;
+  }
+}
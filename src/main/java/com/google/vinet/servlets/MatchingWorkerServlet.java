@@ -0,0 +1,158 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.vinet.data.MatchingJob;
+import com.google.vinet.data.MatchingRunner;
+import com.google.vinet.metrics.InstrumentedDatastoreService;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Web Servlet which runs a submitted matching job. It is only called by the task queue, which
+ * retries the task if it fails. As the job is checkpointed, a retried task resumes the job from
+ * where the failed task left it.
+ *
+ * <p>A task only runs its job once it has claimed it, so two tasks submitted for the same job never
+ * run it at the same time. A task whose job is held by another worker fails, so that the task queue
+ * retries it, in case that worker is abandoned before finishing the job.
+ *
+ * <p>A job which has failed {@link MatchingJob#MAX_ATTEMPTS} times is moved into its FAILED phase,
+ * and its task then succeeds without running it, so that the task queue stops retrying it.
+ */
+@WebServlet(MatchingWorkerServlet.URL)
+public class MatchingWorkerServlet extends HttpServlet {
+  /** The URL of this servlet. */
+  public static final String URL = "/admin/matching-worker";
+  /** The name of the parameter containing the id of the job to be run. */
+  public static final String JOB_ID_PARAMETER = "jobId";
+  /**
+   * The longest a task may run before stopping to write results. Push tasks have a ten minute
+   * deadline, so this leaves time to save the job and submit the task which will continue it.
+   */
+  public static final Duration TIME_BUDGET = Duration.ofMinutes(8);
+  /** The longest a job may go without being saved before it is considered to be abandoned. */
+  public static final Duration LEASE = Duration.ofMinutes(10);
+  /** The header set by the task queue on the requests it makes, which users cannot set. */
+  private static final String QUEUE_NAME_HEADER = "X-AppEngine-QueueName";
+
+  /** The DatastoreService implementation that this MatchingWorkerServlet depends on. */
+  private DatastoreService datastore;
+  /** The task Queue that unfinished jobs are submitted to, to be continued. */
+  private Queue queue;
+
+  /**
+   * Construct a MatchingWorkerServlet with its dependencies set to their default implementations.
+   */
+  public MatchingWorkerServlet() {
+    this.datastore = InstrumentedDatastoreService.create();
+    this.queue = QueueFactory.getDefaultQueue();
+  }
+
+  /**
+   * Construct a MatchingWorkerServlet which depends on the provided dependencies.
+   * @param datastore The DatastoreService implementation to depend on.
+   * @param queue The task Queue to submit unfinished jobs to.
+   */
+  public MatchingWorkerServlet(DatastoreService datastore, Queue queue) {
+    this.datastore = datastore;
+    this.queue = queue;
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (request.getHeader(QUEUE_NAME_HEADER) == null) {
+      response.sendError(
+          HttpServletResponse.SC_FORBIDDEN, "matching jobs can only be run by the task queue");
+      return;
+    }
+
+    final String jobId = request.getParameter(JOB_ID_PARAMETER);
+    if (jobId == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "jobId parameter missing");
+      return;
+    }
+
+    final MatchingJob job;
+    try {
+      job = MatchingJob.load(jobId, datastore);
+    } catch (IllegalArgumentException exception) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "jobId parameter invalid");
+      return;
+    }
+
+    /* A job which no longer exists, or has already finished or failed, needs no further work.
+     * Responding with a success status stops the task queue from retrying the task. */
+    if (job == null || job.isDone() || job.isFailed()) return;
+
+    if (!job.claim(LEASE, datastore)) {
+      /* Claiming a job abandoned too many times moves it into its FAILED phase. */
+      if (job.isFailed()) return;
+      response.sendError(HttpServletResponse.SC_CONFLICT, "matching job is held by another worker");
+      return;
+    }
+
+    /* Construct a MatchingRunner with no initial parameters. All necessary data will be
+     * pulled from DataStore once runner.run() is called. */
+    final MatchingRunner runner = new MatchingRunner();
+    runner.setDatastore(datastore);
+    runner.setDate(job.getDate());
+    runner.setDeadline(Instant.now().plus(TIME_BUDGET));
+
+    final boolean finished;
+    try {
+      /* Run the matching algorithm. Past matches are archived and purged by the RetentionServlet,
+       * so none are deleted here. */
+      finished = runner.run(false);
+    } catch (Exception exception) {
+      /* Record the failure so it can be seen from the job's status, then fail the task, so that the
+       * task queue retries it. The job is reloaded, as the runner has saved its progress since, and
+       * is left alone if another worker has claimed it since. */
+      final MatchingJob failedJob = MatchingJob.load(jobId, datastore);
+      if (failedJob != null && job.getWorker().equals(failedJob.getWorker())) {
+        failedJob.fail(exception, datastore);
+        /* The job will not be run again, so there is nothing for the task queue to retry. */
+        if (failedJob.isFailed()) {
+          System.err.println("Matching job failed on its last attempt: " + exception);
+          return;
+        }
+      }
+      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      throw exception;
+    }
+
+    if (!finished) {
+      /* The deadline passed before all results were written, so continue the job in a new task,
+       * which can only claim the job once this task has released it. */
+      final MatchingJob unfinishedJob = MatchingJob.load(jobId, datastore);
+      if (unfinishedJob != null && job.getWorker().equals(unfinishedJob.getWorker())) {
+        unfinishedJob.release(datastore);
+      }
+      queue.add(TaskOptions.Builder.withUrl(URL).param(JOB_ID_PARAMETER, jobId));
+    }
+  }
+}
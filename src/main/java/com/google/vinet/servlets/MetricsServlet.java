@@ -0,0 +1,267 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.servlets;
+
+import com.google.gson.JsonObject;
+import com.google.vinet.metrics.DatastoreStats;
+import com.google.vinet.metrics.EndpointMetrics;
+import com.google.vinet.metrics.Histogram;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Web Servlet which reports the {@link EndpointMetrics}, Datastore {@link DatastoreStats} and
+ * {@link UserProfileCache} hits and misses of this instance. The metrics are reported as JSON, with
+ * the p50, p95 and p99 latencies of each endpoint, or in the Prometheus text format if the
+ * {@code format} parameter is {@code prometheus}, or the request accepts {@code text/plain}.
+ */
+@WebServlet(MetricsServlet.URL)
+public class MetricsServlet extends HttpServlet {
+  /** The URL of this servlet. */
+  public static final String URL = "/admin/metrics";
+  /** The name of the parameter selecting the format of the metrics. */
+  public static final String FORMAT_PARAMETER = "format";
+  /** The content type of the Prometheus text format. */
+  private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4";
+
+  /** The EndpointMetrics that this MetricsServlet reports. */
+  private EndpointMetrics endpointMetrics;
+  /** The DatastoreStats that this MetricsServlet reports. */
+  private DatastoreStats datastoreStats;
+  /** The UserProfileCache whose hits and misses this MetricsServlet reports. */
+  private UserProfileCache profileCache;
+
+  /** Construct a MetricsServlet which reports the metrics of this instance. */
+  public MetricsServlet() {
+    this.endpointMetrics = EndpointMetrics.getDefault();
+    this.datastoreStats = DatastoreStats.global();
+    this.profileCache = UserProfileCache.getDefault();
+  }
+
+  /**
+   * Construct a MetricsServlet which reports the provided metrics, and the default
+   * UserProfileCache.
+   * @param endpointMetrics The EndpointMetrics to report.
+   * @param datastoreStats The DatastoreStats to report.
+   */
+  public MetricsServlet(EndpointMetrics endpointMetrics, DatastoreStats datastoreStats) {
+    this(endpointMetrics, datastoreStats, UserProfileCache.getDefault());
+  }
+
+  /**
+   * Construct a MetricsServlet which reports the provided metrics.
+   * @param endpointMetrics The EndpointMetrics to report.
+   * @param datastoreStats The DatastoreStats to report.
+   * @param profileCache The UserProfileCache whose hits and misses to report.
+   */
+  public MetricsServlet(
+      EndpointMetrics endpointMetrics,
+      DatastoreStats datastoreStats,
+      UserProfileCache profileCache) {
+    this.endpointMetrics = endpointMetrics;
+    this.datastoreStats = datastoreStats;
+    this.profileCache = profileCache;
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    if (request == null || response == null) {
+      throw new IllegalArgumentException("request/response must not be null");
+    }
+
+    final String accept = request.getHeader("Accept");
+    if ("prometheus".equals(request.getParameter(FORMAT_PARAMETER))
+        || (accept != null && accept.contains("text/plain"))) {
+      response.setContentType(PROMETHEUS_CONTENT_TYPE);
+      writePrometheus(response.getWriter());
+      return;
+    }
+
+    response.setContentType("application/json;");
+    response.getWriter().println(toJson().toString());
+  }
+
+  /** @return the metrics as JSON. */
+  private JsonObject toJson() {
+    final JsonObject endpoints = new JsonObject();
+    for (Map.Entry<String, EndpointMetrics.Endpoint> entry :
+        endpointMetrics.getEndpoints().entrySet()) {
+      final JsonObject statuses = new JsonObject();
+      entry.getValue().getStatusCounts().forEach((status, count) ->
+          statuses.addProperty(Integer.toString(status), count));
+
+      final JsonObject endpoint = latencyToJson(entry.getValue().getLatency());
+      endpoint.add("statuses", statuses);
+      endpoints.add(entry.getKey(), endpoint);
+    }
+
+    final JsonObject datastore = new JsonObject();
+    for (DatastoreStats.Operation operation : DatastoreStats.Operation.values()) {
+      final JsonObject stats = latencyToJson(datastoreStats.getLatency(operation));
+      stats.addProperty("entities", datastoreStats.getEntities(operation));
+      stats.addProperty("bytes", datastoreStats.getBytes(operation));
+      datastore.add(operation.name().toLowerCase(), stats);
+    }
+
+    final JsonObject userProfiles = new JsonObject();
+    userProfiles.addProperty("localHits", profileCache.getLocalHitCount());
+    userProfiles.addProperty("memcacheHits", profileCache.getMemcacheHitCount());
+    userProfiles.addProperty("misses", profileCache.getMissCount());
+    userProfiles.addProperty("hitRatio", profileCache.getHitRatio());
+
+    final JsonObject json = new JsonObject();
+    json.add("endpoints", endpoints);
+    json.add("datastore", datastore);
+    json.add("userProfileCache", userProfiles);
+    return json;
+  }
+
+  /**
+   * @param latency A histogram of latencies.
+   * @return the count, mean, percentiles and maximum of the latencies as JSON, in milliseconds.
+   */
+  private static JsonObject latencyToJson(Histogram latency) {
+    final long count = latency.getCount();
+    final JsonObject json = new JsonObject();
+    json.addProperty("count", count);
+    json.addProperty(
+        "meanMs", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(latency.getSumNanos() / count));
+    json.addProperty("p50Ms", latency.getPercentileMillis(0.50));
+    json.addProperty("p95Ms", latency.getPercentileMillis(0.95));
+    json.addProperty("p99Ms", latency.getPercentileMillis(0.99));
+    json.addProperty("maxMs", latency.getMaxMillis());
+    return json;
+  }
+
+  /**
+   * Write the metrics in the Prometheus text format.
+   * @param writer The writer to write the metrics to.
+   */
+  private void writePrometheus(PrintWriter writer) {
+    final Map<String, EndpointMetrics.Endpoint> endpoints = endpointMetrics.getEndpoints();
+
+    writer.println("# HELP vinet_http_requests_total Requests served, by endpoint and status.");
+    writer.println("# TYPE vinet_http_requests_total counter");
+    for (Map.Entry<String, EndpointMetrics.Endpoint> entry : endpoints.entrySet()) {
+      entry.getValue().getStatusCounts().forEach((status, count) ->
+          writer.printf(
+              "vinet_http_requests_total{endpoint=\"%s\",status=\"%d\"} %d\n",
+              escape(entry.getKey()), status, count));
+    }
+
+    writer.println("# HELP vinet_http_request_duration_seconds Latency of requests, by endpoint.");
+    writer.println("# TYPE vinet_http_request_duration_seconds histogram");
+    for (Map.Entry<String, EndpointMetrics.Endpoint> entry : endpoints.entrySet()) {
+      writeHistogram(
+          writer,
+          "vinet_http_request_duration_seconds",
+          "endpoint=\"" + escape(entry.getKey()) + "\"",
+          entry.getValue().getLatency());
+    }
+
+    writer.println("# HELP vinet_datastore_calls_total Datastore calls, by operation.");
+    writer.println("# TYPE vinet_datastore_calls_total counter");
+    for (DatastoreStats.Operation operation : DatastoreStats.Operation.values()) {
+      writer.printf(
+          "vinet_datastore_calls_total{operation=\"%s\"} %d\n",
+          operation.name().toLowerCase(), datastoreStats.getCalls(operation));
+    }
+
+    writer.println(
+        "# HELP vinet_datastore_entities_total Entities read or written by Datastore calls.");
+    writer.println("# TYPE vinet_datastore_entities_total counter");
+    for (DatastoreStats.Operation operation : DatastoreStats.Operation.values()) {
+      writer.printf(
+          "vinet_datastore_entities_total{operation=\"%s\"} %d\n",
+          operation.name().toLowerCase(), datastoreStats.getEntities(operation));
+    }
+
+    writer.println("# HELP vinet_datastore_bytes_total Bytes read or written by Datastore calls.");
+    writer.println("# TYPE vinet_datastore_bytes_total counter");
+    for (DatastoreStats.Operation operation : DatastoreStats.Operation.values()) {
+      writer.printf(
+          "vinet_datastore_bytes_total{operation=\"%s\"} %d\n",
+          operation.name().toLowerCase(), datastoreStats.getBytes(operation));
+    }
+
+    writer.println("# HELP vinet_datastore_call_duration_seconds Latency of Datastore calls.");
+    writer.println("# TYPE vinet_datastore_call_duration_seconds histogram");
+    for (DatastoreStats.Operation operation : DatastoreStats.Operation.values()) {
+      writeHistogram(
+          writer,
+          "vinet_datastore_call_duration_seconds",
+          "operation=\"" + operation.name().toLowerCase() + "\"",
+          datastoreStats.getLatency(operation));
+    }
+
+    writer.println(
+        "# HELP vinet_user_profile_cache_lookups_total "
+            + "User profile lookups, by where they were served.");
+    writer.println("# TYPE vinet_user_profile_cache_lookups_total counter");
+    writer.printf(
+        "vinet_user_profile_cache_lookups_total{result=\"local_hit\"} %d\n",
+        profileCache.getLocalHitCount());
+    writer.printf(
+        "vinet_user_profile_cache_lookups_total{result=\"memcache_hit\"} %d\n",
+        profileCache.getMemcacheHitCount());
+    writer.printf(
+        "vinet_user_profile_cache_lookups_total{result=\"miss\"} %d\n",
+        profileCache.getMissCount());
+  }
+
+  /**
+   * Write a histogram in the Prometheus text format, with cumulative buckets in seconds.
+   *
+   * @param writer The writer to write the histogram to.
+   * @param name The name of the metric.
+   * @param labels The labels identifying the histogram among those of the metric.
+   * @param histogram The histogram.
+   */
+  private static void writeHistogram(
+      PrintWriter writer, String name, String labels, Histogram histogram) {
+    final long[] counts = histogram.getCounts();
+    long cumulative = 0;
+    for (int bucket = 0; bucket < Histogram.BUCKET_BOUNDS_MILLIS.length; bucket++) {
+      cumulative += counts[bucket];
+      writer.printf(
+          "%s_bucket{%s,le=\"%s\"} %d\n",
+          name,
+          labels,
+          Double.toString(Histogram.BUCKET_BOUNDS_MILLIS[bucket] / 1000.0),
+          cumulative);
+    }
+    cumulative += counts[counts.length - 1];
+    writer.printf("%s_bucket{%s,le=\"+Inf\"} %d\n", name, labels, cumulative);
+    writer.printf("%s_sum{%s} %s\n", name, labels, Double.toString(histogram.getSumNanos() / 1e9));
+    writer.printf("%s_count{%s} %d\n", name, labels, cumulative);
+  }
+
+  /**
+   * @param value A label value.
+   * @return the value, escaped to appear between quotes in the Prometheus text format.
+   */
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
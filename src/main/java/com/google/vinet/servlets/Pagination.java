@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.servlets;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.FetchOptions;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Reads the {@code limit} and {@code cursor} parameters accepted by list endpoints. Listings are
+ * returned as a {@link com.google.vinet.data.Page}, whose cursor is passed back to fetch the next
+ * page.
+ */
+public final class Pagination {
+  /** The name of the parameter containing the maximum number of items to return. */
+  public static final String LIMIT_PARAMETER = "limit";
+  /** The name of the parameter containing the cursor of the page to return. */
+  public static final String CURSOR_PARAMETER = "cursor";
+  /** The number of items returned when no limit is provided. */
+  public static final int DEFAULT_LIMIT = 50;
+  /** The largest limit that may be requested. */
+  public static final int MAX_LIMIT = 200;
+
+  private Pagination() {}
+
+  /**
+   * Get the FetchOptions for the page requested by a request.
+   *
+   * @param request The request for a page of a listing.
+   * @return The FetchOptions with the requested limit and, if provided, cursor.
+   * @throws IllegalArgumentException If the limit is not a number between 1 and
+   *     {@link #MAX_LIMIT}, or the cursor is not valid.
+   */
+  public static FetchOptions getFetchOptions(HttpServletRequest request) {
+    final FetchOptions fetchOptions = FetchOptions.Builder.withLimit(getLimit(request));
+
+    final String cursor = request.getParameter(CURSOR_PARAMETER);
+    if (cursor != null && !cursor.isEmpty()) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+
+    return fetchOptions;
+  }
+
+  /**
+   * @param request The request for a page of a listing.
+   * @return true, if the request is for the first page, with the default limit.
+   */
+  public static boolean isDefaultFirstPage(HttpServletRequest request) {
+    final String cursor = request.getParameter(CURSOR_PARAMETER);
+    return (cursor == null || cursor.isEmpty()) && getLimit(request) == DEFAULT_LIMIT;
+  }
+
+  private static int getLimit(HttpServletRequest request) {
+    final String limitParameter = request.getParameter(LIMIT_PARAMETER);
+    if (limitParameter == null || limitParameter.isEmpty()) return DEFAULT_LIMIT;
+
+    final int limit;
+    try {
+      limit = Integer.parseInt(limitParameter);
+    } catch (NumberFormatException exception) {
+      throw new IllegalArgumentException("limit must be a number");
+    }
+
+    if (limit < 1 || limit > MAX_LIMIT) {
+      throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+    }
+
+    return limit;
+  }
+}
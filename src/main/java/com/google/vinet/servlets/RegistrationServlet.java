@@ -17,8 +17,8 @@
 package com.google.vinet.servlets;
 
 import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.PreparedQuery;
@@ -32,6 +32,10 @@ import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.common.collect.Sets;
 import com.google.gson.Gson;
+import com.google.vinet.data.IndexPolicy;
+import com.google.vinet.data.Json;
+import com.google.vinet.data.RegisteredUser;
+import com.google.vinet.metrics.InstrumentedDatastoreService;
 
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -51,7 +55,7 @@ public class RegistrationServlet extends HttpServlet {
   /** The maximum allowable length for the "name" attributes of a User. */
   private static final int MAX_NAME_LENGTH = 300;
   /** The Datastore Entity name for the User's information. */
-  public static final String USER_TABLE_NAME = "UserInfo";
+  public static final String USER_TABLE_NAME = RegisteredUser.USER_TABLE_NAME;
   /** The homepage for the Isolate user group. */
   public static final String ISOLATE_HOME_PAGE = "/isolate/home.html";
   /** The homepage for the Volunteer user group. */
@@ -66,13 +70,16 @@ public class RegistrationServlet extends HttpServlet {
   private UserService userService;
   /** The UserService implementation that this RegistrationServlet depends on. */
   private DatastoreService datastore;
+  /** The cache of User information that this RegistrationServlet reads through. */
+  private UserProfileCache profileCache;
 
   /**
    * Construct a Registrationservlet with its dependencies set to their default implementations.
    */
   public RegistrationServlet() {
     this.userService = UserServiceFactory.getUserService();
-    this.datastore = DatastoreServiceFactory.getDatastoreService();
+    this.datastore = InstrumentedDatastoreService.create();
+    this.profileCache = UserProfileCache.getDefault();
   }
 
   /**
@@ -91,6 +98,14 @@ public class RegistrationServlet extends HttpServlet {
     this.datastore  = datastore;
   }
 
+  /**
+   * Set the UserProfileCache that this RegistrationServlet will read User information through.
+   * @param profileCache The UserProfileCache to be used.
+   */
+  public void setProfileCache(UserProfileCache profileCache) {
+    this.profileCache = profileCache;
+  }
+
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) {
     response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
@@ -116,9 +131,9 @@ public class RegistrationServlet extends HttpServlet {
           Sets.newHashSet("firstname", "lastname", "type", "latitude", "longitude");
       final Map<String, String[]> parameterMap = request.getParameterMap();
 
-      DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+      DatastoreService datastore = InstrumentedDatastoreService.create();
       Entity entity = new Entity(USER_TABLE_NAME, userId);
-      entity.setProperty("userId", userId);
+      IndexPolicy.USER_INFO.setProperty(entity, "userId", userId);
 
       for (String propertyName : propertyNames) {
         final String[] parameterArray = parameterMap.get(propertyName);
@@ -170,10 +185,11 @@ public class RegistrationServlet extends HttpServlet {
         }
 
         if (value == null) value = parameter;
-        entity.setProperty(propertyName, value);
+        IndexPolicy.USER_INFO.setProperty(entity, propertyName, value);
       }
 
       datastore.put(entity);
+      profileCache.invalidate(userId);
 
       response.setStatus(HttpServletResponse.SC_OK);
 
@@ -214,7 +230,7 @@ public class RegistrationServlet extends HttpServlet {
       return;
     }
 
-    final Gson gson = new Gson();
+    final Gson gson = Json.GSON;
 
     try {
       response.getWriter().println(gson.toJson(registered));
@@ -227,9 +243,7 @@ public class RegistrationServlet extends HttpServlet {
    * @return true, if the currently logged in User is registered.
    */
   public boolean isUserRegistered()  {
-    final PreparedQuery preparedQuery = getUserQuery();
-    
-    final Entity userEntity = getSingleEntity(preparedQuery);
+    final Entity userEntity = getCurrentUserEntity();
 
     /* If the query returns a non-null value, then the User is registered.
      * If the query returns a null value, then the user is not registered.
@@ -255,9 +269,7 @@ public class RegistrationServlet extends HttpServlet {
 
   /** @return the UserType of the currently logged in User. */
   public UserType getUserType()  {
-    final PreparedQuery preparedQuery = getUserQuery();
-
-    final Entity userEntity = getSingleEntity(preparedQuery);
+    final Entity userEntity = getCurrentUserEntity();
 
     if (userEntity == null) {
       throw new IllegalStateException("cannot check type of unregistered user");
@@ -300,6 +312,37 @@ public class RegistrationServlet extends HttpServlet {
     return entity;
   }
 
+  /**
+   * Look up a User's information by key, through the profile cache. UserInfo entities are keyed by
+   * the id of their User, so a cache miss costs a single get, rather than a query.
+   *
+   * @param userId The id of the User.
+   * @return The UserInfo entity of the User, or null if the User is not registered.
+   */
+  public Entity getUserEntity(String userId) {
+    return profileCache.get(userId, id -> {
+      try {
+        return datastore.get(new RegisteredUser(id).getUserInfoKey());
+      } catch (EntityNotFoundException exception) {
+        return null;
+      }
+    });
+  }
+
+  /**
+   * @return the currently logged in User's information, read through the profile cache as
+   *     {@link #getUserEntity(String)} reads it, or null if the User is not registered.
+   */
+  private Entity getCurrentUserEntity() {
+    final String userId = userService.getCurrentUser().getUserId();
+
+    if (userId == null) {
+      throw new IllegalStateException("current user does not have an id");
+    }
+
+    return getUserEntity(userId);
+  }
+
   /** @return a PreparedQuery for accessing the currently logged in User's information. */
   public PreparedQuery getUserQuery()  {
     final User user = userService.getCurrentUser();
@@ -17,15 +17,16 @@
 package com.google.vinet.servlets;
 
 import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.DatastoreFailureException;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.gson.*;
 
 import com.google.vinet.data.*;
+import com.google.vinet.metrics.InstrumentedDatastoreService;
 import java.time.*;
 import java.util.*;
 import javax.servlet.annotation.WebServlet;
@@ -48,12 +49,14 @@ public class RequestServlet extends HttpServlet {
   private final UserService userService;
   /** The {@code RegistrationServlet} implementation that this {@code RequestServlet depends on}. */
   private final RegistrationServlet registrationServlet;
+  /** The cache of listings, whose cached requests are invalidated when a request is posted. */
+  private ListingCache listingCache = ListingCache.getDefault();
 
   /**
    * Construct a RequestServlet with all of its dependencies set to their default implementations.
    */
   public RequestServlet() {
-    this.datastore = DatastoreServiceFactory.getDatastoreService();
+    this.datastore = InstrumentedDatastoreService.create();
     this.userService = UserServiceFactory.getUserService();
     this.registrationServlet = new RegistrationServlet();
   }
@@ -70,6 +73,14 @@ public class RequestServlet extends HttpServlet {
     this.registrationServlet = registrationServlet;
   }
 
+  /**
+   * Set the cache of listings that this RequestServlet invalidates when a request is posted.
+   * @param listingCache The ListingCache to invalidate.
+   */
+  public void setListingCache(ListingCache listingCache) {
+    this.listingCache = listingCache;
+  }
+
   /**
    * Post an Isolate's request to the servlet. Both the request and its tickets will be put into the DataStore.
    * @param request The request to be read.
@@ -95,7 +106,8 @@ public class RequestServlet extends HttpServlet {
       return;
     }
 
-    final boolean registered = registrationServlet.isUserRegistered();
+    final UserContext userContext = UserContext.get(request, registrationServlet);
+    final boolean registered = userContext.isRegistered();
 
     if (!registered) {
       response.sendError(
@@ -105,7 +117,7 @@ public class RequestServlet extends HttpServlet {
       return;
     }
 
-    final boolean isIsolate = registrationServlet.isUserIsolate();
+    final boolean isIsolate = userContext.isIsolate();
 
     if (!isIsolate) {
       response.sendError(
@@ -182,6 +194,14 @@ public class RequestServlet extends HttpServlet {
       return;
     }
 
+    if (subjects.parallelStream().anyMatch(e -> e.length() > Ticket.MAX_SUBJECT_LENGTH)) {
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST,
+          "all members of subjects array must be at most " + Ticket.MAX_SUBJECT_LENGTH + " characters long"
+      );
+      return;
+    }
+
     /* subjects and details must be of equal length to ensure that the subjects and details
      * have been received correctly.
      */
@@ -233,24 +253,33 @@ public class RequestServlet extends HttpServlet {
     final Instant start = zonedStartDateTime.toInstant();
     final Instant end = zonedEndDateTime.toInstant();
 
-    final Gson gson = new Gson();
+    /* Allocate the key of the ticket, so that the IsolateTimeSlot which points to it can be
+     * created before either is put into the datastore. The ticket is keyed under the Isolate's
+     * UserInfo entity, and so is the IsolateTimeSlot in the default layout, so they are put together
+     * in a single transaction on the Isolate's entity group. In the DAY layout the IsolateTimeSlot is
+     * a root entity, so the transaction spans both groups. */
+    final Isolate isolate = new Isolate(userId);
+    try {
+      final Key ticketKey =
+          this.datastore.allocateIds(isolate.getUserInfoKey(), TICKET_TABLE_NAME, 1).getStart();
 
-    final Entity ticketEntity = new Entity(TICKET_TABLE_NAME);
-    ticketEntity.setProperty("isolateId", userId);
-    ticketEntity.setProperty("duration", requestDuration.toString());
-    ticketEntity.setProperty("subjects", gson.toJson(subjects));
-    ticketEntity.setProperty("details", gson.toJson(details));
+      final Entity ticketEntity = new Entity(ticketKey);
+      IndexPolicy.TICKET.setProperty(ticketEntity, "isolateId", userId);
+      IndexPolicy.TICKET.setProperty(ticketEntity, "duration", requestDuration.toString());
+      Ticket.setContents(ticketEntity, subjects, details);
 
-    IsolateTimeSlot.datastore = this.datastore;
+      final IsolateTimeSlot timeSlot = new IsolateTimeSlot(start, end, isolate, localDate, ticketKey);
 
-    /* Put the ticket into the datastore, then create an IsolateTimeSlot which points to this ticket,
-     * and put that IsolateTimeSlot into the datastore. */
-    try {
-      final Key ticketKey = this.datastore.put(ticketEntity);
+      final Transaction transaction = this.datastore.beginTransaction(
+          TransactionOptions.Builder.withXG(SlotPartitioning.current() == SlotPartitioning.DAY));
+      try {
+        this.datastore.put(transaction, Arrays.asList(ticketEntity, timeSlot.toEntity()));
+        transaction.commit();
+      } finally {
+        if (transaction.isActive()) transaction.rollback();
+      }
 
-      final Isolate isolate = new Isolate(userId);
-      final IsolateTimeSlot timeSlot = new IsolateTimeSlot(start, end, isolate, localDate, ticketKey);
-      timeSlot.toDatastore();
+      listingCache.invalidate(ListingCache.Listing.REQUESTS, userId);
     } catch (Exception exception) {
       response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
     }
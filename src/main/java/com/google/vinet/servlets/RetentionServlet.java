@@ -0,0 +1,142 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.vinet.data.RetentionJob;
+import com.google.vinet.data.RetentionPolicy;
+import com.google.vinet.metrics.InstrumentedDatastoreService;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.LocalDate;
+
+/**
+ * Web Servlet for archiving and purging the records which have expired under the
+ * {@link RetentionPolicy} of this deployment. The nightly cron job, or a request made by an admin,
+ * submits the purge to the task queue, which then runs it one batch per task, each task submitting
+ * the task for the next batch. Only admins, the cron service and the task queue may reach it, by the
+ * security constraint on /admin in web.xml.
+ */
+@WebServlet(RetentionServlet.URL)
+public class RetentionServlet extends HttpServlet {
+  /** The URL of this servlet. */
+  public static final String URL = "/admin/retention";
+  /** The name of the parameter containing the step of the purge to be run. */
+  public static final String STEP_PARAMETER = "step";
+  /** The name of the parameter containing the cursor of the batch to be purged. */
+  public static final String CURSOR_PARAMETER = "cursor";
+  /**
+   * The name of the parameter containing the date the purge was started on, so that every batch
+   * expires records with the same cutoff, even if the purge runs past midnight.
+   */
+  public static final String DATE_PARAMETER = "date";
+  /** The header set by the task queue on the requests it makes, which users cannot set. */
+  private static final String QUEUE_NAME_HEADER = "X-AppEngine-QueueName";
+  /** The header set by the cron service on the requests it makes, which users cannot set. */
+  private static final String CRON_HEADER = "X-Appengine-Cron";
+
+  /** The DatastoreService implementation that this RetentionServlet depends on. */
+  private DatastoreService datastore;
+  /** The task Queue that the batches of the purge are submitted to. */
+  private Queue queue;
+  /** The policy deciding which records have expired. */
+  private RetentionPolicy policy;
+
+  /** Construct a RetentionServlet with its dependencies set to their default implementations. */
+  public RetentionServlet() {
+    this.datastore = InstrumentedDatastoreService.create();
+    this.queue = QueueFactory.getDefaultQueue();
+    this.policy = RetentionPolicy.fromEnvironment();
+  }
+
+  /**
+   * Construct a RetentionServlet which depends on the provided dependencies.
+   * @param datastore The DatastoreService implementation to depend on.
+   * @param queue The task Queue to submit the batches of the purge to.
+   * @param policy The policy deciding which records have expired.
+   */
+  public RetentionServlet(DatastoreService datastore, Queue queue, RetentionPolicy policy) {
+    this.datastore = datastore;
+    this.queue = queue;
+    this.policy = policy;
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    /* Cron jobs are requested with GET, so only the cron service may start a purge this way. */
+    if (request.getHeader(CRON_HEADER) == null) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN, "purges can only be started by cron");
+      return;
+    }
+
+    submit(RetentionJob.Step.values()[0], null, LocalDate.now());
+    response.setStatus(HttpServletResponse.SC_ACCEPTED);
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    /* A request which was not made by the task queue starts the purge from its first batch. */
+    if (request.getHeader(QUEUE_NAME_HEADER) == null) {
+      submit(RetentionJob.Step.values()[0], null, LocalDate.now());
+      response.setStatus(HttpServletResponse.SC_ACCEPTED);
+      return;
+    }
+
+    final RetentionJob.Step step;
+    final LocalDate date;
+    try {
+      step = RetentionJob.Step.valueOf(request.getParameter(STEP_PARAMETER));
+      date = LocalDate.parse(request.getParameter(DATE_PARAMETER));
+    } catch (RuntimeException exception) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "step or date parameter invalid");
+      return;
+    }
+
+    /* A failed batch fails the task, so that the task queue retries it. */
+    final String nextCursor =
+        new RetentionJob(datastore, policy)
+            .runBatch(step, request.getParameter(CURSOR_PARAMETER), date);
+
+    if (nextCursor != null) {
+      submit(step, nextCursor, date);
+    } else if (step.next() != null) {
+      submit(step.next(), null, date);
+    }
+  }
+
+  /**
+   * Submit a batch of the purge to the task queue.
+   * @param step The step of the batch.
+   * @param cursor The cursor of the batch, or null for the first batch of the step.
+   * @param date The date the purge was started on.
+   */
+  private void submit(RetentionJob.Step step, String cursor, LocalDate date) {
+    final TaskOptions task =
+        TaskOptions.Builder.withUrl(URL)
+            .param(STEP_PARAMETER, step.name())
+            .param(DATE_PARAMETER, date.toString());
+    if (cursor != null) task.param(CURSOR_PARAMETER, cursor);
+    queue.add(task);
+  }
+}
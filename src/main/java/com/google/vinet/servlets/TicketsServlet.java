@@ -2,14 +2,20 @@ package com.google.vinet.servlets;
 
 import com.google.appengine.api.datastore.*;
 import com.google.appengine.api.users.*;
-import com.google.gson.*;
+import com.google.vinet.data.Isolate;
+import com.google.vinet.data.Json;
+import com.google.vinet.data.Ticket;
+import com.google.vinet.metrics.InstrumentedDatastoreService;
 import java.io.*;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import javax.servlet.annotation.*;
 import javax.servlet.http.*;
 
 @WebServlet("/ticket")
 public class TicketsServlet  extends HttpServlet{
-  private final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final DatastoreService datastore = InstrumentedDatastoreService.create();
   private final UserService userService = UserServiceFactory.getUserService();
   private final RegistrationServlet registrationServlet = new RegistrationServlet();
 
@@ -29,7 +35,8 @@ public class TicketsServlet  extends HttpServlet{
       return;
     }
 
-    final boolean registered = registrationServlet.isUserRegistered();
+    final UserContext userContext = UserContext.get(request, registrationServlet);
+    final boolean registered = userContext.isRegistered();
 
     if (!registered) {
       response.sendError(
@@ -39,13 +46,27 @@ public class TicketsServlet  extends HttpServlet{
 
     String id = request.getParameter("id");
 
-    Key key = KeyFactory.createKey("Ticket", Long.parseLong(id));
+    /* Tickets are kept in the entity group of their Isolate, which is the logged-in user unless
+     * another Isolate is specified. */
+    String isolateId = request.getParameter("isolateId");
+    if (isolateId == null) {
+      isolateId = userService.getCurrentUser().getUserId();
+    }
 
-    System.out.println(key);
+    Key key = KeyFactory.createKey(new Isolate(isolateId).getUserInfoKey(), "Ticket", Long.parseLong(id));
+    /* Tickets posted before tickets were kept in entity groups are root entities. */
+    Key legacyKey = KeyFactory.createKey("Ticket", Long.parseLong(id));
 
     try {
-      Gson gson = new GsonBuilder().setPrettyPrinting().create();
-      response.getWriter().println(gson.toJson(datastore.get(key).getProperties()));
+      /* Subjects and details are read through Ticket, so that both storage formats are written as
+       * arrays. */
+      final Map<Key, Entity> tickets = datastore.get(Arrays.asList(key, legacyKey));
+      final Entity ticket = tickets.containsKey(key) ? tickets.get(key) : tickets.get(legacyKey);
+      if (ticket == null) throw new EntityNotFoundException(key);
+      final Map<String, Object> properties = new LinkedHashMap<>(ticket.getProperties());
+      properties.put(Ticket.SUBJECTS_PROPERTY, Ticket.getSubjects(ticket));
+      properties.put(Ticket.DETAILS_PROPERTY, Ticket.getDetails(ticket));
+      response.getWriter().println(Json.GSON.toJson(properties));
     } catch (Exception exception) {
       response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
     }
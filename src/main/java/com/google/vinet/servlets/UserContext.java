@@ -0,0 +1,109 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.servlets;
+
+import com.google.appengine.api.datastore.Entity;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * The registration of the logged-in User, resolved once per request by the
+ * {@link UserContextFilter} and attached to the request as an attribute, so that servlets do not
+ * have to query for it again.
+ */
+public class UserContext {
+  /** The name of the request attribute holding the UserContext of the request. */
+  public static final String ATTRIBUTE = UserContext.class.getName();
+
+  /** The UserInfo entity of the User, or null if the User is not registered. */
+  private final Entity userEntity;
+
+  /**
+   * @param userEntity The UserInfo entity of the logged-in User, or null if the User is not
+   *     registered.
+   */
+  public UserContext(Entity userEntity) {
+    this.userEntity = userEntity;
+  }
+
+  /**
+   * Get the UserContext of a request. If the request has not passed through the
+   * {@link UserContextFilter}, the returned UserContext instead delegates each check to the
+   * provided RegistrationServlet.
+   *
+   * @param request The request made by the User.
+   * @param registrationServlet The RegistrationServlet to fall back to.
+   * @return The UserContext of the request.
+   */
+  public static UserContext get(
+      HttpServletRequest request, RegistrationServlet registrationServlet) {
+    final Object attribute = request.getAttribute(ATTRIBUTE);
+    if (attribute instanceof UserContext) {
+      return (UserContext) attribute;
+    }
+
+    return new UserContext(null) {
+      @Override
+      public boolean isRegistered() {
+        return registrationServlet.isUserRegistered();
+      }
+
+      @Override
+      public boolean isIsolate() {
+        return registrationServlet.isUserIsolate();
+      }
+
+      @Override
+      public boolean isVolunteer() {
+        return registrationServlet.isUserVolunteer();
+      }
+    };
+  }
+
+  /** @return the UserInfo entity of the User, or null if the User is not registered. */
+  public Entity getUserEntity() {
+    return userEntity;
+  }
+
+  /** @return true, if the User is registered. */
+  public boolean isRegistered() {
+    return userEntity != null;
+  }
+
+  /** @return true, if the User is registered as an Isolate. */
+  public boolean isIsolate() {
+    return hasType("ISOLATE");
+  }
+
+  /** @return true, if the User is registered as a Volunteer. */
+  public boolean isVolunteer() {
+    return hasType("VOLUNTEER");
+  }
+
+  private boolean hasType(String type) {
+    if (userEntity == null) {
+      throw new IllegalStateException("cannot check type of unregistered user");
+    }
+
+    final String typeString = (String) userEntity.getProperty("type");
+
+    if (typeString == null) {
+      throw new IllegalStateException("user entity does not have a valid type");
+    }
+
+    return typeString.equalsIgnoreCase(type);
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.servlets;
+
+import com.google.appengine.api.users.User;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import java.io.IOException;
+
+/**
+ * Filter which resolves the registration of the logged-in User with a single key lookup, and
+ * attaches it to the request as a {@link UserContext}. Requests from Users who are not logged in
+ * are passed on without a UserContext, for the servlet to reject.
+ */
+@WebFilter({
+    "/request",
+    "/match-fetcher",
+    "/volunteer-availability",
+    "/volunteer-availability-rules",
+    "/ticket",
+    "/fetch-requests"
+})
+public class UserContextFilter implements Filter {
+  /** The UserService implementation that this UserContextFilter depends on. */
+  private UserService userService;
+  /** The RegistrationServlet used to look up the User's registration. */
+  private RegistrationServlet registrationServlet;
+
+  /**
+   * Construct a UserContextFilter with its dependencies set to their default implementations.
+   */
+  public UserContextFilter() {
+    this.userService = UserServiceFactory.getUserService();
+    this.registrationServlet = new RegistrationServlet();
+  }
+
+  /**
+   * Construct a UserContextFilter which depends on the provided dependencies.
+   * @param userService The UserService implementation to depend on.
+   * @param registrationServlet The RegistrationServlet to look up registrations with.
+   */
+  public UserContextFilter(UserService userService, RegistrationServlet registrationServlet) {
+    this.userService = userService;
+    this.registrationServlet = registrationServlet;
+  }
+
+  @Override
+  public void init(FilterConfig filterConfig) {}
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    if (userService.isUserLoggedIn()) {
+      final User user = userService.getCurrentUser();
+      if (user != null && user.getUserId() != null) {
+        request.setAttribute(
+            UserContext.ATTRIBUTE,
+            new UserContext(registrationServlet.getUserEntity(user.getUserId())));
+      }
+    }
+
+    chain.doFilter(request, response);
+  }
+
+  @Override
+  public void destroy() {}
+}
@@ -0,0 +1,229 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.servlets;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Read-through cache of UserInfo entities, keyed by user id. Lookups are served from an in-process
+ * LRU map first, then from memcache, which is shared between instances, and only then loaded from
+ * Datastore.
+ *
+ * <p>Only registered users are cached, so a user who has just registered is seen as registered
+ * immediately. A change to a registration must be followed by a call to {@link #invalidate(String)}.
+ * Other instances may still serve their in-process copy of the old registration until it expires.
+ *
+ * <p>A lookup which loaded a profile before it was invalidated must not cache it afterwards. Profiles
+ * are therefore only added to memcache if it holds none. An invalidation deletes the profile from
+ * memcache and blocks such adds for {@link #INVALIDATION_HOLD}. In process, a profile loaded across
+ * an invalidation is not kept.
+ */
+public class UserProfileCache {
+  /** The number of profiles kept in process by the default cache. */
+  public static final int DEFAULT_CAPACITY = 1000;
+  /** How long a profile is kept by the default cache before it is read again. */
+  public static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+  /**
+   * How long memcache refuses to cache a profile again after it has been invalidated, which is
+   * longer than a lookup takes to load a profile from Datastore.
+   */
+  public static final Duration INVALIDATION_HOLD = Duration.ofSeconds(10);
+  /** The memcache namespace of the default cache. */
+  private static final String NAMESPACE = "UserProfile";
+
+  /** The cache shared by all servlets of this instance. */
+  private static final UserProfileCache DEFAULT =
+      new UserProfileCache(
+          MemcacheServiceFactory.getMemcacheService(NAMESPACE),
+          DEFAULT_CAPACITY,
+          DEFAULT_TTL,
+          Clock.systemUTC());
+
+  /** The MemcacheService implementation that this UserProfileCache depends on. */
+  private final MemcacheService memcache;
+  /** How long a profile is kept, both in process and in memcache. */
+  private final Duration ttl;
+  /** The Clock used to expire profiles kept in process. */
+  private final Clock clock;
+  /** The profiles kept in process, with the most recently used last. Guarded by itself. */
+  private final LinkedHashMap<String, CachedProfile> profiles;
+
+  private final AtomicLong localHits = new AtomicLong();
+  private final AtomicLong memcacheHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  /** The number of invalidations so far, which lookups check to detect one made while loading. */
+  private final AtomicLong invalidations = new AtomicLong();
+
+  /**
+   * Construct a UserProfileCache with the default capacity and TTL.
+   * @param memcache The MemcacheService implementation to depend on.
+   */
+  public UserProfileCache(MemcacheService memcache) {
+    this(memcache, DEFAULT_CAPACITY, DEFAULT_TTL, Clock.systemUTC());
+  }
+
+  /**
+   * @param memcache The MemcacheService implementation to depend on.
+   * @param capacity The number of profiles to keep in process.
+   * @param ttl How long to keep a profile before it is read again.
+   * @param clock The Clock used to expire profiles kept in process.
+   */
+  public UserProfileCache(MemcacheService memcache, int capacity, Duration ttl, Clock clock) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+
+    this.memcache = memcache;
+    this.ttl = ttl;
+    this.clock = clock;
+    this.profiles =
+        new LinkedHashMap<String, CachedProfile>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, CachedProfile> eldest) {
+            return size() > capacity;
+          }
+        };
+  }
+
+  /** @return the cache shared by all servlets of this instance. */
+  public static UserProfileCache getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Get the UserInfo entity of a user, loading it if it is not cached.
+   *
+   * @param userId The id of the user.
+   * @param loader Loads the UserInfo entity of a user from Datastore, returning null if the user
+   *     is not registered.
+   * @return The UserInfo entity of the user, or null if the user is not registered.
+   */
+  public Entity get(String userId, Function<String, Entity> loader) {
+    final long now = clock.millis();
+    final long invalidation = invalidations.get();
+    synchronized (profiles) {
+      final CachedProfile cached = profiles.get(userId);
+      if (cached != null) {
+        if (cached.expiry > now) {
+          localHits.incrementAndGet();
+          return cached.entity;
+        }
+        profiles.remove(userId);
+      }
+    }
+
+    Entity entity = getFromMemcache(userId);
+    if (entity != null) {
+      memcacheHits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+      entity = loader.apply(userId);
+      if (entity == null) return null;
+      putInMemcache(userId, entity);
+    }
+
+    synchronized (profiles) {
+      /* A profile invalidated while it was being looked up may be stale, so it is not kept. */
+      if (invalidations.get() == invalidation) {
+        profiles.put(userId, new CachedProfile(entity, now + ttl.toMillis()));
+      }
+    }
+    return entity;
+  }
+
+  /**
+   * Remove a user's profile from the cache, so that it is next read from Datastore.
+   * @param userId The id of the user.
+   */
+  public void invalidate(String userId) {
+    synchronized (profiles) {
+      invalidations.incrementAndGet();
+      profiles.remove(userId);
+    }
+
+    /* Memcache is an optimisation, so its failures are not passed on to the caller. A failure here
+     * leaves the old profile in memcache until it expires. */
+    try {
+      memcache.delete(userId, INVALIDATION_HOLD.toMillis());
+    } catch (RuntimeException exception) {
+      System.err.println("Failed to invalidate cached profile: " + exception);
+    }
+  }
+
+  private Entity getFromMemcache(String userId) {
+    try {
+      return (Entity) memcache.get(userId);
+    } catch (RuntimeException exception) {
+      return null;
+    }
+  }
+
+  private void putInMemcache(String userId, Entity entity) {
+    try {
+      memcache.put(
+          userId,
+          entity,
+          Expiration.byDeltaMillis((int) ttl.toMillis()),
+          SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    } catch (RuntimeException exception) {
+      System.err.println("Failed to cache profile: " + exception);
+    }
+  }
+
+  /** @return the number of lookups served from the in-process cache. */
+  public long getLocalHitCount() {
+    return localHits.get();
+  }
+
+  /** @return the number of lookups served from memcache. */
+  public long getMemcacheHitCount() {
+    return memcacheHits.get();
+  }
+
+  /** @return the number of lookups which had to be loaded from Datastore. */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /** @return the fraction of lookups served without reading Datastore, or 0 if there were none. */
+  public double getHitRatio() {
+    final long hits = getLocalHitCount() + getMemcacheHitCount();
+    final long total = hits + getMissCount();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  /** A profile kept in process, with the time at which it expires. */
+  private static class CachedProfile {
+    private final Entity entity;
+    private final long expiry;
+
+    private CachedProfile(Entity entity, long expiry) {
+      this.entity = entity;
+      this.expiry = expiry;
+    }
+  }
+}
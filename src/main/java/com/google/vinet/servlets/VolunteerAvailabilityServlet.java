@@ -16,10 +16,14 @@
 
 package com.google.vinet.servlets;
 
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.QueryResultIterator;
 import com.google.appengine.api.users.User;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.gson.Gson;
+import com.google.vinet.data.Json;
+import com.google.vinet.data.Page;
 import com.google.vinet.data.Volunteer;
 import com.google.vinet.data.VolunteerTimeSlot;
 
@@ -30,6 +34,8 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.time.Instant;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 @WebServlet("/volunteer-availability")
@@ -59,7 +65,8 @@ public class VolunteerAvailabilityServlet extends HttpServlet {
       return;
     }
 
-    final boolean registered = registrationServlet.isUserRegistered();
+    final UserContext userContext = UserContext.get(request, registrationServlet);
+    final boolean registered = userContext.isRegistered();
 
     if (!registered) {
       response.sendError(
@@ -67,7 +74,7 @@ public class VolunteerAvailabilityServlet extends HttpServlet {
       return;
     }
 
-    final boolean isVolunteer = registrationServlet.isUserVolunteer();
+    final boolean isVolunteer = userContext.isVolunteer();
 
     if (!isVolunteer) {
       response.sendError(
@@ -107,10 +114,8 @@ public class VolunteerAvailabilityServlet extends HttpServlet {
       return;
     }
 
-    // Delete existing timeslots before storing new list of them.
-    VolunteerTimeSlot.deleteAllTimeSlotsByUserId(userId);
-
     // Loop through all parameters and create each slot object
+    final List<VolunteerTimeSlot> timeSlots = new ArrayList<>();
     for (int i = 0; i < (Math.min(startTimes.length, endTimes.length)); i++) {
       String startTime = startTimes[i];
       String endTime = endTimes[i];
@@ -118,7 +123,7 @@ public class VolunteerAvailabilityServlet extends HttpServlet {
       try {
         Instant startInstant = Instant.parse(startTime);
         Instant endInstant = Instant.parse(endTime);
-        new VolunteerTimeSlot(startInstant, endInstant, volunteer).toDatastore();
+        timeSlots.add(new VolunteerTimeSlot(startInstant, endInstant, volunteer));
       } catch (NullPointerException e) {
         System.err.println("Volunteer timeslot times are null!");
       } catch (IllegalArgumentException | DateTimeParseException e) {
@@ -126,6 +131,10 @@ public class VolunteerAvailabilityServlet extends HttpServlet {
       }
     }
 
+    // Replace the stored timeslots with the submitted ones, once overlapping and adjacent ones have
+    // been merged, writing only those which changed.
+    VolunteerTimeSlot.replaceTimeSlotsByUserId(userId, timeSlots);
+
     response.sendRedirect("volunteer/availability.jsp");
   }
 
@@ -145,7 +154,8 @@ public class VolunteerAvailabilityServlet extends HttpServlet {
       return;
     }
 
-    final boolean registered = registrationServlet.isUserRegistered();
+    final UserContext userContext = UserContext.get(request, registrationServlet);
+    final boolean registered = userContext.isRegistered();
 
     if (!registered) {
       response.sendError(
@@ -153,7 +163,7 @@ public class VolunteerAvailabilityServlet extends HttpServlet {
       return;
     }
 
-    final boolean isVolunteer = registrationServlet.isUserVolunteer();
+    final boolean isVolunteer = userContext.isVolunteer();
 
     if (!isVolunteer) {
       response.sendError(
@@ -174,8 +184,26 @@ public class VolunteerAvailabilityServlet extends HttpServlet {
       return;
     }
 
-    // Run a query to get all slot stored for logged-in volunteer
+    final FetchOptions fetchOptions;
+    try {
+      fetchOptions = Pagination.getFetchOptions(request);
+    } catch (IllegalArgumentException exception) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, exception.getMessage());
+      return;
+    }
+
+    // Run a query to get a page of the slots stored for logged-in volunteer, and write each slot
+    // as it is read
     response.setContentType("application/json;");
-    new Gson().toJson(VolunteerTimeSlot.getTimeslotsByUserId(userId), response.getWriter());
+    final QueryResultIterator<Entity> slots =
+            VolunteerTimeSlot.iterateTimeslotsByUserId(userId, fetchOptions);
+    final JsonPageWriter<VolunteerTimeSlot> pageWriter =
+            new JsonPageWriter<>(response.getWriter(), Json.GSON, VolunteerTimeSlot.class, false);
+    int count = 0;
+    while (slots.hasNext()) {
+      pageWriter.write(new VolunteerTimeSlot(slots.next()));
+      count++;
+    }
+    pageWriter.finish(Page.getNextCursor(slots, count, fetchOptions.getLimit()));
   }
 }
@@ -31,6 +31,31 @@
         <h1 id="status" class="alert"></h1>
       </div>
     </div>
+    <div class="row">
+      <div class="column">
+        <h2>Recent Runs</h2>
+        <table class="table table-sm">
+          <thead>
+            <tr>
+              <th>Started</th>
+              <th>Date</th>
+              <th>Fetch (ms)</th>
+              <th>Build (ms)</th>
+              <th>BFS (ms)</th>
+              <th>DFS (ms)</th>
+              <th>Persist (ms)</th>
+              <th>Nodes</th>
+              <th>Edges</th>
+              <th>Phases</th>
+              <th>Paths (min/mean/max)</th>
+              <th>Match Rate</th>
+              <th>Peak Heap (MB)</th>
+            </tr>
+          </thead>
+          <tbody id="runs"></tbody>
+        </table>
+      </div>
+    </div>
   </div>
 </body>
 <!-- Include necessary js libraries for bootstrap functionality. -->
@@ -1,19 +1,108 @@
+/** How often, in milliseconds, the status of a submitted matching job is polled. */
+const POLL_INTERVAL = 2000;
+
 window.runMatching = async () => {
   const statusElement = document.getElementById('status');
 
-  statusElement.innerText = 'Awaiting response from server.';
-  statusElement.classList.add('alert-warning');
+  statusElement.className = 'alert alert-warning';
+  statusElement.innerText = 'Submitting matching job.';
 
   const res = await fetch('/admin/run-matching' , {method: 'POST'});
 
-  statusElement.classList.remove('alert-warning');
-  statusElement.innerText = '';
+  if (!res.ok) {
+    statusElement.className = 'alert alert-danger';
+    statusElement.innerText = 'Matching Failure!';
+    return;
+  }
+
+  const {jobId} = await res.json();
+  await pollMatchingStatus(jobId, statusElement);
+};
+
+/**
+ * Poll the status of a matching job until it is done or has failed, displaying its progress.
+ * @param {string} jobId The id of the job to poll.
+ * @param {HTMLElement} statusElement The element in which to display the job's progress.
+ */
+const pollMatchingStatus = async (jobId, statusElement) => {
+  const res = await fetch('/admin/matching-status?jobId=' + encodeURIComponent(jobId));
 
-  if (res.ok) {
-    statusElement.classList.add('alert-success');
-    statusElement.innerText = 'Matching Success!';
-  } else {
-    statusElement.classList.add('alert-danger');
+  if (!res.ok) {
+    statusElement.className = 'alert alert-danger';
     statusElement.innerText = 'Matching Failure!';
+    return;
+  }
+
+  const job = await res.json();
+
+  if (job.done) {
+    statusElement.className = 'alert alert-success';
+    statusElement.innerText =
+        `Matching Success! ${job.counts.matches} matches found in ` +
+        `${(job.timing.elapsedMillis / 1000).toFixed(1)}s.`;
+    await populateRuns();
+    return;
+  }
+
+  if (job.failed) {
+    statusElement.className = 'alert alert-danger';
+    statusElement.innerText =
+        `Matching Failure! Gave up after ${job.failedAttempts} attempts: ${job.error}`;
+    return;
   }
+
+  const percent = Math.round(job.progress.fraction * 100);
+  statusElement.className = 'alert alert-warning';
+  statusElement.innerText = `Matching ${job.phase} (${percent}%)`;
+  if (job.error) statusElement.innerText += ` - retrying after error: ${job.error}`;
+
+  setTimeout(() => pollMatchingStatus(jobId, statusElement), POLL_INTERVAL);
+};
+
+/**
+ * Fetch the history of recent matching runs, and display it in the runs table.
+ */
+const populateRuns = async () => {
+  const res = await fetch('/admin/matching-runs');
+  if (!res.ok) return;
+
+  const {items} = await res.json();
+  const tableBody = document.getElementById('runs');
+  tableBody.innerHTML = '';
+  items.forEach((run) => tableBody.appendChild(runToRow(run)));
 };
+
+/**
+ * Create a table row describing a matching run.
+ * @param {Object} run The run, as listed by /admin/matching-runs.
+ * @return {HTMLTableRowElement} The row.
+ */
+const runToRow = (run) => {
+  const {timing, graph} = run;
+  const cells = [
+    new Date(run.started).toLocaleString() + (run.resumed ? ' (resumed)' : ''),
+    run.date,
+    timing.fetchMillis,
+    timing.buildMillis,
+    timing.searchMillis,
+    timing.augmentMillis,
+    timing.persistMillis,
+    `${graph.isolateNodes} + ${graph.volunteerNodes}`,
+    graph.edges,
+    graph.phases,
+    `${graph.shortestAugmentingPath} / ${graph.meanAugmentingPath.toFixed(1)} / ` +
+        `${graph.longestAugmentingPath}`,
+    `${(run.matchRate * 100).toFixed(1)}%`,
+    (run.peakHeapBytes / (1024 * 1024)).toFixed(1),
+  ];
+
+  const row = document.createElement('tr');
+  cells.forEach((value) => {
+    const cell = document.createElement('td');
+    cell.innerText = value;
+    row.appendChild(cell);
+  });
+  return row;
+};
+
+populateRuns();
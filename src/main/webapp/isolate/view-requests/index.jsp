@@ -42,6 +42,7 @@
                 </th>
             </thead>
         </table>
+        <button id="load-more" class="btn btn-primary" onclick="loadMoreRequests();" hidden>Load more</button>
     </div>
 </body>
 <!-- Include necessary js libraries for bootstrap functionality. -->
@@ -14,14 +14,29 @@
  * limitations under the License.
  */
 
+/** The cursor of the next page of requests, or null if all requests have been displayed. */
+let nextCursor = null;
+
 window.onload = async () => {
   await populateTable();
 }
 
-const populateTable = async () => {
+/**
+ * Add the next page of requests to the table, and show the "load more" button if there are more.
+ */
+const loadMoreRequests = async () => {
+  await populateTable(nextCursor);
+}
+
+/**
+ * Add a page of requests to the table.
+ * @param {string} cursor The cursor of the page to add, or null for the first page.
+ */
+const populateTable = async (cursor) => {
   const table = document.getElementById('requests');
 
-  const res = await fetch('/fetch-requests');
+  const url = cursor ? `/fetch-requests?cursor=${encodeURIComponent(cursor)}` : '/fetch-requests';
+  const res = await fetch(url);
 
   if (res.status === HTTP_STATUS_CODES.UNAUTHORIZED) {
     alert(
@@ -31,7 +46,8 @@ const populateTable = async () => {
         'We were not able to fetch your requests as there was an unexpected server error. Please try again.');
   }
 
-  const requests = await res.json();
+  const page = await res.json();
+  const requests = page.items;
 
   /**
    * Create a ticket, with subject and details.
@@ -100,4 +116,7 @@ const populateTable = async () => {
 
     table.appendChild(row);
   }
+
+  nextCursor = page.cursor;
+  document.getElementById('load-more').hidden = !nextCursor;
 };
@@ -14,19 +14,34 @@
  *  limitations under the License.
  */
 
+/** The cursor of the next page of matches, or null if all matches have been displayed. */
+let nextCursor = null;
+
 function initialise() {
     displayMatches();
 }
 
-async function displayMatches() {
-    const matches = await getMatches();
-    console.log(matches);
+/**
+ * Displays a page of matches, and shows the "load more" button if there are more matches.
+ * @param {String} cursor The cursor of the page to display, or null for the first page.
+ */
+async function displayMatches(cursor) {
+    const page = await getMatches(cursor);
+    console.log(page);
     const table = document.getElementById("matches-table");
-    matches.forEach(match => addTableRow(table, match));
+    page.items.forEach(match => addTableRow(table, match));
+
+    nextCursor = page.cursor;
+    document.getElementById("load-more").hidden = !nextCursor;
+}
+
+function loadMoreMatches() {
+    displayMatches(nextCursor);
 }
 
-async function getMatches() {
-    return (await fetch('/match-fetcher')).json();
+async function getMatches(cursor) {
+    const url = cursor ? '/match-fetcher?cursor=' + encodeURIComponent(cursor) : '/match-fetcher';
+    return (await fetch(url)).json();
 }
 
 function addTableRow(table, match) {
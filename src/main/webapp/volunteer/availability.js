@@ -19,6 +19,49 @@
  */
 function initialise() {
     populateRows();
+    populateRules();
+}
+
+/**
+ * Lists the volunteer's weekly availability rules, and sets the timezone of new rules to the local one.
+ */
+function populateRules() {
+    document.getElementById("rule-timezone").value = Intl.DateTimeFormat().resolvedOptions().timeZone;
+    fetch('/volunteer-availability-rules')
+        .then(result => result.ok ? result.json() : Promise.reject(new Error('fail')))
+        .then(page => page.items.forEach(rule => document.getElementById("rules").appendChild(ruleToRow(rule))),
+            () => alert('There was an error loading weekly availability!\nPlease refresh the page to try again.'));
+}
+
+/**
+ * Convert a weekly availability rule to a row describing it, with a button to remove it.
+ * @param rule The rule to convert.
+ * @returns {HTMLFormElement} The row describing the rule.
+ */
+function ruleToRow(rule) {
+    const row = document.createElement("form");
+    row.method = "POST";
+    row.action = "/volunteer-availability-rules";
+
+    const description = document.createElement("span");
+    description.className = "m-1";
+    description.innerText = rule.dayOfWeek + " " + rule.startTime + " - " + rule.endTime + " (" + rule.timezoneId
+        + "), from " + rule.validFrom + (rule.validUntil ? " until " + rule.validUntil : "");
+
+    const key = document.createElement("input");
+    key.type = "hidden";
+    key.name = "delete";
+    key.value = rule.key;
+
+    const deleteButton = document.createElement("input");
+    deleteButton.type = "submit";
+    deleteButton.value = "Delete";
+    deleteButton.className = "btn btn-danger m-1";
+
+    row.appendChild(description);
+    row.appendChild(key);
+    row.appendChild(deleteButton);
+    return row;
 }
 
 /**
@@ -30,14 +73,23 @@ function populateRows() {
 
 /**
  * Fetches the list of existing timeslots.
+ * All pages are fetched, as submitting the form replaces every existing timeslot.
  * @returns {Promise<Array>} Array of timeslot objects.
  */
 async function getExistingTimeSlots() {
     try {
-        const result = await fetch('/volunteer-availability');
-        if (result.status === 401) return Promise.reject(new Error('Please login to use this feature!'));
-        if (!result) return Promise.reject(new Error('fail'));
-        const slots = await result.json();
+        const slots = [];
+        let cursor = null;
+        do {
+            const url = cursor ?
+                '/volunteer-availability?cursor=' + encodeURIComponent(cursor) : '/volunteer-availability';
+            const result = await fetch(url);
+            if (result.status === 401) return Promise.reject(new Error('Please login to use this feature!'));
+            if (!result) return Promise.reject(new Error('fail'));
+            const page = await result.json();
+            slots.push(...page.items);
+            cursor = page.cursor;
+        } while (cursor);
         const rows = await Promise.all(slots.map(slot => slotToRow(slot)));
         await sortTimeSlots(rows);
         return rows;
@@ -32,6 +32,27 @@
         <button type="button" class="btn btn-primary m-1" onclick="addEmptyRow()">Add Row</button>
         <input class="btn btn-primary m-1" type="submit" id="availability-submit">
 </form>
+<br>
+<h3>Weekly availability</h3>
+<p>Times at which you are available every week:</p>
+<div id="rules"></div>
+<form id="rule-form" method="POST" action="/volunteer-availability-rules">
+    <select name="dayOfWeek" class="m-1" required>
+        <option value="MONDAY">Monday</option>
+        <option value="TUESDAY">Tuesday</option>
+        <option value="WEDNESDAY">Wednesday</option>
+        <option value="THURSDAY">Thursday</option>
+        <option value="FRIDAY">Friday</option>
+        <option value="SATURDAY">Saturday</option>
+        <option value="SUNDAY">Sunday</option>
+    </select>
+    <input type="time" name="startTime" class="m-1" required>
+    <input type="time" name="endTime" class="m-1" required>
+    <label class="m-1">From <input type="date" name="validFrom" required></label>
+    <label class="m-1">Until <input type="date" name="validUntil"></label>
+    <input type="hidden" name="timezoneId" id="rule-timezone">
+    <input class="btn btn-primary m-1" type="submit" value="Add weekly availability">
+</form>
 
 </body>
 <!-- Include necessary js libraries for bootstrap functionality. -->
@@ -0,0 +1,166 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+public class AvailabilityRuleTest {
+  private static final ZoneId LONDON = ZoneId.of("Europe/London");
+  /** A Monday. */
+  private static final LocalDate MONDAY = LocalDate.parse("2020-09-14");
+
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  private final Volunteer volunteer = new Volunteer("volunteer");
+
+  @BeforeEach
+  public void setUp() {
+    helper.setUp();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private AvailabilityRule mondayRule(String start, String end, LocalDate validUntil) {
+    return new AvailabilityRule(
+        volunteer,
+        DayOfWeek.MONDAY,
+        LocalTime.parse(start),
+        LocalTime.parse(end),
+        LONDON,
+        MONDAY,
+        validUntil);
+  }
+
+  @Test
+  public void testAppliesOnlyToItsDayWithinItsValidity() {
+    final AvailabilityRule rule = mondayRule("09:00", "12:00", MONDAY.plusWeeks(1));
+
+    assertTrue(rule.appliesTo(MONDAY));
+    assertTrue(rule.appliesTo(MONDAY.plusWeeks(1)));
+    assertFalse(rule.appliesTo(MONDAY.plusDays(1)));
+    assertFalse(rule.appliesTo(MONDAY.minusWeeks(1)));
+    assertFalse(rule.appliesTo(MONDAY.plusWeeks(2)));
+  }
+
+  @Test
+  public void testExpandUsesTheRulesTimezone() {
+    final VolunteerTimeSlot slot = mondayRule("09:00", "12:00", null).expand(MONDAY);
+
+    assertEquals(Instant.parse("2020-09-14T08:00:00Z"), slot.getStart());
+    assertEquals(Instant.parse("2020-09-14T11:00:00Z"), slot.getEnd());
+    assertEquals(volunteer, slot.getVolunteer());
+  }
+
+  @Test
+  public void testExpandEndsOvernightWindowsOnTheNextDay() {
+    final VolunteerTimeSlot slot = mondayRule("22:00", "02:00", null).expand(MONDAY);
+
+    assertEquals(Instant.parse("2020-09-14T21:00:00Z"), slot.getStart());
+    assertEquals(Instant.parse("2020-09-15T01:00:00Z"), slot.getEnd());
+  }
+
+  @Test
+  public void testExpandRejectsDatesTheRuleDoesNotApplyTo() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> mondayRule("09:00", "12:00", null).expand(MONDAY.plusDays(1)));
+  }
+
+  @Test
+  public void testEntityRoundTrip() {
+    final AvailabilityRule rule = mondayRule("09:00", "12:00", MONDAY.plusWeeks(4));
+
+    final AvailabilityRule read = new AvailabilityRule(rule.toEntity());
+
+    assertEquals(rule.getKey(), read.getKey());
+    assertEquals(volunteer.getUserInfoKey(), rule.getKey().getParent());
+  }
+
+  @Test
+  public void testExpandAllSkipsRulesWhichHaveExpired() {
+    final AvailabilityRule current = mondayRule("09:00", "12:00", null);
+    final AvailabilityRule expired = mondayRule("14:00", "15:00", MONDAY);
+    final DatastoreService datastore = mock(DatastoreService.class);
+    final PreparedQuery query = mock(PreparedQuery.class);
+    when(datastore.prepare(any(Query.class))).thenReturn(query);
+    when(query.asIterable()).thenReturn(Arrays.asList(current.toEntity(), expired.toEntity()));
+
+    assertEquals(
+        Collections.singletonList(current.expand(MONDAY.plusWeeks(1))),
+        AvailabilityRule.expandAll(MONDAY.plusWeeks(1), datastore));
+  }
+
+  @Test
+  public void testExpandAllIncludesTheNextDayPartOfOvernightWindows() {
+    final AvailabilityRule overnight = mondayRule("22:00", "02:00", null);
+    final AvailabilityRule daytime = mondayRule("09:00", "12:00", null);
+    final AvailabilityRule untilMidnight = mondayRule("22:00", "00:00", null);
+    final DatastoreService datastore = mock(DatastoreService.class);
+    final PreparedQuery query = mock(PreparedQuery.class);
+    final ArgumentCaptor<Query> prepared = ArgumentCaptor.forClass(Query.class);
+    when(datastore.prepare(prepared.capture())).thenReturn(query);
+    when(query.asIterable())
+        .thenReturn(
+            Arrays.asList(overnight.toEntity(), daytime.toEntity(), untilMidnight.toEntity()));
+
+    final List<VolunteerTimeSlot> tuesday = AvailabilityRule.expandAll(MONDAY.plusDays(1), datastore);
+
+    assertEquals(1, tuesday.size());
+    assertEquals(Instant.parse("2020-09-14T23:00:00Z"), tuesday.get(0).getStart());
+    assertEquals(Instant.parse("2020-09-15T01:00:00Z"), tuesday.get(0).getEnd());
+    final FilterPredicate filter = (FilterPredicate) prepared.getValue().getFilter();
+    assertEquals(FilterOperator.IN, filter.getOperator());
+    assertEquals(Arrays.asList("TUESDAY", "MONDAY"), filter.getValue());
+  }
+
+  @Test
+  public void testExpandOvernightRejectsRulesWithoutAWindowEndingOnTheDate() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> mondayRule("09:00", "12:00", null).expandOvernight(MONDAY.plusDays(1)));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> mondayRule("22:00", "02:00", null).expandOvernight(MONDAY));
+  }
+}
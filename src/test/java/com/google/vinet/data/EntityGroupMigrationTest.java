@@ -0,0 +1,148 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class EntityGroupMigrationTest {
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  @Mock
+  DatastoreService datastore;
+
+  @Mock
+  PreparedQuery preparedQuery;
+
+  private EntityGroupMigration migration;
+
+  @BeforeEach
+  public void setUp() {
+    helper.setUp();
+    MockitoAnnotations.openMocks(this);
+    when(datastore.prepare(any(Query.class))).thenReturn(preparedQuery);
+    migration = new EntityGroupMigration(datastore);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void returnEntities(Entity... entities) {
+    final Iterator<Entity> iterator = Arrays.asList(entities).iterator();
+    final QueryResultIterator<Entity> results = mock(QueryResultIterator.class);
+    when(results.hasNext()).thenAnswer(invocation -> iterator.hasNext());
+    when(results.next()).thenAnswer(invocation -> iterator.next());
+    when(preparedQuery.asQueryResultIterator(any(FetchOptions.class))).thenReturn(results);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testIsolateTimeSlotsAndTicketsMoveIntoTheIsolatesGroup() {
+    final Key ticketKey = KeyFactory.createKey(Isolate.TICKET_TABLE_NAME, 7);
+    final Entity ticket = new Entity(ticketKey);
+    ticket.setProperty("isolateId", "isolate");
+    final Entity timeSlot = new Entity(IsolateTimeSlot.ISOLATE_TIME_SLOT_TABLE_NAME, 3);
+    timeSlot.setProperty("isolateId", "isolate");
+    timeSlot.setProperty("ticketKey", KeyFactory.keyToString(ticketKey));
+    timeSlot.setProperty("date", "2020-09-17");
+    returnEntities(timeSlot);
+    when(datastore.get(any(Iterable.class))).thenReturn(Collections.singletonMap(ticketKey, ticket));
+
+    assertNull(migration.migrateBatch(EntityGroupMigration.Step.ISOLATE_TIME_SLOTS, null));
+
+    final Key parent = new Isolate("isolate").getUserInfoKey();
+    final Key newTicketKey = KeyFactory.createKey(parent, Isolate.TICKET_TABLE_NAME, 7);
+    final ArgumentCaptor<List<Entity>> put = ArgumentCaptor.forClass(List.class);
+    final ArgumentCaptor<List<Key>> deleted = ArgumentCaptor.forClass(List.class);
+    verify(datastore).put(put.capture());
+    verify(datastore).delete(deleted.capture());
+    assertEquals(newTicketKey, put.getValue().get(0).getKey());
+    assertEquals(
+        KeyFactory.createKey(parent, IsolateTimeSlot.ISOLATE_TIME_SLOT_TABLE_NAME, 7),
+        put.getValue().get(1).getKey());
+    assertEquals(
+        KeyFactory.keyToString(newTicketKey), put.getValue().get(1).getProperty("ticketKey"));
+    assertEquals(Arrays.asList(ticketKey, timeSlot.getKey()), deleted.getValue());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testVolunteerTimeSlotsAreRekeyed() {
+    final Entity timeSlot = new Entity(VolunteerTimeSlot.VOLUNTEER_TIMESLOT_TABLE_NAME, 5);
+    timeSlot.setProperty("userId", "volunteer");
+    timeSlot.setProperty("start", "2020-09-17T16:00:00Z");
+    timeSlot.setProperty("end", "2020-09-17T17:00:00Z");
+    returnEntities(timeSlot);
+
+    migration.migrateBatch(EntityGroupMigration.Step.VOLUNTEER_TIME_SLOTS, null);
+
+    final Key expected =
+        new VolunteerTimeSlot(
+                Instant.parse("2020-09-17T16:00:00Z"),
+                Instant.parse("2020-09-17T17:00:00Z"),
+                new Volunteer("volunteer"))
+            .getKey();
+    final ArgumentCaptor<List<Entity>> put = ArgumentCaptor.forClass(List.class);
+    verify(datastore).put(put.capture());
+    verify(datastore).delete(Collections.singletonList(timeSlot.getKey()));
+    assertEquals(expected, put.getValue().get(0).getKey());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testMigratedEntitiesAreSkipped() {
+    returnEntities(
+        new VolunteerTimeSlot(
+                Instant.parse("2020-09-17T16:00:00Z"),
+                Instant.parse("2020-09-17T17:00:00Z"),
+                new Volunteer("volunteer"))
+            .toEntity());
+
+    migration.migrateBatch(EntityGroupMigration.Step.VOLUNTEER_TIME_SLOTS, null);
+
+    verify(datastore, never()).put(any(Iterable.class));
+    verify(datastore, never()).delete(any(Iterable.class));
+  }
+}
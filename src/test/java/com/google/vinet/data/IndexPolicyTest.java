@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.data;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.time.Instant;
+import java.time.LocalDate;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class IndexPolicyTest {
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  @BeforeEach
+  public void setUp() {
+    helper.setUp();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void testOnlyQueriedPropertiesAreIndexed() {
+    final Entity entity =
+        new IsolateTimeSlot(
+                Instant.parse("2020-09-17T16:00:00Z"),
+                Instant.parse("2020-09-17T17:00:00Z"),
+                new Isolate("isolate"),
+                LocalDate.parse("2020-09-17"),
+                KeyFactory.createKey(Isolate.TICKET_TABLE_NAME, 7))
+            .toEntity();
+
+    assertFalse(entity.isUnindexedProperty("isolateId"));
+    assertFalse(entity.isUnindexedProperty("date"));
+    assertTrue(entity.isUnindexedProperty("ticketKey"));
+    assertTrue(entity.isUnindexedProperty("startTime"));
+    assertTrue(entity.isUnindexedProperty("endTime"));
+  }
+
+  @Test
+  public void testOnlyTicketSubjectsAreIndexed() {
+    final Entity ticket = new Entity(Isolate.TICKET_TABLE_NAME);
+
+    IndexPolicy.TICKET.setProperty(ticket, "isolateId", "isolate");
+    IndexPolicy.TICKET.setProperty(ticket, Ticket.SUBJECTS_PROPERTY, "Groceries");
+
+    assertTrue(ticket.isUnindexedProperty("isolateId"));
+    assertFalse(ticket.isUnindexedProperty(Ticket.SUBJECTS_PROPERTY));
+  }
+
+  @Test
+  public void testOtherKindsAreRejected() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> IndexPolicy.TICKET.setProperty(new Entity("UserInfo"), "userId", "user"));
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.data;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.time.Instant;
+import org.junit.jupiter.api.Test;
+
+public class JsonTest {
+  /** The reflective Gson that the adapters must agree with. */
+  private final Gson reflectiveGson = new Gson();
+
+  @Test
+  public void testMatchMatchesReflection() {
+    final Match match =
+        new Match(
+            "2020-08-01", "10:00", "11:00", "Ada", null, new String[] {"a", null}, new String[] {});
+
+    final String json = Json.GSON.toJson(match);
+
+    assertEquals(reflectiveGson.toJson(match), json);
+    assertEquals(json, Json.GSON.toJson(Json.GSON.fromJson(json, Match.class)));
+  }
+
+  @Test
+  public void testIsolateRequestMatchesReflection() {
+    final IsolateRequest request =
+        new IsolateRequest("2020-08-01", "10:00", "11:00", new String[] {"a"}, new String[] {"b"});
+
+    assertEquals(reflectiveGson.toJson(request), Json.GSON.toJson(request));
+  }
+
+  @Test
+  public void testVolunteerTimeSlotOmitsMatchingState() {
+    final Instant start = Instant.ofEpochSecond(1596276000, 5);
+    final VolunteerTimeSlot timeSlot =
+        new VolunteerTimeSlot(start, start.plusSeconds(3600), new Volunteer("volunteer"));
+
+    final JsonObject json = Json.GSON.toJsonTree(timeSlot).getAsJsonObject();
+
+    assertEquals(2, json.size());
+    assertEquals(1596276000, json.getAsJsonObject("start").get("seconds").getAsLong());
+    assertEquals(5, json.getAsJsonObject("start").get("nanos").getAsInt());
+    assertEquals(start.plusSeconds(3600), Json.GSON.fromJson(json, VolunteerTimeSlot.class).getEnd());
+  }
+
+  @Test
+  public void testParseStringArray() {
+    assertArrayEquals(new String[] {"a", "b"}, Json.parseStringArray("[\"a\",\"b\"]"));
+    assertArrayEquals(new String[] {}, Json.parseStringArray(null));
+  }
+}
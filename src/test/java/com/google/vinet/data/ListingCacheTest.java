@@ -0,0 +1,147 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.vinet.data.ListingCache.Listing;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class ListingCacheTest {
+  @Mock
+  MemcacheService memcache;
+
+  private ListingCache listingCache;
+
+  @BeforeEach
+  public void setUp() {
+    MockitoAnnotations.openMocks(this);
+    listingCache = new ListingCache(memcache);
+    when(memcache.get("MATCHES/version")).thenReturn(7L);
+  }
+
+  @Test
+  public void testEntriesAreKeyedByVersion() {
+    when(memcache.get("MATCHES/7/user")).thenReturn("[]");
+
+    assertEquals("[]", listingCache.get(Listing.MATCHES, "user"));
+  }
+
+  @Test
+  public void testInvalidateRemovesCurrentVersion() {
+    listingCache.invalidate(Listing.MATCHES, "user");
+
+    verify(memcache).delete("MATCHES/7/user", ListingCache.INVALIDATION_HOLD.toMillis());
+  }
+
+  @Test
+  public void testInvalidateAllMovesToNewVersion() {
+    listingCache.invalidateAll(Listing.MATCHES);
+
+    verify(memcache).increment(eq("MATCHES/version"), eq(1L), anyLong());
+  }
+
+  @Test
+  public void testInvalidateAllStartsSettling() {
+    listingCache.invalidateAll(Listing.MATCHES);
+
+    verify(memcache).put(eq("MATCHES/settling"), anyLong(), any(Expiration.class));
+  }
+
+  @Test
+  public void testListingsAreNotCachedWhileSettling() {
+    when(memcache.contains("MATCHES/settling")).thenReturn(true);
+
+    listingCache.put(Listing.MATCHES, "user", "[]");
+
+    verify(memcache, never())
+        .put(eq("MATCHES/7/user"), any(), any(Expiration.class), any(SetPolicy.class));
+  }
+
+  @Test
+  public void testListingsAreCachedOnceSettled() {
+    listingCache.put(Listing.MATCHES, "user", "[]");
+
+    verify(memcache)
+        .put(
+            eq("MATCHES/7/user"),
+            eq("[]"),
+            any(Expiration.class),
+            eq(SetPolicy.ADD_ONLY_IF_NOT_PRESENT));
+  }
+
+  @Test
+  public void testMemcacheFailuresAreMisses() {
+    when(memcache.get(anyString())).thenThrow(new RuntimeException("memcache unavailable"));
+
+    assertNull(listingCache.get(Listing.MATCHES, "user"));
+    listingCache.put(Listing.MATCHES, "user", "[]");
+  }
+
+  @Test
+  public void testListingBuiltBeforeInvalidateIsNotCached() {
+    /* Memcache holds a deleted key, and refuses to add it again, until its hold has passed. */
+    final Map<Object, Object> entries = new HashMap<>();
+    final Set<Object> held = new HashSet<>();
+    when(memcache.get("MATCHES/7/user")).thenAnswer(invocation -> entries.get("MATCHES/7/user"));
+    when(memcache.delete(any()))
+        .thenAnswer(invocation -> entries.remove(invocation.getArgument(0)) != null);
+    doAnswer(invocation -> entries.put(invocation.getArgument(0), invocation.getArgument(1)))
+        .when(memcache)
+        .put(any(), any(), any(Expiration.class));
+    when(memcache.delete(any(), anyLong()))
+        .thenAnswer(
+            invocation -> {
+              held.add(invocation.getArgument(0));
+              return entries.remove(invocation.getArgument(0)) != null;
+            });
+    when(memcache.put(
+            any(), any(), any(Expiration.class), eq(SetPolicy.ADD_ONLY_IF_NOT_PRESENT)))
+        .thenAnswer(
+            invocation -> {
+              final Object key = invocation.getArgument(0);
+              if (held.contains(key) || entries.containsKey(key)) return false;
+              entries.put(key, invocation.getArgument(1));
+              return true;
+            });
+
+    /* A listing is built from Datastore, then the user's requests change before it is cached. */
+    assertNull(listingCache.get(Listing.MATCHES, "user"));
+    listingCache.invalidate(Listing.MATCHES, "user");
+    listingCache.put(Listing.MATCHES, "user", "[\"stale\"]");
+
+    assertNull(listingCache.get(Listing.MATCHES, "user"));
+  }
+}
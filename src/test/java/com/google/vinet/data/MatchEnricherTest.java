@@ -0,0 +1,121 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.data;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class MatchEnricherTest {
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  @Mock
+  DatastoreService datastore;
+
+  private MatchEnricher matchEnricher;
+  private Key ticketKey;
+
+  @BeforeEach
+  public void setUp() {
+    helper.setUp();
+    MockitoAnnotations.openMocks(this);
+    matchEnricher = new MatchEnricher(datastore);
+    ticketKey = KeyFactory.createKey(Isolate.TICKET_TABLE_NAME, 1);
+
+    final Entity isolate = new Entity(RegisteredUser.USER_TABLE_NAME, "isolate");
+    isolate.setProperty("firstname", "Iso");
+    isolate.setProperty("lastname", "Late");
+    final Entity ticket = new Entity(ticketKey);
+    ticket.setProperty("subjects", "[\"shopping\"]");
+    ticket.setProperty("details", "[\"milk\"]");
+
+    final Map<Key, Entity> entities = new HashMap<>();
+    entities.put(isolate.getKey(), isolate);
+    entities.put(ticketKey, ticket);
+    when(datastore.get(any(Iterable.class))).thenReturn(entities);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private Entity createLegacyMatch(String start) {
+    final Entity match = new Entity(MatchingRunner.MATCHING_TABLE_NAME);
+    match.setProperty("isolateId", "isolate");
+    match.setProperty("volunteerId", "volunteer");
+    match.setProperty("date", "2020-08-01");
+    match.setProperty("start", start);
+    match.setProperty("end", start);
+    match.setProperty("ticket", KeyFactory.keyToString(ticketKey));
+    return match;
+  }
+
+  @Test
+  public void testLegacyMatchesAreResolvedWithOneBatchedGet() {
+    final List<Match> matches =
+        matchEnricher.enrich(
+            Arrays.asList(createLegacyMatch("10:00"), createLegacyMatch("11:00")), true);
+
+    verify(datastore, times(1)).get(any(Iterable.class));
+    assertEquals(2, matches.size());
+    assertEquals("Iso", matches.get(1).getFirstName());
+    assertEquals("Late", matches.get(1).getLastName());
+    assertArrayEquals(new String[] {"shopping"}, matches.get(1).getSubjects());
+    assertArrayEquals(new String[] {"milk"}, matches.get(1).getDetails());
+  }
+
+  @Test
+  public void testResolvedEntitiesAreReused() {
+    matchEnricher.enrich(Collections.singletonList(createLegacyMatch("10:00")), true);
+    matchEnricher.enrich(Collections.singletonList(createLegacyMatch("11:00")), true);
+
+    verify(datastore, times(1)).get(any(Iterable.class));
+  }
+
+  @Test
+  public void testDenormalisedMatchesNeedNoReads() {
+    final Entity match = createLegacyMatch("10:00");
+    match.setProperty("isolateFirstName", "Iso");
+    match.setProperty("isolateLastName", "Late");
+
+    final List<Match> matches = matchEnricher.enrich(Collections.singletonList(match), true);
+
+    verify(datastore, never()).get(any(Iterable.class));
+    assertEquals("Iso", matches.get(0).getFirstName());
+  }
+}
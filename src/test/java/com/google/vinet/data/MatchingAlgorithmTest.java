@@ -288,4 +288,29 @@ public class MatchingAlgorithmTest {
 
     assert (MatchingAlgorithm.matchTimeSlots(isolateTimeSlots, volunteerTimeSlots).size() == 2);
   }
+
+  @Test
+  public void testRunRecordsGraphAndPhases() {
+    final LocalDate date = now.atZone(zone).toLocalDate();
+    isolateTimeSlots.add(new IsolateTimeSlot(now, now.plus(1, HOURS), new Isolate("a"), date, null));
+    isolateTimeSlots.add(new IsolateTimeSlot(now.plus(1, HOURS), now.plus(2, HOURS), new Isolate("b"), date, null));
+
+    volunteerTimeSlots.add(new VolunteerTimeSlot(now, now.plus(2, HOURS), new Volunteer("c")));
+    volunteerTimeSlots.add(new VolunteerTimeSlot(now, now.plus(1, HOURS), new Volunteer("d")));
+
+    final MatchingRun run = new MatchingRun(date);
+    MatchingAlgorithm.buildGraph(isolateTimeSlots, volunteerTimeSlots, run);
+    final Set<IsolateTimeSlot> matched = MatchingAlgorithm.findMatching(isolateTimeSlots, run);
+
+    assert (matched.size() == 2);
+    assert (run.getIsolateNodes() == 2);
+    assert (run.getVolunteerNodes() == 2);
+    assert (run.getEdges() == 3);
+    assert (run.getPhases() >= 1);
+    /* Every augmenting path adds one match. */
+    assert (run.getAugmentingPaths() == 2);
+    assert (run.getShortestAugmentingPath() == 1);
+    assert (run.getLongestAugmentingPath() % 2 == 1);
+    assert (run.getPeakHeapBytes() > 0);
+  }
 }
@@ -0,0 +1,183 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class MatchingRunTest {
+  private static final LocalDate DATE = LocalDate.parse("2020-09-30");
+
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  @Mock
+  DatastoreService datastore;
+
+  @Mock
+  PreparedQuery preparedQuery;
+
+  @BeforeEach
+  public void setUp() {
+    helper.setUp();
+    MockitoAnnotations.openMocks(this);
+    when(datastore.prepare(any(Query.class))).thenReturn(preparedQuery);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  /** @return a finished run with every statistic recorded. */
+  private static MatchingRun createRun() {
+    final MatchingRun run = new MatchingRun(DATE);
+    run.recordFetch(1_000_000L);
+    run.recordGraph(4, 3, 6, 2_000_000L);
+    run.recordPhase(1, 2, 3_000_000L, 4_000_000L);
+    run.recordPhase(3, 1, 5_000_000L, 6_000_000L);
+    run.recordFinalSearch(7_000_000L);
+    run.recordMatches(3);
+    run.recordPersist(8_000_000L);
+    run.finish(true);
+    return run;
+  }
+
+  /**
+   * Save a run, and return it as it is read back from the entity it was saved as.
+   *
+   * @param run The run to save.
+   * @return the run read back.
+   */
+  private MatchingRun saveAndRead(MatchingRun run) {
+    run.save(datastore);
+    final ArgumentCaptor<Entity> put = ArgumentCaptor.forClass(Entity.class);
+    verify(datastore).put(put.capture());
+    when(preparedQuery.asIterable(any(FetchOptions.class)))
+        .thenReturn(Collections.singletonList(put.getValue()));
+
+    final List<MatchingRun> runs = MatchingRun.getRecent(1, datastore);
+    assertEquals(1, runs.size());
+    return runs.get(0);
+  }
+
+  @Test
+  public void testRecordedStatistics() {
+    final MatchingRun run = createRun();
+
+    assertEquals(2, run.getPhases());
+    assertEquals(3, run.getAugmentingPaths());
+    assertEquals(1, run.getShortestAugmentingPath());
+    assertEquals(3, run.getLongestAugmentingPath());
+    assertEquals(5.0 / 3, run.getMeanAugmentingPath(), 1e-9);
+    assertEquals(Duration.ofMillis(15), run.getSearchDuration());
+    assertEquals(Duration.ofMillis(10), run.getAugmentDuration());
+    assertEquals(0.75, run.getMatchRate(), 1e-9);
+    assertTrue(run.getPeakHeapBytes() > 0);
+  }
+
+  @Test
+  public void testRunSurvivesARoundTrip() {
+    final MatchingRun run = createRun();
+
+    final MatchingRun read = saveAndRead(run);
+
+    assertEquals(DATE, read.getDate());
+    assertEquals(run.getStarted(), read.getStarted());
+    assertEquals(run.getFinished(), read.getFinished());
+    assertTrue(read.isCompleted());
+    assertFalse(read.isResumed());
+    assertEquals(run.getFetchDuration(), read.getFetchDuration());
+    assertEquals(run.getBuildDuration(), read.getBuildDuration());
+    assertEquals(run.getSearchDuration(), read.getSearchDuration());
+    assertEquals(run.getAugmentDuration(), read.getAugmentDuration());
+    assertEquals(run.getPersistDuration(), read.getPersistDuration());
+    assertEquals(4, read.getIsolateNodes());
+    assertEquals(3, read.getVolunteerNodes());
+    assertEquals(6, read.getEdges());
+    assertEquals(2, read.getPhases());
+    assertEquals(3, read.getAugmentingPaths());
+    assertEquals(run.getMeanAugmentingPath(), read.getMeanAugmentingPath(), 1e-9);
+    assertEquals(1, read.getShortestAugmentingPath());
+    assertEquals(3, read.getLongestAugmentingPath());
+    assertEquals(3, read.getMatchCount());
+    assertEquals(run.getPeakHeapBytes(), read.getPeakHeapBytes());
+  }
+
+  @Test
+  public void testUnfinishedRunSurvivesARoundTrip() {
+    final MatchingRun run = new MatchingRun(DATE);
+    run.recordResumed();
+
+    final MatchingRun read = saveAndRead(run);
+
+    assertNotNull(read.getStarted());
+    assertNull(read.getFinished());
+    assertTrue(read.isResumed());
+    assertFalse(read.isCompleted());
+  }
+
+  @Test
+  public void testOnlyTheStartTimeIsIndexed() {
+    createRun().save(datastore);
+
+    final ArgumentCaptor<Entity> put = ArgumentCaptor.forClass(Entity.class);
+    verify(datastore).put(put.capture());
+    assertEquals(MatchingRun.MATCHING_RUN_TABLE_NAME, put.getValue().getKind());
+    assertFalse(put.getValue().isUnindexedProperty("started"));
+    assertTrue(put.getValue().isUnindexedProperty("date"));
+    assertTrue(put.getValue().isUnindexedProperty("matchCount"));
+  }
+
+  @Test
+  public void testRecentRunsAreListedMostRecentFirst() {
+    MatchingRun.getRecent(5, datastore);
+
+    final ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    verify(datastore).prepare(query.capture());
+    assertEquals(MatchingRun.MATCHING_RUN_TABLE_NAME, query.getValue().getKind());
+    assertEquals(
+        Collections.singletonList(
+            new Query.SortPredicate("started", Query.SortDirection.DESCENDING)),
+        query.getValue().getSortPredicates());
+    final ArgumentCaptor<FetchOptions> options = ArgumentCaptor.forClass(FetchOptions.class);
+    verify(preparedQuery).asIterable(options.capture());
+    assertEquals(Integer.valueOf(5), options.getValue().getLimit());
+  }
+}
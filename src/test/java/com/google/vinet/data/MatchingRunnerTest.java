@@ -0,0 +1,220 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.data;
+
+import static java.time.temporal.ChronoUnit.HOURS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class MatchingRunnerTest {
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig().setDefaultHighRepJobPolicyUnappliedJobPercentage(0));
+
+  private DatastoreService datastore;
+  private LocalDate tomorrow;
+  private Instant start;
+
+  @BeforeEach
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    tomorrow = LocalDate.now().plusDays(1);
+    start = tomorrow.atTime(12, 0).toInstant(ZoneOffset.UTC);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  /**
+   * Run the matching for tomorrow with one IsolateTimeSlot per ticket id provided, and a single
+   * Volunteer available for each of them.
+   */
+  private void runMatching(long... ticketIds) {
+    final Set<IsolateTimeSlot> isolateTimeSlots = new HashSet<>();
+    final Set<VolunteerTimeSlot> volunteerTimeSlots = new HashSet<>();
+
+    for (long ticketId : ticketIds) {
+      final Key ticket = KeyFactory.createKey(Isolate.TICKET_TABLE_NAME, ticketId);
+      isolateTimeSlots.add(
+          new IsolateTimeSlot(
+              start, start.plus(1, HOURS), new Isolate("isolate" + ticketId), tomorrow, ticket));
+      volunteerTimeSlots.add(
+          new VolunteerTimeSlot(
+              start, start.plus(1, HOURS), new Volunteer("volunteer" + ticketId)));
+    }
+
+    final MatchingRunner runner = new MatchingRunner(datastore);
+    runner.setIsolateTimeSlots(isolateTimeSlots);
+    runner.setVolunteerTimeSlots(volunteerTimeSlots);
+    runner.run(false);
+  }
+
+  private List<Entity> getStoredMatches() {
+    return datastore
+        .prepare(new Query(MatchingRunner.MATCHING_TABLE_NAME))
+        .asList(FetchOptions.Builder.withDefaults());
+  }
+
+  @Test
+  public void testRerunDoesNotDuplicateMatches() {
+    runMatching(1, 2);
+    runMatching(1, 2);
+
+    assertEquals(2, getStoredMatches().size());
+  }
+
+  @Test
+  public void testMatchKeysAreDeterministic() {
+    runMatching(1);
+    final Key firstKey = getStoredMatches().get(0).getKey();
+
+    runMatching(1);
+    final Key secondKey = getStoredMatches().get(0).getKey();
+
+    assertEquals(firstKey, secondKey);
+  }
+
+  @Test
+  public void testRemovedMatchesAreDeleted() {
+    runMatching(1, 2);
+    runMatching(2);
+
+    final List<Entity> storedMatches = getStoredMatches();
+    assertEquals(1, storedMatches.size());
+    assertEquals(
+        KeyFactory.keyToString(KeyFactory.createKey(Isolate.TICKET_TABLE_NAME, 2)),
+        storedMatches.get(0).getProperty("ticket"));
+  }
+
+  @Test
+  public void testRunResumesUnfinishedJob() {
+    /* Leave tomorrow's job in its PERSIST phase, as if a run had failed before writing. */
+    final Entity plannedMatch = new Entity(MatchingRunner.MATCHING_TABLE_NAME, "planned");
+    plannedMatch.setProperty("date", tomorrow.toString());
+    final MatchingJob job = MatchingJob.start(tomorrow, datastore);
+    job.plan(Collections.singletonList(plannedMatch), Collections.emptyList(), datastore);
+
+    /* The resumed run should apply the planned writes rather than finding a new matching. */
+    runMatching();
+
+    final List<Entity> storedMatches = getStoredMatches();
+    assertEquals(1, storedMatches.size());
+    assertEquals(plannedMatch.getKey(), storedMatches.get(0).getKey());
+    assertTrue(MatchingJob.load(tomorrow, datastore).isDone());
+  }
+
+  /** Store the UserInfo entity of a user. */
+  private void storeUserInfo(RegisteredUser user, String firstName, String lastName) {
+    final Entity userInfo = new Entity(user.getUserInfoKey());
+    userInfo.setProperty("userId", user.getUserId());
+    userInfo.setProperty("firstname", firstName);
+    userInfo.setProperty("lastname", lastName);
+    datastore.put(userInfo);
+  }
+
+  /** @return the stored match whose ticket has the provided id. */
+  private Entity getStoredMatch(long ticketId) {
+    final String ticket =
+        KeyFactory.keyToString(KeyFactory.createKey(Isolate.TICKET_TABLE_NAME, ticketId));
+    for (Entity match : getStoredMatches()) {
+      if (ticket.equals(match.getProperty("ticket"))) return match;
+    }
+    throw new AssertionError("no match stored for ticket " + ticketId);
+  }
+
+  @Test
+  public void testMatchesStoreNamesAndTicketContents() {
+    storeUserInfo(new Isolate("isolate1"), "Ada", "Lovelace");
+    storeUserInfo(new Volunteer("volunteer1"), "Alan", "Turing");
+    final Entity ticket = new Entity(KeyFactory.createKey(Isolate.TICKET_TABLE_NAME, 1));
+    Ticket.setContents(ticket, Arrays.asList("groceries"), Arrays.asList("milk and eggs"));
+    datastore.put(ticket);
+
+    /* The users and ticket of the second match are never stored. */
+    runMatching(1, 2);
+
+    final Entity match = getStoredMatch(1);
+    assertEquals("Ada", match.getProperty("isolateFirstName"));
+    assertEquals("Lovelace", match.getProperty("isolateLastName"));
+    assertEquals("Alan", match.getProperty("volunteerFirstName"));
+    assertEquals("Turing", match.getProperty("volunteerLastName"));
+    assertEquals(Collections.singletonList(new Text("groceries")), match.getProperty("subjects"));
+    assertEquals(
+        Collections.singletonList(new Text("milk and eggs")), match.getProperty("details"));
+
+    final Entity blankMatch = getStoredMatch(2);
+    assertEquals("isolate2", blankMatch.getProperty("isolateId"));
+    assertNull(blankMatch.getProperty("isolateFirstName"));
+    assertNull(blankMatch.getProperty("volunteerLastName"));
+    assertNull(blankMatch.getProperty("subjects"));
+    assertNull(blankMatch.getProperty("details"));
+  }
+
+  @Test
+  public void testMatchEntityLeavesMissingUsersAndTicketBlank() {
+    final Key ticketKey = KeyFactory.createKey(Isolate.TICKET_TABLE_NAME, 3);
+    final IsolateTimeSlot matching =
+        new IsolateTimeSlot(start, start.plus(1, HOURS), new Isolate("isolate"), tomorrow, ticketKey);
+    final VolunteerTimeSlot volunteerTimeSlot =
+        new VolunteerTimeSlot(start, start.plus(1, HOURS), new Volunteer("volunteer"));
+    MatchingAlgorithm.matchTimeSlots(
+        new HashSet<>(Collections.singleton(matching)),
+        new HashSet<>(Collections.singleton(volunteerTimeSlot)));
+    final Entity volunteerInfo = new Entity(new Volunteer("volunteer").getUserInfoKey());
+    volunteerInfo.setProperty("firstname", "Alan");
+
+    final Entity match =
+        MatchingRunner.createMatchEntity(
+            matching,
+            Collections.singletonMap(volunteerInfo.getKey(), volunteerInfo));
+
+    assertEquals(MatchingRunner.createMatchKey(matching), match.getKey());
+    assertEquals("volunteer", match.getProperty("volunteerId"));
+    assertEquals("Alan", match.getProperty("volunteerFirstName"));
+    assertNull(match.getProperty("volunteerLastName"));
+    assertNull(match.getProperty("isolateFirstName"));
+    assertNull(match.getProperty("subjects"));
+    assertTrue(match.hasProperty("details"));
+    assertTrue(match.isUnindexedProperty("details"));
+  }
+}
@@ -0,0 +1,335 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class RetentionJobTest {
+  private static final LocalDate TODAY = LocalDate.parse("2020-09-30");
+
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  @Mock
+  DatastoreService datastore;
+
+  @Mock
+  PreparedQuery preparedQuery;
+
+  private RetentionJob job;
+
+  @BeforeEach
+  public void setUp() {
+    helper.setUp();
+    MockitoAnnotations.openMocks(this);
+    when(datastore.prepare(any(Query.class))).thenReturn(preparedQuery);
+    job = new RetentionJob(datastore, RetentionPolicy.fromVariables(name -> null));
+  }
+
+  @AfterEach
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void returnEntities(Entity... entities) {
+    final Iterator<Entity> iterator = Arrays.asList(entities).iterator();
+    final QueryResultIterator<Entity> results = mock(QueryResultIterator.class);
+    when(results.hasNext()).thenAnswer(invocation -> iterator.hasNext());
+    when(results.next()).thenAnswer(invocation -> iterator.next());
+    when(preparedQuery.asQueryResultIterator(any(FetchOptions.class))).thenReturn(results);
+  }
+
+  private static List<String> decompress(Entity archive) throws IOException {
+    final byte[] data = ((Blob) archive.getProperty("data")).getBytes();
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(data)), StandardCharsets.UTF_8))) {
+      return reader.lines().collect(Collectors.toList());
+    }
+  }
+
+  private static Entity createMatch(String name, String date) {
+    final Entity match = new Entity(MatchingRunner.MATCHING_TABLE_NAME, name);
+    match.setProperty("date", date);
+    return match;
+  }
+
+  @Test
+  public void testDefaultPolicy() {
+    final RetentionPolicy policy = RetentionPolicy.fromVariables(name -> null);
+
+    assertEquals(
+        LocalDate.parse("2020-08-31"),
+        policy.getCutoff(RetentionJob.Step.VOLUNTEER_TIME_SLOTS, TODAY));
+    assertEquals(TODAY, policy.getCutoff(RetentionJob.Step.MATCHES, TODAY));
+    assertEquals(
+        LocalDate.parse("2020-07-02"), policy.getCutoff(RetentionJob.Step.MATCHING_RUNS, TODAY));
+    assertEquals(
+        LocalDate.parse("2020-09-23"), policy.getCutoff(RetentionJob.Step.MATCHING_JOBS, TODAY));
+  }
+
+  @Test
+  public void testPolicyReadsVariables() {
+    final Map<String, String> variables = new HashMap<>();
+    variables.put("RETENTION_DAYS_MATCHES", "7");
+
+    final RetentionPolicy policy = RetentionPolicy.fromVariables(variables::get);
+
+    assertEquals(7, policy.getRetentionDays(RetentionJob.Step.MATCHES));
+    assertEquals(30, policy.getRetentionDays(RetentionJob.Step.ISOLATE_TIME_SLOTS));
+  }
+
+  @Test
+  public void testPolicyRejectsNegativePeriods() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> RetentionPolicy.fromVariables(name -> "-1"));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testExpiredMatchesAreArchivedByDateThenPurged() throws IOException {
+    final Entity first = createMatch("a", "2020-09-28");
+    final Entity second = createMatch("b", "2020-09-28");
+    final Entity third = createMatch("c", "2020-09-29");
+    returnEntities(first, second, third);
+
+    assertNull(job.runBatch(RetentionJob.Step.MATCHES, null, TODAY));
+
+    final ArgumentCaptor<List<Entity>> put = ArgumentCaptor.forClass(List.class);
+    verify(datastore).put(put.capture());
+    verify(datastore).delete(Arrays.asList(first.getKey(), second.getKey(), third.getKey()));
+
+    final List<Entity> archives = put.getValue();
+    assertEquals(2, archives.size());
+    assertEquals(RetentionJob.ARCHIVE_TABLE_NAME, archives.get(0).getKind());
+    assertEquals("2020-09-28", archives.get(0).getProperty("date"));
+    assertEquals("MATCHES", archives.get(0).getProperty("step"));
+
+    final List<String> lines = decompress(archives.get(0));
+    assertEquals(2, lines.size());
+    final JsonObject line = JsonParser.parseString(lines.get(0)).getAsJsonObject();
+    assertEquals(KeyFactory.keyToString(first.getKey()), line.get("key").getAsString());
+    assertEquals(
+        "2020-09-28", line.getAsJsonObject("properties").get("date").getAsString());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testRecordsWhichHaveNotExpiredAreKept() {
+    returnEntities(createMatch("a", "2020-09-30"));
+
+    job.runBatch(RetentionJob.Step.MATCHES, null, TODAY);
+
+    verify(datastore, never()).put(any(Iterable.class));
+    verify(datastore, never()).delete(any(Iterable.class));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testIsolateTimeSlotsArePurgedWithTheirTickets() throws IOException {
+    final Isolate isolate = new Isolate("isolate");
+    final Key ticketKey = KeyFactory.createKey(isolate.getUserInfoKey(), Isolate.TICKET_TABLE_NAME, 7);
+    final Entity ticket = new Entity(ticketKey);
+    ticket.setProperty("subjects", Collections.singletonList("Groceries"));
+    final Entity timeSlot =
+        new Entity(IsolateTimeSlot.createKey(isolate, LocalDate.parse("2020-08-01"), 7));
+    timeSlot.setProperty("isolateId", "isolate");
+    timeSlot.setProperty("ticketKey", KeyFactory.keyToString(ticketKey));
+    timeSlot.setProperty("date", "2020-08-01");
+    returnEntities(timeSlot);
+    when(datastore.get(any(Iterable.class))).thenReturn(Collections.singletonMap(ticketKey, ticket));
+
+    job.runBatch(RetentionJob.Step.ISOLATE_TIME_SLOTS, null, TODAY);
+
+    final ArgumentCaptor<List<Entity>> put = ArgumentCaptor.forClass(List.class);
+    verify(datastore).put(put.capture());
+    verify(datastore).delete(Arrays.asList(ticketKey, timeSlot.getKey()));
+
+    final JsonObject line =
+        JsonParser.parseString(decompress(put.getValue().get(0)).get(0)).getAsJsonObject();
+    assertTrue(line.has("ticket"));
+    assertEquals(
+        "Groceries",
+        line.getAsJsonObject("ticket")
+            .getAsJsonObject("properties")
+            .getAsJsonArray("subjects")
+            .get(0)
+            .getAsString());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testArchivesAreNamedByTheCursorOfTheirBatch() {
+    returnEntities(createMatch("a", "2020-09-28"));
+
+    job.runBatch(RetentionJob.Step.MATCHES, "cursor", TODAY);
+
+    final ArgumentCaptor<List<Entity>> put = ArgumentCaptor.forClass(List.class);
+    verify(datastore).put(put.capture());
+    assertEquals(
+        "MATCHES/2020-09-28/" + RetentionJob.getBatchName("cursor"),
+        put.getValue().get(0).getKey().getName());
+    assertEquals(RetentionJob.getBatchName("cursor"), RetentionJob.getBatchName("cursor"));
+    assertFalse(RetentionJob.getBatchName("cursor").equals(RetentionJob.getBatchName("other")));
+    assertEquals("start", RetentionJob.getBatchName(null));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testRetriedBatchMergesWithItsEarlierArchive() throws IOException {
+    final Entity first = createMatch("a", "2020-09-28");
+    final Entity second = createMatch("b", "2020-09-28");
+    final Entity third = createMatch("c", "2020-09-28");
+    /* The earlier run archived the first two records, then deleted only the first. */
+    final Entity earlier =
+        new Entity(
+            RetentionJob.ARCHIVE_TABLE_NAME,
+            "MATCHES/2020-09-28/" + RetentionJob.getBatchName("cursor"));
+    earlier.setProperty(
+        "data",
+        new Blob(
+            RetentionJob.compress(
+                Arrays.asList(
+                    RetentionJob.toJson(first).toString(),
+                    RetentionJob.toJson(second).toString()))));
+    when(preparedQuery.asIterable()).thenReturn(Collections.singletonList(earlier));
+    returnEntities(second, third);
+
+    job.runBatch(RetentionJob.Step.MATCHES, "cursor", TODAY);
+
+    final ArgumentCaptor<List<Entity>> put = ArgumentCaptor.forClass(List.class);
+    verify(datastore).put(put.capture());
+    assertEquals(1, put.getValue().size());
+    assertEquals(earlier.getKey(), put.getValue().get(0).getKey());
+
+    final List<String> lines = decompress(put.getValue().get(0));
+    assertEquals(3, lines.size());
+    assertEquals(
+        Arrays.asList(
+            KeyFactory.keyToString(first.getKey()),
+            KeyFactory.keyToString(second.getKey()),
+            KeyFactory.keyToString(third.getKey())),
+        lines.stream()
+            .map(line -> JsonParser.parseString(line).getAsJsonObject().get("key").getAsString())
+            .collect(Collectors.toList()));
+    verify(datastore).delete(Arrays.asList(second.getKey(), third.getKey()));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testMatchingRunsExpireByTheirStartTime() {
+    final Entity expired = new Entity(MatchingRun.MATCHING_RUN_TABLE_NAME, 1);
+    expired.setProperty("date", "2020-07-01");
+    expired.setProperty("started", "2020-07-01T20:00:00Z");
+    final Entity kept = new Entity(MatchingRun.MATCHING_RUN_TABLE_NAME, 2);
+    kept.setProperty("date", "2020-07-02");
+    kept.setProperty("started", "2020-07-02T20:00:00Z");
+    returnEntities(expired, kept);
+
+    assertNull(job.runBatch(RetentionJob.Step.MATCHING_RUNS, null, TODAY));
+
+    final ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    verify(datastore, atLeastOnce()).prepare(query.capture());
+    assertEquals(MatchingRun.MATCHING_RUN_TABLE_NAME, query.getAllValues().get(0).getKind());
+    assertEquals(
+        new FilterPredicate("started", FilterOperator.LESS_THAN, "2020-07-02"),
+        query.getAllValues().get(0).getFilter());
+    verify(datastore).delete(Collections.singletonList(expired.getKey()));
+  }
+
+  private static Entity createMatchingJob(String date, MatchingJob.Phase phase) {
+    final Entity matchingJob = new Entity(MatchingJob.createKey(LocalDate.parse(date)));
+    matchingJob.setProperty("date", date);
+    matchingJob.setProperty("phase", phase.name());
+    matchingJob.setProperty("chunkCount", 1L);
+    matchingJob.setProperty("completedChunks", 0L);
+    matchingJob.setProperty("started", date + "T20:00:00Z");
+    matchingJob.setProperty("updated", date + "T20:01:00Z");
+    return matchingJob;
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testFinishedMatchingJobsArePurgedWithTheChunksOfFailedJobs() {
+    final Entity done = createMatchingJob("2020-09-01", MatchingJob.Phase.DONE);
+    final Entity failed = createMatchingJob("2020-09-02", MatchingJob.Phase.FAILED);
+    final Entity unfinished = createMatchingJob("2020-09-03", MatchingJob.Phase.PERSIST);
+    final Entity chunk = new Entity(MatchingJob.MATCHING_JOB_CHUNK_TABLE_NAME, 1, failed.getKey());
+    returnEntities(done, failed, unfinished);
+    when(preparedQuery.asIterable()).thenReturn(Collections.singletonList(chunk));
+
+    assertNull(job.runBatch(RetentionJob.Step.MATCHING_JOBS, null, TODAY));
+
+    final ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    verify(datastore, atLeastOnce()).prepare(query.capture());
+    assertEquals(MatchingJob.MATCHING_JOB_TABLE_NAME, query.getAllValues().get(0).getKind());
+    assertEquals(
+        new FilterPredicate("date", FilterOperator.LESS_THAN, "2020-09-23"),
+        query.getAllValues().get(0).getFilter());
+    assertEquals(failed.getKey(), query.getAllValues().get(1).getAncestor());
+    assertEquals(2, query.getAllValues().size());
+    verify(datastore).delete(Collections.singletonList(chunk.getKey()));
+    verify(datastore).delete(Arrays.asList(done.getKey(), failed.getKey()));
+    verify(datastore, never()).put(any(Iterable.class));
+  }
+}
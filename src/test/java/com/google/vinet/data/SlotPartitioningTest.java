@@ -0,0 +1,109 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilter;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SlotPartitioningTest {
+  private static final String KIND = "Slot";
+  private static final LocalDate DATE = LocalDate.parse("2020-09-17");
+
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  private final Volunteer volunteer = new Volunteer("volunteer");
+
+  @BeforeEach
+  public void setUp() {
+    helper.setUp();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void testUserLayoutKeysSlotsUnderTheirUser() {
+    final Key key = SlotPartitioning.USER.createKey(KIND, volunteer, DATE, "slot");
+
+    assertEquals(volunteer.getUserInfoKey(), key.getParent());
+    assertEquals(
+        volunteer.getUserInfoKey(),
+        SlotPartitioning.USER.queryByUser(KIND, "userId", volunteer).getAncestor());
+  }
+
+  @Test
+  public void testDayLayoutKeysStartWithTheirDate() {
+    final Key key = SlotPartitioning.DAY.createKey(KIND, volunteer, DATE, 7);
+
+    assertNull(key.getParent());
+    assertEquals("2020-09-17/volunteer/7", key.getName());
+  }
+
+  @Test
+  public void testDayLayoutQueriesTheRangeOfKeysOfTheDate() {
+    final List<Query.Filter> bounds =
+        ((CompositeFilter) SlotPartitioning.DAY.queryByDate(KIND, DATE).getFilter()).getSubFilters();
+    final Key lower = (Key) ((FilterPredicate) bounds.get(0)).getValue();
+    final Key upper = (Key) ((FilterPredicate) bounds.get(1)).getValue();
+
+    final Key onDate = SlotPartitioning.DAY.createKey(KIND, volunteer, DATE, "~");
+    final Key nextDate = SlotPartitioning.DAY.createKey(KIND, volunteer, DATE.plusDays(1), "");
+    final Key previousDate = SlotPartitioning.DAY.createKey(KIND, volunteer, DATE.minusDays(1), "~");
+
+    assertTrue(lower.compareTo(onDate) <= 0 && onDate.compareTo(upper) < 0);
+    assertFalse(nextDate.compareTo(upper) < 0);
+    assertFalse(lower.compareTo(previousDate) <= 0);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testDeleteByDateDeletesKeysInBatches() {
+    final DatastoreService datastore = mock(DatastoreService.class);
+    final PreparedQuery query = mock(PreparedQuery.class);
+    final Entity first = new Entity(SlotPartitioning.DAY.createKey(KIND, volunteer, DATE, 1));
+    final Entity second = new Entity(SlotPartitioning.DAY.createKey(KIND, volunteer, DATE, 2));
+    when(datastore.prepare(any(Query.class))).thenReturn(query);
+    when(query.asIterable(any(FetchOptions.class))).thenReturn(Arrays.asList(first, second));
+
+    assertEquals(2, SlotPartitioning.DAY.deleteByDate(KIND, DATE, datastore));
+
+    verify(datastore).delete(Arrays.asList(first.getKey(), second.getKey()));
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.data;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TicketTest {
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  private Entity ticket;
+
+  @BeforeEach
+  public void setUp() {
+    helper.setUp();
+    ticket = new Entity(Isolate.TICKET_TABLE_NAME);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void testContentsAreStoredAsLists() {
+    Ticket.setContents(ticket, Arrays.asList("a", "b"), Arrays.asList("c", "d"));
+
+    assertArrayEquals(new String[] {"a", "b"}, Ticket.getSubjects(ticket));
+    assertArrayEquals(new String[] {"c", "d"}, Ticket.getDetails(ticket));
+    assertFalse(ticket.isUnindexedProperty(Ticket.SUBJECTS_PROPERTY));
+    assertTrue(ticket.isUnindexedProperty(Ticket.DETAILS_PROPERTY));
+  }
+
+  @Test
+  public void testLegacyJsonContentsAreRead() {
+    ticket.setProperty(Ticket.SUBJECTS_PROPERTY, "[\"a\",\"b\"]");
+    ticket.setProperty(Ticket.DETAILS_PROPERTY, "[\"c\",\"d\"]");
+
+    assertArrayEquals(new String[] {"a", "b"}, Ticket.getSubjects(ticket));
+    assertArrayEquals(new String[] {"c", "d"}, Ticket.getDetails(ticket));
+  }
+
+  @Test
+  public void testMissingContentsAreEmpty() {
+    assertArrayEquals(new String[] {}, Ticket.getSubjects(ticket));
+    assertArrayEquals(new String[] {}, Ticket.getDetails(null));
+  }
+
+  @Test
+  public void testLongSubjectIsRejected() {
+    final String subject = String.join("", Collections.nCopies(Ticket.MAX_SUBJECT_LENGTH + 1, "a"));
+
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> Ticket.setContents(
+            ticket, Collections.singletonList(subject), Collections.singletonList("details")));
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+public class VolunteerTimeSlotTest {
+  private static final String USER_ID = "volunteer";
+
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  private DatastoreService datastore;
+  private Transaction transaction;
+  private PreparedQuery storedQuery;
+  private PreparedQuery nonTransactionalQuery;
+  private Volunteer volunteer;
+
+  @BeforeEach
+  public void setUp() {
+    helper.setUp();
+    datastore = mock(DatastoreService.class);
+    transaction = mock(Transaction.class);
+    storedQuery = mock(PreparedQuery.class);
+    nonTransactionalQuery = mock(PreparedQuery.class);
+    when(datastore.beginTransaction()).thenReturn(transaction);
+    when(datastore.prepare(any(Transaction.class), any(Query.class))).thenReturn(storedQuery);
+    when(datastore.prepare(any(Query.class))).thenReturn(nonTransactionalQuery);
+    when(storedQuery.asIterable()).thenReturn(Collections.emptyList());
+    when(nonTransactionalQuery.asIterable()).thenReturn(Collections.emptyList());
+    volunteer = new Volunteer(USER_ID);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private VolunteerTimeSlot slot(String start, String end) {
+    return new VolunteerTimeSlot(Instant.parse(start), Instant.parse(end), volunteer);
+  }
+
+  private static List<Key> keysOf(Iterable<Entity> entities) {
+    return StreamSupport.stream(entities.spliterator(), false)
+        .map(Entity::getKey)
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  public void testKeyIsDerivedFromStartAndEnd() {
+    final VolunteerTimeSlot first = slot("2020-09-17T16:00:00Z", "2020-09-17T17:00:00Z");
+    final VolunteerTimeSlot second = slot("2020-09-17T16:00:00Z", "2020-09-17T17:00:00Z");
+
+    assertEquals(first.getKey(), second.getKey());
+    assertEquals(volunteer.getUserInfoKey(), first.getKey().getParent());
+  }
+
+  @Test
+  public void testCoalesceMergesOverlappingAndTouchingSlots() {
+    final List<VolunteerTimeSlot> coalesced =
+        VolunteerTimeSlot.coalesce(
+            Arrays.asList(
+                slot("2020-09-17T18:00:00Z", "2020-09-17T19:00:00Z"),
+                slot("2020-09-17T16:00:00Z", "2020-09-17T17:00:00Z"),
+                slot("2020-09-17T16:30:00Z", "2020-09-17T16:45:00Z"),
+                slot("2020-09-17T17:00:00Z", "2020-09-17T17:30:00Z"),
+                slot("2020-09-17T18:30:00Z", "2020-09-17T20:00:00Z")));
+
+    assertEquals(
+        Arrays.asList(
+            slot("2020-09-17T16:00:00Z", "2020-09-17T17:30:00Z"),
+            slot("2020-09-17T18:00:00Z", "2020-09-17T20:00:00Z")),
+        coalesced);
+  }
+
+  @Test
+  public void testCoalesceKeepsDisjointSlotsSortedAndDropsEmptySlots() {
+    final List<VolunteerTimeSlot> coalesced =
+        VolunteerTimeSlot.coalesce(
+            Arrays.asList(
+                slot("2020-09-18T09:00:00Z", "2020-09-18T10:00:00Z"),
+                slot("2020-09-17T12:00:00Z", "2020-09-17T12:00:00Z"),
+                slot("2020-09-17T16:00:00Z", "2020-09-17T17:00:00Z")));
+
+    assertEquals(
+        Arrays.asList(
+            slot("2020-09-17T16:00:00Z", "2020-09-17T17:00:00Z"),
+            slot("2020-09-18T09:00:00Z", "2020-09-18T10:00:00Z")),
+        coalesced);
+  }
+
+  @Test
+  public void testCoalesceDoesNotMergeAcrossDates() {
+    final List<VolunteerTimeSlot> coalesced =
+        VolunteerTimeSlot.coalesce(
+            Arrays.asList(
+                slot("2020-09-17T23:00:00Z", "2020-09-18T00:00:00Z"),
+                slot("2020-09-18T00:00:00Z", "2020-09-18T02:00:00Z")));
+
+    assertEquals(
+        Arrays.asList(
+            slot("2020-09-17T23:00:00Z", "2020-09-18T00:00:00Z"),
+            slot("2020-09-18T00:00:00Z", "2020-09-18T02:00:00Z")),
+        coalesced);
+    assertEquals(LocalDate.parse("2020-09-18"), coalesced.get(1).getDate());
+  }
+
+  @Test
+  public void testReplaceRejectsOverlappingSlotOfAnotherVolunteer() {
+    final VolunteerTimeSlot own = slot("2020-09-17T16:00:00Z", "2020-09-17T18:00:00Z");
+    final VolunteerTimeSlot other =
+        new VolunteerTimeSlot(
+            Instant.parse("2020-09-17T16:30:00Z"),
+            Instant.parse("2020-09-17T17:00:00Z"),
+            new Volunteer("other"));
+
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> VolunteerTimeSlot.replaceTimeSlotsByUserId(USER_ID, Arrays.asList(own, other), datastore));
+    verify(datastore, never()).beginTransaction();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testReplaceStoresCoalescedSlots() {
+    VolunteerTimeSlot.replaceTimeSlotsByUserId(
+        USER_ID,
+        Arrays.asList(
+            slot("2020-09-17T16:00:00Z", "2020-09-17T17:00:00Z"),
+            slot("2020-09-17T17:00:00Z", "2020-09-17T18:00:00Z")),
+        datastore);
+
+    final ArgumentCaptor<Iterable<Entity>> put = ArgumentCaptor.forClass(Iterable.class);
+    verify(datastore).put(any(Transaction.class), put.capture());
+    assertEquals(
+        Collections.singletonList(slot("2020-09-17T16:00:00Z", "2020-09-17T18:00:00Z").getKey()),
+        keysOf(put.getValue()));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testReplaceWritesOnlyTheDifference() {
+    final VolunteerTimeSlot kept = slot("2020-09-17T16:00:00Z", "2020-09-17T17:00:00Z");
+    final VolunteerTimeSlot removed = slot("2020-09-17T18:00:00Z", "2020-09-17T19:00:00Z");
+    final VolunteerTimeSlot added = slot("2020-09-18T09:00:00Z", "2020-09-18T10:00:00Z");
+    when(storedQuery.asIterable()).thenReturn(Arrays.asList(kept.toEntity(), removed.toEntity()));
+
+    VolunteerTimeSlot.replaceTimeSlotsByUserId(USER_ID, Arrays.asList(kept, added), datastore);
+
+    final ArgumentCaptor<Iterable<Key>> deleted = ArgumentCaptor.forClass(Iterable.class);
+    final ArgumentCaptor<Iterable<Entity>> put = ArgumentCaptor.forClass(Iterable.class);
+    verify(datastore).delete(any(Transaction.class), deleted.capture());
+    verify(datastore).put(any(Transaction.class), put.capture());
+    verify(transaction).commit();
+    assertEquals(Collections.singletonList(removed.getKey()), deleted.getValue());
+    assertEquals(Collections.singletonList(added.getKey()), keysOf(put.getValue()));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testReplaceWithNoChangesWritesNothing() {
+    final VolunteerTimeSlot kept = slot("2020-09-17T16:00:00Z", "2020-09-17T17:00:00Z");
+    when(storedQuery.asIterable()).thenReturn(Collections.singletonList(kept.toEntity()));
+
+    VolunteerTimeSlot.replaceTimeSlotsByUserId(USER_ID, Collections.singletonList(kept), datastore);
+
+    verify(datastore, never()).delete(any(Transaction.class), any(Iterable.class));
+    verify(datastore, never()).put(any(Transaction.class), any(Iterable.class));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testReplaceOnlyQueriesTheVolunteersEntityGroup() {
+    final VolunteerTimeSlot stored = slot("2020-09-17T16:00:00Z", "2020-09-17T17:00:00Z");
+    when(storedQuery.asIterable()).thenReturn(Collections.singletonList(stored.toEntity()));
+
+    VolunteerTimeSlot.replaceTimeSlotsByUserId(USER_ID, Collections.singletonList(stored), datastore);
+
+    verify(datastore, never()).prepare(any(Query.class));
+    verify(datastore, never()).delete(any(Iterable.class));
+  }
+
+  @Test
+  public void testReplaceRetriesConcurrentModification() {
+    final VolunteerTimeSlot submitted = slot("2020-09-17T16:00:00Z", "2020-09-17T17:00:00Z");
+    doThrow(new ConcurrentModificationException()).doNothing().when(transaction).commit();
+
+    VolunteerTimeSlot.replaceTimeSlotsByUserId(
+        USER_ID, Collections.singletonList(submitted), datastore);
+
+    verify(datastore, times(2)).beginTransaction();
+  }
+
+  @Test
+  public void testReplaceRejectsOtherVolunteersTimeSlots() {
+    final VolunteerTimeSlot other =
+        new VolunteerTimeSlot(
+            Instant.parse("2020-09-17T16:00:00Z"),
+            Instant.parse("2020-09-17T17:00:00Z"),
+            new Volunteer("other"));
+
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            VolunteerTimeSlot.replaceTimeSlotsByUserId(
+                USER_ID, Collections.singletonList(other), datastore));
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.google.vinet.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.vinet.metrics.DatastoreStats.Operation;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class DatastoreStatsFilterTest {
+  @Mock
+  HttpServletRequest request;
+
+  @Mock
+  HttpServletResponse response;
+
+  @Mock
+  FilterChain chain;
+
+  private final PrintStream originalErr = System.err;
+  private ByteArrayOutputStream errors;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    MockitoAnnotations.openMocks(this);
+    when(request.getRequestURI()).thenReturn("/path");
+    errors = new ByteArrayOutputStream();
+    System.setErr(new PrintStream(errors));
+    /* Each request served by the chain makes two calls taking 1 ms each. */
+    doAnswer(
+            invocation -> {
+              DatastoreStats.recordCall(Operation.GET, 1_000_000L, 1, 0);
+              DatastoreStats.recordCall(Operation.GET, 1_000_000L, 1, 0);
+              return null;
+            })
+        .when(chain)
+        .doFilter(request, response);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    System.setErr(originalErr);
+  }
+
+  @Test
+  public void testRequestsBelowTheThresholdsAreNotLogged() throws Exception {
+    new DatastoreStatsFilter(2, Duration.ofMillis(2)).doFilter(request, response, chain);
+
+    assertEquals("", errors.toString());
+    verify(request).setAttribute(eq(DatastoreStatsFilter.SUMMARY_ATTRIBUTE), anyString());
+    verify(response)
+        .setHeader(DatastoreStatsFilter.SUMMARY_HEADER, "get=2 calls/2 entities/0 bytes/2 ms");
+  }
+
+  @Test
+  public void testRequestsWithManyCallsAreLogged() throws Exception {
+    new DatastoreStatsFilter(1, Duration.ofSeconds(1)).doFilter(request, response, chain);
+
+    assertTrue(errors.toString().startsWith("Datastore calls for /path: get=2 calls"));
+  }
+
+  @Test
+  public void testRequestsWithSlowCallsAreLogged() throws Exception {
+    new DatastoreStatsFilter(100, Duration.ofMillis(1)).doFilter(request, response, chain);
+
+    assertTrue(errors.toString().startsWith("Datastore calls for /path: get=2 calls"));
+  }
+
+  @Test
+  public void testSummaryIsNotSentOnceTheResponseIsCommitted() throws Exception {
+    when(response.isCommitted()).thenReturn(true);
+
+    new DatastoreStatsFilter().doFilter(request, response, chain);
+
+    verify(request).setAttribute(eq(DatastoreStatsFilter.SUMMARY_ATTRIBUTE), anyString());
+    verify(response, never()).setHeader(eq(DatastoreStatsFilter.SUMMARY_HEADER), anyString());
+  }
+}
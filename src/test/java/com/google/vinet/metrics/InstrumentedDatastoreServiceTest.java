@@ -0,0 +1,215 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.vinet.metrics.DatastoreStats.Operation;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class InstrumentedDatastoreServiceTest {
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  @Mock
+  DatastoreService delegate;
+
+  @Mock
+  PreparedQuery preparedQuery;
+
+  private DatastoreService datastore;
+  private DatastoreStats stats;
+
+  @BeforeEach
+  public void setUp() {
+    helper.setUp();
+    MockitoAnnotations.openMocks(this);
+    datastore = new InstrumentedDatastoreService(delegate);
+    stats = DatastoreStats.startRequest();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    DatastoreStats.endRequest();
+    helper.tearDown();
+  }
+
+  private static Entity createEntity(String name) {
+    final Entity entity = new Entity("Kind", name);
+    entity.setProperty("value", name);
+    return entity;
+  }
+
+  @Test
+  public void testPutsAreCountedWithTheirEntitiesAndBytes() {
+    final List<Entity> entities = Arrays.asList(createEntity("a"), createEntity("b"));
+
+    datastore.put(entities);
+
+    verify(delegate).put(entities);
+    assertEquals(1, stats.getCalls(Operation.PUT));
+    assertEquals(2, stats.getEntities(Operation.PUT));
+    assertTrue(stats.getBytes(Operation.PUT) > 0);
+    assertEquals(1, stats.getLatency(Operation.PUT).getCount());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testQueriesAreRecordedOnceTheirResultsAreRead() {
+    final Iterator<Entity> iterator =
+        Arrays.asList(createEntity("a"), createEntity("b")).iterator();
+    final QueryResultIterator<Entity> results = mock(QueryResultIterator.class);
+    when(results.hasNext()).thenAnswer(invocation -> iterator.hasNext());
+    when(results.next()).thenAnswer(invocation -> iterator.next());
+    when(preparedQuery.asQueryResultIterator()).thenReturn(results);
+    when(delegate.prepare(any(Query.class))).thenReturn(preparedQuery);
+
+    int count = 0;
+    for (Entity ignored : datastore.prepare(new Query("Kind")).asIterable()) {
+      assertEquals(0, stats.getCalls(Operation.QUERY));
+      count++;
+    }
+
+    assertEquals(2, count);
+    assertEquals(1, stats.getCalls(Operation.QUERY));
+    assertEquals(2, stats.getEntities(Operation.QUERY));
+  }
+
+  @Test
+  public void testFailedQueriesAreRecorded() {
+    final IllegalStateException failure = new IllegalStateException("query failed");
+    when(preparedQuery.asList(any(FetchOptions.class))).thenThrow(failure);
+    when(preparedQuery.asSingleEntity()).thenThrow(failure);
+    when(preparedQuery.countEntities(any(FetchOptions.class))).thenThrow(failure);
+    when(preparedQuery.asQueryResultIterator()).thenThrow(failure);
+    when(preparedQuery.asQueryResultIterator(any(FetchOptions.class))).thenThrow(failure);
+    when(delegate.prepare(any(Query.class))).thenReturn(preparedQuery);
+    final PreparedQuery query = datastore.prepare(new Query("Kind"));
+    final FetchOptions fetchOptions = FetchOptions.Builder.withDefaults();
+
+    assertThrows(IllegalStateException.class, () -> query.asList(fetchOptions));
+    assertThrows(IllegalStateException.class, query::asSingleEntity);
+    assertThrows(IllegalStateException.class, () -> query.countEntities(fetchOptions));
+    assertThrows(IllegalStateException.class, query::asQueryResultIterator);
+    assertThrows(IllegalStateException.class, () -> query.asQueryResultIterator(fetchOptions));
+
+    assertEquals(5, stats.getCalls(Operation.QUERY));
+    assertEquals(0, stats.getEntities(Operation.QUERY));
+    assertEquals(5, stats.getLatency(Operation.QUERY).getCount());
+  }
+
+  @Test
+  public void testCallsAreRecordedGlobally() {
+    final long before = DatastoreStats.global().getCalls(Operation.DELETE);
+
+    datastore.delete(createEntity("a").getKey());
+
+    assertEquals(before + 1, DatastoreStats.global().getCalls(Operation.DELETE));
+    assertEquals(1, stats.getEntities(Operation.DELETE));
+  }
+
+  @Test
+  public void testBytesAreSampled() {
+    final List<Entity> entities =
+        Arrays.asList(createEntity("a"), createEntity("b"), createEntity("c"), createEntity("d"));
+
+    new InstrumentedDatastoreService(delegate, Duration.ofSeconds(1), 2).put(entities);
+
+    assertEquals(
+        2 * (InstrumentedDatastoreService.encodedSizeOf(entities.get(0))
+            + InstrumentedDatastoreService.encodedSizeOf(entities.get(2))),
+        stats.getBytes(Operation.PUT));
+  }
+
+  @Test
+  public void testBytesAreNotMeasuredWhenSamplingIsOff() {
+    new InstrumentedDatastoreService(delegate, Duration.ofSeconds(1), 0).put(createEntity("a"));
+
+    assertEquals(1, stats.getEntities(Operation.PUT));
+    assertEquals(0, stats.getBytes(Operation.PUT));
+  }
+
+  @Test
+  public void testHistogramBuckets() {
+    final Histogram histogram = new Histogram();
+
+    histogram.record(500_000L);
+    histogram.record(3_000_000L);
+    histogram.record(60_000_000_000L);
+
+    final long[] counts = histogram.getCounts();
+    assertEquals(1, counts[0]);
+    assertEquals(1, counts[2]);
+    assertEquals(1, counts[counts.length - 1]);
+    assertEquals(3, histogram.getCount());
+  }
+
+  @Test
+  public void testHistogramBucketsLatenciesJustOverABound() {
+    final Histogram histogram = new Histogram();
+
+    histogram.record(1_000_000L);
+    histogram.record(1_000_001L);
+
+    final long[] counts = histogram.getCounts();
+    assertEquals(1, counts[0]);
+    assertEquals(1, counts[1]);
+  }
+
+  @Test
+  public void testHistogramReportsTheMaximumForPercentilesAboveTheLargestBound() {
+    final Histogram histogram = new Histogram();
+
+    histogram.record(3_000_000L);
+    histogram.record(60_000_000_001L);
+
+    assertEquals(5, histogram.getPercentileMillis(0.5));
+    assertEquals(60_001, histogram.getPercentileMillis(0.99));
+    assertEquals(60_001, histogram.getMaxMillis());
+  }
+
+  @Test
+  public void testHistogramPercentilesAreNoLargerThanTheMaximum() {
+    final Histogram histogram = new Histogram();
+
+    histogram.record(3_000_000L);
+    histogram.record(900_000_000L);
+
+    assertEquals(5, histogram.getPercentileMillis(0.5));
+    assertEquals(900, histogram.getPercentileMillis(0.99));
+    assertEquals(900, histogram.getMaxMillis());
+  }
+}
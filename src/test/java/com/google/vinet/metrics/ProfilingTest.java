@@ -0,0 +1,77 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+public class ProfilingTest {
+  @Test
+  public void testSpansAreNotTimedWithoutARecording() {
+    final Profiling.Span span = Profiling.begin(Profiling.Kind.MATCHING, "build");
+
+    assertSame(Profiling.NO_OP_SPAN, span);
+    span.setCount(1).setBytes(2).close();
+  }
+
+  @Test
+  public void testSpansAreRecordedAsEvents() throws Exception {
+    assertTrue(Profiling.isFlightRecorderAvailable());
+
+    final Path file = Files.createTempFile("profiling", ".jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable("com.google.vinet.Matching");
+      recording.enable("com.google.vinet.Datastore");
+      recording.start();
+
+      try (Profiling.Span span = Profiling.begin(Profiling.Kind.MATCHING, "build")) {
+        span.setCount(3);
+      }
+      try (Profiling.Span span = Profiling.begin(Profiling.Kind.DATASTORE, "PUT")) {
+        span.setCount(1).setBytes(42);
+      }
+
+      recording.stop();
+      recording.dump(file);
+    }
+
+    final List<RecordedEvent> events =
+        RecordingFile.readAllEvents(file).stream()
+            .filter(event -> event.getEventType().getName().startsWith("com.google.vinet."))
+            .collect(Collectors.toList());
+    Files.delete(file);
+
+    assertEquals(2, events.size());
+    final RecordedEvent matching = events.get(0);
+    assertEquals("com.google.vinet.Matching", matching.getEventType().getName());
+    assertEquals("build", matching.getString("name"));
+    assertEquals(3, matching.getLong("count"));
+    final RecordedEvent datastore = events.get(1);
+    assertEquals("com.google.vinet.Datastore", datastore.getEventType().getName());
+    assertEquals("PUT", datastore.getString("name"));
+    assertEquals(42, datastore.getLong("bytes"));
+  }
+}
@@ -0,0 +1,293 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.users.User;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.vinet.data.AvailabilityRule;
+import com.google.vinet.data.Volunteer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AvailabilityRuleServletTest {
+  private static final String USER_ID = "anuserid";
+
+  @Mock DatastoreService datastore;
+
+  @Mock UserService userService;
+
+  @Mock RegistrationServlet registrationServlet;
+
+  @Mock HttpServletRequest request;
+
+  @Mock HttpServletResponse response;
+
+  @Mock User user;
+
+  @Mock PreparedQuery preparedQuery;
+
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  private AvailabilityRuleServlet ruleServlet;
+
+  @BeforeEach
+  public void setUp() {
+    helper.setUp();
+    MockitoAnnotations.openMocks(this);
+    ruleServlet = new AvailabilityRuleServlet(datastore, userService, registrationServlet);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  /** Sets up the mocks to have a logged-in user who is registered as a volunteer. */
+  private void setupVolunteer() {
+    when(userService.isUserLoggedIn()).thenReturn(true);
+    when(userService.getCurrentUser()).thenReturn(user);
+    when(user.getUserId()).thenReturn(USER_ID);
+    when(registrationServlet.isUserRegistered()).thenReturn(true);
+    when(registrationServlet.isUserVolunteer()).thenReturn(true);
+  }
+
+  private static AvailabilityRule createRule(String userId) {
+    return new AvailabilityRule(
+            new Volunteer(userId),
+            DayOfWeek.MONDAY,
+            LocalTime.of(9, 0),
+            LocalTime.of(12, 0),
+            ZoneId.of("Europe/London"),
+            LocalDate.of(2020, 9, 7),
+            null);
+  }
+
+  @Test
+  void testPostNullRequest() {
+    Throwable exception =
+            assertThrows(IllegalArgumentException.class, () -> ruleServlet.doPost(null, response));
+
+    assertEquals("request must not be null", exception.getMessage());
+  }
+
+  @Test
+  void testPostNullResponse() {
+    Throwable exception =
+            assertThrows(IllegalArgumentException.class, () -> ruleServlet.doPost(request, null));
+
+    assertEquals("response must not be null", exception.getMessage());
+  }
+
+  @Test
+  void testPostNotLoggedIn() throws Exception {
+    when(userService.isUserLoggedIn()).thenReturn(false);
+
+    ruleServlet.doPost(request, response);
+
+    verify(response)
+            .sendError(
+                    HttpServletResponse.SC_UNAUTHORIZED,
+                    "user must be logged in to submit availability");
+    verify(datastore, never()).put(any(Entity.class));
+  }
+
+  @Test
+  void testPostAsIsolate() throws Exception {
+    setupVolunteer();
+    when(registrationServlet.isUserVolunteer()).thenReturn(false);
+
+    ruleServlet.doPost(request, response);
+
+    verify(response)
+            .sendError(
+                    HttpServletResponse.SC_UNAUTHORIZED,
+                    "user must be registered as a volunteer to submit availability");
+    verify(datastore, never()).put(any(Entity.class));
+  }
+
+  @Test
+  void testAddRule() throws Exception {
+    setupVolunteer();
+    when(request.getParameter("dayOfWeek")).thenReturn("MONDAY");
+    when(request.getParameter("startTime")).thenReturn("09:00");
+    when(request.getParameter("endTime")).thenReturn("12:00");
+    when(request.getParameter("timezoneId")).thenReturn("Europe/London");
+    when(request.getParameter("validFrom")).thenReturn("2020-09-07");
+
+    ruleServlet.doPost(request, response);
+
+    final ArgumentCaptor<Entity> captor = ArgumentCaptor.forClass(Entity.class);
+    verify(datastore).put(captor.capture());
+    assertEquals(createRule(USER_ID).getKey(), captor.getValue().getKey());
+    assertEquals(USER_ID, captor.getValue().getProperty("userId"));
+    verify(response).sendRedirect("volunteer/availability.jsp");
+  }
+
+  @Test
+  void testAddRuleWithMissingParameter() throws Exception {
+    setupVolunteer();
+    when(request.getParameter("dayOfWeek")).thenReturn("MONDAY");
+    when(request.getParameter("startTime")).thenReturn("09:00");
+    when(request.getParameter("timezoneId")).thenReturn("Europe/London");
+    when(request.getParameter("validFrom")).thenReturn("2020-09-07");
+
+    ruleServlet.doPost(request, response);
+
+    verify(response)
+            .sendError(
+                    HttpServletResponse.SC_BAD_REQUEST, "one or more of the parameters were null");
+    verify(datastore, never()).put(any(Entity.class));
+  }
+
+  @Test
+  void testAddRuleWithInvalidParameter() throws Exception {
+    setupVolunteer();
+    when(request.getParameter("dayOfWeek")).thenReturn("FUNDAY");
+    when(request.getParameter("startTime")).thenReturn("09:00");
+    when(request.getParameter("endTime")).thenReturn("12:00");
+    when(request.getParameter("timezoneId")).thenReturn("Europe/London");
+    when(request.getParameter("validFrom")).thenReturn("2020-09-07");
+
+    ruleServlet.doPost(request, response);
+
+    verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "error parsing rule");
+    verify(datastore, never()).put(any(Entity.class));
+  }
+
+  @Test
+  void testDeleteOwnRule() throws Exception {
+    setupVolunteer();
+    final Key key = createRule(USER_ID).getKey();
+    when(request.getParameter(AvailabilityRuleServlet.DELETE_PARAMETER))
+            .thenReturn(KeyFactory.keyToString(key));
+
+    ruleServlet.doPost(request, response);
+
+    verify(datastore).delete(key);
+    verify(response).sendRedirect("volunteer/availability.jsp");
+  }
+
+  @Test
+  void testDeleteAnotherVolunteersRule() throws Exception {
+    setupVolunteer();
+    final Key key = createRule("anotheruserid").getKey();
+    when(request.getParameter(AvailabilityRuleServlet.DELETE_PARAMETER))
+            .thenReturn(KeyFactory.keyToString(key));
+
+    ruleServlet.doPost(request, response);
+
+    verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "rule key invalid");
+    verify(datastore, never()).delete(any(Key.class));
+  }
+
+  @Test
+  void testDeleteKeyOfAnotherKind() throws Exception {
+    setupVolunteer();
+    final Key key =
+            KeyFactory.createKey(new Volunteer(USER_ID).getUserInfoKey(), "TimeSlot", "slot");
+    when(request.getParameter(AvailabilityRuleServlet.DELETE_PARAMETER))
+            .thenReturn(KeyFactory.keyToString(key));
+
+    ruleServlet.doPost(request, response);
+
+    verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "rule key invalid");
+    verify(datastore, never()).delete(any(Key.class));
+  }
+
+  @Test
+  void testDeleteMalformedKey() throws Exception {
+    setupVolunteer();
+    when(request.getParameter(AvailabilityRuleServlet.DELETE_PARAMETER)).thenReturn("not a key");
+
+    ruleServlet.doPost(request, response);
+
+    verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "rule key invalid");
+    verify(datastore, never()).delete(any(Key.class));
+  }
+
+  @Test
+  void testListRules() throws Exception {
+    setupVolunteer();
+    final AvailabilityRule rule = createRule(USER_ID);
+    when(datastore.prepare(any(Query.class))).thenReturn(preparedQuery);
+    when(preparedQuery.asIterable())
+            .thenReturn(Collections.singletonList(rule.toEntity()));
+    final StringWriter output = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(output));
+
+    ruleServlet.doGet(request, response);
+
+    final ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+    verify(datastore).prepare(captor.capture());
+    assertEquals(new Volunteer(USER_ID).getUserInfoKey(), captor.getValue().getAncestor());
+
+    final JsonArray items =
+            JsonParser.parseString(output.toString()).getAsJsonObject().getAsJsonArray("items");
+    assertEquals(1, items.size());
+    final JsonObject item = items.get(0).getAsJsonObject();
+    assertEquals(KeyFactory.keyToString(rule.getKey()), item.get("key").getAsString());
+    assertEquals("MONDAY", item.get("dayOfWeek").getAsString());
+    assertEquals("09:00", item.get("startTime").getAsString());
+    assertEquals("12:00", item.get("endTime").getAsString());
+    assertEquals("Europe/London", item.get("timezoneId").getAsString());
+    assertEquals("2020-09-07", item.get("validFrom").getAsString());
+    assertFalse(item.has("validUntil"));
+  }
+
+  @Test
+  void testListRulesNotLoggedIn() throws Exception {
+    when(userService.isUserLoggedIn()).thenReturn(false);
+
+    ruleServlet.doGet(request, response);
+
+    verify(response)
+            .sendError(
+                    HttpServletResponse.SC_UNAUTHORIZED, "user must be logged in to get availability");
+    verify(datastore, never()).prepare(any(Query.class));
+  }
+}
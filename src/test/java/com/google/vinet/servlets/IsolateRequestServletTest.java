@@ -0,0 +1,201 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.users.User;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import com.google.vinet.data.Isolate;
+import com.google.vinet.data.IsolateTimeSlot;
+import com.google.vinet.data.ListingCache;
+import com.google.vinet.data.Ticket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class IsolateRequestServletTest {
+  @Mock DatastoreService datastore;
+
+  @Mock UserService userService;
+
+  @Mock RegistrationServlet registrationServlet;
+
+  @Mock ListingCache listingCache;
+
+  @Mock PreparedQuery preparedQuery;
+
+  @Mock HttpServletRequest request;
+
+  @Mock HttpServletResponse response;
+
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  private IsolateRequestServlet isolateRequestServlet;
+  private StringWriter output;
+  /** The tickets stored in the mocked Datastore, keyed by their keys. */
+  private Map<Key, Entity> tickets;
+
+  @BeforeEach
+  @SuppressWarnings("unchecked")
+  public void setUp() throws Exception {
+    helper.setUp();
+    MockitoAnnotations.openMocks(this);
+
+    isolateRequestServlet = new IsolateRequestServlet();
+    isolateRequestServlet.datastore = datastore;
+    isolateRequestServlet.userService = userService;
+    isolateRequestServlet.registrationServlet = registrationServlet;
+    isolateRequestServlet.listingCache = listingCache;
+
+    final User user = mock(User.class);
+    when(user.getUserId()).thenReturn("isolate");
+    when(userService.isUserLoggedIn()).thenReturn(true);
+    when(userService.getCurrentUser()).thenReturn(user);
+    when(registrationServlet.isUserRegistered()).thenReturn(true);
+    when(registrationServlet.isUserIsolate()).thenReturn(true);
+
+    /* A page larger than a batch, so that it takes more than one batch to list. */
+    when(request.getParameter(Pagination.LIMIT_PARAMETER)).thenReturn("200");
+    output = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(output));
+
+    tickets = new HashMap<>();
+    when(datastore.prepare(any(Query.class))).thenReturn(preparedQuery);
+    when(datastore.get(any(Iterable.class)))
+        .thenAnswer(
+            invocation -> {
+              final Map<Key, Entity> found = new HashMap<>();
+              for (Key key : (Iterable<Key>) invocation.getArgument(0)) {
+                if (tickets.containsKey(key)) found.put(key, tickets.get(key));
+              }
+              return found;
+            });
+  }
+
+  @AfterEach
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  /**
+   * Return the provided number of requests from the query, storing the ticket of each unless it is
+   * to be left missing.
+   */
+  @SuppressWarnings("unchecked")
+  private void returnRequests(int count, boolean storeTickets) {
+    final Key isolateKey = new Isolate("isolate").getUserInfoKey();
+    final List<Entity> timeSlots = new ArrayList<>();
+    for (int i = 1; i <= count; i++) {
+      final Key ticketKey = KeyFactory.createKey(isolateKey, Isolate.TICKET_TABLE_NAME, i);
+      final Entity ticket = new Entity(ticketKey);
+      Ticket.setContents(
+          ticket, Collections.singletonList("subject " + i), Collections.singletonList("detail"));
+      if (storeTickets) tickets.put(ticketKey, ticket);
+
+      final Entity timeSlot =
+          new Entity(IsolateTimeSlot.ISOLATE_TIME_SLOT_TABLE_NAME, i, isolateKey);
+      timeSlot.setProperty("date", "2020-09-17");
+      timeSlot.setProperty("startTime", "2020-09-17T12:00:00Z");
+      timeSlot.setProperty("endTime", "2020-09-17T13:00:00Z");
+      timeSlot.setProperty("ticketKey", KeyFactory.keyToString(ticketKey));
+      timeSlots.add(timeSlot);
+    }
+
+    final Iterator<Entity> iterator = timeSlots.iterator();
+    final QueryResultIterator<Entity> results = mock(QueryResultIterator.class);
+    when(results.hasNext()).thenAnswer(invocation -> iterator.hasNext());
+    when(results.next()).thenAnswer(invocation -> iterator.next());
+    when(preparedQuery.asQueryResultIterator(any(FetchOptions.class))).thenReturn(results);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void testGetResolvesTicketsWithOneGetPerBatch() throws Exception {
+    returnRequests(120, true);
+
+    isolateRequestServlet.doGet(request, response);
+
+    /* 120 requests are written as batches of 50, 50 and 20. */
+    final ArgumentCaptor<Iterable<Key>> keys = ArgumentCaptor.forClass(Iterable.class);
+    verify(datastore, times(3)).get(keys.capture());
+    verify(datastore, never()).get(any(Key.class));
+    assertEquals(50, ((List<Key>) keys.getAllValues().get(0)).size());
+    assertEquals(20, ((List<Key>) keys.getAllValues().get(2)).size());
+
+    final JsonArray items =
+        JsonParser.parseString(output.toString()).getAsJsonObject().getAsJsonArray("items");
+    assertEquals(120, items.size());
+    assertEquals(
+        "subject 1",
+        items.get(0).getAsJsonObject().getAsJsonArray("subjects").get(0).getAsString());
+    assertEquals(
+        "subject 120",
+        items.get(119).getAsJsonObject().getAsJsonArray("subjects").get(0).getAsString());
+  }
+
+  @Test
+  void testGetMissingTicketFailsBeforeTheResponseIsCommitted() throws Exception {
+    returnRequests(1, false);
+    when(response.isCommitted()).thenReturn(false);
+
+    assertThrows(RuntimeException.class, () -> isolateRequestServlet.doGet(request, response));
+
+    verify(response).sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+  }
+
+  @Test
+  void testGetMissingTicketAfterTheResponseIsCommitted() throws Exception {
+    returnRequests(1, false);
+    when(response.isCommitted()).thenReturn(true);
+
+    assertThrows(RuntimeException.class, () -> isolateRequestServlet.doGet(request, response));
+
+    verify(response, never()).sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+  }
+}
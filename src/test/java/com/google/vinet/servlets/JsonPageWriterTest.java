@@ -0,0 +1,59 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.servlets;
+
+import com.google.gson.Gson;
+import com.google.vinet.data.Match;
+import com.google.vinet.data.Page;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class JsonPageWriterTest {
+  private final Gson gson = new Gson();
+  private final Match first =
+      new Match("2020-08-01", "10:00", "11:00", "Ada", "Lovelace", new String[] {"a"}, null);
+  private final Match second =
+      new Match("2020-08-02", "12:00", "13:00", "Alan", "Turing", new String[] {}, new String[] {});
+
+  @Test
+  public void testMatchesGsonPage() throws IOException {
+    final StringWriter out = new StringWriter();
+    final JsonPageWriter<Match> pageWriter = new JsonPageWriter<>(out, gson, Match.class, false);
+    pageWriter.write(first);
+    pageWriter.write(second);
+    pageWriter.finish("next");
+
+    assertEquals(gson.toJson(new Page<>(Arrays.asList(first, second), "next")), out.toString());
+    assertNull(pageWriter.getJson());
+  }
+
+  @Test
+  public void testLastPageHasNoCursor() throws IOException {
+    final StringWriter out = new StringWriter();
+    final JsonPageWriter<Match> pageWriter = new JsonPageWriter<>(out, gson, Match.class, true);
+    pageWriter.finish(null);
+
+    assertEquals(gson.toJson(new Page<>(Collections.emptyList(), null)), out.toString());
+    assertEquals(out.toString(), pageWriter.getJson());
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.vinet.data.MatchingRun;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MatchingRunsServletTest {
+  @Mock DatastoreService datastore;
+
+  @Mock PreparedQuery preparedQuery;
+
+  @Mock HttpServletRequest request;
+
+  @Mock HttpServletResponse response;
+
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  private MatchingRunsServlet runsServlet;
+  private StringWriter output;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    helper.setUp();
+    MockitoAnnotations.openMocks(this);
+    runsServlet = new MatchingRunsServlet(datastore);
+    output = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(output));
+    when(datastore.prepare(any(Query.class))).thenReturn(preparedQuery);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  /**
+   * @param started The time at which the run started.
+   * @param finished The time at which the run finished, or null if it has not.
+   * @return an entity as stored by {@link MatchingRun#save}.
+   */
+  private static Entity createRunEntity(String started, String finished) {
+    final Entity entity = new Entity(MatchingRun.MATCHING_RUN_TABLE_NAME);
+    entity.setProperty("date", "2020-09-30");
+    entity.setProperty("started", started);
+    entity.setProperty("finished", finished);
+    entity.setProperty("resumed", false);
+    entity.setProperty("completed", finished != null);
+    entity.setProperty("fetchNanos", 1_000_000L);
+    entity.setProperty("searchNanos", 2_000_000L);
+    entity.setProperty("isolateNodes", 4L);
+    entity.setProperty("volunteerNodes", 3L);
+    entity.setProperty("edges", 6L);
+    entity.setProperty("phases", 2L);
+    entity.setProperty("augmentingPaths", 2L);
+    entity.setProperty("augmentingPathEdges", 4L);
+    entity.setProperty("shortestAugmentingPath", 1L);
+    entity.setProperty("longestAugmentingPath", 3L);
+    entity.setProperty("matchCount", 2L);
+    entity.setProperty("peakHeapBytes", 1024L);
+    return entity;
+  }
+
+  @Test
+  void testGetNullRequest() {
+    assertThrows(IllegalArgumentException.class, () -> runsServlet.doGet(null, response));
+  }
+
+  @Test
+  void testGetNullResponse() {
+    assertThrows(IllegalArgumentException.class, () -> runsServlet.doGet(request, null));
+  }
+
+  @Test
+  void testListsRecentRuns() throws Exception {
+    when(preparedQuery.asIterable(any(FetchOptions.class)))
+        .thenReturn(
+            Arrays.asList(
+                createRunEntity("2020-09-29T20:00:00Z", "2020-09-29T20:00:05Z"),
+                createRunEntity("2020-09-28T20:00:00Z", null)));
+
+    runsServlet.doGet(request, response);
+
+    final ArgumentCaptor<FetchOptions> options = ArgumentCaptor.forClass(FetchOptions.class);
+    verify(preparedQuery).asIterable(options.capture());
+    assertEquals(Integer.valueOf(MatchingRunsServlet.RUN_COUNT), options.getValue().getLimit());
+
+    final JsonArray items =
+        JsonParser.parseString(output.toString()).getAsJsonObject().getAsJsonArray("items");
+    assertEquals(2, items.size());
+
+    final JsonObject finished = items.get(0).getAsJsonObject();
+    assertEquals("2020-09-30", finished.get("date").getAsString());
+    assertEquals("2020-09-29T20:00:00Z", finished.get("started").getAsString());
+    assertTrue(finished.get("completed").getAsBoolean());
+    assertEquals(2, finished.get("matches").getAsLong());
+    assertEquals(0.5, finished.get("matchRate").getAsDouble(), 1e-9);
+    assertEquals(1024, finished.get("peakHeapBytes").getAsLong());
+    final JsonObject timing = finished.getAsJsonObject("timing");
+    assertEquals(1, timing.get("fetchMillis").getAsLong());
+    assertEquals(2, timing.get("searchMillis").getAsLong());
+    assertEquals(5000, timing.get("elapsedMillis").getAsLong());
+    final JsonObject graph = finished.getAsJsonObject("graph");
+    assertEquals(4, graph.get("isolateNodes").getAsLong());
+    assertEquals(6, graph.get("edges").getAsLong());
+    assertEquals(2.0, graph.get("meanAugmentingPath").getAsDouble(), 1e-9);
+
+    final JsonObject unfinished = items.get(1).getAsJsonObject();
+    assertFalse(unfinished.get("completed").getAsBoolean());
+    assertFalse(unfinished.getAsJsonObject("timing").has("elapsedMillis"));
+  }
+
+  @Test
+  void testListsNoRuns() throws Exception {
+    when(preparedQuery.asIterable(any(FetchOptions.class))).thenReturn(Collections.emptyList());
+
+    runsServlet.doGet(request, response);
+
+    verify(response).setContentType("application/json;");
+    assertEquals(
+        0,
+        JsonParser.parseString(output.toString())
+            .getAsJsonObject()
+            .getAsJsonArray("items")
+            .size());
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.vinet.data.MatchingJob;
+import com.google.vinet.data.MatchingRunner;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MatchingServletTest {
+  @Mock DatastoreService datastore;
+
+  @Mock Queue queue;
+
+  @Mock HttpServletRequest request;
+
+  @Mock HttpServletResponse response;
+
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  private MatchingServlet matchingServlet;
+  private StringWriter output;
+  private Key jobKey;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    helper.setUp();
+    MockitoAnnotations.openMocks(this);
+    matchingServlet = new MatchingServlet(datastore, queue);
+    output = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(output));
+    jobKey = MatchingJob.createKey(MatchingRunner.getMatchingDate());
+  }
+
+  @AfterEach
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  /** Create the stored entity of tomorrow's job, in the provided phase. */
+  static Entity createJobEntity(
+      Key jobKey, MatchingJob.Phase phase, Instant updated, String worker) {
+    final Entity entity = new Entity(jobKey);
+    entity.setProperty("date", jobKey.getName());
+    entity.setProperty("phase", phase.name());
+    entity.setProperty("chunkCount", 4L);
+    entity.setProperty("completedChunks", 1L);
+    entity.setProperty("started", updated.minus(Duration.ofMinutes(1)).toString());
+    entity.setProperty("updated", updated.toString());
+    entity.setProperty("worker", worker);
+    return entity;
+  }
+
+  @Test
+  void testPostSubmitsNewJob() throws Exception {
+    when(datastore.get(jobKey)).thenThrow(new EntityNotFoundException(jobKey));
+    final PreparedQuery chunks = mock(PreparedQuery.class);
+    when(chunks.asIterable()).thenReturn(Collections.emptyList());
+    when(datastore.prepare(any(Query.class))).thenReturn(chunks);
+
+    matchingServlet.doPost(request, response);
+
+    final ArgumentCaptor<TaskOptions> task = ArgumentCaptor.forClass(TaskOptions.class);
+    verify(queue).add(task.capture());
+    assertEquals(MatchingWorkerServlet.URL, task.getValue().getUrl());
+    verify(datastore).put(any(Entity.class));
+    verify(response).setStatus(HttpServletResponse.SC_ACCEPTED);
+    final JsonObject json = JsonParser.parseString(output.toString()).getAsJsonObject();
+    assertEquals(KeyFactory.keyToString(jobKey), json.get("jobId").getAsString());
+  }
+
+  @Test
+  void testPostDoesNotResubmitQueuedJob() throws Exception {
+    when(datastore.get(jobKey))
+        .thenReturn(createJobEntity(jobKey, MatchingJob.Phase.QUEUED, Instant.now(), null));
+
+    matchingServlet.doPost(request, response);
+
+    verify(queue, never()).add(any(TaskOptions.class));
+    verify(response).setStatus(HttpServletResponse.SC_ACCEPTED);
+    final JsonObject json = JsonParser.parseString(output.toString()).getAsJsonObject();
+    assertEquals(KeyFactory.keyToString(jobKey), json.get("jobId").getAsString());
+  }
+
+  @Test
+  void testPostDoesNotResubmitRunningJob() throws Exception {
+    when(datastore.get(jobKey))
+        .thenReturn(createJobEntity(jobKey, MatchingJob.Phase.MATCH, Instant.now(), "worker"));
+
+    matchingServlet.doPost(request, response);
+
+    verify(queue, never()).add(any(TaskOptions.class));
+  }
+
+  @Test
+  void testPostResubmitsAbandonedJob() throws Exception {
+    final Instant abandoned = Instant.now().minus(MatchingWorkerServlet.LEASE).minusSeconds(1);
+    when(datastore.get(jobKey))
+        .thenReturn(createJobEntity(jobKey, MatchingJob.Phase.PERSIST, abandoned, "worker"));
+
+    matchingServlet.doPost(request, response);
+
+    verify(queue).add(any(TaskOptions.class));
+  }
+}
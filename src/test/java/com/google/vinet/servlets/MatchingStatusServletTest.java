@@ -0,0 +1,141 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.vinet.data.MatchingJob;
+import com.google.vinet.data.MatchingRunner;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MatchingStatusServletTest {
+  @Mock DatastoreService datastore;
+
+  @Mock HttpServletRequest request;
+
+  @Mock HttpServletResponse response;
+
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  private MatchingStatusServlet statusServlet;
+  private StringWriter output;
+  private Key jobKey;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    helper.setUp();
+    MockitoAnnotations.openMocks(this);
+    statusServlet = new MatchingStatusServlet(datastore);
+    output = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(output));
+    jobKey = MatchingJob.createKey(MatchingRunner.getMatchingDate());
+    when(request.getParameter(MatchingWorkerServlet.JOB_ID_PARAMETER))
+        .thenReturn(KeyFactory.keyToString(jobKey));
+  }
+
+  @AfterEach
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  void testGetNullRequest() {
+    Throwable exception =
+        assertThrows(IllegalArgumentException.class, () -> statusServlet.doGet(null, response));
+
+    assertEquals("request must not be null", exception.getMessage());
+  }
+
+  @Test
+  void testGetMissingJobId() throws Exception {
+    when(request.getParameter(MatchingWorkerServlet.JOB_ID_PARAMETER)).thenReturn(null);
+
+    statusServlet.doGet(request, response);
+
+    verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "jobId parameter missing");
+  }
+
+  @Test
+  void testGetUnknownJob() throws Exception {
+    when(datastore.get(jobKey)).thenThrow(new EntityNotFoundException(jobKey));
+
+    statusServlet.doGet(request, response);
+
+    verify(response).sendError(HttpServletResponse.SC_NOT_FOUND, "job not found");
+  }
+
+  @Test
+  void testGetReportsPhaseAndProgress() throws Exception {
+    when(datastore.get(jobKey))
+        .thenReturn(
+            MatchingServletTest.createJobEntity(
+                jobKey, MatchingJob.Phase.PERSIST, Instant.now(), "worker"));
+
+    statusServlet.doGet(request, response);
+
+    final JsonObject json = JsonParser.parseString(output.toString()).getAsJsonObject();
+    assertEquals(KeyFactory.keyToString(jobKey), json.get("jobId").getAsString());
+    assertEquals("PERSIST", json.get("phase").getAsString());
+    assertFalse(json.get("done").getAsBoolean());
+    final JsonObject progress = json.getAsJsonObject("progress");
+    assertEquals(1, progress.get("completedChunks").getAsLong());
+    assertEquals(4, progress.get("chunkCount").getAsLong());
+    assertEquals(0.25, progress.get("fraction").getAsDouble());
+  }
+
+  @Test
+  void testGetReportsFailure() throws Exception {
+    final Entity entity =
+        MatchingServletTest.createJobEntity(
+            jobKey, MatchingJob.Phase.FAILED, Instant.now(), null);
+    entity.setProperty("failedAttempts", (long) MatchingJob.MAX_ATTEMPTS);
+    entity.setProperty("error", "java.lang.IllegalStateException: deadline passed");
+    when(datastore.get(jobKey)).thenReturn(entity);
+
+    statusServlet.doGet(request, response);
+
+    final JsonObject json = JsonParser.parseString(output.toString()).getAsJsonObject();
+    assertEquals("FAILED", json.get("phase").getAsString());
+    assertFalse(json.get("done").getAsBoolean());
+    assertTrue(json.get("failed").getAsBoolean());
+    assertEquals(MatchingJob.MAX_ATTEMPTS, json.get("failedAttempts").getAsLong());
+    assertEquals(
+        "java.lang.IllegalStateException: deadline passed", json.get("error").getAsString());
+  }
+}
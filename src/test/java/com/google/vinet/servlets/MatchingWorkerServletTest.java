@@ -0,0 +1,266 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.vinet.data.MatchingJob;
+import com.google.vinet.data.MatchingRunner;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ConcurrentModificationException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MatchingWorkerServletTest {
+  @Mock DatastoreService datastore;
+
+  @Mock Queue queue;
+
+  @Mock Transaction transaction;
+
+  @Mock HttpServletRequest request;
+
+  @Mock HttpServletResponse response;
+
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  private MatchingWorkerServlet workerServlet;
+  private Key jobKey;
+
+  @BeforeEach
+  public void setUp() {
+    helper.setUp();
+    MockitoAnnotations.openMocks(this);
+    workerServlet = new MatchingWorkerServlet(datastore, queue);
+    jobKey = MatchingJob.createKey(MatchingRunner.getMatchingDate());
+    when(request.getHeader("X-AppEngine-QueueName")).thenReturn("default");
+    when(request.getParameter(MatchingWorkerServlet.JOB_ID_PARAMETER))
+        .thenReturn(KeyFactory.keyToString(jobKey));
+    when(datastore.beginTransaction()).thenReturn(transaction);
+    when(transaction.isActive()).thenReturn(false);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private void storeJob(MatchingJob.Phase phase, String worker) throws Exception {
+    final Entity entity =
+        MatchingServletTest.createJobEntity(jobKey, phase, Instant.now(), worker);
+    when(datastore.get(jobKey)).thenReturn(entity);
+    when(datastore.get(transaction, jobKey)).thenReturn(entity);
+  }
+
+  @Test
+  void testPostWithoutQueueHeaderIsRejected() throws Exception {
+    when(request.getHeader("X-AppEngine-QueueName")).thenReturn(null);
+
+    workerServlet.doPost(request, response);
+
+    verify(response).sendError(eq(HttpServletResponse.SC_FORBIDDEN), anyString());
+    verify(datastore, never()).beginTransaction();
+  }
+
+  @Test
+  void testPostWithInvalidJobIdIsRejected() throws Exception {
+    when(request.getParameter(MatchingWorkerServlet.JOB_ID_PARAMETER))
+        .thenReturn(KeyFactory.keyToString(KeyFactory.createKey("Ticket", 1)));
+
+    workerServlet.doPost(request, response);
+
+    verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST, "jobId parameter invalid");
+  }
+
+  @Test
+  void testPostDoneJobIsNotRun() throws Exception {
+    storeJob(MatchingJob.Phase.DONE, null);
+
+    workerServlet.doPost(request, response);
+
+    verify(response, never()).sendError(anyInt());
+    verify(datastore, never()).beginTransaction();
+  }
+
+  @Test
+  void testPostFailedJobIsNotRun() throws Exception {
+    storeJob(MatchingJob.Phase.FAILED, null);
+
+    workerServlet.doPost(request, response);
+
+    verify(response, never()).sendError(anyInt());
+    verify(datastore, never()).beginTransaction();
+  }
+
+  @Test
+  void testPostJobHeldByAnotherWorkerIsNotRun() throws Exception {
+    storeJob(MatchingJob.Phase.MATCH, "other worker");
+
+    workerServlet.doPost(request, response);
+
+    verify(response).sendError(eq(HttpServletResponse.SC_CONFLICT), anyString());
+    verify(datastore, never()).put(eq(transaction), any(Entity.class));
+    verify(queue, never()).add(any(TaskOptions.class));
+  }
+
+  @Test
+  void testClaimSetsTheWorkerInATransaction() throws Exception {
+    storeJob(MatchingJob.Phase.QUEUED, null);
+    final MatchingJob job = MatchingJob.load(KeyFactory.keyToString(jobKey), datastore);
+
+    assertTrue(job.claim(MatchingWorkerServlet.LEASE, datastore));
+
+    final ArgumentCaptor<Entity> claimed = ArgumentCaptor.forClass(Entity.class);
+    verify(datastore).put(eq(transaction), claimed.capture());
+    verify(transaction).commit();
+    assertNotNull(claimed.getValue().getProperty("worker"));
+    assertEquals(claimed.getValue().getProperty("worker"), job.getWorker());
+  }
+
+  @Test
+  void testClaimFailsIfAnotherWorkerCommitsFirst() throws Exception {
+    storeJob(MatchingJob.Phase.QUEUED, null);
+    doThrow(new ConcurrentModificationException()).when(transaction).commit();
+    when(transaction.isActive()).thenReturn(true);
+    final MatchingJob job = MatchingJob.load(KeyFactory.keyToString(jobKey), datastore);
+
+    assertFalse(job.claim(MatchingWorkerServlet.LEASE, datastore));
+    verify(transaction).rollback();
+  }
+
+  @Test
+  void testClaimOfAbandonedJobCountsAFailedAttempt() throws Exception {
+    final Entity entity =
+        MatchingServletTest.createJobEntity(
+            jobKey, MatchingJob.Phase.MATCH, Instant.now().minus(Duration.ofHours(1)), "old");
+    when(datastore.get(jobKey)).thenReturn(entity);
+    when(datastore.get(transaction, jobKey)).thenReturn(entity);
+    final MatchingJob job = MatchingJob.load(KeyFactory.keyToString(jobKey), datastore);
+
+    assertTrue(job.claim(MatchingWorkerServlet.LEASE, datastore));
+
+    final ArgumentCaptor<Entity> claimed = ArgumentCaptor.forClass(Entity.class);
+    verify(datastore).put(eq(transaction), claimed.capture());
+    assertEquals(1L, claimed.getValue().getProperty("failedAttempts"));
+    assertEquals(1, job.getFailedAttempts());
+    assertEquals(MatchingJob.Phase.MATCH, job.getPhase());
+  }
+
+  @Test
+  void testPostJobAbandonedTooOftenIsFailed() throws Exception {
+    final Entity entity =
+        MatchingServletTest.createJobEntity(
+            jobKey, MatchingJob.Phase.MATCH, Instant.now().minus(Duration.ofHours(1)), "old");
+    entity.setProperty("failedAttempts", (long) MatchingJob.MAX_ATTEMPTS - 1);
+    when(datastore.get(jobKey)).thenReturn(entity);
+    when(datastore.get(transaction, jobKey)).thenReturn(entity);
+
+    workerServlet.doPost(request, response);
+
+    final ArgumentCaptor<Entity> failed = ArgumentCaptor.forClass(Entity.class);
+    verify(datastore).put(eq(transaction), failed.capture());
+    assertEquals("FAILED", failed.getValue().getProperty("phase"));
+    assertEquals(null, failed.getValue().getProperty("worker"));
+    assertNotNull(failed.getValue().getProperty("finished"));
+    verify(response, never()).sendError(anyInt());
+    verify(response, never()).sendError(anyInt(), anyString());
+    verify(queue, never()).add(any(TaskOptions.class));
+  }
+
+  @Test
+  void testFailOnLastAttemptFailsTheJob() throws Exception {
+    final Entity entity =
+        MatchingServletTest.createJobEntity(jobKey, MatchingJob.Phase.BUILD, Instant.now(), "w");
+    entity.setProperty("failedAttempts", (long) MatchingJob.MAX_ATTEMPTS - 2);
+    when(datastore.get(jobKey)).thenReturn(entity);
+    final MatchingJob job = MatchingJob.load(KeyFactory.keyToString(jobKey), datastore);
+
+    job.fail(new IllegalStateException("first"), datastore);
+    assertEquals(MatchingJob.Phase.BUILD, job.getPhase());
+    assertFalse(job.isRunning(MatchingWorkerServlet.LEASE));
+
+    job.fail(new IllegalStateException("second"), datastore);
+    assertTrue(job.isFailed());
+    assertNotNull(job.getFinished());
+    assertEquals(MatchingJob.MAX_ATTEMPTS, job.getFailedAttempts());
+  }
+
+  @Test
+  void testEnterPhaseRenewsTheLeaseOfTheHolder() throws Exception {
+    final Instant updated = Instant.now().minus(Duration.ofMinutes(5));
+    final Entity entity =
+        MatchingServletTest.createJobEntity(jobKey, MatchingJob.Phase.FETCH, updated, "w");
+    when(datastore.get(jobKey)).thenReturn(entity);
+    when(datastore.get(transaction, jobKey)).thenReturn(entity);
+    final MatchingJob job = MatchingJob.load(KeyFactory.keyToString(jobKey), datastore);
+
+    job.enterPhase(MatchingJob.Phase.BUILD, datastore);
+
+    final ArgumentCaptor<Entity> saved = ArgumentCaptor.forClass(Entity.class);
+    verify(datastore).put(eq(transaction), saved.capture());
+    verify(transaction).commit();
+    assertEquals("BUILD", saved.getValue().getProperty("phase"));
+    assertTrue(job.getUpdated().isAfter(updated));
+  }
+
+  @Test
+  void testEnterPhaseStopsIfAnotherWorkerHoldsTheJob() throws Exception {
+    when(datastore.get(jobKey))
+        .thenReturn(
+            MatchingServletTest.createJobEntity(
+                jobKey, MatchingJob.Phase.FETCH, Instant.now(), "w"));
+    when(datastore.get(transaction, jobKey))
+        .thenReturn(
+            MatchingServletTest.createJobEntity(
+                jobKey, MatchingJob.Phase.FETCH, Instant.now(), "other"));
+    final MatchingJob job = MatchingJob.load(KeyFactory.keyToString(jobKey), datastore);
+
+    assertThrows(
+        IllegalStateException.class,
+        () -> job.enterPhase(MatchingJob.Phase.BUILD, datastore));
+    verify(datastore, never()).put(eq(transaction), any(Entity.class));
+    verify(transaction, never()).commit();
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.servlets;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.vinet.metrics.DatastoreStats;
+import com.google.vinet.metrics.EndpointMetrics;
+import com.google.vinet.metrics.MetricsFilter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MetricsServletTest {
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  @Mock HttpServletRequest request;
+
+  @Mock HttpServletResponse response;
+
+  private EndpointMetrics metrics;
+  private MetricsServlet servlet;
+  private StringWriter output;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    helper.setUp();
+    MockitoAnnotations.openMocks(this);
+    metrics = new EndpointMetrics();
+    servlet = new MetricsServlet(metrics, new DatastoreStats());
+    output = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(output));
+  }
+
+  @AfterEach
+  void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void testFilterRecordsEndpointsAndStatuses() throws IOException, ServletException {
+    final MetricsFilter filter =
+        new MetricsFilter(metrics, Collections.singleton("/match-fetcher"));
+    when(request.getServletPath()).thenReturn("/match-fetcher");
+    when(response.getStatus()).thenReturn(200);
+
+    filter.doFilter(request, response, mock(FilterChain.class));
+
+    final EndpointMetrics.Endpoint endpoint = metrics.getEndpoints().get("/match-fetcher");
+    assertEquals(1, endpoint.getLatency().getCount());
+    assertEquals(Long.valueOf(1), endpoint.getStatusCounts().get(200));
+  }
+
+  @Test
+  public void testFilterRecordsFailuresAndGroupsOtherPaths() throws IOException, ServletException {
+    final MetricsFilter filter = new MetricsFilter(metrics, Collections.emptySet());
+    final FilterChain chain = mock(FilterChain.class);
+    doThrow(new ServletException()).when(chain).doFilter(any(), any());
+    when(request.getServletPath()).thenReturn("/no-such-page");
+
+    assertThrows(ServletException.class, () -> filter.doFilter(request, response, chain));
+
+    final EndpointMetrics.Endpoint endpoint =
+        metrics.getEndpoints().get(EndpointMetrics.OTHER_ENDPOINT);
+    assertEquals(Long.valueOf(1), endpoint.getStatusCounts().get(500));
+  }
+
+  @Test
+  public void testGetJson() throws IOException {
+    for (int i = 0; i < 98; i++) metrics.record("/request", 3_000_000L, 200);
+    metrics.record("/request", 900_000_000L, 500);
+    metrics.record("/request", 900_000_000L, 500);
+
+    servlet.doGet(request, response);
+
+    final JsonObject endpoint =
+        JsonParser.parseString(output.toString())
+            .getAsJsonObject()
+            .getAsJsonObject("endpoints")
+            .getAsJsonObject("/request");
+    assertEquals(100, endpoint.get("count").getAsLong());
+    assertEquals(5, endpoint.get("p50Ms").getAsLong());
+    assertEquals(5, endpoint.get("p95Ms").getAsLong());
+    assertEquals(900, endpoint.get("p99Ms").getAsLong());
+    assertEquals(900, endpoint.get("maxMs").getAsLong());
+    assertEquals(2, endpoint.getAsJsonObject("statuses").get("500").getAsLong());
+  }
+
+  @Test
+  public void testGetPrometheus() throws IOException {
+    metrics.record("/request", 3_000_000L, 200);
+    when(request.getParameter(MetricsServlet.FORMAT_PARAMETER)).thenReturn("prometheus");
+
+    servlet.doGet(request, response);
+
+    final String text = output.toString();
+    assertTrue(text.contains("vinet_http_requests_total{endpoint=\"/request\",status=\"200\"} 1"));
+    assertTrue(
+        text.contains(
+            "vinet_http_request_duration_seconds_bucket{endpoint=\"/request\",le=\"0.005\"} 1"));
+    assertTrue(
+        text.contains("vinet_http_request_duration_seconds_count{endpoint=\"/request\"} 1"));
+  }
+
+  @Test
+  public void testGetReportsUserProfileCacheLookups() throws IOException {
+    final UserProfileCache profileCache = new UserProfileCache(mock(MemcacheService.class));
+    final Entity profile = new Entity(RegistrationServlet.USER_TABLE_NAME, "id");
+    profileCache.get("id", userId -> profile);
+    profileCache.get("id", userId -> profile);
+    servlet = new MetricsServlet(metrics, new DatastoreStats(), profileCache);
+
+    servlet.doGet(request, response);
+
+    final JsonObject userProfiles =
+        JsonParser.parseString(output.toString())
+            .getAsJsonObject()
+            .getAsJsonObject("userProfileCache");
+    assertEquals(1, userProfiles.get("localHits").getAsLong());
+    assertEquals(0, userProfiles.get("memcacheHits").getAsLong());
+    assertEquals(1, userProfiles.get("misses").getAsLong());
+    assertEquals(0.5, userProfiles.get("hitRatio").getAsDouble());
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.servlets;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import javax.servlet.http.HttpServletRequest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+public class PaginationTest {
+  @Mock
+  HttpServletRequest request;
+
+  @BeforeEach
+  void injectDependencies() {
+    MockitoAnnotations.openMocks(this);
+  }
+
+  @Test
+  public void testDefaults() {
+    assertEquals(
+        Pagination.DEFAULT_LIMIT, (int) Pagination.getFetchOptions(request).getLimit());
+    assertNull(Pagination.getFetchOptions(request).getStartCursor());
+    assertTrue(Pagination.isDefaultFirstPage(request));
+  }
+
+  @Test
+  public void testLimit() {
+    when(request.getParameter(Pagination.LIMIT_PARAMETER)).thenReturn("10");
+
+    assertEquals(10, (int) Pagination.getFetchOptions(request).getLimit());
+    assertFalse(Pagination.isDefaultFirstPage(request));
+  }
+
+  @Test
+  public void testLimitTooLarge() {
+    when(request.getParameter(Pagination.LIMIT_PARAMETER))
+        .thenReturn(String.valueOf(Pagination.MAX_LIMIT + 1));
+
+    assertThrows(IllegalArgumentException.class, () -> Pagination.getFetchOptions(request));
+  }
+
+  @Test
+  public void testLimitNotANumber() {
+    when(request.getParameter(Pagination.LIMIT_PARAMETER)).thenReturn("ten");
+
+    assertThrows(IllegalArgumentException.class, () -> Pagination.getFetchOptions(request));
+  }
+}
@@ -18,11 +18,13 @@ package com.google.vinet.servlets;
 
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.memcache.MemcacheService;
 import com.google.appengine.api.users.User;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.vinet.data.RegisteredUser;
 import java.io.*;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
@@ -69,6 +71,7 @@ public class RegistrationServletTest {
   @BeforeEach
   void injectDependencies() {
     MockitoAnnotations.openMocks(this);
+    registrationServlet.setProfileCache(new UserProfileCache(mock(MemcacheService.class)));
   }
 
   @BeforeEach
@@ -407,10 +410,8 @@ public class RegistrationServletTest {
     when(userService.isUserLoggedIn()).thenReturn(true);
     when(userService.getCurrentUser()).thenReturn(user);
 
-    PreparedQuery preparedQuery = mock(PreparedQuery.class);
-    when(preparedQuery.asSingleEntity()).thenReturn(null);
-
-    when(registrationServlet.getUserQuery()).thenReturn(preparedQuery);
+    when(datastore.get(new RegisteredUser(userId).getUserInfoKey()))
+        .thenThrow(new EntityNotFoundException(new RegisteredUser(userId).getUserInfoKey()));
 
     PrintWriter pw = mock(PrintWriter.class);
     when(response.getWriter()).thenReturn(pw);
@@ -431,10 +432,7 @@ public class RegistrationServletTest {
 
     Entity entity = mock(Entity.class);
     when(entity.getProperty("type")).thenReturn("VOLUNTEER");
-    PreparedQuery preparedQuery = mock(PreparedQuery.class);
-    when(preparedQuery.asSingleEntity()).thenReturn(entity);
-
-    when(registrationServlet.getUserQuery()).thenReturn(preparedQuery);
+    when(datastore.get(new RegisteredUser(userId).getUserInfoKey())).thenReturn(entity);
 
     PrintWriter pw = mock(PrintWriter.class);
     when(response.getWriter()).thenReturn(pw);
@@ -455,10 +453,7 @@ public class RegistrationServletTest {
 
     Entity entity = mock(Entity.class);
     when(entity.getProperty("type")).thenReturn("ISOLATE");
-    PreparedQuery preparedQuery = mock(PreparedQuery.class);
-    when(preparedQuery.asSingleEntity()).thenReturn(entity);
-
-    when(registrationServlet.getUserQuery()).thenReturn(preparedQuery);
+    when(datastore.get(new RegisteredUser(userId).getUserInfoKey())).thenReturn(entity);
 
     PrintWriter pw = mock(PrintWriter.class);
     when(response.getWriter()).thenReturn(pw);
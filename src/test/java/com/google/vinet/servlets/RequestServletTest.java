@@ -4,8 +4,14 @@ import com.google.appengine.api.users.User;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyRange;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.vinet.data.Isolate;
+import com.google.vinet.data.Ticket;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -17,9 +23,13 @@ import org.mockito.MockitoAnnotations;
 import javax.servlet.Registration;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.util.Arrays;
+import java.util.Iterator;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.anyString;
@@ -143,6 +153,13 @@ public class RequestServletTest {
     when(request.getParameterValues("subject")).thenReturn(subjects);
     when(request.getParameterValues("details")).thenReturn(details);
 
+    final Key isolateKey = new Isolate("example").getUserInfoKey();
+    final KeyRange ticketKeys = new KeyRange(isolateKey, RequestServlet.TICKET_TABLE_NAME, 1, 1);
+    final Key ticketKey = ticketKeys.getStart();
+    when(datastore.allocateIds(isolateKey, RequestServlet.TICKET_TABLE_NAME, 1)).thenReturn(ticketKeys);
+    final Transaction transaction = mock(Transaction.class);
+    when(datastore.beginTransaction(any(TransactionOptions.class))).thenReturn(transaction);
+
     when(userService.isUserLoggedIn()).thenReturn(true);
     when(userService.getCurrentUser()).thenReturn(user);
 
@@ -154,11 +171,17 @@ public class RequestServletTest {
 
     Entity entity = mock(Entity.class);
 
-    ArgumentCaptor<Entity> ticketCaptor = ArgumentCaptor.forClass(Entity.class);
+    ArgumentCaptor<Iterable<Entity>> entitiesCaptor = ArgumentCaptor.forClass(Iterable.class);
 
-    verify(datastore).put(ticketCaptor.capture());
+    verify(datastore).put(eq(transaction), entitiesCaptor.capture());
+    verify(transaction).commit();
 
-    assertEquals("[\"subject 1\",\"subject 2\",\"subject 3\"]", ticketCaptor.getValue().getProperty("subjects"));
-    assertEquals("[\"detail 1\",\"detail 2\",\"detail 3\"]", ticketCaptor.getValue().getProperty("details"));
+    final Iterator<Entity> entities = entitiesCaptor.getValue().iterator();
+    final Entity ticket = entities.next();
+    assertEquals(ticketKey, ticket.getKey());
+    assertEquals(isolateKey, entities.next().getKey().getParent());
+    assertEquals(Arrays.asList(subjects), ticket.getProperty("subjects"));
+    assertArrayEquals(details, Ticket.getDetails(ticket));
+    assertTrue(ticket.isUnindexedProperty("details"));
   }
 }
\ No newline at end of file
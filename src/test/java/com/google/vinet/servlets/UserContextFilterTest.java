@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.servlets;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.users.User;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class UserContextFilterTest {
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  @Mock
+  UserService userService;
+  @Mock
+  RegistrationServlet registrationServlet;
+  @Mock
+  HttpServletRequest request;
+  @Mock
+  HttpServletResponse response;
+  @Mock
+  FilterChain chain;
+
+  private UserContextFilter filter;
+
+  @BeforeEach
+  public void setUp() {
+    helper.setUp();
+    MockitoAnnotations.openMocks(this);
+    filter = new UserContextFilter(userService, registrationServlet);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private UserContext filterAndCaptureContext() throws IOException, ServletException {
+    filter.doFilter(request, response, chain);
+    verify(chain).doFilter(request, response);
+
+    final ArgumentCaptor<Object> context = ArgumentCaptor.forClass(Object.class);
+    verify(request).setAttribute(eq(UserContext.ATTRIBUTE), context.capture());
+    return (UserContext) context.getValue();
+  }
+
+  @Test
+  public void testRegisteredVolunteer() throws IOException, ServletException {
+    when(userService.isUserLoggedIn()).thenReturn(true);
+    when(userService.getCurrentUser()).thenReturn(new User("email", "domain", "id"));
+    final Entity userEntity = new Entity(RegistrationServlet.USER_TABLE_NAME, "id");
+    userEntity.setProperty("type", "VOLUNTEER");
+    when(registrationServlet.getUserEntity("id")).thenReturn(userEntity);
+
+    final UserContext context = filterAndCaptureContext();
+
+    assertTrue(context.isRegistered());
+    assertTrue(context.isVolunteer());
+    assertFalse(context.isIsolate());
+  }
+
+  @Test
+  public void testUnregisteredUser() throws IOException, ServletException {
+    when(userService.isUserLoggedIn()).thenReturn(true);
+    when(userService.getCurrentUser()).thenReturn(new User("email", "domain", "id"));
+    when(registrationServlet.getUserEntity("id")).thenReturn(null);
+
+    assertFalse(filterAndCaptureContext().isRegistered());
+  }
+
+  @Test
+  public void testUserNotLoggedIn() throws IOException, ServletException {
+    when(userService.isUserLoggedIn()).thenReturn(false);
+
+    filter.doFilter(request, response, chain);
+
+    verify(chain).doFilter(request, response);
+    verify(registrationServlet, never()).getUserEntity(anyString());
+    verify(request, never()).setAttribute(eq(UserContext.ATTRIBUTE), any());
+  }
+}
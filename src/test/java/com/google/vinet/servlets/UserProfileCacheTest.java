@@ -0,0 +1,176 @@
+/*
+ *  Copyright 2020 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      https:www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.google.vinet.servlets;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class UserProfileCacheTest {
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  @Mock
+  MemcacheService memcache;
+
+  private Entity profile;
+  private AtomicInteger loads;
+  private Function<String, Entity> loader;
+
+  @BeforeEach
+  public void setUp() {
+    helper.setUp();
+    MockitoAnnotations.openMocks(this);
+    profile = new Entity(RegistrationServlet.USER_TABLE_NAME, "id");
+    loads = new AtomicInteger();
+    loader = userId -> {
+      loads.incrementAndGet();
+      return profile;
+    };
+  }
+
+  @AfterEach
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private UserProfileCache createCache(int capacity, Clock clock) {
+    return new UserProfileCache(memcache, capacity, Duration.ofMinutes(5), clock);
+  }
+
+  @Test
+  public void testRepeatedLookupsAreServedInProcess() {
+    final UserProfileCache cache = new UserProfileCache(memcache);
+
+    assertSame(profile, cache.get("id", loader));
+    assertSame(profile, cache.get("id", loader));
+
+    assertEquals(1, loads.get());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(1, cache.getLocalHitCount());
+  }
+
+  @Test
+  public void testMemcacheIsCheckedBeforeLoading() {
+    when(memcache.get("id")).thenReturn(profile);
+    final UserProfileCache cache = new UserProfileCache(memcache);
+
+    assertSame(profile, cache.get("id", loader));
+
+    assertEquals(0, loads.get());
+    assertEquals(1, cache.getMemcacheHitCount());
+  }
+
+  @Test
+  public void testExpiredProfilesAreReloaded() {
+    final Instant now = Instant.now();
+    final UserProfileCache cache = createCache(10, Clock.fixed(now, ZoneOffset.UTC));
+    cache.get("id", loader);
+
+    final UserProfileCache laterCache =
+        createCache(10, Clock.fixed(now.plus(Duration.ofMinutes(6)), ZoneOffset.UTC));
+    laterCache.get("id", loader);
+    laterCache.get("id", loader);
+
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedProfileIsEvicted() {
+    final UserProfileCache cache = createCache(1, Clock.systemUTC());
+    cache.get("first", loader);
+    cache.get("second", loader);
+    cache.get("first", loader);
+
+    assertEquals(3, loads.get());
+  }
+
+  @Test
+  public void testUnregisteredUsersAreNotCached() {
+    final UserProfileCache cache = new UserProfileCache(memcache);
+
+    assertNull(cache.get("id", userId -> null));
+    assertSame(profile, cache.get("id", loader));
+  }
+
+  @Test
+  public void testInvalidate() {
+    final UserProfileCache cache = new UserProfileCache(memcache);
+    cache.get("id", loader);
+
+    cache.invalidate("id");
+    cache.get("id", loader);
+
+    assertEquals(2, loads.get());
+    verify(memcache).delete("id", UserProfileCache.INVALIDATION_HOLD.toMillis());
+  }
+
+  @Test
+  public void testProfilesAreOnlyAddedToMemcache() {
+    final UserProfileCache cache = new UserProfileCache(memcache);
+
+    cache.get("id", loader);
+
+    verify(memcache)
+        .put(eq("id"), eq(profile), any(Expiration.class), eq(SetPolicy.ADD_ONLY_IF_NOT_PRESENT));
+  }
+
+  @Test
+  public void testProfileLoadedAcrossAnInvalidationIsNotKept() {
+    final UserProfileCache cache = new UserProfileCache(memcache);
+
+    /* The profile is invalidated after it was read, but before the lookup cached it. */
+    cache.get(
+        "id",
+        userId -> {
+          cache.invalidate(userId);
+          return loader.apply(userId);
+        });
+    cache.get("id", loader);
+
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void testMemcacheFailuresAreIgnored() {
+    when(memcache.get(anyString())).thenThrow(new RuntimeException("memcache unavailable"));
+    final UserProfileCache cache = new UserProfileCache(memcache);
+
+    assertSame(profile, cache.get("id", loader));
+  }
+}